@@ -0,0 +1,60 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.appengine.memcache;
+
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+// [START example]
+@SuppressWarnings("serial")
+// With @WebServlet annotation the webapp/WEB-INF/web.xml is no longer required.
+@WebServlet(name = "MemcacheShardedCounter", description = "Memcache: Sharded counter",
+    urlPatterns = "/memcache/sharded")
+public class MemcacheShardedCounterServlet extends HttpServlet {
+
+  static final String COUNTER_NAME = "count-sharded";
+  // More shards spread the increments of busier counters over more memcache keys.
+  static final int SHARDS = 20;
+
+  static ShardedCounter counter() {
+    return new ShardedCounter(MemcacheServiceFactory.getMemcacheService(),
+        DatastoreServiceFactory.getDatastoreService(), COUNTER_NAME, SHARDS);
+  }
+
+  @Override
+  public void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException,
+      ServletException {
+    String path = req.getRequestURI();
+    if (path.startsWith("/favicon.ico")) {
+      return; // ignore the request for favicon.ico
+    }
+
+    ShardedCounter counter = counter();
+    counter.increment();
+    resp.setContentType("text/plain");
+    resp.getWriter().print("Value is " + counter.get() + "\n");
+  }
+}
+// [END example]
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.appengine.memcache;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+// [START sharded_counter]
+/**
+ * A counter that many requests can increment at once without contending on one memcache key.
+ *
+ * <p>Each increment adds to one of several memcache shards chosen at random, using memcache's
+ * atomic increment, so it never retries. Reading the counter fetches every shard and the durable
+ * total in one batch call.
+ *
+ * <p>Memcache can evict values at any time, so {@link #rollUp} should run periodically to move the
+ * shard counts into a Datastore entity. Only increments made since the last roll-up can be lost.
+ * A roll-up adds to the Datastore total before it takes the amount off the shards, so a roll-up
+ * that fails leaves the shards for the next one to move. While a roll-up runs, reads can briefly
+ * be off by the amount being moved.
+ */
+public class ShardedCounter {
+
+  private static final String KIND = "ShardedCounter";
+  private static final String COUNT_PROPERTY = "count";
+  // The id of the last roll-up added to the count.
+  private static final String ROLL_UP_PROPERTY = "lastRollUp";
+  private static final int ROLL_UP_LOCK_SECONDS = 60;
+
+  private final MemcacheService memcache;
+  private final DatastoreService datastore;
+  private final String name;
+  private final List<String> shardKeys;
+  private final List<String> readKeys;
+  private final String totalKey;
+  private final String lockKey;
+
+  public ShardedCounter(MemcacheService memcache, DatastoreService datastore, String name,
+      int shards) {
+    this.memcache = memcache;
+    this.datastore = datastore;
+    this.name = name;
+    this.shardKeys = new ArrayList<>(shards);
+    for (int i = 0; i < shards; i++) {
+      shardKeys.add(KIND + ":" + name + ":" + i);
+    }
+    this.totalKey = KIND + ":" + name + ":total";
+    this.lockKey = KIND + ":" + name + ":lock";
+    this.readKeys = new ArrayList<>(shardKeys);
+    readKeys.add(totalKey);
+  }
+
+  public void increment() {
+    increment(1);
+  }
+
+  public void increment(long delta) {
+    String shard = shardKeys.get(ThreadLocalRandom.current().nextInt(shardKeys.size()));
+    memcache.increment(shard, delta, 0L);
+  }
+
+  /** Returns the durable total plus the increments not yet rolled up. */
+  public long get() {
+    Map<String, Object> values = memcache.getAll(readKeys);
+    Long total = (Long) values.get(totalKey);
+    long count = total != null ? total : loadTotal();
+    for (String shard : shardKeys) {
+      Long value = (Long) values.get(shard);
+      if (value != null) {
+        count += value;
+      }
+    }
+    return count;
+  }
+
+  /** Returns the increments not yet rolled up into Datastore. */
+  long getUnpersisted() {
+    long count = 0;
+    for (Object value : memcache.getAll(shardKeys).values()) {
+      count += (Long) value;
+    }
+    return count;
+  }
+
+  // Created when needed, since a key can only be made inside an App Engine environment.
+  private Key key() {
+    return KeyFactory.createKey(KIND, name);
+  }
+
+  private long loadTotal() {
+    Entity counter = loadCounter();
+    long total = counter != null ? (Long) counter.getProperty(COUNT_PROPERTY) : 0;
+    // A roll-up that finished meanwhile has already cached a newer total.
+    memcache.put(totalKey, total, null, SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+    return total;
+  }
+
+  /**
+   * Moves the shard counts into Datastore and returns how much was moved. Returns 0 at once if
+   * another roll-up of this counter is already running.
+   */
+  public long rollUp() {
+    if (!memcache.put(lockKey, Boolean.TRUE, Expiration.byDeltaSeconds(ROLL_UP_LOCK_SECONDS),
+        SetPolicy.ADD_ONLY_IF_NOT_PRESENT)) {
+      return 0;
+    }
+    try {
+      Map<String, Long> decrements = new HashMap<>();
+      long delta = 0;
+      for (Map.Entry<String, Object> shard : memcache.getAll(shardKeys).entrySet()) {
+        long value = (Long) shard.getValue();
+        if (value > 0) {
+          decrements.put(shard.getKey(), -value);
+          delta += value;
+        }
+      }
+      if (delta == 0) {
+        return 0;
+      }
+      // Datastore is updated first, so a failed roll-up leaves the shards as they were and the
+      // next one moves them. A commit can fail after it has in fact been applied, so each roll-up
+      // records its id with the total and checks for it before giving up.
+      String rollUpId = UUID.randomUUID().toString();
+      long total;
+      try {
+        total = addToTotal(delta, rollUpId);
+      } catch (RuntimeException e) {
+        Entity counter = loadCounter();
+        if (counter == null || !rollUpId.equals(counter.getProperty(ROLL_UP_PROPERTY))) {
+          throw e;
+        }
+        total = (Long) counter.getProperty(COUNT_PROPERTY);
+      }
+      // Shards only grow while the lock is held, so subtracting what was read never goes below
+      // zero and keeps any increments made since.
+      memcache.incrementAll(decrements);
+      memcache.put(totalKey, total);
+      return delta;
+    } finally {
+      memcache.delete(lockKey);
+    }
+  }
+
+  private Entity loadCounter() {
+    try {
+      return datastore.get(key());
+    } catch (EntityNotFoundException e) {
+      return null;
+    }
+  }
+
+  private long addToTotal(long delta, String rollUpId) {
+    Transaction txn = datastore.beginTransaction();
+    try {
+      Entity counter;
+      try {
+        counter = datastore.get(txn, key());
+      } catch (EntityNotFoundException e) {
+        counter = new Entity(key());
+        counter.setUnindexedProperty(COUNT_PROPERTY, 0L);
+      }
+      long total = (Long) counter.getProperty(COUNT_PROPERTY) + delta;
+      counter.setUnindexedProperty(COUNT_PROPERTY, total);
+      counter.setUnindexedProperty(ROLL_UP_PROPERTY, rollUpId);
+      datastore.put(txn, counter);
+      txn.commit();
+      return total;
+    } finally {
+      if (txn.isActive()) {
+        txn.rollback();
+      }
+    }
+  }
+}
+// [END sharded_counter]
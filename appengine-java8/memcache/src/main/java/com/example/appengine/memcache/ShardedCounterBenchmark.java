@@ -0,0 +1,177 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.appengine.memcache;
+
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.IdentifiableValue;
+
+import java.lang.reflect.Proxy;
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Compares many threads incrementing one key with the compare-and-set loop of
+ * {@link MemcacheConcurrentServlet} against incrementing a {@link ShardedCounter}.
+ *
+ * <p>Both run against an in-process stand-in for memcache that adds a fixed delay to every call,
+ * so no App Engine environment is needed. Reports increments per second, compare-and-set retries,
+ * and increments lost because the loop gave up.
+ */
+public class ShardedCounterBenchmark {
+
+  private static final int THREADS = 32;
+  private static final long CALL_MICROS = 500;
+
+  public static void main(String... args) throws InterruptedException {
+    int incrementsPerThread = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+
+    MemcacheService casCache = localMemcache();
+    LongAdder retries = new LongAdder();
+    LongAdder lost = new LongAdder();
+    double casSeconds = run(incrementsPerThread, () -> {
+      if (!compareAndSetIncrement(casCache, "count-concurrent", retries)) {
+        lost.increment();
+      }
+    });
+    long casValue = new BigInteger((byte[]) casCache.get("count-concurrent")).longValue();
+    report("compare-and-set", incrementsPerThread, casSeconds, retries.sum(), lost.sum(),
+        casValue);
+
+    ShardedCounter counter = new ShardedCounter(localMemcache(), null,
+        MemcacheShardedCounterServlet.COUNTER_NAME, MemcacheShardedCounterServlet.SHARDS);
+    double shardedSeconds = run(incrementsPerThread, counter::increment);
+    report("sharded", incrementsPerThread, shardedSeconds, 0, 0, counter.getUnpersisted());
+  }
+
+  /** The loop of {@link MemcacheConcurrentServlet}, returning false if it gave up. */
+  private static boolean compareAndSetIncrement(MemcacheService cache, String key,
+      LongAdder retries) {
+    for (long delayMs = 1; delayMs < 1000; delayMs *= 2) {
+      IdentifiableValue oldValue = cache.getIdentifiable(key);
+      byte[] newValue = oldValue == null
+          ? BigInteger.valueOf(1).toByteArray()
+          : new BigInteger((byte[]) oldValue.getValue()).add(BigInteger.ONE).toByteArray();
+      if (oldValue == null) {
+        cache.put(key, newValue);
+        return true;
+      } else if (cache.putIfUntouched(key, oldValue, newValue)) {
+        return true;
+      }
+      retries.increment();
+      try {
+        Thread.sleep(delayMs);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+    return false;
+  }
+
+  private static double run(int incrementsPerThread, Runnable increment)
+      throws InterruptedException {
+    Thread[] threads = new Thread[THREADS];
+    long startNanos = System.nanoTime();
+    for (int t = 0; t < THREADS; t++) {
+      threads[t] = new Thread(() -> {
+        for (int i = 0; i < incrementsPerThread; i++) {
+          increment.run();
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    return (System.nanoTime() - startNanos) / 1e9;
+  }
+
+  private static void report(String name, int incrementsPerThread, double seconds, long retries,
+      long lost, long value) {
+    long increments = (long) THREADS * incrementsPerThread;
+    System.out.println(String.format(
+        "%s: %d increments in %.1fs: %.0f/s; %d retries, %d lost, final value %d",
+        name, increments, seconds, increments / seconds, retries, lost, value));
+  }
+
+  /** A value and the identity compare-and-set checks, replaced on every write. */
+  private static class Versioned implements IdentifiableValue {
+    private final Object value;
+
+    Versioned(Object value) {
+      this.value = value;
+    }
+
+    @Override
+    public Object getValue() {
+      return value;
+    }
+  }
+
+  /**
+   * Returns a memcache stand-in supporting the calls made here, each taking {@link #CALL_MICROS}
+   * like a round trip to the real service.
+   */
+  private static MemcacheService localMemcache() {
+    Map<Object, Versioned> store = new HashMap<>();
+    return (MemcacheService) Proxy.newProxyInstance(MemcacheService.class.getClassLoader(),
+        new Class<?>[] {MemcacheService.class}, (proxy, method, args) -> {
+          LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(CALL_MICROS));
+          synchronized (store) {
+            Versioned current = store.get(args[0]);
+            switch (method.getName()) {
+              case "get":
+                return current != null ? current.value : null;
+              case "getIdentifiable":
+                return current;
+              case "put":
+                store.put(args[0], new Versioned(args[1]));
+                return method.getReturnType() == boolean.class ? true : null;
+              case "putIfUntouched":
+                if (current != args[1]) {
+                  return false;
+                }
+                store.put(args[0], new Versioned(args[2]));
+                return true;
+              case "increment":
+                if (current == null && args.length < 3) {
+                  return null;
+                }
+                long next = (current != null ? (Long) current.value : (Long) args[2])
+                    + (Long) args[1];
+                store.put(args[0], new Versioned(next));
+                return next;
+              case "getAll":
+                Map<Object, Object> values = new HashMap<>();
+                for (Object key : (Collection<?>) args[0]) {
+                  if (store.containsKey(key)) {
+                    values.put(key, store.get(key).value);
+                  }
+                }
+                return values;
+              default:
+                throw new UnsupportedOperationException(method.getName());
+            }
+          }
+        });
+  }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.appengine.memcache;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Moves the sharded counter's memcache shards into Datastore. Called every minute by the cron job
+ * in {@code cron.xml}.
+ */
+@SuppressWarnings("serial")
+@WebServlet(name = "ShardedCounterRollUp", description = "Memcache: Sharded counter roll-up",
+    urlPatterns = "/memcache/sharded/rollup")
+public class ShardedCounterRollUpServlet extends HttpServlet {
+
+  @Override
+  public void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException,
+      ServletException {
+    // App Engine removes this header from requests that do not come from cron.
+    if (!"true".equals(req.getHeader("X-Appengine-Cron"))) {
+      resp.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+    long moved = MemcacheShardedCounterServlet.counter().rollUp();
+    resp.setContentType("text/plain");
+    resp.getWriter().print("Rolled up " + moved + "\n");
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.taskqueue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Instance-wide task counters, safe to update from concurrent request threads.
+ */
+public final class TaskThroughput {
+
+  static final TaskThroughput ADDED = new TaskThroughput("added");
+  static final TaskThroughput PROCESSED = new TaskThroughput("processed and deleted");
+
+  private final String label;
+  private final LongAdder tasks = new LongAdder();
+  private final LongAdder calls = new LongAdder();
+  private final LongAdder busyNanos = new LongAdder();
+
+  TaskThroughput(String label) {
+    this.label = label;
+  }
+
+  /**
+   * Records that {@code count} tasks were handled by one request in {@code elapsedNanos}.
+   */
+  void record(int count, long elapsedNanos) {
+    tasks.add(count);
+    calls.increment();
+    busyNanos.add(elapsedNanos);
+  }
+
+  public String getLabel() {
+    return label;
+  }
+
+  public long getTasks() {
+    return tasks.sum();
+  }
+
+  public long getCalls() {
+    return calls.sum();
+  }
+
+  /**
+   * Returns tasks per second over the time requests spent adding or processing tasks.
+   */
+  public double getTasksPerSecond() {
+    long nanos = busyNanos.sum();
+    return nanos == 0 ? 0 : tasks.sum() / (nanos / (double) TimeUnit.SECONDS.toNanos(1));
+  }
+}
@@ -16,13 +16,21 @@
 
 package com.example.taskqueue;
 
+import com.google.appengine.api.ThreadManager;
 import com.google.appengine.api.taskqueue.Queue;
 import com.google.appengine.api.taskqueue.QueueFactory;
 import com.google.appengine.api.taskqueue.TaskHandle;
 import com.google.appengine.api.taskqueue.TaskOptions;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
@@ -45,9 +53,18 @@ public class TaskqueueServlet extends HttpServlet {
   private static final Logger log = Logger.getLogger(TaskqueueServlet.class.getName());
   private static final int numberOfTasksToAdd = 100;
   private static final int numberOfTasksToLease = 100;
-  private static boolean useTaggedTasks = true;
-  private static String output;
-  private static String message;
+  // Task Queue accepts at most 100 tasks in a single add or delete call.
+  static final int maxTasksPerBatch = 100;
+  private static final int processingThreads = 10;
+  private static final boolean useTaggedTasks = true;
+
+  /**
+   * Returns whether to add and delete tasks in batches, which the form asks for unless its
+   * "batch" checkbox is cleared; otherwise every task is added and deleted with its own call.
+   */
+  private static boolean useBatchOperations(HttpServletRequest req) {
+    return req.getParameter("batch") != null;
+  }
 
   // Process the http POST of the form
   @Override
@@ -55,17 +72,18 @@ public class TaskqueueServlet extends HttpServlet {
       throws IOException, ServletException {
     if (req.getParameter("addTask") != null) {
       String content = req.getParameter("content");
-      String output =
-          String.format(
-              "Adding %d Tasks to the Task Queue with a payload of '%s'",
-              numberOfTasksToAdd, content.toString());
-      log.info(output.toString());
+      log.info(String.format(
+          "Adding %d Tasks to the Task Queue with a payload of '%s'",
+          numberOfTasksToAdd, content));
 
       // Add Tasks to Task Queue
       // [START get_queue]
       Queue q = QueueFactory.getQueue("pull-queue");
       // [END get_queue]
-      if (!useTaggedTasks) {
+      long start = System.nanoTime();
+      if (useBatchOperations(req)) {
+        addTasks(q, content, numberOfTasksToAdd, useTaggedTasks);
+      } else if (!useTaggedTasks) {
         for (int i = 0; i < numberOfTasksToAdd; i++) {
           // [START add_task]
           q.add(
@@ -82,8 +100,9 @@ public class TaskqueueServlet extends HttpServlet {
           // [END add_task_w_tag]
         }
       }
+      TaskThroughput.ADDED.record(numberOfTasksToAdd, System.nanoTime() - start);
       try {
-        message = "Added " + numberOfTasksToAdd + " tasks to the task queue.";
+        String message = "Added " + numberOfTasksToAdd + " tasks to the task queue.";
         req.setAttribute("message", message);
         req.getRequestDispatcher("taskqueues-pull.jsp").forward(req, resp);
       } catch (ServletException e) {
@@ -91,16 +110,16 @@ public class TaskqueueServlet extends HttpServlet {
       }
     } else {
       if (req.getParameter("leaseTask") != null) {
-        output = String.format("Pulling %d Tasks from the Task Queue", numberOfTasksToLease);
-        log.info(output.toString());
+        log.info(String.format("Pulling %d Tasks from the Task Queue", numberOfTasksToLease));
 
         // Pull tasks from the Task Queue and process them
         Queue q = QueueFactory.getQueue("pull-queue");
+        String message;
         if (!useTaggedTasks) {
           // [START lease_tasks]
           List<TaskHandle> tasks = q.leaseTasks(3600, TimeUnit.SECONDS, numberOfTasksToLease);
           // [END lease_tasks]
-          message = processTasks(tasks, q);
+          message = processTasks(tasks, q, useBatchOperations(req));
         } else {
           // [START lease_tasks_by_tag]
           // Lease only tasks tagged with "process"
@@ -108,7 +127,7 @@ public class TaskqueueServlet extends HttpServlet {
               q.leaseTasksByTag(3600, TimeUnit.SECONDS, numberOfTasksToLease, "process");
           // You can also specify a tag to lease via LeaseOptions passed to leaseTasks.
           // [END lease_tasks_by_tag]
-          message = processTasks(tasks, q);
+          message = processTasks(tasks, q, useBatchOperations(req));
         }
         req.setAttribute("message", message);
         req.getRequestDispatcher("taskqueues-pull.jsp").forward(req, resp);
@@ -118,30 +137,107 @@ public class TaskqueueServlet extends HttpServlet {
     }
   }
 
+  // [START add_tasks_batch]
+  /**
+   * Adds {@code count} pull tasks, sending them in batches rather than one RPC per task.
+   */
+  static void addTasks(Queue q, String content, int count, boolean tagged) {
+    List<TaskOptions> batch = new ArrayList<>(Math.min(count, maxTasksPerBatch));
+    for (int i = 0; i < count; i++) {
+      TaskOptions task = TaskOptions.Builder.withMethod(TaskOptions.Method.PULL).payload(content);
+      if (tagged) {
+        task.tag("process".getBytes());
+      }
+      batch.add(task);
+      if (batch.size() == maxTasksPerBatch) {
+        q.add(batch);
+        batch = new ArrayList<>(maxTasksPerBatch);
+      }
+    }
+    if (!batch.isEmpty()) {
+      q.add(batch);
+    }
+  }
+  // [END add_tasks_batch]
+
   //Method to process and delete tasks
-  private static String processTasks(List<TaskHandle> tasks, Queue q) {
-    String payload;
-    int numberOfDeletedTasks = 0;
-    for (TaskHandle task : tasks) {
-      payload = new String(task.getPayload());
-      output =
-          String.format(
-              "Processing: taskName='%s'  payload='%s'",
-              task.getName().toString(), payload.toString());
-      log.info(output.toString());
-      output = String.format("Deleting taskName='%s'", task.getName().toString());
-      log.info(output.toString());
-      // [START delete_task]
-      q.deleteTask(task);
-      // [END delete_task]
-      numberOfDeletedTasks++;
+  private static String processTasks(List<TaskHandle> tasks, Queue q, boolean batch) {
+    if (tasks.isEmpty()) {
+      return "Task Queue has no tasks available for lease.";
     }
-    if (numberOfDeletedTasks > 0) {
-      message =
-          "Processed and deleted " + numberOfTasksToLease + " tasks from the " + " task queue.";
+    long start = System.nanoTime();
+    int numberOfDeletedTasks;
+    if (batch) {
+      // Threads created by App Engine's request thread factory may not outlive the request, so the
+      // pool is created and torn down within it.
+      ExecutorService executor = Executors.newFixedThreadPool(
+          processingThreads, ThreadManager.currentRequestThreadFactory());
+      try {
+        numberOfDeletedTasks = processTasksInParallel(tasks, q, executor);
+      } finally {
+        executor.shutdownNow();
+      }
     } else {
-      message = "Task Queue has no tasks available for lease.";
+      numberOfDeletedTasks = 0;
+      for (TaskHandle task : tasks) {
+        processTask(task);
+        log.info(String.format("Deleting taskName='%s'", task.getName()));
+        // [START delete_task]
+        q.deleteTask(task);
+        // [END delete_task]
+        numberOfDeletedTasks++;
+      }
+    }
+    TaskThroughput.PROCESSED.record(numberOfDeletedTasks, System.nanoTime() - start);
+    return "Processed and deleted " + numberOfDeletedTasks + " tasks from the task queue.";
+  }
+
+  /**
+   * Processes the payloads of leased tasks concurrently on {@code executor}, then deletes the tasks
+   * that were processed successfully in batches. Tasks that failed keep their lease and become
+   * available again once it expires.
+   *
+   * @return the number of tasks deleted.
+   */
+  static int processTasksInParallel(List<TaskHandle> tasks, Queue q, ExecutorService executor) {
+    List<Future<TaskHandle>> results = new ArrayList<>(tasks.size());
+    for (TaskHandle task : tasks) {
+      results.add(executor.submit((Callable<TaskHandle>) () -> {
+        processTask(task);
+        return task;
+      }));
+    }
+
+    List<TaskHandle> processed = new ArrayList<>(tasks.size());
+    for (Future<TaskHandle> result : results) {
+      try {
+        processed.add(result.get());
+      } catch (ExecutionException e) {
+        log.log(Level.WARNING, "Processing task failed", e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
     }
-    return message;
+
+    int numberOfDeletedTasks = 0;
+    for (int i = 0; i < processed.size(); i += maxTasksPerBatch) {
+      List<TaskHandle> batch =
+          processed.subList(i, Math.min(i + maxTasksPerBatch, processed.size()));
+      // [START delete_tasks_batch]
+      List<Boolean> deleted = q.deleteTask(batch);
+      // [END delete_tasks_batch]
+      for (Boolean ok : deleted) {
+        if (ok) {
+          numberOfDeletedTasks++;
+        }
+      }
+    }
+    return numberOfDeletedTasks;
+  }
+
+  private static void processTask(TaskHandle task) {
+    String payload = new String(task.getPayload());
+    log.info(String.format("Processing: taskName='%s'  payload='%s'", task.getName(), payload));
   }
 }
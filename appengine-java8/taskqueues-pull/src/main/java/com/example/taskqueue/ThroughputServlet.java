@@ -0,0 +1,50 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.taskqueue;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Shows how many tasks this instance has added and processed, and at what rate.
+ */
+@WebServlet(
+    name = "TaskThroughput",
+    description = "TaskQueues: Show task throughput of this instance",
+    urlPatterns = "/taskqueues/throughput"
+)
+public class ThroughputServlet extends HttpServlet {
+
+  @Override
+  public void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+    resp.setContentType("text/html;charset=UTF-8");
+    PrintWriter out = resp.getWriter();
+    out.println("<html><body><table>");
+    out.println("<tr><th>Tasks</th><th>Count</th><th>Requests</th><th>Tasks per second</th></tr>");
+    for (TaskThroughput counter
+        : new TaskThroughput[] {TaskThroughput.ADDED, TaskThroughput.PROCESSED}) {
+      out.println(String.format("<tr><td>%s</td><td>%d</td><td>%d</td><td>%.1f</td></tr>",
+          counter.getLabel(), counter.getTasks(), counter.getCalls(),
+          counter.getTasksPerSecond()));
+    }
+    out.println("</table><br><a href=\"/\">Back</a></body></html>");
+  }
+}
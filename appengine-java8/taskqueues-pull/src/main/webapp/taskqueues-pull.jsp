@@ -29,16 +29,20 @@
 <form action="/taskqueues/queue" method="post">
     <div>
         <textarea name="content" placeholder="Enter a task payload" rows="3" cols="60"></textarea></div>
+    <div><label><input type="checkbox" name="batch" checked/> Use batch operations</label></div>
     <div><input type="submit" name="addTask" value="Add Tasks to the Task Queue"/></div>
 </form>
 <br>
 <form action="/taskqueues/queue" method="post">
+    <div><label><input type="checkbox" name="batch" checked/> Use batch operations</label></div>
     <div><input type="submit" name="leaseTask" value="Lease, Process, and Delete Tasks"/></div>
 </form>
 <br>
 <div>
   ${message}
   <br><br>
+  <a href="/taskqueues/throughput">View task throughput of this instance</a>
+  <br><br>
   <a href="https://console.cloud.google.com/appengine/taskqueues" target="_blank">
     View task queues in the Developers Console</a>
   <br><br>
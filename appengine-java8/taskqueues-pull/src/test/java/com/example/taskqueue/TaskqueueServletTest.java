@@ -0,0 +1,94 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.taskqueue;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskHandle;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for the batched paths of {@link TaskqueueServlet}.
+ */
+@RunWith(JUnit4.class)
+public class TaskqueueServletTest {
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalTaskQueueTestConfig()
+          .setQueueXmlPath("src/main/webapp/WEB-INF/queue.xml"));
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    executor = Executors.newFixedThreadPool(4);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+    helper.tearDown();
+  }
+
+  @Test
+  public void addTasks_addsEveryTaskAcrossBatches() {
+    Queue q = QueueFactory.getQueue("pull-queue");
+
+    TaskqueueServlet.addTasks(q, "payload", 250, true);
+
+    List<TaskHandle> leased = q.leaseTasksByTag(60, TimeUnit.SECONDS, 1000, "process");
+    assertThat(leased).hasSize(250);
+    assertThat(new String(leased.get(0).getPayload())).isEqualTo("payload");
+  }
+
+  @Test
+  public void processTasksInParallel_deletesProcessedTasks() {
+    Queue q = QueueFactory.getQueue("pull-queue");
+    TaskqueueServlet.addTasks(q, "payload", 150, false);
+    List<TaskHandle> leased = q.leaseTasks(60, TimeUnit.SECONDS, 1000);
+
+    int deleted = TaskqueueServlet.processTasksInParallel(leased, q, executor);
+
+    assertThat(deleted).isEqualTo(150);
+    assertThat(LocalTaskQueueTestConfig.getLocalTaskQueue().getQueueStateInfo()
+        .get("pull-queue").getCountTasks()).isEqualTo(0);
+  }
+
+  @Test
+  public void taskThroughput_reportsTasksPerSecond() {
+    TaskThroughput counter = new TaskThroughput("test");
+
+    counter.record(100, TimeUnit.MILLISECONDS.toNanos(500));
+    counter.record(100, TimeUnit.MILLISECONDS.toNanos(500));
+
+    assertThat(counter.getTasks()).isEqualTo(200);
+    assertThat(counter.getCalls()).isEqualTo(2);
+    assertThat(counter.getTasksPerSecond()).isWithin(0.001).of(200.0);
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.cloudtasks;
+
+import com.google.api.services.cloudtasks.v2beta2.CloudTasks;
+import com.google.api.services.cloudtasks.v2beta2.model.AcknowledgeTaskRequest;
+import com.google.api.services.cloudtasks.v2beta2.model.CreateTaskRequest;
+import com.google.api.services.cloudtasks.v2beta2.model.LeaseTasksRequest;
+import com.google.api.services.cloudtasks.v2beta2.model.LeaseTasksResponse;
+import com.google.api.services.cloudtasks.v2beta2.model.PullMessage;
+import com.google.api.services.cloudtasks.v2beta2.model.RenewLeaseRequest;
+import com.google.api.services.cloudtasks.v2beta2.model.Task;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A {@link PullQueueClient} backed by a single, reused {@link CloudTasks} client.
+ *
+ * <p>The underlying HTTP transport is thread safe, so one instance can be shared by every lease,
+ * renew and acknowledge call a worker makes.
+ */
+public class CloudTasksPullQueueClient implements PullQueueClient {
+
+  private final CloudTasks.Projects.Locations.Queues.Tasks tasks;
+  private final String queueName;
+
+  public CloudTasksPullQueueClient(CloudTasks client, String project, String location,
+      String queue) {
+    this.tasks = client.projects().locations().queues().tasks();
+    this.queueName = String.format(
+        "projects/%s/locations/%s/queues/%s", project, location, queue);
+  }
+
+  /**
+   * Create a client for the given queue using Application Default Credentials.
+   */
+  public static CloudTasksPullQueueClient create(String project, String location, String queue)
+      throws IOException {
+    return new CloudTasksPullQueueClient(
+        PullQueue.createAuthorizedClient(), project, location, queue);
+  }
+
+  @Override
+  public Task createTask(String payload) throws IOException {
+    Task task = new Task().setPullMessage(new PullMessage().setPayload(payload));
+    return tasks.create(queueName, new CreateTaskRequest().setTask(task)).execute();
+  }
+
+  @Override
+  public List<Task> leaseTasks(int maxTasks, long leaseSeconds) throws IOException {
+    LeaseTasksRequest request = new LeaseTasksRequest()
+        .setMaxTasks(Math.min(maxTasks, MAX_LEASE_BATCH))
+        .setLeaseDuration(leaseSeconds + "s")
+        .setResponseView("FULL");
+    LeaseTasksResponse response = tasks.lease(queueName, request).execute();
+    // An empty lease comes back without a tasks field at all.
+    if (response.getTasks() == null) {
+      return Collections.emptyList();
+    }
+    return response.getTasks();
+  }
+
+  @Override
+  public Task renewLease(Task task, long leaseSeconds) throws IOException {
+    RenewLeaseRequest request = new RenewLeaseRequest()
+        .setScheduleTime(task.getScheduleTime())
+        .setLeaseDuration(leaseSeconds + "s")
+        .setResponseView("BASIC");
+    return tasks.renewLease(task.getName(), request).execute();
+  }
+
+  @Override
+  public void acknowledgeTask(Task task) throws IOException {
+    AcknowledgeTaskRequest request = new AcknowledgeTaskRequest()
+        .setScheduleTime(task.getScheduleTime());
+    tasks.acknowledge(task.getName(), request).execute();
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.cloudtasks;
+
+import com.google.api.client.util.DateTime;
+import com.google.api.services.cloudtasks.v2beta2.model.PullMessage;
+import com.google.api.services.cloudtasks.v2beta2.model.Task;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An in-memory {@link PullQueueClient} that mimics the lease semantics of a Cloud Tasks pull
+ * queue. Every call sleeps for a configurable round trip time so that benchmarks see realistic
+ * RPC costs without touching the network.
+ */
+public class LocalPullQueue implements PullQueueClient {
+
+  private volatile long rpcLatencyMillis;
+  // Insertion order doubles as the order in which available tasks are leased.
+  private final Map<String, LocalTask> tasks = new LinkedHashMap<>();
+  private long nextId = 1;
+  private long acknowledged = 0;
+
+  private static class LocalTask {
+    final String payload;
+    long scheduleTimeMillis;
+
+    LocalTask(String payload, long scheduleTimeMillis) {
+      this.payload = payload;
+      this.scheduleTimeMillis = scheduleTimeMillis;
+    }
+  }
+
+  public LocalPullQueue() {
+    this(0);
+  }
+
+  public LocalPullQueue(long rpcLatencyMillis) {
+    this.rpcLatencyMillis = rpcLatencyMillis;
+  }
+
+  /**
+   * Change the simulated round trip time of every later call.
+   */
+  public void setRpcLatencyMillis(long rpcLatencyMillis) {
+    this.rpcLatencyMillis = rpcLatencyMillis;
+  }
+
+  @Override
+  public Task createTask(String payload) throws IOException {
+    simulateRoundTrip();
+    synchronized (this) {
+      String name = "projects/local/locations/local/queues/local/tasks/" + nextId++;
+      LocalTask task = new LocalTask(payload, System.currentTimeMillis());
+      tasks.put(name, task);
+      return toTask(name, task, true);
+    }
+  }
+
+  @Override
+  public List<Task> leaseTasks(int maxTasks, long leaseSeconds) throws IOException {
+    simulateRoundTrip();
+    int limit = Math.min(maxTasks, MAX_LEASE_BATCH);
+    long now = System.currentTimeMillis();
+    List<Task> leased = new ArrayList<>();
+    synchronized (this) {
+      Iterator<Map.Entry<String, LocalTask>> it = tasks.entrySet().iterator();
+      while (it.hasNext() && leased.size() < limit) {
+        Map.Entry<String, LocalTask> entry = it.next();
+        LocalTask task = entry.getValue();
+        if (task.scheduleTimeMillis <= now) {
+          task.scheduleTimeMillis = now + TimeUnit.SECONDS.toMillis(leaseSeconds);
+          leased.add(toTask(entry.getKey(), task, true));
+        }
+      }
+    }
+    return leased;
+  }
+
+  @Override
+  public Task renewLease(Task task, long leaseSeconds) throws IOException {
+    simulateRoundTrip();
+    synchronized (this) {
+      LocalTask local = checkLease(task);
+      local.scheduleTimeMillis =
+          System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(leaseSeconds);
+      return toTask(task.getName(), local, false);
+    }
+  }
+
+  @Override
+  public void acknowledgeTask(Task task) throws IOException {
+    simulateRoundTrip();
+    synchronized (this) {
+      checkLease(task);
+      tasks.remove(task.getName());
+      acknowledged++;
+    }
+  }
+
+  /**
+   * Returns the number of tasks that have not been acknowledged yet.
+   */
+  public synchronized int size() {
+    return tasks.size();
+  }
+
+  /**
+   * Returns the number of tasks acknowledged since this queue was created.
+   */
+  public synchronized long acknowledgedCount() {
+    return acknowledged;
+  }
+
+  /**
+   * Like the real service, reject calls made with a stale schedule time: another worker has
+   * leased the task since.
+   */
+  private LocalTask checkLease(Task task) throws IOException {
+    LocalTask local = tasks.get(task.getName());
+    if (local == null) {
+      throw new IOException("Task not found: " + task.getName());
+    }
+    if (local.scheduleTimeMillis != DateTime.parseRfc3339(task.getScheduleTime()).getValue()) {
+      throw new IOException("Lease expired or held by another worker: " + task.getName());
+    }
+    return local;
+  }
+
+  private static Task toTask(String name, LocalTask local, boolean withPayload) {
+    Task task = new Task()
+        .setName(name)
+        .setScheduleTime(new DateTime(local.scheduleTimeMillis).toStringRfc3339());
+    if (withPayload) {
+      task.setPullMessage(new PullMessage().setPayload(local.payload));
+    }
+    return task;
+  }
+
+  private void simulateRoundTrip() throws IOException {
+    if (rpcLatencyMillis <= 0) {
+      return;
+    }
+    try {
+      Thread.sleep(rpcLatencyMillis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted", e);
+    }
+  }
+}
@@ -45,7 +45,7 @@ public class PullQueue {
    * @return an authorized CloudTasks client
    * @throws IOException if there's an error getting the default credentials.
    */
-  private static CloudTasks createAuthorizedClient() throws IOException {
+  static CloudTasks createAuthorizedClient() throws IOException {
     // Create the credential
     HttpTransport transport = new NetHttpTransport();
     JsonFactory jsonFactory = new JacksonFactory();
@@ -153,6 +153,40 @@ public class PullQueue {
   }
   // [END cloud_tasks_lease_and_acknowledge_task]
 
+  /**
+   * Drain a queue with a {@link PullQueueWorker} that shares one authorized client.
+   */
+  private static void runWorker(String project, String location, String queue, int threads,
+      long leaseSeconds) throws Exception {
+    PullQueueClient client = CloudTasksPullQueueClient.create(project, location, queue);
+    PullQueueWorker worker = new PullQueueWorker(client, task -> {
+      String payload = new String(
+          BaseEncoding.base64().decode(task.getPullMessage().getPayload()));
+      System.out.println(String.format("Processed task %s: %s", task.getName(), payload));
+    }, threads, leaseSeconds);
+    System.out.println(worker.drain());
+  }
+
+  /**
+   * Measure worker throughput against an in-memory queue with a simulated round trip time.
+   */
+  private static void runBenchmark(int tasks, int threads, long rpcLatencyMillis,
+      long workMillis) throws Exception {
+    // Fill the queue before turning on the simulated latency.
+    LocalPullQueue queue = new LocalPullQueue();
+    String payload = BaseEncoding.base64().encode("benchmark".getBytes());
+    for (int i = 0; i < tasks; i++) {
+      queue.createTask(payload);
+    }
+    queue.setRpcLatencyMillis(rpcLatencyMillis);
+    PullQueueWorker worker = new PullQueueWorker(queue, task -> {
+      if (workMillis > 0) {
+        Thread.sleep(workMillis);
+      }
+    }, threads, 60);
+    System.out.println(worker.drain());
+  }
+
   public static void main(String[] args) throws Exception {
     ArgumentParser parser = ArgumentParsers.newFor("PullQueue").build()
         .defaultHelp(true)
@@ -196,6 +230,58 @@ public class PullQueue {
         .help("ID (short name) of the queue to add the task to.")
         .required(true);
 
+    // Create the parser for the command 'worker'
+    ArgumentParser workerParser = subparsers
+        .addParser("worker")
+        .help("Lease tasks in batches and process them concurrently until the queue is empty.");
+    workerParser
+        .addArgument("--project")
+        .help("Project of the queue to pull tasks from.")
+        .required(true);
+    workerParser
+        .addArgument("--location")
+        .help("Location of the queue to pull tasks from.")
+        .required(true);
+    workerParser
+        .addArgument("--queue")
+        .help("ID (short name) of the queue to pull tasks from.")
+        .required(true);
+    workerParser
+        .addArgument("--threads")
+        .type(Integer.class)
+        .setDefault(16)
+        .help("Number of tasks processed concurrently.");
+    workerParser
+        .addArgument("--lease-seconds")
+        .type(Long.class)
+        .setDefault(600L)
+        .help("Lease duration; leases of longer running tasks are renewed.");
+
+    // Create the parser for the command 'benchmark'
+    ArgumentParser benchmarkParser = subparsers
+        .addParser("benchmark")
+        .help("Measure worker throughput against a local in-memory queue.");
+    benchmarkParser
+        .addArgument("--tasks")
+        .type(Integer.class)
+        .setDefault(10000)
+        .help("Number of tasks to enqueue.");
+    benchmarkParser
+        .addArgument("--threads")
+        .type(Integer.class)
+        .setDefault(16)
+        .help("Number of tasks processed concurrently.");
+    benchmarkParser
+        .addArgument("--rpc-latency-ms")
+        .type(Long.class)
+        .setDefault(20L)
+        .help("Simulated round trip time of every queue call.");
+    benchmarkParser
+        .addArgument("--work-ms")
+        .type(Long.class)
+        .setDefault(0L)
+        .help("Simulated processing time of every task.");
+
     // Parse commands
     Namespace cmd = parser.parseArgs(args);
 
@@ -212,6 +298,13 @@ public class PullQueue {
       Task task = pullTask(project, location, queue);
       acknowledgeTask(task);
     }
+    if (command.equals("worker")) {
+      runWorker(project, location, queue, cmd.getInt("threads"), cmd.getLong("lease_seconds"));
+    }
+    if (command.equals("benchmark")) {
+      runBenchmark(cmd.getInt("tasks"), cmd.getInt("threads"), cmd.getLong("rpc_latency_ms"),
+          cmd.getLong("work_ms"));
+    }
   }
 
 }
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.cloudtasks;
+
+import com.google.api.services.cloudtasks.v2beta2.model.Task;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The pull queue operations used by {@link PullQueueWorker}.
+ *
+ * <p>{@link CloudTasksPullQueueClient} talks to the Cloud Tasks API, while {@link LocalPullQueue}
+ * is an in-memory stand-in used for tests and benchmarks.
+ */
+public interface PullQueueClient {
+
+  /**
+   * The maximum number of tasks a single lease request may return.
+   */
+  int MAX_LEASE_BATCH = 1000;
+
+  /**
+   * Create a pull task carrying the given base64 encoded payload.
+   */
+  Task createTask(String payload) throws IOException;
+
+  /**
+   * Lease up to {@code maxTasks} tasks for {@code leaseSeconds}. Returns an empty list when no
+   * tasks are available.
+   */
+  List<Task> leaseTasks(int maxTasks, long leaseSeconds) throws IOException;
+
+  /**
+   * Extend the lease of a task. The returned task carries the new schedule time, which must be
+   * used for any later renewal or acknowledgement.
+   */
+  Task renewLease(Task task, long leaseSeconds) throws IOException;
+
+  /**
+   * Acknowledge a leased task, which removes it from the queue.
+   */
+  void acknowledgeTask(Task task) throws IOException;
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.cloudtasks;
+
+import com.google.api.services.cloudtasks.v2beta2.model.Task;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Leases tasks from a pull queue in batches and processes them on a bounded thread pool.
+ *
+ * <p>Each batch lease asks for as many tasks as there are free slots (up to
+ * {@link PullQueueClient#MAX_LEASE_BATCH}), so no more than {@code maxInFlight} tasks are held
+ * under lease at once. Every lease is renewed in the background each half lease from the moment it
+ * is taken until the task is acknowledged or fails, so tasks waiting for a worker thread keep their
+ * lease as well as tasks being processed. Acknowledgements are sent from a separate pool so that a
+ * worker thread can pick up its next task while the previous ack is still on the wire.
+ */
+public class PullQueueWorker {
+
+  /**
+   * Processes the payload of a single leased task. Throwing leaves the task unacknowledged, so
+   * it is delivered again once its lease expires.
+   */
+  public interface TaskProcessor {
+    void process(Task task) throws Exception;
+  }
+
+  private final PullQueueClient queue;
+  private final TaskProcessor processor;
+  private final int workerThreads;
+  private final int maxInFlight;
+  private final long leaseSeconds;
+  private final long idlePollMillis;
+  private final Stats stats = new Stats();
+
+  /**
+   * @param queue the queue to lease from; shared by every thread of this worker.
+   * @param processor the work to perform on each task.
+   * @param workerThreads the number of tasks processed concurrently.
+   * @param leaseSeconds the lease duration requested for each task.
+   */
+  public PullQueueWorker(PullQueueClient queue, TaskProcessor processor, int workerThreads,
+      long leaseSeconds) {
+    this(queue, processor, workerThreads, PullQueueClient.MAX_LEASE_BATCH, leaseSeconds, 1000);
+  }
+
+  /**
+   * @param maxInFlight the most tasks held under lease at once, whether queued or processing.
+   * @param idlePollMillis how long to wait before leasing again after an empty lease.
+   */
+  public PullQueueWorker(PullQueueClient queue, TaskProcessor processor, int workerThreads,
+      int maxInFlight, long leaseSeconds, long idlePollMillis) {
+    if (workerThreads < 1 || maxInFlight < workerThreads || leaseSeconds < 1) {
+      throw new IllegalArgumentException("Invalid worker configuration");
+    }
+    this.queue = queue;
+    this.processor = processor;
+    this.workerThreads = workerThreads;
+    this.maxInFlight = maxInFlight;
+    this.leaseSeconds = leaseSeconds;
+    this.idlePollMillis = idlePollMillis;
+  }
+
+  public Stats getStats() {
+    return stats;
+  }
+
+  /**
+   * Lease and process tasks until the queue is drained, then wait for outstanding acks.
+   */
+  public Stats drain() throws IOException, InterruptedException {
+    return run(Long.MAX_VALUE, true);
+  }
+
+  /**
+   * Lease and process tasks.
+   *
+   * @param maxTasks stop leasing once this many tasks have been leased.
+   * @param stopWhenEmpty return after the first empty lease once nothing is in flight, instead
+   *     of polling for new tasks.
+   */
+  public Stats run(long maxTasks, boolean stopWhenEmpty)
+      throws IOException, InterruptedException {
+    ExecutorService workers = Executors.newFixedThreadPool(workerThreads);
+    ExecutorService ackers = Executors.newFixedThreadPool(workerThreads);
+    ScheduledExecutorService renewer = Executors.newSingleThreadScheduledExecutor();
+    Semaphore slots = new Semaphore(maxInFlight);
+    stats.start();
+    try {
+      long leasedTotal = 0;
+      while (leasedTotal < maxTasks) {
+        // Wait for at least one free slot, then claim all others that happen to be free.
+        slots.acquire();
+        int claimed = 1 + slots.drainPermits();
+        int batch = (int) Math.min(claimed, Math.min(maxTasks - leasedTotal,
+            PullQueueClient.MAX_LEASE_BATCH));
+        slots.release(claimed - batch);
+
+        List<Task> leased = queue.leaseTasks(batch, leaseSeconds);
+        stats.leaseCalls.increment();
+        slots.release(batch - leased.size());
+        if (leased.isEmpty()) {
+          if (stopWhenEmpty && slots.availablePermits() == maxInFlight) {
+            break;
+          }
+          Thread.sleep(idlePollMillis);
+          continue;
+        }
+        leasedTotal += leased.size();
+        stats.leased.add(leased.size());
+        long renewEveryMillis = TimeUnit.SECONDS.toMillis(leaseSeconds) / 2;
+        for (Task task : leased) {
+          // Renewal starts now rather than when a worker picks the task up, since the task may
+          // wait in the executor queue for longer than its lease.
+          Lease lease = new Lease(task);
+          lease.renewal = renewer.scheduleWithFixedDelay(
+              () -> renew(lease), renewEveryMillis, renewEveryMillis, TimeUnit.MILLISECONDS);
+          workers.execute(() -> handle(lease, ackers, slots));
+        }
+      }
+      // Wait for every processing slot to come back before shutting the pools down.
+      slots.acquire(maxInFlight);
+      slots.release(maxInFlight);
+    } finally {
+      workers.shutdown();
+      workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      ackers.shutdown();
+      ackers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      renewer.shutdownNow();
+      stats.stop();
+    }
+    return stats;
+  }
+
+  private void handle(Lease lease, ExecutorService ackers, Semaphore slots) {
+    boolean succeeded = false;
+    try {
+      processor.process(lease.current);
+      succeeded = true;
+      stats.processed.increment();
+    } catch (Exception e) {
+      stats.failed.increment();
+      System.err.println(String.format("Processing task %s failed: %s",
+          lease.current.getName(), e));
+    } finally {
+      lease.renewal.cancel(false);
+      slots.release();
+    }
+    if (succeeded) {
+      ackers.execute(() -> acknowledge(lease));
+    }
+  }
+
+  private void renew(Lease lease) {
+    synchronized (lease) {
+      if (lease.finished) {
+        return;
+      }
+      try {
+        // Keep the payload from the original lease; the renewal response only carries the new
+        // schedule time.
+        Task renewed = queue.renewLease(lease.current, leaseSeconds);
+        lease.current = lease.current.clone().setScheduleTime(renewed.getScheduleTime());
+        stats.renewed.increment();
+      } catch (IOException | RuntimeException e) {
+        // An exception escaping would cancel every later renewal of this lease, so count it and
+        // try again on the next run.
+        stats.renewFailures.increment();
+        System.err.println(String.format("Renewing lease on %s failed: %s",
+            lease.current.getName(), e));
+      }
+    }
+  }
+
+  private void acknowledge(Lease lease) {
+    synchronized (lease) {
+      lease.finished = true;
+      try {
+        queue.acknowledgeTask(lease.current);
+        stats.acknowledged.increment();
+      } catch (IOException e) {
+        stats.ackFailures.increment();
+        System.err.println(String.format("Acknowledging task %s failed: %s",
+            lease.current.getName(), e));
+      }
+    }
+  }
+
+  /**
+   * The most recent lease on a task. Renewals and the final ack are serialized on this object so
+   * an ack never races a renewal that would invalidate its schedule time.
+   */
+  private static class Lease {
+    Task current;
+    boolean finished;
+    volatile ScheduledFuture<?> renewal;
+
+    Lease(Task task) {
+      this.current = task;
+    }
+  }
+
+  /**
+   * Throughput counters for a worker run.
+   */
+  public static class Stats {
+    final LongAdder leaseCalls = new LongAdder();
+    final LongAdder leased = new LongAdder();
+    final LongAdder processed = new LongAdder();
+    final LongAdder failed = new LongAdder();
+    final LongAdder renewed = new LongAdder();
+    final LongAdder renewFailures = new LongAdder();
+    final LongAdder acknowledged = new LongAdder();
+    final LongAdder ackFailures = new LongAdder();
+    private volatile long startNanos;
+    private volatile long stopNanos;
+
+    void start() {
+      startNanos = System.nanoTime();
+      stopNanos = 0;
+    }
+
+    void stop() {
+      stopNanos = System.nanoTime();
+    }
+
+    public long getLeaseCalls() {
+      return leaseCalls.sum();
+    }
+
+    public long getLeased() {
+      return leased.sum();
+    }
+
+    public long getProcessed() {
+      return processed.sum();
+    }
+
+    public long getFailed() {
+      return failed.sum();
+    }
+
+    public long getRenewed() {
+      return renewed.sum();
+    }
+
+    public long getRenewFailures() {
+      return renewFailures.sum();
+    }
+
+    public long getAcknowledged() {
+      return acknowledged.sum();
+    }
+
+    public long getAckFailures() {
+      return ackFailures.sum();
+    }
+
+    public double getElapsedSeconds() {
+      long end = stopNanos == 0 ? System.nanoTime() : stopNanos;
+      return (end - startNanos) / 1e9;
+    }
+
+    /**
+     * Returns acknowledged tasks per second over the run.
+     */
+    public double getThroughput() {
+      double seconds = getElapsedSeconds();
+      return seconds > 0 ? getAcknowledged() / seconds : 0;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "Leased %d tasks in %d lease calls, processed %d, failed %d, renewed %d "
+              + "(%d renew failures), acknowledged %d (%d ack failures) in %.2fs: %.1f tasks/s",
+          getLeased(), getLeaseCalls(), getProcessed(), getFailed(), getRenewed(),
+          getRenewFailures(), getAcknowledged(), getAckFailures(), getElapsedSeconds(),
+          getThroughput());
+    }
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.cloudtasks;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for {@link PullQueueWorker} running against a {@link LocalPullQueue}.
+ */
+@RunWith(JUnit4.class)
+public class PullQueueWorkerTest {
+
+  @Test
+  public void drain_processesAndAcknowledgesEveryTask() throws Exception {
+    LocalPullQueue queue = new LocalPullQueue();
+    for (int i = 0; i < 2500; i++) {
+      queue.createTask("cGF5bG9hZA==");
+    }
+    Set<String> seen = ConcurrentHashMap.newKeySet();
+
+    PullQueueWorker worker = new PullQueueWorker(
+        queue, task -> seen.add(task.getName()), 8, 60);
+    PullQueueWorker.Stats stats = worker.drain();
+
+    assertThat(seen).hasSize(2500);
+    assertThat(stats.getAcknowledged()).isEqualTo(2500);
+    assertThat(stats.getLeaseCalls()).isLessThan(2500L);
+    assertThat(queue.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void drain_renewsLeaseOfLongRunningTask() throws Exception {
+    LocalPullQueue queue = new LocalPullQueue();
+    queue.createTask("cGF5bG9hZA==");
+
+    // Processing outlives the one second lease, so the ack only succeeds if it was renewed.
+    PullQueueWorker worker = new PullQueueWorker(
+        queue, task -> Thread.sleep(1800), 1, 1, 1, 10);
+    PullQueueWorker.Stats stats = worker.drain();
+
+    assertThat(stats.getRenewed()).isAtLeast(1L);
+    assertThat(stats.getAcknowledged()).isEqualTo(1);
+    assertThat(queue.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void drain_leavesFailedTasksOnQueue() throws Exception {
+    LocalPullQueue queue = new LocalPullQueue();
+    queue.createTask("cGF5bG9hZA==");
+    queue.createTask("cGF5bG9hZA==");
+
+    PullQueueWorker worker = new PullQueueWorker(queue, task -> {
+      throw new IllegalStateException("boom");
+    }, 2, 60);
+    PullQueueWorker.Stats stats = worker.drain();
+
+    assertThat(stats.getFailed()).isEqualTo(2);
+    assertThat(stats.getAcknowledged()).isEqualTo(0);
+    assertThat(queue.size()).isEqualTo(2);
+  }
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.dlp;
+
+import com.google.api.core.ApiFuture;
+import com.google.cloud.dlp.v2.DlpServiceClient;
+import com.google.privacy.dlp.v2.ContentItem;
+import com.google.privacy.dlp.v2.DeidentifyConfig;
+import com.google.privacy.dlp.v2.DeidentifyContentRequest;
+import com.google.privacy.dlp.v2.DeidentifyContentResponse;
+import com.google.privacy.dlp.v2.FieldId;
+import com.google.privacy.dlp.v2.Table;
+import com.google.privacy.dlp.v2.Value;
+import com.google.type.Date;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * De-identifies CSV data of any size by streaming it through the DLP API in table chunks.
+ *
+ * <p>Records are parsed incrementally, so quoted fields may contain commas, quotes and line
+ * breaks, and only the chunks currently in flight are held in memory. Blank lines are skipped.
+ * Each chunk is kept under the API's request size limit, up to {@code window} chunks are
+ * de-identified concurrently on one client, and results are written in input order.
+ */
+public class CsvDeidentifier {
+
+  /** Stay comfortably below the API's 0.5 MB request limit. */
+  public static final int DEFAULT_MAX_CHUNK_BYTES = 400 * 1024;
+  public static final int DEFAULT_MAX_CHUNK_ROWS = 10000;
+  private static final long PROGRESS_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+  private final DlpServiceClient dlpServiceClient;
+  private final String parent;
+  private final DeidentifyConfig deidentifyConfig;
+  private final int window;
+  private final int maxChunkBytes;
+  private final int maxChunkRows;
+  private long recordsRead;
+  private long rows;
+  private long chunks;
+  private long startNanos;
+  private long lastProgressNanos;
+
+  /**
+   * @param dlpServiceClient the client used for every chunk; the caller remains responsible for
+   *     it.
+   * @param parent the project making the requests, e.g. {@code projects/my-project}.
+   * @param window the most chunks being de-identified at once.
+   */
+  public CsvDeidentifier(DlpServiceClient dlpServiceClient, String parent,
+      DeidentifyConfig deidentifyConfig, int window) {
+    this(dlpServiceClient, parent, deidentifyConfig, window, DEFAULT_MAX_CHUNK_BYTES,
+        DEFAULT_MAX_CHUNK_ROWS);
+  }
+
+  CsvDeidentifier(DlpServiceClient dlpServiceClient, String parent,
+      DeidentifyConfig deidentifyConfig, int window, int maxChunkBytes, int maxChunkRows) {
+    this.dlpServiceClient = dlpServiceClient;
+    this.parent = parent;
+    this.deidentifyConfig = deidentifyConfig;
+    this.window = window;
+    this.maxChunkBytes = maxChunkBytes;
+    this.maxChunkRows = maxChunkRows;
+  }
+
+  // [START dlp_deidentify_csv_streaming]
+  /**
+   * De-identifies the CSV read from {@code in}, whose first record is the header, and writes the
+   * result to {@code out}.
+   *
+   * @return the number of data rows written.
+   * @throws IOException if reading or writing fails, a chunk fails, or a single record is too
+   *     large to be sent in one request.
+   */
+  public long deidentify(Reader in, Writer out) throws IOException, InterruptedException {
+    CsvReader csv = new CsvReader(in);
+    List<String> header = csv.readRecord();
+    if (header == null) {
+      return 0;
+    }
+    List<FieldId> headers = new ArrayList<>();
+    for (String name : header) {
+      headers.add(FieldId.newBuilder().setName(name).build());
+    }
+    startNanos = System.nanoTime();
+    lastProgressNanos = startNanos;
+
+    Deque<ApiFuture<DeidentifyContentResponse>> inFlight = new ArrayDeque<>();
+    boolean headerWritten = false;
+    Table.Row row = nextRow(csv);
+    while (row != null || !inFlight.isEmpty()) {
+      // Keep the window full, then write the oldest chunk once it is done.
+      while (row != null && inFlight.size() < window) {
+        Table.Builder table = Table.newBuilder().addAllHeaders(headers);
+        int chunkBytes = 0;
+        do {
+          chunkBytes += row.getSerializedSize();
+          table.addRows(row);
+          row = nextRow(csv);
+        } while (row != null && table.getRowsCount() < maxChunkRows
+            && chunkBytes + row.getSerializedSize() <= maxChunkBytes);
+        inFlight.add(dlpServiceClient.deidentifyContentCallable().futureCall(
+            DeidentifyContentRequest.newBuilder()
+                .setParent(parent)
+                .setDeidentifyConfig(deidentifyConfig)
+                .setItem(ContentItem.newBuilder().setTable(table))
+                .build()));
+      }
+
+      Table result = await(inFlight.poll()).getItem().getTable();
+      if (!headerWritten) {
+        List<String> names = new ArrayList<>();
+        for (FieldId field : result.getHeadersList()) {
+          names.add(field.getName());
+        }
+        writeRecord(out, names);
+        headerWritten = true;
+      }
+      List<String> values = new ArrayList<>();
+      for (Table.Row deidentified : result.getRowsList()) {
+        values.clear();
+        for (Value value : deidentified.getValuesList()) {
+          values.add(toString(value));
+        }
+        writeRecord(out, values);
+      }
+      rows += result.getRowsCount();
+      chunks++;
+      reportProgress(false);
+    }
+    out.flush();
+    reportProgress(true);
+    return rows;
+  }
+  // [END dlp_deidentify_csv_streaming]
+
+  /**
+   * Reads the next record as a table row, or returns {@code null} at the end of the input.
+   */
+  private Table.Row nextRow(CsvReader csv) throws IOException {
+    List<String> record = csv.readRecord();
+    if (record == null) {
+      return null;
+    }
+    recordsRead++;
+    Table.Row row = toRow(record);
+    if (row.getSerializedSize() > maxChunkBytes) {
+      throw new IOException(String.format(
+          "Record %d is %d bytes, more than the %d bytes one request may carry",
+          recordsRead, row.getSerializedSize(), maxChunkBytes));
+    }
+    return row;
+  }
+
+  private void reportProgress(boolean done) {
+    long now = System.nanoTime();
+    if (!done && now - lastProgressNanos < PROGRESS_INTERVAL_NANOS) {
+      return;
+    }
+    lastProgressNanos = now;
+    double seconds = Math.max(1e-9, (now - startNanos) / 1e9);
+    System.out.printf("%s %d rows in %d chunks (%.0f rows/s)\n",
+        done ? "De-identified" : "De-identifying...", rows, chunks, rows / seconds);
+  }
+
+  private static DeidentifyContentResponse await(ApiFuture<DeidentifyContentResponse> future)
+      throws IOException, InterruptedException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      throw new IOException("Failed to de-identify chunk", e.getCause());
+    }
+  }
+
+  /**
+   * Converts a CSV record to a table row, sending ISO-8601 dates as date values.
+   */
+  static Table.Row toRow(List<String> record) {
+    Table.Row.Builder row = Table.Row.newBuilder();
+    for (String field : record) {
+      LocalDate date = parseDate(field);
+      if (date != null) {
+        row.addValues(Value.newBuilder().setDateValue(
+            Date.newBuilder()
+                .setYear(date.getYear())
+                .setMonth(date.getMonthValue())
+                .setDay(date.getDayOfMonth())));
+      } else {
+        row.addValues(Value.newBuilder().setStringValue(field));
+      }
+    }
+    return row.build();
+  }
+
+  private static LocalDate parseDate(String field) {
+    // Only try fields shaped like yyyy-mm-dd, so most fields never throw.
+    if (field.length() != 10 || field.charAt(4) != '-' || field.charAt(7) != '-') {
+      return null;
+    }
+    try {
+      return LocalDate.parse(field);
+    } catch (DateTimeParseException e) {
+      return null;
+    }
+  }
+
+  static String toString(Value value) {
+    switch (value.getTypeCase()) {
+      case DATE_VALUE:
+        Date date = value.getDateValue();
+        return String.format("%04d-%02d-%02d", date.getYear(), date.getMonth(), date.getDay());
+      case INTEGER_VALUE:
+        return Long.toString(value.getIntegerValue());
+      case FLOAT_VALUE:
+        return Double.toString(value.getFloatValue());
+      case BOOLEAN_VALUE:
+        return Boolean.toString(value.getBooleanValue());
+      default:
+        return value.getStringValue();
+    }
+  }
+
+  /**
+   * Writes one record, quoting fields that contain a separator, a quote or a line break.
+   */
+  static void writeRecord(Writer out, List<String> fields) throws IOException {
+    for (int i = 0; i < fields.size(); i++) {
+      if (i > 0) {
+        out.write(',');
+      }
+      String field = fields.get(i);
+      boolean quote = false;
+      for (int j = 0; j < field.length() && !quote; j++) {
+        char c = field.charAt(j);
+        quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+      }
+      if (!quote) {
+        out.write(field);
+        continue;
+      }
+      out.write('"');
+      for (int j = 0; j < field.length(); j++) {
+        char c = field.charAt(j);
+        if (c == '"') {
+          out.write('"');
+        }
+        out.write(c);
+      }
+      out.write('"');
+    }
+    out.write('\n');
+  }
+
+  /**
+   * Reads RFC 4180 CSV one record at a time.
+   */
+  static class CsvReader {
+    private final Reader in;
+    private final StringBuilder field = new StringBuilder();
+    private int peeked = -2;
+
+    CsvReader(Reader in) {
+      this.in = in;
+    }
+
+    /**
+     * Returns the next record's fields, skipping blank lines, or {@code null} at the end of the
+     * input.
+     */
+    List<String> readRecord() throws IOException {
+      int c = read();
+      while (c == '\n' || c == '\r') {
+        c = read();
+      }
+      if (c < 0) {
+        return null;
+      }
+      List<String> fields = new ArrayList<>();
+      boolean quoted = false;
+      field.setLength(0);
+      while (true) {
+        if (quoted) {
+          if (c < 0) {
+            throw new IOException("Unterminated quoted field");
+          } else if (c == '"') {
+            if (peek() == '"') {
+              read();
+              field.append('"');
+            } else {
+              quoted = false;
+            }
+          } else {
+            field.append((char) c);
+          }
+        } else if (c == '"') {
+          quoted = true;
+        } else if (c == ',') {
+          fields.add(field.toString());
+          field.setLength(0);
+        } else if (c < 0 || c == '\n' || c == '\r') {
+          if (c == '\r' && peek() == '\n') {
+            read();
+          }
+          fields.add(field.toString());
+          return fields;
+        } else {
+          field.append((char) c);
+        }
+        c = read();
+      }
+    }
+
+    private int read() throws IOException {
+      if (peeked != -2) {
+        int c = peeked;
+        peeked = -2;
+        return c;
+      }
+      return in.read();
+    }
+
+    private int peek() throws IOException {
+      if (peeked == -2) {
+        peeked = in.read();
+      }
+      return peeked;
+    }
+  }
+}
@@ -51,6 +51,8 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDate;
@@ -356,28 +358,6 @@ public class DeIdentification {
     // instantiate a client
     try (DlpServiceClient dlpServiceClient = DlpServiceClient.create()) {
 
-      // Set the maximum days to shift a day backward (lowerbound), forward (upperbound)
-      DateShiftConfig.Builder dateShiftConfigBuilder =
-          DateShiftConfig.newBuilder()
-              .setLowerBoundDays(lowerBoundDays)
-              .setUpperBoundDays(upperBoundDays);
-
-      // If contextFieldId, keyName or wrappedKey is set: all three arguments must be valid
-      if (contextFieldId != null && keyName != null && wrappedKey != null) {
-        dateShiftConfigBuilder.setContext(FieldId.newBuilder().setName(contextFieldId).build());
-        KmsWrappedCryptoKey kmsWrappedCryptoKey =
-            KmsWrappedCryptoKey.newBuilder()
-                .setCryptoKeyName(keyName)
-                .setWrappedKey(ByteString.copyFrom(BaseEncoding.base64().decode(wrappedKey)))
-                .build();
-        dateShiftConfigBuilder.setCryptoKey(
-            CryptoKey.newBuilder().setKmsWrapped(kmsWrappedCryptoKey).build());
-
-      } else if (contextFieldId != null || keyName != null || wrappedKey != null) {
-        throw new IllegalArgumentException(
-            "You must set either ALL or NONE of {contextFieldId, keyName, wrappedKey}!");
-      }
-
       // Read and parse the CSV file
       BufferedReader br = null;
       String line;
@@ -400,27 +380,9 @@ public class DeIdentification {
 
       Table table = Table.newBuilder().addAllHeaders(headers).addAllRows(rows).build();
 
-      List<FieldId> dateFieldIds =
-          Arrays.stream(dateFields)
-              .map(field -> FieldId.newBuilder().setName(field).build())
-              .collect(Collectors.toList());
-
-      DateShiftConfig dateShiftConfig = dateShiftConfigBuilder.build();
-
-      FieldTransformation fieldTransformation =
-          FieldTransformation.newBuilder()
-              .addAllFields(dateFieldIds)
-              .setPrimitiveTransformation(
-                  PrimitiveTransformation.newBuilder().setDateShiftConfig(dateShiftConfig).build())
-              .build();
-
       DeidentifyConfig deidentifyConfig =
-          DeidentifyConfig.newBuilder()
-              .setRecordTransformations(
-                  RecordTransformations.newBuilder()
-                      .addFieldTransformations(fieldTransformation)
-                      .build())
-              .build();
+          dateShiftConfig(
+              dateFields, lowerBoundDays, upperBoundDays, contextFieldId, wrappedKey, keyName);
 
       ContentItem tableItem = ContentItem.newBuilder().setTable(table).build();
 
@@ -470,6 +432,58 @@ public class DeIdentification {
     }
   }
 
+  /**
+   * Builds a config shifting the dates in {@code dateFields} by a random number of days.
+   */
+  private static DeidentifyConfig dateShiftConfig(
+      String[] dateFields,
+      int lowerBoundDays,
+      int upperBoundDays,
+      String contextFieldId,
+      String wrappedKey,
+      String keyName) {
+    // Set the maximum days to shift a day backward (lowerbound), forward (upperbound)
+    DateShiftConfig.Builder dateShiftConfigBuilder =
+        DateShiftConfig.newBuilder()
+            .setLowerBoundDays(lowerBoundDays)
+            .setUpperBoundDays(upperBoundDays);
+
+    // If contextFieldId, keyName or wrappedKey is set: all three arguments must be valid
+    if (contextFieldId != null && keyName != null && wrappedKey != null) {
+      dateShiftConfigBuilder.setContext(FieldId.newBuilder().setName(contextFieldId).build());
+      KmsWrappedCryptoKey kmsWrappedCryptoKey =
+          KmsWrappedCryptoKey.newBuilder()
+              .setCryptoKeyName(keyName)
+              .setWrappedKey(ByteString.copyFrom(BaseEncoding.base64().decode(wrappedKey)))
+              .build();
+      dateShiftConfigBuilder.setCryptoKey(
+          CryptoKey.newBuilder().setKmsWrapped(kmsWrappedCryptoKey).build());
+
+    } else if (contextFieldId != null || keyName != null || wrappedKey != null) {
+      throw new IllegalArgumentException(
+          "You must set either ALL or NONE of {contextFieldId, keyName, wrappedKey}!");
+    }
+
+    List<FieldId> dateFieldIds =
+        Arrays.stream(dateFields)
+            .map(field -> FieldId.newBuilder().setName(field).build())
+            .collect(Collectors.toList());
+
+    FieldTransformation fieldTransformation =
+        FieldTransformation.newBuilder()
+            .addAllFields(dateFieldIds)
+            .setPrimitiveTransformation(
+                PrimitiveTransformation.newBuilder()
+                    .setDateShiftConfig(dateShiftConfigBuilder.build())
+                    .build())
+            .build();
+
+    return DeidentifyConfig.newBuilder()
+        .setRecordTransformations(
+            RecordTransformations.newBuilder().addFieldTransformations(fieldTransformation).build())
+        .build();
+  }
+
   // Parse string to valid date, return null when invalid
   private static LocalDate getValidDate(String dateString) {
     try {
@@ -503,6 +517,55 @@ public class DeIdentification {
   }
   // [END dlp_deidentify_date_shift]
 
+  // [START dlp_deidentify_date_shift_streaming]
+  /**
+   * Deidentify dates in a CSV file of any size by streaming it through the DLP API in chunks.
+   *
+   * @param inputCsvPath The path to the CSV file to deidentify
+   * @param outputCsvPath (Optional) path to the output CSV file
+   * @param dateFields The list of (date) fields in the CSV file to date shift
+   * @param lowerBoundDays The maximum number of days to shift a date backward
+   * @param upperBoundDays The maximum number of days to shift a date forward
+   * @param contextFieldId (Optional) The column to determine date shift, default : a random shift
+   *     amount
+   * @param wrappedKey (Optional) The encrypted ('wrapped') AES-256 key to use when shifting dates
+   * @param keyName (Optional) The name of the Cloud KMS key used to encrypt ('wrap') the AES-256
+   *     key
+   * @param projectId ID of Google Cloud project to run the API under.
+   * @param concurrency The most chunks to deidentify at once.
+   */
+  private static void deidentifyWithDateShiftStreaming(
+      Path inputCsvPath,
+      Path outputCsvPath,
+      String[] dateFields,
+      int lowerBoundDays,
+      int upperBoundDays,
+      String contextFieldId,
+      String wrappedKey,
+      String keyName,
+      String projectId,
+      int concurrency)
+      throws Exception {
+    DeidentifyConfig deidentifyConfig =
+        dateShiftConfig(
+            dateFields, lowerBoundDays, upperBoundDays, contextFieldId, wrappedKey, keyName);
+
+    // instantiate a client shared by all chunks
+    try (DlpServiceClient dlpServiceClient = DlpServiceClient.create();
+        BufferedReader reader = Files.newBufferedReader(inputCsvPath, StandardCharsets.UTF_8);
+        BufferedWriter writer = Files.newBufferedWriter(outputCsvPath, StandardCharsets.UTF_8)) {
+      CsvDeidentifier deidentifier =
+          new CsvDeidentifier(
+              dlpServiceClient, ProjectName.of(projectId).toString(), deidentifyConfig,
+              concurrency);
+      deidentifier.deidentify(reader, writer);
+      System.out.println("Successfully saved date-shift output to: " + outputCsvPath.getFileName());
+    } catch (Exception e) {
+      System.out.println("Error in deidentifyWithDateShiftStreaming: " + e.getMessage());
+    }
+  }
+  // [END dlp_deidentify_date_shift_streaming]
+
   /**
    * Command line application to de-identify data using the Data Loss Prevention API. Supported data
    * format: strings
@@ -580,6 +643,12 @@ public class DeIdentification {
     Option projectIdOption = Option.builder("projectId").hasArg(true).required(false).build();
     commandLineOptions.addOption(projectIdOption);
 
+    Option streamingOption = Option.builder("streaming").hasArg(false).required(false).build();
+    commandLineOptions.addOption(streamingOption);
+
+    Option concurrencyOption = Option.builder("concurrency").hasArg(true).required(false).build();
+    commandLineOptions.addOption(concurrencyOption);
+
     CommandLineParser parser = new DefaultParser();
     HelpFormatter formatter = new HelpFormatter();
     CommandLine cmd;
@@ -638,16 +707,31 @@ public class DeIdentification {
       int lowerBoundsDay = Integer.valueOf(cmd.getOptionValue(lowerBoundDaysOption.getOpt()));
       int upperBoundsDay = Integer.valueOf(cmd.getOptionValue(upperBoundDaysOption.getOpt()));
 
-      deidentifyWithDateShift(
-          Paths.get(inputCsv),
-          Paths.get(outputCsv),
-          dateFields,
-          lowerBoundsDay,
-          upperBoundsDay,
-          contextField,
-          wrappedKey,
-          keyName,
-          projectId);
+      if (cmd.hasOption(streamingOption.getOpt())) {
+        int concurrency = Integer.parseInt(cmd.getOptionValue(concurrencyOption.getOpt(), "4"));
+        deidentifyWithDateShiftStreaming(
+            Paths.get(inputCsv),
+            Paths.get(outputCsv),
+            dateFields,
+            lowerBoundsDay,
+            upperBoundsDay,
+            contextField,
+            wrappedKey,
+            keyName,
+            projectId,
+            concurrency);
+      } else {
+        deidentifyWithDateShift(
+            Paths.get(inputCsv),
+            Paths.get(outputCsv),
+            dateFields,
+            lowerBoundsDay,
+            upperBoundsDay,
+            contextField,
+            wrappedKey,
+            keyName,
+            projectId);
+      }
     } else if (cmd.hasOption("r")) {
       // reidentification with FPE
       String wrappedKey = cmd.getOptionValue(wrappedKeyOption.getOpt());
@@ -0,0 +1,260 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.dlp;
+
+import com.google.api.core.ApiFuture;
+import com.google.cloud.dlp.v2.DlpServiceClient;
+import com.google.privacy.dlp.v2.ByteContentItem;
+import com.google.privacy.dlp.v2.ContentItem;
+import com.google.privacy.dlp.v2.Finding;
+import com.google.privacy.dlp.v2.InspectConfig;
+import com.google.privacy.dlp.v2.InspectContentRequest;
+import com.google.privacy.dlp.v2.InspectContentResponse;
+import com.google.privacy.dlp.v2.Range;
+import com.google.protobuf.UnsafeByteOperations;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Inspects local UTF-8 text files of any size, or every file in a directory tree, with the DLP
+ * API.
+ *
+ * <p>Each file is memory-mapped and cut into windows small enough for one request. Consecutive
+ * windows overlap so that a finding crossing a window boundary is still seen whole by one of them;
+ * each finding is reported once, by the window that owns its start, with its byte range rewritten
+ * to offsets in the file. Up to {@code concurrency} windows are inspected at once on one client
+ * and findings are reported in file order.
+ */
+public class FileInspector {
+
+  /**
+   * Receives findings whose byte ranges are offsets in {@code file}. Called on the thread that
+   * called {@link #inspect(Path, FindingListener)}.
+   */
+  public interface FindingListener {
+    void onFinding(Path file, Finding finding);
+  }
+
+  /** Stay comfortably below the API's 0.5 MB request limit. */
+  public static final int DEFAULT_WINDOW_BYTES = 400 * 1024;
+  /** Twice the longest finding that is guaranteed to be reported whole. */
+  public static final int DEFAULT_OVERLAP_BYTES = 4096;
+
+  private final DlpServiceClient dlpServiceClient;
+  private final String parent;
+  private final InspectConfig inspectConfig;
+  private final int concurrency;
+  private final int windowBytes;
+  private final int overlapBytes;
+  private long files;
+  private long windows;
+  private long bytes;
+  private long findings;
+
+  /**
+   * A window of one file being inspected.
+   */
+  private static class Window {
+    final Path file;
+    final long start;
+    // Findings starting in [ownedStart, ownedEnd) belong to this window.
+    final long ownedStart;
+    final long ownedEnd;
+    final ApiFuture<InspectContentResponse> response;
+
+    Window(Path file, long start, long ownedStart, long ownedEnd,
+        ApiFuture<InspectContentResponse> response) {
+      this.file = file;
+      this.start = start;
+      this.ownedStart = ownedStart;
+      this.ownedEnd = ownedEnd;
+      this.response = response;
+    }
+  }
+
+  /**
+   * @param dlpServiceClient the client used for every window; the caller remains responsible for
+   *     it.
+   * @param parent the project making the requests, e.g. {@code projects/my-project}.
+   * @param concurrency the most windows being inspected at once.
+   */
+  public FileInspector(DlpServiceClient dlpServiceClient, String parent,
+      InspectConfig inspectConfig, int concurrency) {
+    this(dlpServiceClient, parent, inspectConfig, concurrency, DEFAULT_WINDOW_BYTES,
+        DEFAULT_OVERLAP_BYTES);
+  }
+
+  FileInspector(DlpServiceClient dlpServiceClient, String parent, InspectConfig inspectConfig,
+      int concurrency, int windowBytes, int overlapBytes) {
+    if (overlapBytes <= 0 || overlapBytes * 2 >= windowBytes) {
+      throw new IllegalArgumentException("The overlap must be less than half of the window");
+    }
+    this.dlpServiceClient = dlpServiceClient;
+    this.parent = parent;
+    this.inspectConfig = inspectConfig;
+    this.concurrency = concurrency;
+    this.windowBytes = windowBytes;
+    this.overlapBytes = overlapBytes;
+  }
+
+  // [START dlp_inspect_file_parallel]
+  /**
+   * Inspects {@code path}, or every regular file under it if it is a directory, and returns once
+   * every finding has been handed to {@code listener}.
+   */
+  public void inspect(Path path, FindingListener listener)
+      throws IOException, InterruptedException {
+    List<Path> paths;
+    if (Files.isDirectory(path)) {
+      try (Stream<Path> tree = Files.walk(path)) {
+        paths = tree.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+      }
+    } else {
+      paths = new ArrayList<>();
+      paths.add(path);
+    }
+
+    Deque<Window> inFlight = new ArrayDeque<>();
+    for (Path file : paths) {
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+        long size = channel.size();
+        long start = 0;
+        while (start < size) {
+          long end = Math.min(size, start + windowBytes);
+          // Windows start and end on character boundaries so each one is valid UTF-8.
+          if (end < size) {
+            end = characterStart(channel, end);
+          }
+          long next = end < size ? characterStart(channel, end - overlapBytes) : size;
+          long ownedStart = start == 0 ? 0 : start + overlapBytes / 2;
+          long ownedEnd = end < size ? next + overlapBytes / 2 : size;
+
+          while (inFlight.size() >= concurrency) {
+            report(inFlight.poll(), listener);
+          }
+          MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+          // The mapped bytes are serialized straight into the request without a heap copy.
+          ContentItem item = ContentItem.newBuilder()
+              .setByteItem(ByteContentItem.newBuilder()
+                  .setType(ByteContentItem.BytesType.TEXT_UTF8)
+                  .setData(UnsafeByteOperations.unsafeWrap(mapped)))
+              .build();
+          ApiFuture<InspectContentResponse> response =
+              dlpServiceClient.inspectContentCallable().futureCall(
+                  InspectContentRequest.newBuilder()
+                      .setParent(parent)
+                      .setInspectConfig(inspectConfig)
+                      .setItem(item)
+                      .build());
+          inFlight.add(new Window(file, start, ownedStart, ownedEnd, response));
+          windows++;
+          bytes += end - start;
+          start = next;
+        }
+      }
+      files++;
+    }
+    while (!inFlight.isEmpty()) {
+      report(inFlight.poll(), listener);
+    }
+  }
+  // [END dlp_inspect_file_parallel]
+
+  private void report(Window window, FindingListener listener)
+      throws IOException, InterruptedException {
+    InspectContentResponse response;
+    try {
+      response = window.response.get();
+    } catch (ExecutionException e) {
+      throw new IOException("Failed to inspect " + window.file + " at " + window.start,
+          e.getCause());
+    }
+    for (Finding finding : response.getResult().getFindingsList()) {
+      Range range = finding.getLocation().getByteRange();
+      long start = window.start + range.getStart();
+      if (start < window.ownedStart || start >= window.ownedEnd) {
+        // A neighbouring window reports this one, whole.
+        continue;
+      }
+      // Code point ranges are relative to the window and cannot be remapped without decoding
+      // the file up to it, so only the byte range is kept.
+      Finding.Builder remapped = finding.toBuilder();
+      remapped.getLocationBuilder()
+          .clearCodepointRange()
+          .setByteRange(Range.newBuilder()
+              .setStart(start)
+              .setEnd(window.start + range.getEnd()));
+      findings++;
+      listener.onFinding(window.file, remapped.build());
+    }
+  }
+
+  /**
+   * Returns the offset of the character containing the byte at {@code position}.
+   */
+  private static long characterStart(FileChannel channel, long position) throws IOException {
+    // A UTF-8 character is at most four bytes, so the start is at most three bytes back.
+    long from = Math.max(0, position - 3);
+    ByteBuffer bytes = ByteBuffer.allocate((int) (position - from + 1));
+    while (bytes.hasRemaining()) {
+      // Positional reads leave the channel's own position alone.
+      if (channel.read(bytes, from + bytes.position()) < 0) {
+        break;
+      }
+    }
+    for (long p = position; p > from; p--) {
+      if ((bytes.get((int) (p - from)) & 0xC0) != 0x80) {
+        return p;
+      }
+    }
+    return from;
+  }
+
+  public long getFiles() {
+    return files;
+  }
+
+  public long getWindows() {
+    return windows;
+  }
+
+  public long getBytes() {
+    return bytes;
+  }
+
+  public long getFindings() {
+    return findings;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("Sent %d bytes from %d files in %d windows: %d findings",
+        bytes, files, windows, findings);
+  }
+}
@@ -16,10 +16,8 @@
 
 package com.example.dlp;
 
-import com.google.api.core.SettableApiFuture;
 import com.google.cloud.ServiceOptions;
 import com.google.cloud.dlp.v2.DlpServiceClient;
-import com.google.cloud.pubsub.v1.Subscriber;
 import com.google.privacy.dlp.v2.Action;
 import com.google.privacy.dlp.v2.BigQueryOptions;
 import com.google.privacy.dlp.v2.BigQueryTable;
@@ -34,7 +32,6 @@ import com.google.privacy.dlp.v2.CustomInfoType.Regex;
 import com.google.privacy.dlp.v2.DatastoreOptions;
 import com.google.privacy.dlp.v2.DlpJob;
 import com.google.privacy.dlp.v2.Finding;
-import com.google.privacy.dlp.v2.GetDlpJobRequest;
 import com.google.privacy.dlp.v2.InfoType;
 import com.google.privacy.dlp.v2.InfoTypeStats;
 import com.google.privacy.dlp.v2.InspectConfig;
@@ -231,6 +228,62 @@ public class Inspect {
   }
   // [END dlp_inspect_file]
 
+  // [START dlp_inspect_local_text]
+  /**
+   * Inspect a local text file of any size, or every file in a directory, by inspecting overlapping
+   * windows of it concurrently.
+   *
+   * @param path The path to the text file or directory to inspect
+   * @param minLikelihood The minimum likelihood required before returning a match
+   * @param maxFindings The maximum number of findings to report per window (0 = server maximum)
+   * @param infoTypes The infoTypes of information to match
+   * @param includeQuote Whether to include the matching string
+   * @param projectId Google Cloud project ID
+   * @param concurrency The most windows to inspect at once
+   */
+  private static void inspectLocalText(
+      String path,
+      Likelihood minLikelihood,
+      int maxFindings,
+      List<InfoType> infoTypes,
+      List<CustomInfoType> customInfoTypes,
+      boolean includeQuote,
+      String projectId,
+      int concurrency) {
+    // Instantiates a client shared by all windows
+    try (DlpServiceClient dlpServiceClient = DlpServiceClient.create()) {
+      FindingLimits findingLimits =
+          FindingLimits.newBuilder().setMaxFindingsPerRequest(maxFindings).build();
+
+      InspectConfig inspectConfig =
+          InspectConfig.newBuilder()
+              .addAllInfoTypes(infoTypes)
+              .addAllCustomInfoTypes(customInfoTypes)
+              .setMinLikelihood(minLikelihood)
+              .setLimits(findingLimits)
+              .setIncludeQuote(includeQuote)
+              .build();
+
+      FileInspector inspector =
+          new FileInspector(
+              dlpServiceClient, ProjectName.of(projectId).toString(), inspectConfig, concurrency);
+      inspector.inspect(
+          Paths.get(path),
+          (file, finding) -> {
+            System.out.print(file + ":" + finding.getLocation().getByteRange().getStart());
+            if (includeQuote) {
+              System.out.print("\tQuote: " + finding.getQuote());
+            }
+            System.out.print("\tInfo type: " + finding.getInfoType().getName());
+            System.out.println("\tLikelihood: " + finding.getLikelihood());
+          });
+      System.out.println(inspector);
+    } catch (Exception e) {
+      System.out.println("Error in inspectLocalText: " + e.getMessage());
+    }
+  }
+  // [END dlp_inspect_local_text]
+
   // [START dlp_inspect_gcs]
   /**
    * Inspect GCS file for Info types and wait on job completion using Google Cloud Pub/Sub
@@ -301,42 +354,18 @@ public class Inspect {
               .setInspectJob(inspectJobConfig)
               .build();
 
+      // Shared by every job in the process, and listening before the job is created
+      JobCompletionDispatcher dispatcher = JobCompletionDispatcher.forSubscription(
+          ProjectSubscriptionName.of(projectId, subscriptionId));
       DlpJob dlpJob = dlpServiceClient.createDlpJob(createDlpJobRequest);
+      dispatcher.register(dlpJob.getName());
 
       System.out.println("Job created with ID:" + dlpJob.getName());
 
-      final SettableApiFuture<Boolean> done = SettableApiFuture.create();
-
-      // Set up a Pub/Sub subscriber to listen on the job completion status
-      Subscriber subscriber =
-          Subscriber.newBuilder(
-                  ProjectSubscriptionName.of(projectId, subscriptionId),
-            (pubsubMessage, ackReplyConsumer) -> {
-              if (pubsubMessage.getAttributesCount() > 0
-                  && pubsubMessage
-                      .getAttributesMap()
-                      .get("DlpJobName")
-                      .equals(dlpJob.getName())) {
-                // notify job completion
-                done.set(true);
-                ackReplyConsumer.ack();
-              }
-            })
-              .build();
-      subscriber.startAsync();
-
       // Wait for job completion semi-synchronously
       // For long jobs, consider using a truly asynchronous execution model such as Cloud Functions
-      try {
-        done.get(1, TimeUnit.MINUTES);
-        Thread.sleep(500); // Wait for the job to become available
-      } catch (Exception e) {
-        System.out.println("Unable to verify job completion.");
-      }
-
       DlpJob completedJob =
-          dlpServiceClient.getDlpJob(
-              GetDlpJobRequest.newBuilder().setName(dlpJob.getName()).build());
+          dispatcher.awaitJob(dlpServiceClient, dlpJob.getName(), 1, TimeUnit.MINUTES);
 
       System.out.println("Job status: " + completedJob.getState());
       InspectDataSourceDetails inspectDataSourceDetails = completedJob.getInspectDetails();
@@ -425,42 +454,18 @@ public class Inspect {
               .setInspectJob(inspectJobConfig)
               .build();
 
+      // Shared by every job in the process, and listening before the job is created
+      JobCompletionDispatcher dispatcher = JobCompletionDispatcher.forSubscription(
+          ProjectSubscriptionName.of(projectId, subscriptionId));
       DlpJob dlpJob = dlpServiceClient.createDlpJob(createDlpJobRequest);
+      dispatcher.register(dlpJob.getName());
 
       System.out.println("Job created with ID:" + dlpJob.getName());
 
-      final SettableApiFuture<Boolean> done = SettableApiFuture.create();
-
-      // Set up a Pub/Sub subscriber to listen on the job completion status
-      Subscriber subscriber =
-          Subscriber.newBuilder(
-                  ProjectSubscriptionName.of(projectId, subscriptionId),
-            (pubsubMessage, ackReplyConsumer) -> {
-              if (pubsubMessage.getAttributesCount() > 0
-                  && pubsubMessage
-                      .getAttributesMap()
-                      .get("DlpJobName")
-                      .equals(dlpJob.getName())) {
-                // notify job completion
-                done.set(true);
-                ackReplyConsumer.ack();
-              }
-            })
-              .build();
-      subscriber.startAsync();
-
       // Wait for job completion semi-synchronously
       // For long jobs, consider using a truly asynchronous execution model such as Cloud Functions
-      try {
-        done.get(1, TimeUnit.MINUTES);
-        Thread.sleep(500); // Wait for the job to become available
-      } catch (Exception e) {
-        System.out.println("Unable to verify job completion.");
-      }
-
       DlpJob completedJob =
-          dlpServiceClient.getDlpJob(
-              GetDlpJobRequest.newBuilder().setName(dlpJob.getName()).build());
+          dispatcher.awaitJob(dlpServiceClient, dlpJob.getName(), 1, TimeUnit.MINUTES);
 
       System.out.println("Job status: " + completedJob.getState());
       InspectDataSourceDetails inspectDataSourceDetails = completedJob.getInspectDetails();
@@ -550,42 +555,18 @@ public class Inspect {
               .setInspectJob(inspectJobConfig)
               .build();
 
+      // Shared by every job in the process, and listening before the job is created
+      JobCompletionDispatcher dispatcher = JobCompletionDispatcher.forSubscription(
+          ProjectSubscriptionName.of(projectId, subscriptionId));
       DlpJob dlpJob = dlpServiceClient.createDlpJob(createDlpJobRequest);
+      dispatcher.register(dlpJob.getName());
 
       System.out.println("Job created with ID:" + dlpJob.getName());
 
       // Wait for job completion semi-synchronously
       // For long jobs, consider using a truly asynchronous execution model such as Cloud Functions
-      final SettableApiFuture<Boolean> done = SettableApiFuture.create();
-
-      // Set up a Pub/Sub subscriber to listen on the job completion status
-      Subscriber subscriber =
-          Subscriber.newBuilder(
-                  ProjectSubscriptionName.of(projectId, subscriptionId),
-            (pubsubMessage, ackReplyConsumer) -> {
-              if (pubsubMessage.getAttributesCount() > 0
-                  && pubsubMessage
-                      .getAttributesMap()
-                      .get("DlpJobName")
-                      .equals(dlpJob.getName())) {
-                // notify job completion
-                done.set(true);
-                ackReplyConsumer.ack();
-              }
-            })
-              .build();
-      subscriber.startAsync();
-
-      try {
-        done.get(1, TimeUnit.MINUTES);
-        Thread.sleep(500); // Wait for the job to become available
-      } catch (Exception e) {
-        System.out.println("Unable to verify job completion.");
-      }
-
       DlpJob completedJob =
-          dlpServiceClient.getDlpJob(
-              GetDlpJobRequest.newBuilder().setName(dlpJob.getName()).build());
+          dispatcher.awaitJob(dlpServiceClient, dlpJob.getName(), 1, TimeUnit.MINUTES);
 
       System.out.println("Job status: " + completedJob.getState());
       InspectDataSourceDetails inspectDataSourceDetails = completedJob.getInspectDetails();
@@ -619,6 +600,10 @@ public class Inspect {
     Option fileOption = new Option("f", "file path", true, "inspect input file path");
     optionsGroup.addOption(fileOption);
 
+    Option localTextOption =
+        new Option("t", "text path", true, "inspect large local text file or directory");
+    optionsGroup.addOption(localTextOption);
+
     Option gcsOption = new Option("gcs", "Google Cloud Storage", false, "inspect GCS file");
     optionsGroup.addOption(gcsOption);
 
@@ -686,6 +671,9 @@ public class Inspect {
     Option datastoreKindOption = Option.builder("kind").hasArg(true).required(false).build();
     commandLineOptions.addOption(datastoreKindOption);
 
+    Option concurrencyOption = Option.builder("concurrency").hasArg(true).required(false).build();
+    commandLineOptions.addOption(concurrencyOption);
+
     CommandLineParser parser = new DefaultParser();
     HelpFormatter formatter = new HelpFormatter();
     CommandLine cmd;
@@ -776,6 +764,18 @@ public class Inspect {
           customInfoTypesList,
           includeQuote,
           projectId);
+    } else if (cmd.hasOption("t")) {
+      String path = cmd.getOptionValue(localTextOption.getOpt());
+      int concurrency = Integer.parseInt(cmd.getOptionValue(concurrencyOption.getOpt(), "8"));
+      inspectLocalText(
+          path,
+          minLikelihood,
+          maxFindings,
+          infoTypesList,
+          customInfoTypesList,
+          includeQuote,
+          projectId,
+          concurrency);
       // gcs file inspection
     } else if (cmd.hasOption("gcs")) {
       String bucketName = cmd.getOptionValue(bucketNameOption.getOpt());
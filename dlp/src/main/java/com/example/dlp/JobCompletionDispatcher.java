@@ -0,0 +1,175 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.dlp;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.SettableApiFuture;
+import com.google.cloud.dlp.v2.DlpServiceClient;
+import com.google.cloud.pubsub.v1.AckReplyConsumer;
+import com.google.cloud.pubsub.v1.Subscriber;
+import com.google.privacy.dlp.v2.DlpJob;
+import com.google.privacy.dlp.v2.GetDlpJobRequest;
+import com.google.pubsub.v1.ProjectSubscriptionName;
+import com.google.pubsub.v1.PubsubMessage;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.threeten.bp.Duration;
+
+/**
+ * Delivers DLP job completion notifications from one Pub/Sub subscription to the jobs waiting for
+ * them.
+ *
+ * <p>A single subscriber serves every job in the process: each notification is matched to its
+ * job by the {@code DlpJobName} attribute and completes that job's future. Notifications for jobs
+ * nobody is waiting on are left unanswered rather than nacked, which would have them redelivered
+ * at once and spin between the processes sharing the subscription. The subscriber stops extending
+ * their ack deadline after ten seconds, so they are redelivered once it expires, to
+ * whichever waiter, in this or another process, has registered for them by then. Registering a
+ * job as soon as it is created keeps its own notification from arriving first.
+ */
+public class JobCompletionDispatcher implements AutoCloseable {
+
+  private static final String JOB_NAME_ATTRIBUTE = "DlpJobName";
+  private static final long INITIAL_POLL_MILLIS = 100;
+  // Gives up reading the final state after about 6 seconds in total.
+  private static final long MAX_POLL_MILLIS = 3200;
+  // How long a notification nobody waits for is held before the subscription redelivers it.
+  private static final Duration UNCLAIMED_HOLD = Duration.ofSeconds(10);
+
+  private static final Map<ProjectSubscriptionName, JobCompletionDispatcher> shared =
+      new HashMap<>();
+
+  private final ConcurrentMap<String, SettableApiFuture<Void>> waiting =
+      new ConcurrentHashMap<>();
+  private final Subscriber subscriber;
+
+  private JobCompletionDispatcher(ProjectSubscriptionName subscription) {
+    subscriber = Subscriber.newBuilder(subscription, this::receive)
+        .setMaxAckExtensionPeriod(UNCLAIMED_HOLD)
+        .build();
+  }
+
+  // [START dlp_job_completion_dispatcher]
+  /**
+   * Starts a dispatcher receiving notifications from {@code subscription}.
+   */
+  public static JobCompletionDispatcher start(ProjectSubscriptionName subscription) {
+    JobCompletionDispatcher dispatcher = new JobCompletionDispatcher(subscription);
+    dispatcher.subscriber.startAsync().awaitRunning();
+    return dispatcher;
+  }
+
+  /**
+   * Returns the dispatcher for {@code subscription} shared by the whole process, starting it on
+   * first use. It is closed when the JVM shuts down.
+   */
+  public static synchronized JobCompletionDispatcher forSubscription(
+      ProjectSubscriptionName subscription) {
+    JobCompletionDispatcher dispatcher = shared.get(subscription);
+    if (dispatcher == null) {
+      if (shared.isEmpty()) {
+        Runtime.getRuntime().addShutdownHook(new Thread(JobCompletionDispatcher::closeShared));
+      }
+      dispatcher = start(subscription);
+      shared.put(subscription, dispatcher);
+    }
+    return dispatcher;
+  }
+
+  private static synchronized void closeShared() {
+    for (JobCompletionDispatcher dispatcher : shared.values()) {
+      dispatcher.close();
+    }
+    shared.clear();
+  }
+
+  private void receive(PubsubMessage message, AckReplyConsumer consumer) {
+    String jobName = message.getAttributesMap().get(JOB_NAME_ATTRIBUTE);
+    if (jobName == null) {
+      // Not a DLP job notification; redelivering it would not help anyone.
+      consumer.ack();
+      return;
+    }
+    SettableApiFuture<Void> done = waiting.remove(jobName);
+    if (done == null) {
+      // Neither ack nor nack, so it is redelivered once its ack deadline is no longer extended.
+      return;
+    }
+    consumer.ack();
+    done.set(null);
+  }
+  // [END dlp_job_completion_dispatcher]
+
+  /**
+   * Returns a future completed when the notification for {@code jobName} arrives. Call this as
+   * soon as the job is created; {@link #awaitJob} reuses the registration.
+   */
+  public ApiFuture<Void> register(String jobName) {
+    SettableApiFuture<Void> done = SettableApiFuture.create();
+    SettableApiFuture<Void> existing = waiting.putIfAbsent(jobName, done);
+    return existing != null ? existing : done;
+  }
+
+  // [START dlp_await_job]
+  /**
+   * Waits up to {@code timeout} for {@code jobName} to complete and returns the job.
+   *
+   * <p>The notification can arrive shortly before the job's final state is readable, so the job
+   * is then read with a short backoff until it leaves the pending and running states. If no
+   * notification arrives in time, the job is returned in whatever state it is in.
+   */
+  public DlpJob awaitJob(DlpServiceClient dlpServiceClient, String jobName, long timeout,
+      TimeUnit unit) throws InterruptedException, ExecutionException {
+    GetDlpJobRequest request = GetDlpJobRequest.newBuilder().setName(jobName).build();
+    try {
+      register(jobName).get(timeout, unit);
+    } catch (TimeoutException e) {
+      waiting.remove(jobName);
+      return dlpServiceClient.getDlpJob(request);
+    }
+    DlpJob job = dlpServiceClient.getDlpJob(request);
+    long pollMillis = INITIAL_POLL_MILLIS;
+    while ((job.getState() == DlpJob.JobState.PENDING
+            || job.getState() == DlpJob.JobState.RUNNING)
+        && pollMillis <= MAX_POLL_MILLIS) {
+      Thread.sleep(pollMillis);
+      pollMillis *= 2;
+      job = dlpServiceClient.getDlpJob(request);
+    }
+    return job;
+  }
+  // [END dlp_await_job]
+
+  /**
+   * Stops receiving notifications. Jobs still waiting fail with {@link IllegalStateException}.
+   */
+  @Override
+  public void close() {
+    subscriber.stopAsync().awaitTerminated();
+    for (String jobName : waiting.keySet()) {
+      SettableApiFuture<Void> done = waiting.remove(jobName);
+      if (done != null) {
+        done.setException(new IllegalStateException("Dispatcher closed"));
+      }
+    }
+  }
+}
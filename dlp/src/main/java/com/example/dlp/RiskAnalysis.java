@@ -16,10 +16,8 @@
 
 package com.example.dlp;
 
-import com.google.api.core.SettableApiFuture;
 import com.google.cloud.ServiceOptions;
 import com.google.cloud.dlp.v2.DlpServiceClient;
-import com.google.cloud.pubsub.v1.Subscriber;
 import com.google.privacy.dlp.v2.Action;
 import com.google.privacy.dlp.v2.Action.PublishToPubSub;
 import com.google.privacy.dlp.v2.AnalyzeDataSourceRiskDetails;
@@ -37,7 +35,6 @@ import com.google.privacy.dlp.v2.BigQueryTable;
 import com.google.privacy.dlp.v2.CreateDlpJobRequest;
 import com.google.privacy.dlp.v2.DlpJob;
 import com.google.privacy.dlp.v2.FieldId;
-import com.google.privacy.dlp.v2.GetDlpJobRequest;
 import com.google.privacy.dlp.v2.InfoType;
 import com.google.privacy.dlp.v2.PrivacyMetric;
 import com.google.privacy.dlp.v2.PrivacyMetric.CategoricalStatsConfig;
@@ -58,7 +55,6 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -129,41 +125,17 @@ public class RiskAnalysis {
               .setRiskJob(riskAnalysisJobConfig)
               .build();
 
+      // Shared by every job in the process, and listening before the job is created
+      JobCompletionDispatcher dispatcher = JobCompletionDispatcher.forSubscription(
+          ProjectSubscriptionName.of(projectId, subscriptionId));
       DlpJob dlpJob = dlpServiceClient.createDlpJob(createDlpJobRequest);
+      dispatcher.register(dlpJob.getName());
       String dlpJobName = dlpJob.getName();
 
-      final SettableApiFuture<Boolean> done = SettableApiFuture.create();
-
-      // Set up a Pub/Sub subscriber to listen on the job completion status
-      Subscriber subscriber =
-          Subscriber.newBuilder(
-                  ProjectSubscriptionName.newBuilder()
-                      .setProject(projectId)
-                      .setSubscription(subscriptionId)
-                      .build(),
-            (pubsubMessage, ackReplyConsumer) -> {
-              if (pubsubMessage.getAttributesCount() > 0
-                  && pubsubMessage.getAttributesMap().get("DlpJobName").equals(dlpJobName)) {
-                // notify job completion
-                done.set(true);
-                ackReplyConsumer.ack();
-              }
-            })
-              .build();
-      subscriber.startAsync();
-
       // Wait for job completion semi-synchronously
       // For long jobs, consider using a truly asynchronous execution model such as Cloud Functions
-      try {
-        done.get(1, TimeUnit.MINUTES);
-        Thread.sleep(500); // Wait for the job to become available
-      } catch (TimeoutException e) {
-        System.out.println("Unable to verify job completion.");
-      }
-
-      // Retrieve completed job status
       DlpJob completedJob =
-          dlpServiceClient.getDlpJob(GetDlpJobRequest.newBuilder().setName(dlpJobName).build());
+          dispatcher.awaitJob(dlpServiceClient, dlpJobName, 1, TimeUnit.MINUTES);
 
       System.out.println("Job status: " + completedJob.getState());
       AnalyzeDataSourceRiskDetails riskDetails = completedJob.getRiskDetails();
@@ -248,41 +220,17 @@ public class RiskAnalysis {
               .setRiskJob(riskAnalysisJobConfig)
               .build();
 
+      // Shared by every job in the process, and listening before the job is created
+      JobCompletionDispatcher dispatcher = JobCompletionDispatcher.forSubscription(
+          ProjectSubscriptionName.of(projectId, subscriptionId));
       DlpJob dlpJob = dlpServiceClient.createDlpJob(createDlpJobRequest);
+      dispatcher.register(dlpJob.getName());
       String dlpJobName = dlpJob.getName();
 
-      final SettableApiFuture<Boolean> done = SettableApiFuture.create();
-
-      // Set up a Pub/Sub subscriber to listen on the job completion status
-      Subscriber subscriber =
-          Subscriber.newBuilder(
-                  ProjectSubscriptionName.newBuilder()
-                      .setProject(projectId)
-                      .setSubscription(subscriptionId)
-                      .build(),
-            (pubsubMessage, ackReplyConsumer) -> {
-              if (pubsubMessage.getAttributesCount() > 0
-                  && pubsubMessage.getAttributesMap().get("DlpJobName").equals(dlpJobName)) {
-                // notify job completion
-                done.set(true);
-                ackReplyConsumer.ack();
-              }
-            })
-              .build();
-      subscriber.startAsync();
-
       // Wait for job completion semi-synchronously
       // For long jobs, consider using a truly asynchronous execution model such as Cloud Functions
-      try {
-        done.get(1, TimeUnit.MINUTES);
-        Thread.sleep(500); // Wait for the job to become available
-      } catch (TimeoutException e) {
-        System.out.println("Unable to verify job completion.");
-      }
-
-      // Retrieve completed job status
       DlpJob completedJob =
-          dlpServiceClient.getDlpJob(GetDlpJobRequest.newBuilder().setName(dlpJobName).build());
+          dispatcher.awaitJob(dlpServiceClient, dlpJobName, 1, TimeUnit.MINUTES);
 
       System.out.println("Job status: " + completedJob.getState());
       AnalyzeDataSourceRiskDetails riskDetails = completedJob.getRiskDetails();
@@ -369,41 +317,17 @@ public class RiskAnalysis {
               .setRiskJob(riskAnalysisJobConfig)
               .build();
 
+      // Shared by every job in the process, and listening before the job is created
+      JobCompletionDispatcher dispatcher = JobCompletionDispatcher.forSubscription(
+          ProjectSubscriptionName.of(projectId, subscriptionId));
       DlpJob dlpJob = dlpServiceClient.createDlpJob(createDlpJobRequest);
+      dispatcher.register(dlpJob.getName());
       String dlpJobName = dlpJob.getName();
 
-      final SettableApiFuture<Boolean> done = SettableApiFuture.create();
-
-      // Set up a Pub/Sub subscriber to listen on the job completion status
-      Subscriber subscriber =
-          Subscriber.newBuilder(
-                  ProjectSubscriptionName.newBuilder()
-                      .setProject(projectId)
-                      .setSubscription(subscriptionId)
-                      .build(),
-            (pubsubMessage, ackReplyConsumer) -> {
-              if (pubsubMessage.getAttributesCount() > 0
-                  && pubsubMessage.getAttributesMap().get("DlpJobName").equals(dlpJobName)) {
-                // notify job completion
-                done.set(true);
-                ackReplyConsumer.ack();
-              }
-            })
-              .build();
-      subscriber.startAsync();
-
       // Wait for job completion semi-synchronously
       // For long jobs, consider using a truly asynchronous execution model such as Cloud Functions
-      try {
-        done.get(1, TimeUnit.MINUTES);
-        Thread.sleep(500); // Wait for the job to become available
-      } catch (TimeoutException e) {
-        System.out.println("Unable to verify job completion.");
-      }
-
-      // Retrieve completed job status
       DlpJob completedJob =
-          dlpServiceClient.getDlpJob(GetDlpJobRequest.newBuilder().setName(dlpJobName).build());
+          dispatcher.awaitJob(dlpServiceClient, dlpJobName, 1, TimeUnit.MINUTES);
 
       System.out.println("Job status: " + completedJob.getState());
       AnalyzeDataSourceRiskDetails riskDetails = completedJob.getRiskDetails();
@@ -503,41 +427,17 @@ public class RiskAnalysis {
               .setRiskJob(riskAnalysisJobConfig)
               .build();
 
+      // Shared by every job in the process, and listening before the job is created
+      JobCompletionDispatcher dispatcher = JobCompletionDispatcher.forSubscription(
+          ProjectSubscriptionName.of(projectId, subscriptionId));
       DlpJob dlpJob = dlpServiceClient.createDlpJob(createDlpJobRequest);
+      dispatcher.register(dlpJob.getName());
       String dlpJobName = dlpJob.getName();
 
-      final SettableApiFuture<Boolean> done = SettableApiFuture.create();
-
-      // Set up a Pub/Sub subscriber to listen on the job completion status
-      Subscriber subscriber =
-          Subscriber.newBuilder(
-                  ProjectSubscriptionName.newBuilder()
-                      .setProject(projectId)
-                      .setSubscription(subscriptionId)
-                      .build(),
-            (pubsubMessage, ackReplyConsumer) -> {
-              if (pubsubMessage.getAttributesCount() > 0
-                  && pubsubMessage.getAttributesMap().get("DlpJobName").equals(dlpJobName)) {
-                // notify job completion
-                done.set(true);
-                ackReplyConsumer.ack();
-              }
-            })
-              .build();
-      subscriber.startAsync();
-
       // Wait for job completion semi-synchronously
       // For long jobs, consider using a truly asynchronous execution model such as Cloud Functions
-      try {
-        done.get(1, TimeUnit.MINUTES);
-        Thread.sleep(500); // Wait for the job to become available
-      } catch (TimeoutException e) {
-        System.out.println("Unable to verify job completion.");
-      }
-
-      // retrieve completed job status
       DlpJob completedJob =
-          dlpServiceClient.getDlpJob(GetDlpJobRequest.newBuilder().setName(dlpJobName).build());
+          dispatcher.awaitJob(dlpServiceClient, dlpJobName, 1, TimeUnit.MINUTES);
 
       System.out.println("Job status: " + completedJob.getState());
       AnalyzeDataSourceRiskDetails riskDetails = completedJob.getRiskDetails();
@@ -651,41 +551,17 @@ public class RiskAnalysis {
               .setRiskJob(riskAnalysisJobConfig)
               .build();
 
+      // Shared by every job in the process, and listening before the job is created
+      JobCompletionDispatcher dispatcher = JobCompletionDispatcher.forSubscription(
+          ProjectSubscriptionName.of(projectId, subscriptionId));
       DlpJob dlpJob = dlpServiceClient.createDlpJob(createDlpJobRequest);
+      dispatcher.register(dlpJob.getName());
       String dlpJobName = dlpJob.getName();
 
-      final SettableApiFuture<Boolean> done = SettableApiFuture.create();
-
-      // Set up a Pub/Sub subscriber to listen on the job completion status
-      Subscriber subscriber =
-          Subscriber.newBuilder(
-                  ProjectSubscriptionName.newBuilder()
-                      .setProject(projectId)
-                      .setSubscription(subscriptionId)
-                      .build(),
-            (pubsubMessage, ackReplyConsumer) -> {
-              if (pubsubMessage.getAttributesCount() > 0
-                  && pubsubMessage.getAttributesMap().get("DlpJobName").equals(dlpJobName)) {
-                // notify job completion
-                done.set(true);
-                ackReplyConsumer.ack();
-              }
-            })
-              .build();
-      subscriber.startAsync();
-
       // Wait for job completion semi-synchronously
       // For long jobs, consider using a truly asynchronous execution model such as Cloud Functions
-      try {
-        done.get(1, TimeUnit.MINUTES);
-        Thread.sleep(500); // Wait for the job to become available
-      } catch (TimeoutException e) {
-        System.out.println("Unable to verify job completion.");
-      }
-
-      // retrieve completed job status
       DlpJob completedJob =
-          dlpServiceClient.getDlpJob(GetDlpJobRequest.newBuilder().setName(dlpJobName).build());
+          dispatcher.awaitJob(dlpServiceClient, dlpJobName, 1, TimeUnit.MINUTES);
 
       System.out.println("Job status: " + completedJob.getState());
       AnalyzeDataSourceRiskDetails riskDetails = completedJob.getRiskDetails();
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.dlp;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for the CSV handling of {@link CsvDeidentifier}; no API calls are made.
+ */
+@RunWith(JUnit4.class)
+public class CsvDeidentifierTest {
+
+  private static List<List<String>> readAll(String csv) throws IOException {
+    CsvDeidentifier.CsvReader reader = new CsvDeidentifier.CsvReader(new StringReader(csv));
+    List<List<String>> records = new ArrayList<>();
+    for (List<String> record = reader.readRecord(); record != null;
+        record = reader.readRecord()) {
+      records.add(record);
+    }
+    return records;
+  }
+
+  @Test
+  public void readRecord_quotedFields() throws Exception {
+    List<List<String>> records =
+        readAll("name,note\r\n\"Doe, Jane\",\"said \"\"hi\"\"\nthen left\"\n");
+
+    assertEquals(Arrays.asList(
+        Arrays.asList("name", "note"),
+        Arrays.asList("Doe, Jane", "said \"hi\"\nthen left")), records);
+  }
+
+  @Test
+  public void readRecord_skipsBlankLines() throws Exception {
+    List<List<String>> records = readAll("a,b\n\n1,2\r\n\r\n3,4\n\n");
+
+    assertEquals(Arrays.asList(
+        Arrays.asList("a", "b"), Arrays.asList("1", "2"), Arrays.asList("3", "4")), records);
+  }
+
+  @Test
+  public void readRecord_keepsEmptyFields() throws Exception {
+    assertEquals(Arrays.asList(Arrays.asList("", "", "")), readAll(",,\n"));
+  }
+
+  @Test
+  public void readRecord_unterminatedQuote_fails() throws Exception {
+    try {
+      readAll("\"never closed\n");
+      fail("Expected an IOException");
+    } catch (IOException e) {
+      assertThat(e.getMessage(), containsString("Unterminated"));
+    }
+  }
+
+  @Test
+  public void writeRecord_quotesOnlyWhenNeeded() throws Exception {
+    StringWriter out = new StringWriter();
+
+    CsvDeidentifier.writeRecord(out, Arrays.asList("plain", "a,b", "say \"x\"", "two\nlines"));
+
+    assertEquals("plain,\"a,b\",\"say \"\"x\"\"\",\"two\nlines\"\n", out.toString());
+  }
+
+  @Test
+  public void writeRecord_roundTripsThroughReader() throws Exception {
+    List<String> fields = Arrays.asList("Doe, Jane", "\"quoted\"", "line\r\nbreak", "");
+    StringWriter out = new StringWriter();
+
+    CsvDeidentifier.writeRecord(out, fields);
+
+    CsvDeidentifier.CsvReader reader =
+        new CsvDeidentifier.CsvReader(new StringReader(out.toString()));
+    assertEquals(fields, reader.readRecord());
+    assertNull(reader.readRecord());
+  }
+
+  @Test
+  public void deidentify_recordLargerThanChunk_fails() throws Exception {
+    // The record is rejected before any request is made, so no client is needed.
+    CsvDeidentifier deidentifier = new CsvDeidentifier(null, "projects/test",
+        null, 1, 64, CsvDeidentifier.DEFAULT_MAX_CHUNK_ROWS);
+    char[] big = new char[100];
+    Arrays.fill(big, 'x');
+
+    try {
+      deidentifier.deidentify(
+          new StringReader("header\n" + new String(big) + "\n"), new StringWriter());
+      fail("Expected an IOException");
+    } catch (IOException e) {
+      assertThat(e.getMessage(), containsString("Record 1"));
+    }
+  }
+}
@@ -147,6 +147,45 @@ public class DeIdentificationIT {
     assertTrue(Arrays.equals(resultCsv, correctCsv));
   }
 
+  @Test
+  public void testDeidentifyWithDateShiftStreaming() throws Exception {
+    String outputPath = "src/test/resources/results.streaming.temp.csv";
+    DeIdentification.main(
+        new String[] {
+          "-d",
+          "-streaming",
+          "-concurrency",
+          "2",
+          "-inputCsvPath",
+          "src/test/resources/dates.csv",
+          "-outputCsvPath",
+          outputPath,
+          "-dateFields",
+          "birth_date,register_date",
+          "-lowerBoundDays",
+          "5",
+          "-upperBoundDays",
+          "5",
+          "-contextField",
+          "name",
+          "-wrappedKey",
+          wrappedKey,
+          "-keyName",
+          keyName
+        });
+    String output = bout.toString();
+    assertThat(output, containsString("De-identified 4 rows in 1 chunks"));
+    assertThat(
+        output,
+        containsString("Successfully saved date-shift output to: results.streaming.temp.csv"));
+
+    // Streaming must produce exactly the same output as a single request
+    byte[] resultCsv = Files.readAllBytes(Paths.get(outputPath));
+    byte[] correctCsv = Files.readAllBytes(Paths.get("src/test/resources/results.correct.csv"));
+
+    assertTrue(Arrays.equals(resultCsv, correctCsv));
+  }
+
   @After
   public void tearDown() {
     System.setOut(null);
@@ -17,11 +17,22 @@
 package com.example.dlp;
 
 import static org.hamcrest.CoreMatchers.containsString;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
 
+import com.google.cloud.ServiceOptions;
+import com.google.cloud.dlp.v2.DlpServiceClient;
+import com.google.privacy.dlp.v2.InfoType;
+import com.google.privacy.dlp.v2.InspectConfig;
+import com.google.privacy.dlp.v2.ProjectName;
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -110,6 +121,55 @@ public class InspectIT {
     assertThat(output, containsString("CUSTOM_REGEX_0"));
   }
 
+  @Test
+  public void testLocalTextInspectionReturnsInfoTypes() throws Exception {
+    Inspect.main(
+        new String[] {
+            "-t", "src/test/resources/test.txt", "-infoTypes", "PHONE_NUMBER", "EMAIL_ADDRESS"
+        });
+    String output = bout.toString();
+    assertThat(output, containsString("src/test/resources/test.txt:19"));
+    assertThat(output, containsString("PHONE_NUMBER"));
+    assertThat(output, containsString("EMAIL_ADDRESS"));
+  }
+
+  @Test
+  public void testLocalTextInspectionReportsBoundaryFindingsOnce() throws Exception {
+    String line = "Mail gary@somedomain.com about it.\n";
+    Path file = Files.createTempFile("dlp-windows", ".txt");
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 300; i++) {
+      text.append(line);
+    }
+    Files.write(file, text.toString().getBytes(StandardCharsets.UTF_8));
+    InspectConfig inspectConfig =
+        InspectConfig.newBuilder()
+            .addInfoTypes(InfoType.newBuilder().setName("EMAIL_ADDRESS"))
+            .build();
+    Set<Long> starts = new HashSet<>();
+
+    try (DlpServiceClient dlpServiceClient = DlpServiceClient.create()) {
+      // Small windows, so that several emails cross window boundaries.
+      FileInspector inspector =
+          new FileInspector(
+              dlpServiceClient,
+              ProjectName.of(ServiceOptions.getDefaultProjectId()).toString(),
+              inspectConfig,
+              4,
+              4096,
+              256);
+      inspector.inspect(
+          file, (path, finding) -> starts.add(finding.getLocation().getByteRange().getStart()));
+    } finally {
+      Files.delete(file);
+    }
+
+    assertEquals(300, starts.size());
+    for (long start : starts) {
+      assertEquals(5, start % line.length());
+    }
+  }
+
   @Test
   public void testImageFileInspectionReturnsInfoTypes() throws Exception {
     Inspect.main(
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.memcache;
+
+import java.io.IOException;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+import net.rubyeye.xmemcached.MemcachedClientBuilder;
+import net.rubyeye.xmemcached.XMemcachedClientBuilder;
+import net.rubyeye.xmemcached.command.BinaryCommandFactory;
+import net.rubyeye.xmemcached.utils.AddrUtil;
+
+// [START listener]
+/**
+ * Creates one memcached client when the application starts, for every request to share, and shuts
+ * it down when the application stops.
+ *
+ * <p>Configured with environment variables, which can be set in {@code app.yaml}:
+ * {@code GAE_MEMCACHE_HOST} and {@code GAE_MEMCACHE_PORT}, {@code MEMCACHE_POOL_SIZE} (the number
+ * of connections, default 4), {@code MEMCACHE_BINARY_PROTOCOL} ({@code true} to use the binary
+ * protocol), {@code MEMCACHE_NEAR_CACHE_SIZE} (the most keys kept in process, default 0 for none)
+ * and {@code MEMCACHE_NEAR_CACHE_TTL_SECONDS} (default 10).
+ */
+@WebListener
+public class AppServletContextListener implements ServletContextListener {
+
+  static final String STORE_ATTRIBUTE = "memcacheStore";
+
+  private static String env(String name, String defaultValue) {
+    String value = System.getenv(name);
+    return value != null ? value : defaultValue;
+  }
+
+  private MemcacheStore createStore() throws IOException {
+    String addr = env("GAE_MEMCACHE_HOST", "localhost");
+    String port = env("GAE_MEMCACHE_PORT", "11211");
+    MemcachedClientBuilder builder = new XMemcachedClientBuilder(
+        AddrUtil.getAddresses(addr + ":" + port));
+    // Each connection handles many requests at once; a few spread the load over more sockets.
+    builder.setConnectionPoolSize(Integer.parseInt(env("MEMCACHE_POOL_SIZE", "4")));
+    if (Boolean.parseBoolean(env("MEMCACHE_BINARY_PROTOCOL", "false"))) {
+      builder.setCommandFactory(new BinaryCommandFactory());
+    }
+    return new MemcacheStore(builder.build(),
+        Integer.parseInt(env("MEMCACHE_NEAR_CACHE_SIZE", "0")),
+        Long.parseLong(env("MEMCACHE_NEAR_CACHE_TTL_SECONDS", "10")));
+  }
+
+  @Override
+  public void contextDestroyed(ServletContextEvent event) {
+    MemcacheStore store = (MemcacheStore) event.getServletContext().getAttribute(STORE_ATTRIBUTE);
+    if (store != null) {
+      try {
+        store.shutdown();
+      } catch (IOException e) {
+        event.getServletContext().log("Failed to shut down the memcache client", e);
+      }
+      event.getServletContext().setAttribute(STORE_ATTRIBUTE, null);
+    }
+  }
+
+  // Run this before web application is started
+  @Override
+  public void contextInitialized(ServletContextEvent event) {
+    if (event.getServletContext().getAttribute(STORE_ATTRIBUTE) == null) {
+      try {
+        event.getServletContext().setAttribute(STORE_ATTRIBUTE, createStore());
+      } catch (IOException e) {
+        event.getServletContext().log("Failed to create the memcache client", e);
+      }
+    }
+  }
+}
+// [END listener]
@@ -23,11 +23,7 @@ import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import net.rubyeye.xmemcached.MemcachedClient;
-import net.rubyeye.xmemcached.MemcachedClientBuilder;
-import net.rubyeye.xmemcached.XMemcachedClientBuilder;
 import net.rubyeye.xmemcached.exception.MemcachedException;
-import net.rubyeye.xmemcached.utils.AddrUtil;
 
 // [START example]
 @SuppressWarnings("serial")
@@ -37,23 +33,28 @@ public class MemcacheServlet extends HttpServlet {
   @Override
   public void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException,
       ServletException {
-    String addr =
-        System.getenv().containsKey("GAE_MEMCACHE_HOST")
-            ? System.getenv("GAE_MEMCACHE_HOST") : "localhost";
-    String port =
-        System.getenv().containsKey("GAE_MEMCACHE_HOST")
-            ? System.getenv("GAE_MEMCACHE_PORT") : "11211";
+    // Shared by every request; see AppServletContextListener.
+    MemcacheStore store = (MemcacheStore) req.getServletContext()
+        .getAttribute(AppServletContextListener.STORE_ATTRIBUTE);
+    if (store == null) {
+      throw new ServletException("Memcache client is not available");
+    }
     String key = "count";
-    MemcachedClientBuilder builder = new XMemcachedClientBuilder(
-        AddrUtil.getAddresses(addr + ":" + port));
-    MemcachedClient client = builder.build();
     long count = 0L;
+    String greeting;
     try {
-      count = client.incr(key, 1L, 0L);
+      count = store.incr(key, 1L, 0L);
+      // Rarely changes, so it can be served from the near-cache.
+      greeting = store.getCached("greeting");
+      if (greeting == null) {
+        greeting = "Hello from memcache";
+        store.set("greeting", 3600, greeting);
+      }
     } catch (TimeoutException | InterruptedException | MemcachedException e) {
       throw new ServletException("Memcache error", e);
     }
     resp.setContentType("text/plain");
+    resp.getWriter().print(greeting + "\n");
     resp.getWriter().print("Value is " + count + "\n");
   }
 }
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.memcache;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import net.rubyeye.xmemcached.MemcachedClient;
+import net.rubyeye.xmemcached.exception.MemcachedException;
+
+// [START near_cache]
+/**
+ * A memcached client shared by every request, with an optional in-process near-cache in front of
+ * it for keys that are read far more often than they change.
+ *
+ * <p>Values read with {@link #getCached} are kept locally for a fixed time, and the least recently
+ * used are evicted once the near-cache holds its maximum number of keys. A value changed by
+ * another instance can therefore be seen up to that time late here, so keys that must always be
+ * current, such as counters, should be read with {@link #get} instead.
+ *
+ * <p>Counts near-cache hits, memcached hits and misses, and the time of each call to memcached.
+ */
+public class MemcacheStore {
+
+  private final MemcachedClient client;
+  private final long nearCacheTtlNanos;
+  private final Map<String, NearEntry> nearCache;
+
+  private final LongAdder nearHits = new LongAdder();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder calls = new LongAdder();
+  private final LongAdder callNanos = new LongAdder();
+  private final LongAccumulator maxCallNanos = new LongAccumulator(Math::max, 0);
+
+  private static class NearEntry {
+    final Object value;
+    final long expiresAtNanos;
+
+    NearEntry(Object value, long expiresAtNanos) {
+      this.value = value;
+      this.expiresAtNanos = expiresAtNanos;
+    }
+  }
+
+  /**
+   * @param nearCacheSize the most keys kept in the near-cache, or 0 to disable it.
+   * @param nearCacheTtlSeconds how long a value stays in the near-cache.
+   */
+  public MemcacheStore(MemcachedClient client, int nearCacheSize, long nearCacheTtlSeconds) {
+    this.client = client;
+    this.nearCacheTtlNanos = TimeUnit.SECONDS.toNanos(nearCacheTtlSeconds);
+    this.nearCache = nearCacheSize <= 0 ? null
+        : new LinkedHashMap<String, NearEntry>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, NearEntry> eldest) {
+            return size() > nearCacheSize;
+          }
+        };
+  }
+
+  /** Reads {@code key} from memcached. */
+  public <T> T get(String key) throws TimeoutException, InterruptedException, MemcachedException {
+    long start = System.nanoTime();
+    T value = client.get(key);
+    recordCall(start);
+    (value != null ? hits : misses).increment();
+    return value;
+  }
+
+  /** Reads {@code key} from the near-cache if it is there and fresh, or else from memcached. */
+  @SuppressWarnings("unchecked")
+  public <T> T getCached(String key)
+      throws TimeoutException, InterruptedException, MemcachedException {
+    if (nearCache == null) {
+      return get(key);
+    }
+    NearEntry entry;
+    synchronized (nearCache) {
+      entry = nearCache.get(key);
+    }
+    if (entry != null && System.nanoTime() - entry.expiresAtNanos < 0) {
+      nearHits.increment();
+      return (T) entry.value;
+    }
+    T value = get(key);
+    if (value != null) {
+      putNear(key, value);
+    }
+    return value;
+  }
+
+  /** Writes {@code key} to memcached, expiring after {@code expirySeconds}, and near-caches it. */
+  public void set(String key, int expirySeconds, Object value)
+      throws TimeoutException, InterruptedException, MemcachedException {
+    long start = System.nanoTime();
+    client.set(key, expirySeconds, value);
+    recordCall(start);
+    if (nearCache != null) {
+      putNear(key, value);
+    }
+  }
+
+  /** Atomically adds {@code delta} to {@code key}, starting from {@code initialValue}. */
+  public long incr(String key, long delta, long initialValue)
+      throws TimeoutException, InterruptedException, MemcachedException {
+    long start = System.nanoTime();
+    long value = client.incr(key, delta, initialValue);
+    recordCall(start);
+    return value;
+  }
+
+  private void putNear(String key, Object value) {
+    NearEntry entry = new NearEntry(value, System.nanoTime() + nearCacheTtlNanos);
+    synchronized (nearCache) {
+      nearCache.put(key, entry);
+    }
+  }
+
+  private void recordCall(long startNanos) {
+    long nanos = System.nanoTime() - startNanos;
+    calls.increment();
+    callNanos.add(nanos);
+    maxCallNanos.accumulate(nanos);
+  }
+
+  public void shutdown() throws IOException {
+    client.shutdown();
+  }
+
+  @Override
+  public String toString() {
+    long count = calls.sum();
+    return String.format(
+        "Near-cache hits: %d, memcache hits: %d, misses: %d\n"
+            + "Memcache calls: %d, mean %.2f ms, max %.2f ms\n",
+        nearHits.sum(), hits.sum(), misses.sum(), count,
+        count == 0 ? 0 : callNanos.sum() / 1e6 / count, maxCallNanos.get() / 1e6);
+  }
+}
+// [END near_cache]
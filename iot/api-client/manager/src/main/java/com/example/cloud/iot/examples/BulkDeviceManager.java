@@ -0,0 +1,289 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.cloud.iot.examples;
+
+import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
+import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.util.Charsets;
+import com.google.api.services.cloudiot.v1.CloudIot;
+import com.google.api.services.cloudiot.v1.CloudIotScopes;
+import com.google.api.services.cloudiot.v1.model.Device;
+import com.google.api.services.cloudiot.v1.model.DeviceCredential;
+import com.google.api.services.cloudiot.v1.model.ListDevicesResponse;
+import com.google.api.services.cloudiot.v1.model.ModifyCloudToDeviceConfigRequest;
+import com.google.api.services.cloudiot.v1.model.PublicKeyCredential;
+import com.google.common.util.concurrent.RateLimiter;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Creates, patches, configures and deletes many devices in one registry concurrently.
+ *
+ * <p>All operations share one {@link CloudIot} client, so one transport, connection pool and
+ * credential serve every request, and each request retries with backoff through
+ * {@link RetryHttpInitializerWrapper}. Operations are started at no more than a fixed rate, to stay
+ * within the registry's quota, and no more than a fixed number are in flight at once. Operations on
+ * the same device always run in file order, one after another, so a device can be created,
+ * configured and deleted in one file; operations on different devices run concurrently.
+ *
+ * <p>Operations are read from a CSV file with one operation per line:
+ *
+ * <pre>
+ * create-rsa,my-device-1,rsa_cert.pem
+ * create-es,my-device-2,ec_public.pem
+ * create-unauth,my-device-3
+ * patch-rsa,my-device-3,rsa_cert.pem
+ * patch-es,my-device-3,ec_public.pem
+ * set-config,my-device-1,{"mode": "eco"}
+ * delete,my-device-2
+ * </pre>
+ *
+ * <p>Everything after the second comma is the argument, so configurations may contain commas. Blank
+ * lines and lines starting with {@code #} are ignored.
+ */
+public class BulkDeviceManager {
+
+  private static final int PAGE_SIZE = 1000;
+  private static final long PROGRESS_INTERVAL_SECONDS = 10;
+
+  private final CloudIot service;
+  private final String registryPath;
+  private final ConcurrentMap<String, String> keys = new ConcurrentHashMap<>();
+  private final LongAdder succeeded = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+
+  public BulkDeviceManager(CloudIot service, String projectId, String cloudRegion,
+      String registryName) {
+    this.service = service;
+    this.registryPath = String.format("projects/%s/locations/%s/registries/%s",
+        projectId, cloudRegion, registryName);
+  }
+
+  // [START iot_shared_client]
+  /** Creates a client to share between every operation. */
+  public static CloudIot createService() throws GeneralSecurityException, IOException {
+    GoogleCredential credential =
+        GoogleCredential.getApplicationDefault().createScoped(CloudIotScopes.all());
+    return new CloudIot.Builder(
+        GoogleNetHttpTransport.newTrustedTransport(), JacksonFactory.getDefaultInstance(),
+        new RetryHttpInitializerWrapper(credential))
+        .setApplicationName(DeviceRegistryExample.APP_NAME).build();
+  }
+  // [END iot_shared_client]
+
+  // [START iot_list_devices_paged]
+  /**
+   * Returns every device in the registry. Pages are fetched as the iteration reaches them, so only
+   * one page is held in memory however large the registry is.
+   */
+  public Iterable<Device> devices() {
+    return () -> new Iterator<Device>() {
+      private Iterator<Device> page = null;
+      private String pageToken = null;
+
+      @Override
+      public boolean hasNext() {
+        while (page == null || !page.hasNext()) {
+          if (page != null && pageToken == null) {
+            return false;
+          }
+          ListDevicesResponse response;
+          try {
+            response = service.projects().locations().registries().devices()
+                .list(registryPath)
+                .setPageSize(PAGE_SIZE)
+                .setPageToken(pageToken)
+                .execute();
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+          page = response.getDevices() != null
+              ? response.getDevices().iterator()
+              : Collections.<Device>emptyIterator();
+          pageToken = response.getNextPageToken();
+          if (pageToken != null && pageToken.isEmpty()) {
+            pageToken = null;
+          }
+        }
+        return true;
+      }
+
+      @Override
+      public Device next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return page.next();
+      }
+    };
+  }
+  // [END iot_list_devices_paged]
+
+  // [START iot_bulk_operations]
+  /**
+   * Runs every operation in {@code csvFile}, with up to {@code concurrency} in flight and no more
+   * than {@code operationsPerSecond} started each second, printing progress every 10 seconds and a
+   * summary at the end. Failed operations are printed and do not stop the others.
+   */
+  public void run(Path csvFile, int concurrency, double operationsPerSecond)
+      throws IOException, InterruptedException {
+    RateLimiter rateLimiter = RateLimiter.create(operationsPerSecond);
+    // Each device id hashes to one single-threaded lane, so its operations run in order.
+    ExecutorService[] lanes = new ExecutorService[concurrency];
+    for (int i = 0; i < concurrency; i++) {
+      lanes[i] = Executors.newSingleThreadExecutor();
+    }
+    Semaphore inFlight = new Semaphore(concurrency);
+    ScheduledExecutorService progressTimer = Executors.newSingleThreadScheduledExecutor();
+    long startNanos = System.nanoTime();
+    ScheduledFuture<?> progress = progressTimer.scheduleAtFixedRate(
+        () -> System.out.println(summary(startNanos)),
+        PROGRESS_INTERVAL_SECONDS, PROGRESS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    try (BufferedReader reader = Files.newBufferedReader(csvFile, Charsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        String[] fields = line.split(",", 3);
+        String deviceId = fields.length > 1 ? fields[1].trim() : "";
+        inFlight.acquire();
+        rateLimiter.acquire();
+        lanes[Math.floorMod(deviceId.hashCode(), concurrency)].execute(() -> {
+          try {
+            apply(fields);
+            succeeded.increment();
+          } catch (IOException | RuntimeException e) {
+            failed.increment();
+            System.out.format("Failed %s: %s\n", String.join(",", fields), e.getMessage());
+          } finally {
+            inFlight.release();
+          }
+        });
+      }
+    } finally {
+      for (ExecutorService lane : lanes) {
+        lane.shutdown();
+      }
+      for (ExecutorService lane : lanes) {
+        lane.awaitTermination(1, TimeUnit.HOURS);
+      }
+      progress.cancel(false);
+      progressTimer.shutdown();
+    }
+    System.out.println(summary(startNanos));
+  }
+  // [END iot_bulk_operations]
+
+  private void apply(String[] fields) throws IOException {
+    if (fields.length < 2) {
+      throw new IllegalArgumentException("Expected an operation and a device id");
+    }
+    String operation = fields[0].trim();
+    String deviceId = fields[1].trim();
+    String argument = fields.length > 2 ? fields[2].trim() : null;
+    String devicePath = registryPath + "/devices/" + deviceId;
+    CloudIot.Projects.Locations.Registries.Devices devices =
+        service.projects().locations().registries().devices();
+    switch (operation) {
+      case "create-rsa":
+      case "create-es":
+      case "create-unauth":
+        Device device = new Device().setId(deviceId);
+        device.setCredentials(operation.equals("create-unauth")
+            ? Arrays.<DeviceCredential>asList()
+            : Arrays.asList(credential(operation.endsWith("rsa"), argument)));
+        devices.create(registryPath, device).execute();
+        break;
+      case "patch-rsa":
+      case "patch-es":
+        Device patch = new Device()
+            .setCredentials(Arrays.asList(credential(operation.endsWith("rsa"), argument)));
+        devices.patch(devicePath, patch).setUpdateMask("credentials").execute();
+        break;
+      case "set-config":
+        if (argument == null) {
+          throw new IllegalArgumentException("Missing configuration");
+        }
+        ModifyCloudToDeviceConfigRequest request = new ModifyCloudToDeviceConfigRequest()
+            .setVersionToUpdate(0L)
+            .setBinaryData(
+                Base64.getEncoder().encodeToString(argument.getBytes(Charsets.UTF_8)));
+        devices.modifyCloudToDeviceConfig(devicePath, request).execute();
+        break;
+      case "delete":
+        devices.delete(devicePath).execute();
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown operation " + operation);
+    }
+  }
+
+  /** Returns a credential for the key in {@code keyFile}, reading each file only once. */
+  private DeviceCredential credential(boolean rsa, String keyFile) {
+    if (keyFile == null) {
+      throw new IllegalArgumentException("Missing key file");
+    }
+    String key = keys.computeIfAbsent(keyFile, file -> {
+      try {
+        return new String(Files.readAllBytes(Paths.get(file)), Charsets.UTF_8);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    });
+    PublicKeyCredential publicKey = new PublicKeyCredential()
+        .setKey(key)
+        .setFormat(rsa ? "RSA_X509_PEM" : "ES256_PEM");
+    return new DeviceCredential().setPublicKey(publicKey);
+  }
+
+  private String summary(long startNanos) {
+    double seconds = (System.nanoTime() - startNanos) / 1e9;
+    long done = succeeded.sum() + failed.sum();
+    return String.format("Completed %d operations (%d failed) in %.1fs: %.1f ops/s",
+        done, failed.sum(), seconds, done / seconds);
+  }
+
+  public long getSucceeded() {
+    return succeeded.sum();
+  }
+
+  public long getFailed() {
+    return failed.sum();
+  }
+}
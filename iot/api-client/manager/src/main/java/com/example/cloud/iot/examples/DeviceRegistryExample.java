@@ -32,6 +32,7 @@ import com.google.api.services.cloudiot.v1.model.DeviceState;
 import com.google.api.services.cloudiot.v1.model.EventNotificationConfig;
 import com.google.api.services.cloudiot.v1.model.GetIamPolicyRequest;
 import com.google.api.services.cloudiot.v1.model.ListDeviceStatesResponse;
+import com.google.api.services.cloudiot.v1.model.ListDevicesResponse;
 import com.google.api.services.cloudiot.v1.model.ModifyCloudToDeviceConfigRequest;
 import com.google.api.services.cloudiot.v1.model.PublicKeyCredential;
 import com.google.api.services.cloudiot.v1.model.SetIamPolicyRequest;
@@ -44,6 +45,7 @@ import com.google.pubsub.v1.TopicName;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -175,26 +177,35 @@ public class DeviceRegistryExample {
     final String registryPath = String.format("projects/%s/locations/%s/registries/%s",
         projectId, cloudRegion, registryName);
 
-    List<Device> devices =
-        service
-            .projects()
-            .locations()
-            .registries()
-            .devices()
-            .list(registryPath)
-            .execute()
-            .getDevices();
-
-    if (devices != null) {
-      System.out.println("Found " + devices.size() + " devices");
-      for (Device d : devices) {
-        System.out.println("Id: " + d.getId());
-        if (d.getConfig() != null) {
-          // Note that this will show the device config in Base64 encoded format.
-          System.out.println("Config: " + d.getConfig().toPrettyString());
+    // Devices are listed one page at a time.
+    int found = 0;
+    String pageToken = null;
+    do {
+      ListDevicesResponse response =
+          service
+              .projects()
+              .locations()
+              .registries()
+              .devices()
+              .list(registryPath)
+              .setPageToken(pageToken)
+              .execute();
+      if (response.getDevices() != null) {
+        for (Device d : response.getDevices()) {
+          found++;
+          System.out.println("Id: " + d.getId());
+          if (d.getConfig() != null) {
+            // Note that this will show the device config in Base64 encoded format.
+            System.out.println("Config: " + d.getConfig().toPrettyString());
+          }
+          System.out.println();
         }
-        System.out.println();
       }
+      pageToken = response.getNextPageToken();
+    } while (pageToken != null && !pageToken.isEmpty());
+
+    if (found > 0) {
+      System.out.println("Found " + found + " devices");
     } else {
       System.out.println("Registry has no devices.");
     }
@@ -730,6 +741,17 @@ public class DeviceRegistryExample {
     }
 
     switch (options.command) {
+      case "bulk":
+        if (options.csvFile == null) {
+          System.out.println("Specify csv_file with the operations to run.");
+        } else {
+          System.out.println("Run bulk operations");
+          new BulkDeviceManager(BulkDeviceManager.createService(), options.projectId,
+              options.cloudRegion, options.registryName)
+              .run(Paths.get(options.csvFile), options.concurrency,
+                  options.operationsPerSecond);
+        }
+        break;
       case "create-iot-topic":
         System.out.println("Create IoT Topic:");
         createIotTopic(options.projectId, options.pubsubTopic);
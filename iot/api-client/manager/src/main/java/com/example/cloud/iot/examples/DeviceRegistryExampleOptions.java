@@ -38,6 +38,9 @@ public class DeviceRegistryExampleOptions {
   String member;
   String role;
   long version = 0;
+  String csvFile;
+  int concurrency = 16;
+  double operationsPerSecond = 50;
   static final Options options = new Options();
 
   /** Construct an DeviceRegistryExampleOptions class from command line flags. */
@@ -58,6 +61,7 @@ public class DeviceRegistryExampleOptions {
             .hasArg()
             .desc(
                 "Command to run:"
+                + "\n\tbulk"
                 + "\n\tcreate-iot-topic" // TODO: Descriptions or too verbose?
                 + "\n\tcreate-rsa"
                 + "\n\tcreate-es"
@@ -149,6 +153,27 @@ public class DeviceRegistryExampleOptions {
             .hasArg()
             .desc("The role (e.g. 'roles/viewer') used when setting IAM permissions.")
             .build());
+    options.addOption(
+        Option.builder()
+            .type(String.class)
+            .longOpt("csv_file")
+            .hasArg()
+            .desc("CSV file of operations for the bulk command.")
+            .build());
+    options.addOption(
+        Option.builder()
+            .type(String.class)
+            .longOpt("concurrency")
+            .hasArg()
+            .desc("The most bulk operations in flight at once.")
+            .build());
+    options.addOption(
+        Option.builder()
+            .type(String.class)
+            .longOpt("operations_per_second")
+            .hasArg()
+            .desc("The most bulk operations started per second.")
+            .build());
 
     CommandLineParser parser = new DefaultParser();
     CommandLine commandLine;
@@ -205,6 +230,16 @@ public class DeviceRegistryExampleOptions {
       if (commandLine.hasOption("role")) {
         res.role = commandLine.getOptionValue("role");
       }
+      if (commandLine.hasOption("csv_file")) {
+        res.csvFile = commandLine.getOptionValue("csv_file");
+      }
+      if (commandLine.hasOption("concurrency")) {
+        res.concurrency = Integer.parseInt(commandLine.getOptionValue("concurrency"));
+      }
+      if (commandLine.hasOption("operations_per_second")) {
+        res.operationsPerSecond =
+            Double.parseDouble(commandLine.getOptionValue("operations_per_second"));
+      }
 
       return res;
     } catch (ParseException e) {
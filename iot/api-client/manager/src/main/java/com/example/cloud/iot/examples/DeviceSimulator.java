@@ -0,0 +1,304 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.cloud.iot.examples;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+
+/**
+ * Simulates a fleet of devices publishing telemetry to the Cloud IoT Core MQTT bridge, to load
+ * test a registry.
+ *
+ * <p>Every device has its own asynchronous MQTT connection, but no device has a thread of its own:
+ * publishing, token refresh and reconnects are all scheduled on one small shared pool. The
+ * devices share one private key and one {@link JwtCache}, so the key is parsed once and tokens are
+ * signed only when they near expiry. Each device reconnects with a fresh token shortly before its
+ * current token expires, rather than waiting for the bridge to drop it.
+ *
+ * <p>Publish latency is measured from the publish call until the bridge acknowledges the message
+ * for QoS 1, or until the message is written to the connection for QoS 0.
+ */
+public class DeviceSimulator {
+
+  private static final int CONNECTS_PER_SECOND = 100;
+  private static final long REFRESH_MARGIN_MILLIS = TimeUnit.MINUTES.toMillis(1);
+  private static final long MIN_REFRESH_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(10);
+  private static final long MAX_RECONNECT_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(60);
+  private static final long PROGRESS_INTERVAL_SECONDS = 10;
+
+  private final String serverUri;
+  private final String registryPath;
+  private final JwtCache jwtCache;
+  private final int qos;
+  private final byte[] payload;
+  private final ScheduledExecutorService scheduler;
+  private final LongAdder published = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  private final LongAdder skipped = new LongAdder();
+  private final LongAdder connects = new LongAdder();
+  private final LongAdder connectFailures = new LongAdder();
+  private final LatencyHistogram latencies = new LatencyHistogram();
+  private volatile boolean stopping;
+
+  private final IMqttActionListener publishListener = new IMqttActionListener() {
+    @Override
+    public void onSuccess(IMqttToken token) {
+      latencies.record(System.nanoTime() - (Long) token.getUserContext());
+      published.increment();
+    }
+
+    @Override
+    public void onFailure(IMqttToken token, Throwable cause) {
+      failed.increment();
+    }
+  };
+
+  /**
+   * @param serverUri the MQTT bridge, e.g. {@code ssl://mqtt.googleapis.com:8883}.
+   * @param registryPath {@code projects/<project>/locations/<region>/registries/<registry>}.
+   * @param qos 0 for at most once or 1 for at least once delivery.
+   * @param payloadBytes the size of every message.
+   * @param threads the size of the shared scheduling pool.
+   */
+  public DeviceSimulator(String serverUri, String registryPath, JwtCache jwtCache, int qos,
+      int payloadBytes, int threads) {
+    this.serverUri = serverUri;
+    this.registryPath = registryPath;
+    this.jwtCache = jwtCache;
+    this.qos = qos;
+    this.payload = new byte[payloadBytes];
+    new Random().nextBytes(payload);
+    this.scheduler = Executors.newScheduledThreadPool(threads);
+  }
+
+  /** One simulated device and its connection. */
+  private class Device {
+    final MqttAsyncClient client;
+    final String topic;
+    final long periodNanos;
+    volatile ScheduledFuture<?> publisher;
+    volatile ScheduledFuture<?> refresh;
+    long reconnectDelayMillis = 500;
+
+    Device(String deviceId, double messagesPerSecond) throws MqttException {
+      client = new MqttAsyncClient(
+          serverUri, registryPath + "/devices/" + deviceId, new MemoryPersistence());
+      topic = String.format("/devices/%s/events", deviceId);
+      periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / messagesPerSecond);
+      client.setCallback(new MqttCallback() {
+        @Override
+        public void connectionLost(Throwable cause) {
+          retryConnect();
+        }
+
+        @Override
+        public void messageArrived(String topic, MqttMessage message) {
+          // Simulated devices do not subscribe to anything.
+        }
+
+        @Override
+        public void deliveryComplete(IMqttDeliveryToken token) {
+          // Publishes are tracked by their action listener.
+        }
+      });
+    }
+
+    void connect() {
+      if (stopping) {
+        return;
+      }
+      MqttConnectOptions options = new MqttConnectOptions();
+      // Cloud IoT Core only supports MQTT 3.1.1.
+      options.setMqttVersion(MqttConnectOptions.MQTT_VERSION_3_1_1);
+      Properties sslProps = new Properties();
+      sslProps.setProperty("com.ibm.ssl.protocol", "TLSv1.2");
+      options.setSSLProperties(sslProps);
+      options.setUserName("unused");
+      JwtCache.Token jwt = jwtCache.getToken();
+      options.setPassword(jwt.getValue().toCharArray());
+      options.setMaxInflight(1000);
+      try {
+        client.connect(options, null, new IMqttActionListener() {
+          @Override
+          public void onSuccess(IMqttToken token) {
+            connects.increment();
+            reconnectDelayMillis = 500;
+            if (stopping) {
+              return;
+            }
+            // Reconnect with a new token, at a slightly random time so the fleet does not
+            // reconnect all at once. A connection lost and re-established in between replaces
+            // the pending refresh, so each device only ever has one.
+            long refreshMillis = jwt.getExpiresAtMillis() - System.currentTimeMillis()
+                - REFRESH_MARGIN_MILLIS
+                - ThreadLocalRandom.current().nextLong(REFRESH_MARGIN_MILLIS);
+            scheduleRefresh(Math.max(MIN_REFRESH_DELAY_MILLIS, refreshMillis));
+            if (publisher == null) {
+              long offsetNanos = ThreadLocalRandom.current().nextLong(periodNanos);
+              publisher = scheduler.scheduleAtFixedRate(
+                  Device.this::publish, offsetNanos, periodNanos, TimeUnit.NANOSECONDS);
+            }
+          }
+
+          @Override
+          public void onFailure(IMqttToken token, Throwable cause) {
+            connectFailures.increment();
+            retryConnect();
+          }
+        });
+      } catch (MqttException e) {
+        connectFailures.increment();
+        retryConnect();
+      }
+    }
+
+    synchronized void scheduleRefresh(long delayMillis) {
+      if (refresh != null) {
+        refresh.cancel(false);
+      }
+      refresh = scheduler.schedule(this::reconnect, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void retryConnect() {
+      if (stopping) {
+        return;
+      }
+      scheduler.schedule(this::connect, reconnectDelayMillis, TimeUnit.MILLISECONDS);
+      reconnectDelayMillis = Math.min(reconnectDelayMillis * 2, MAX_RECONNECT_DELAY_MILLIS);
+    }
+
+    void reconnect() {
+      try {
+        client.disconnect(null, new IMqttActionListener() {
+          @Override
+          public void onSuccess(IMqttToken token) {
+            connect();
+          }
+
+          @Override
+          public void onFailure(IMqttToken token, Throwable cause) {
+            connect();
+          }
+        });
+      } catch (MqttException e) {
+        connect();
+      }
+    }
+
+    void publish() {
+      if (!client.isConnected()) {
+        skipped.increment();
+        return;
+      }
+      try {
+        client.publish(topic, payload, qos, false, System.nanoTime(), publishListener);
+      } catch (MqttException e) {
+        // Most often too many messages in flight; the device is publishing faster than the
+        // bridge acknowledges.
+        failed.increment();
+      }
+    }
+
+    void close() {
+      if (publisher != null) {
+        publisher.cancel(false);
+      }
+      if (refresh != null) {
+        refresh.cancel(false);
+      }
+      try {
+        if (client.isConnected()) {
+          client.disconnect().waitForCompletion(TimeUnit.SECONDS.toMillis(10));
+        }
+        client.close();
+      } catch (MqttException e) {
+        // Shutting down anyway.
+      }
+    }
+  }
+
+  // [START iot_mqtt_simulate_fleet]
+  /**
+   * Connects {@code numDevices} devices named {@code <devicePrefix>-<n>}, publishes from each at
+   * {@code messagesPerSecond} for {@code durationSeconds}, then disconnects them and prints a
+   * summary. The devices must already exist in the registry with this simulator's public key.
+   */
+  public void run(String devicePrefix, int numDevices, double messagesPerSecond,
+      long durationSeconds) throws Exception {
+    List<Device> devices = new ArrayList<>(numDevices);
+    for (int i = 0; i < numDevices; i++) {
+      Device device = new Device(devicePrefix + "-" + i, messagesPerSecond);
+      devices.add(device);
+      // Ramp up gradually rather than opening every connection at once.
+      scheduler.schedule(
+          device::connect, i * 1000L / CONNECTS_PER_SECOND, TimeUnit.MILLISECONDS);
+    }
+
+    long startNanos = System.nanoTime();
+    ScheduledFuture<?> progress = scheduler.scheduleAtFixedRate(
+        () -> System.out.println(summary(startNanos)),
+        PROGRESS_INTERVAL_SECONDS, PROGRESS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    TimeUnit.SECONDS.sleep(durationSeconds);
+
+    stopping = true;
+    progress.cancel(false);
+    for (Device device : devices) {
+      device.close();
+    }
+    scheduler.shutdownNow();
+    System.out.println(summary(startNanos));
+  }
+  // [END iot_mqtt_simulate_fleet]
+
+  private String summary(long startNanos) {
+    double seconds = (System.nanoTime() - startNanos) / 1e9;
+    return String.format(
+        "%d connects (%d failed); published %d (%.0f msg/s), %d failed, %d skipped while "
+            + "disconnected; latency %s",
+        connects.sum(), connectFailures.sum(), published.sum(), published.sum() / seconds,
+        failed.sum(), skipped.sum(), latencies);
+  }
+
+  public long getPublished() {
+    return published.sum();
+  }
+
+  public long getFailed() {
+    return failed.sum();
+  }
+
+  public LatencyHistogram getLatencies() {
+    return latencies;
+  }
+}
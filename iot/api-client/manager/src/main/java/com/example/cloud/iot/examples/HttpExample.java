@@ -48,6 +48,7 @@ import java.nio.file.Paths;
 import java.security.KeyFactory;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.util.Base64;
+import java.util.Random;
 import org.joda.time.DateTime;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -228,6 +229,32 @@ public class HttpExample {
       System.exit(1);
     }
 
+    if (options.concurrency > 0) {
+      // Publish as fast as the bridge accepts, through pooled connections and a cached token.
+      byte[] payload = new byte[options.payloadBytes];
+      new Random().nextBytes(payload);
+      JwtCache jwtCache = new JwtCache(
+          options.projectId, options.privateKeyFile, options.algorithm, options.tokenExpMins);
+      String devicePath = String.format(
+          "projects/%s/locations/%s/registries/%s/devices/%s",
+          options.projectId, options.cloudRegion, options.registryId, options.deviceId);
+      if (options.localBenchmark) {
+        try (HttpTelemetryBridge.LocalStandIn standIn =
+            new HttpTelemetryBridge.LocalStandIn(options.concurrency)) {
+          new HttpTelemetryBridge(
+              String.format("%s/%s/", standIn.getAddress(), options.apiVersion), devicePath,
+              options.messageType, jwtCache, options.concurrency)
+              .publish(payload, options.numMessages);
+        }
+      } else {
+        new HttpTelemetryBridge(
+            String.format("%s/%s/", options.httpBridgeAddress, options.apiVersion), devicePath,
+            options.messageType, jwtCache, options.concurrency)
+            .publish(payload, options.numMessages);
+      }
+      return;
+    }
+
     // Create the corresponding JWT depending on the selected algorithm.
     String token;
     DateTime iat = new DateTime();
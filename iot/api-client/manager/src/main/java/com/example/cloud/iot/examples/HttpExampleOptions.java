@@ -36,6 +36,9 @@ public class HttpExampleOptions {
   String httpBridgeAddress = "https://cloudiotdevice.googleapis.com";
   String apiVersion = "v1";
   String messageType = "event";
+  int concurrency = 0;
+  int payloadBytes = 256;
+  boolean localBenchmark = false;
 
   /** Construct an HttpExampleOptions class from command line flags. */
   public static HttpExampleOptions fromFlags(String[] args) {
@@ -125,6 +128,25 @@ public class HttpExampleOptions {
             .hasArg()
             .desc("Indicates whether message is a telemetry event or a device state message")
             .build());
+    options.addOption(
+        Option.builder()
+            .type(Number.class)
+            .longOpt("concurrency")
+            .hasArg()
+            .desc("Publish as fast as possible with this many requests in flight.")
+            .build());
+    options.addOption(
+        Option.builder()
+            .type(Number.class)
+            .longOpt("payload_bytes")
+            .hasArg()
+            .desc("Size of each message when publishing with --concurrency.")
+            .build());
+    options.addOption(
+        Option.builder()
+            .longOpt("local_benchmark")
+            .desc("Publish with --concurrency to a local stand-in for the HTTP bridge.")
+            .build());
 
     CommandLineParser parser = new DefaultParser();
     CommandLine commandLine;
@@ -156,6 +178,13 @@ public class HttpExampleOptions {
       if (commandLine.hasOption("message_type")) {
         res.messageType = commandLine.getOptionValue("message_type");
       }
+      if (commandLine.hasOption("concurrency")) {
+        res.concurrency = ((Number) commandLine.getParsedOptionValue("concurrency")).intValue();
+      }
+      if (commandLine.hasOption("payload_bytes")) {
+        res.payloadBytes = ((Number) commandLine.getParsedOptionValue("payload_bytes")).intValue();
+      }
+      res.localBenchmark = commandLine.hasOption("local_benchmark");
       return res;
     } catch (ParseException e) {
       System.err.println(e.getMessage());
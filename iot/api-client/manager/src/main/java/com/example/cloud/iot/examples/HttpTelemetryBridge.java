@@ -0,0 +1,243 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.cloud.iot.examples;
+
+import com.google.api.client.http.ByteArrayContent;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Publishes telemetry for one device through the Cloud IoT Core HTTP bridge at a high rate.
+ *
+ * <p>One transport and request factory are shared by every request, and the JDK keeps their
+ * connections alive between requests, as long as every response is read to its end. A fixed set of
+ * workers keeps up to {@code concurrency} requests in flight. Each worker builds its JSON envelope
+ * and Base64 payload into buffers it reuses for every message. The JWT comes from a
+ * {@link JwtCache}, so the key is parsed once and tokens are signed only when they near expiry.
+ *
+ * <p>The JDK keeps at most {@code http.maxConnections} idle connections per host, 5 by default,
+ * and reads the property once per JVM. Launch the JVM with {@code -Dhttp.maxConnections} of at
+ * least {@code concurrency}, or the connections above that limit are closed after each request.
+ */
+public class HttpTelemetryBridge {
+
+  private static final byte[] EVENT_PREFIX =
+      "{\"binary_data\":\"".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] STATE_PREFIX =
+      "{\"state\":{\"binary_data\":\"".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] EVENT_SUFFIX = "\"}".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] STATE_SUFFIX = "\"}}".getBytes(StandardCharsets.US_ASCII);
+
+  private final HttpRequestFactory requestFactory;
+  private final String url;
+  private final boolean event;
+  private final JwtCache jwtCache;
+  private final int concurrency;
+  private final LongAdder sent = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  private final LatencyHistogram latencies = new LatencyHistogram();
+  private final ThreadLocal<Worker> workers = ThreadLocal.withInitial(Worker::new);
+
+  /**
+   * @param urlPath the bridge address and API version, e.g.
+   *     {@code https://cloudiotdevice.googleapis.com/v1/}.
+   * @param devicePath {@code projects/<project>/locations/<region>/registries/<r>/devices/<d>}.
+   * @param messageType "event" to publish telemetry or "state" to set the device state.
+   * @param concurrency the most requests in flight at once.
+   */
+  public HttpTelemetryBridge(String urlPath, String devicePath, String messageType,
+      JwtCache jwtCache, int concurrency) {
+    if (Integer.getInteger("http.maxConnections", 5) < concurrency) {
+      System.err.println(String.format(
+          "http.maxConnections is below %d; start the JVM with -Dhttp.maxConnections=%d to keep "
+              + "every connection alive", concurrency, concurrency));
+    }
+    this.requestFactory = new NetHttpTransport().createRequestFactory();
+    this.event = messageType.equals("event");
+    this.url = urlPath + devicePath + (event ? ":publishEvent" : ":setState");
+    this.jwtCache = jwtCache;
+    this.concurrency = concurrency;
+  }
+
+  /** The reusable state of one worker thread. */
+  private class Worker {
+    final GenericUrl requestUrl = new GenericUrl(url);
+    final HttpHeaders headers = new HttpHeaders();
+    final byte[] drain = new byte[4096];
+    byte[] base64 = new byte[0];
+    byte[] body = new byte[0];
+    String token;
+
+    /** Builds the request body for {@code payload} in {@link #body}, returning its length. */
+    int envelope(byte[] payload) {
+      byte[] prefix = event ? EVENT_PREFIX : STATE_PREFIX;
+      byte[] suffix = event ? EVENT_SUFFIX : STATE_SUFFIX;
+      int encodedLength = 4 * ((payload.length + 2) / 3);
+      int length = prefix.length + encodedLength + suffix.length;
+      if (body.length < length) {
+        base64 = new byte[encodedLength];
+        body = new byte[length];
+        // The prefix never changes, so it is written only when the buffer is replaced.
+        System.arraycopy(prefix, 0, body, 0, prefix.length);
+      }
+      int encoded = Base64.getEncoder().encode(payload, base64);
+      System.arraycopy(base64, 0, body, prefix.length, encoded);
+      System.arraycopy(suffix, 0, body, prefix.length + encoded, suffix.length);
+      return prefix.length + encoded + suffix.length;
+    }
+
+    void send(byte[] payload) {
+      long startNanos = System.nanoTime();
+      try {
+        String current = jwtCache.get();
+        if (!current.equals(token)) {
+          token = current;
+          headers.setAuthorization("Bearer " + token);
+          headers.setCacheControl("no-cache");
+        }
+        int length = envelope(payload);
+        HttpRequest request = requestFactory.buildPostRequest(
+            requestUrl, new ByteArrayContent("application/json", body, 0, length));
+        request.setHeaders(headers);
+        request.setThrowExceptionOnExecuteError(false);
+        HttpResponse response = request.execute();
+        try {
+          // Read the response to its end so the connection can be reused.
+          InputStream content = response.getContent();
+          if (content != null) {
+            while (content.read(drain) >= 0) {
+              // Discard.
+            }
+          }
+        } finally {
+          response.ignore();
+        }
+        if (response.isSuccessStatusCode()) {
+          latencies.record(System.nanoTime() - startNanos);
+          sent.increment();
+        } else {
+          failed.increment();
+        }
+      } catch (IOException e) {
+        failed.increment();
+      }
+    }
+  }
+
+  // [START iot_http_bridge_publish]
+  /**
+   * Publishes {@code payload} {@code numMessages} times, keeping up to {@code concurrency} requests
+   * in flight, and prints throughput and latency percentiles.
+   */
+  public void publish(byte[] payload, int numMessages) throws InterruptedException {
+    ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+    Semaphore inFlight = new Semaphore(concurrency);
+    long startNanos = System.nanoTime();
+    for (int i = 0; i < numMessages; i++) {
+      inFlight.acquire();
+      executor.execute(() -> {
+        try {
+          workers.get().send(payload);
+        } finally {
+          inFlight.release();
+        }
+      });
+    }
+    executor.shutdown();
+    executor.awaitTermination(1, TimeUnit.HOURS);
+    double seconds = (System.nanoTime() - startNanos) / 1e9;
+    System.out.format("Sent %d messages (%d failed) in %.1fs: %.0f msg/s; latency %s\n",
+        sent.sum(), failed.sum(), seconds, sent.sum() / seconds, latencies);
+  }
+  // [END iot_http_bridge_publish]
+
+  public long getSent() {
+    return sent.sum();
+  }
+
+  public long getFailed() {
+    return failed.sum();
+  }
+
+  public LatencyHistogram getLatencies() {
+    return latencies;
+  }
+
+  /**
+   * A local HTTP server that accepts every request like the bridge does, for measuring the
+   * client side without a network or quota in the way.
+   */
+  public static class LocalStandIn implements AutoCloseable {
+    private static final byte[] RESPONSE = "{}".getBytes(StandardCharsets.US_ASCII);
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final LongAdder received = new LongAdder();
+
+    public LocalStandIn(int threads) throws IOException {
+      server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+      executor = Executors.newFixedThreadPool(threads);
+      server.setExecutor(executor);
+      server.createContext("/", exchange -> {
+        try (InputStream in = exchange.getRequestBody()) {
+          byte[] drain = new byte[4096];
+          while (in.read(drain) >= 0) {
+            // Discard.
+          }
+        }
+        received.increment();
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, RESPONSE.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+          out.write(RESPONSE);
+        }
+      });
+      server.start();
+    }
+
+    /** Returns the address to use in place of the bridge address. */
+    public String getAddress() {
+      return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public long getReceived() {
+      return received.sum();
+    }
+
+    @Override
+    public void close() {
+      server.stop(0);
+      executor.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.cloud.iot.examples;
+
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signs Cloud IoT Core JWTs with a private key that is read and parsed only once, and hands out
+ * the same token until it nears expiry.
+ *
+ * <p>A token is replaced once {@link #REFRESH_FRACTION} of its lifetime has passed, so callers
+ * that connect with it always have a good part of its lifetime left. The token only names the
+ * project as audience, so any number of devices sharing a key can share one cache.
+ */
+public class JwtCache {
+
+  /** The fraction of a token's lifetime after which a new one is signed. */
+  public static final double REFRESH_FRACTION = 0.8;
+
+  private final String projectId;
+  private final SignatureAlgorithm algorithm;
+  private final PrivateKey key;
+  private final long lifetimeMillis;
+  private Token token;
+  private long issuedAtMillis;
+
+  /** A signed token together with when it expires. */
+  public static class Token {
+    private final String value;
+    private final long expiresAtMillis;
+
+    Token(String value, long expiresAtMillis) {
+      this.value = value;
+      this.expiresAtMillis = expiresAtMillis;
+    }
+
+    public String getValue() {
+      return value;
+    }
+
+    public long getExpiresAtMillis() {
+      return expiresAtMillis;
+    }
+  }
+
+  /**
+   * @param algorithm either "RS256" or "ES256".
+   * @param lifetimeMinutes how long each token is valid; Cloud IoT Core allows at most 24 hours.
+   */
+  public JwtCache(String projectId, String privateKeyFile, String algorithm, int lifetimeMinutes)
+      throws Exception {
+    this.projectId = projectId;
+    if (algorithm.equals("RS256")) {
+      this.algorithm = SignatureAlgorithm.RS256;
+    } else if (algorithm.equals("ES256")) {
+      this.algorithm = SignatureAlgorithm.ES256;
+    } else {
+      throw new IllegalArgumentException(
+          "Invalid algorithm " + algorithm + ". Should be one of 'RS256' or 'ES256'.");
+    }
+    byte[] keyBytes = Files.readAllBytes(Paths.get(privateKeyFile));
+    KeyFactory kf = KeyFactory.getInstance(algorithm.equals("RS256") ? "RSA" : "EC");
+    this.key = kf.generatePrivate(new PKCS8EncodedKeySpec(keyBytes));
+    this.lifetimeMillis = TimeUnit.MINUTES.toMillis(lifetimeMinutes);
+  }
+
+  /** Returns a token with at least {@code 1 - REFRESH_FRACTION} of its lifetime left. */
+  public String get() {
+    return getToken().getValue();
+  }
+
+  /**
+   * Returns a token with at least {@code 1 - REFRESH_FRACTION} of its lifetime left, with its
+   * expiry, so the two always belong to the same token.
+   */
+  public synchronized Token getToken() {
+    long now = System.currentTimeMillis();
+    if (token == null || now >= issuedAtMillis + (long) (lifetimeMillis * REFRESH_FRACTION)) {
+      issuedAtMillis = now;
+      long expiresAtMillis = now + lifetimeMillis;
+      token = new Token(
+          Jwts.builder()
+              .setIssuedAt(new Date(issuedAtMillis))
+              .setExpiration(new Date(expiresAtMillis))
+              .setAudience(projectId)
+              .signWith(algorithm, key)
+              .compact(),
+          expiresAtMillis);
+    }
+    return token;
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.cloud.iot.examples;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * A lock-free latency histogram that many threads can record into at once.
+ *
+ * <p>Latencies are counted in logarithmic buckets, four per doubling, so percentiles are accurate
+ * to within about 19% at any scale while memory stays fixed however many samples are recorded.
+ */
+public class LatencyHistogram {
+
+  private static final int BUCKETS_PER_DOUBLING = 4;
+  // Covers one microsecond up to about 18 minutes.
+  private static final int BUCKETS = 30 * BUCKETS_PER_DOUBLING;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+  /** Records one latency. */
+  public void record(long nanos) {
+    long micros = Math.max(1, TimeUnit.NANOSECONDS.toMicros(nanos));
+    int bucket = (int) (Math.log(micros) / Math.log(2) * BUCKETS_PER_DOUBLING);
+    counts.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+    maxNanos.accumulate(nanos);
+  }
+
+  /** Returns the number of recorded latencies. */
+  public long getCount() {
+    long count = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      count += counts.get(i);
+    }
+    return count;
+  }
+
+  /**
+   * Returns the latency in milliseconds below which {@code percent} percent of the recorded
+   * latencies fall, rounded up to its bucket's upper bound.
+   */
+  public double getPercentileMillis(double percent) {
+    long count = getCount();
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percent / 100 * count));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        double upperMicros = Math.pow(2, (i + 1) / (double) BUCKETS_PER_DOUBLING);
+        return Math.min(upperMicros / 1000, getMaxMillis());
+      }
+    }
+    return getMaxMillis();
+  }
+
+  public double getMaxMillis() {
+    return maxNanos.get() / 1e6;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("p50 %.1fms, p90 %.1fms, p99 %.1fms, max %.1fms",
+        getPercentileMillis(50), getPercentileMillis(90), getPercentileMillis(99),
+        getMaxMillis());
+  }
+}
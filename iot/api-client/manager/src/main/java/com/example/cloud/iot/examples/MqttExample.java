@@ -147,6 +147,28 @@ public class MqttExample {
     final String mqttServerAddress =
         String.format("ssl://%s:%s", options.mqttBridgeHostname, options.mqttBridgePort);
 
+    if (options.numDevices > 0) {
+      // Load test the registry with a fleet of simulated devices sharing this device's key.
+      DeviceSimulator simulator =
+          new DeviceSimulator(
+              mqttServerAddress,
+              String.format(
+                  "projects/%s/locations/%s/registries/%s",
+                  options.projectId, options.cloudRegion, options.registryId),
+              new JwtCache(
+                  options.projectId,
+                  options.privateKeyFile,
+                  options.algorithm,
+                  options.tokenExpMins),
+              options.qos,
+              options.payloadBytes,
+              options.threads);
+      simulator.run(
+          options.deviceId, options.numDevices, options.messagesPerSecond,
+          options.durationSeconds);
+      return;
+    }
+
     // Create our MQTT client. The mqttClientId is a unique string that identifies this device. For
     // Google Cloud IoT Core, it must be in the format below.
     final String mqttClientId =
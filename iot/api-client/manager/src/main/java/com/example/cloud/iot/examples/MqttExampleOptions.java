@@ -36,6 +36,12 @@ public class MqttExampleOptions {
   String mqttBridgeHostname = "mqtt.googleapis.com";
   short mqttBridgePort = 8883;
   String messageType = "event";
+  int numDevices = 0;
+  double messagesPerSecond = 1;
+  int qos = 1;
+  int payloadBytes = 100;
+  long durationSeconds = 60;
+  int threads = 4;
 
   /** Construct an MqttExampleOptions class from command line flags. */
   public static MqttExampleOptions fromFlags(String[] args) {
@@ -125,6 +131,48 @@ public class MqttExampleOptions {
             .hasArg()
             .desc("Indicates whether the message is a telemetry event or a device state message")
             .build());
+    options.addOption(
+        Option.builder()
+            .type(Number.class)
+            .longOpt("num_devices")
+            .hasArg()
+            .desc("Simulate this many devices, named <device_id>-<n>, instead of one device.")
+            .build());
+    options.addOption(
+        Option.builder()
+            .type(String.class)
+            .longOpt("messages_per_second")
+            .hasArg()
+            .desc("Telemetry events each simulated device publishes per second.")
+            .build());
+    options.addOption(
+        Option.builder()
+            .type(Number.class)
+            .longOpt("qos")
+            .hasArg()
+            .desc("MQTT QoS of simulated messages, 0 or 1.")
+            .build());
+    options.addOption(
+        Option.builder()
+            .type(Number.class)
+            .longOpt("payload_bytes")
+            .hasArg()
+            .desc("Size of each simulated message.")
+            .build());
+    options.addOption(
+        Option.builder()
+            .type(Number.class)
+            .longOpt("duration_seconds")
+            .hasArg()
+            .desc("How long to run the simulation.")
+            .build());
+    options.addOption(
+        Option.builder()
+            .type(Number.class)
+            .longOpt("threads")
+            .hasArg()
+            .desc("Threads scheduling the simulated devices.")
+            .build());
 
     CommandLineParser parser = new DefaultParser();
     CommandLine commandLine;
@@ -157,6 +205,26 @@ public class MqttExampleOptions {
       if (commandLine.hasOption("message_type")) {
         res.messageType = commandLine.getOptionValue("message_type");
       }
+      if (commandLine.hasOption("num_devices")) {
+        res.numDevices = ((Number) commandLine.getParsedOptionValue("num_devices")).intValue();
+      }
+      if (commandLine.hasOption("messages_per_second")) {
+        res.messagesPerSecond =
+            Double.parseDouble(commandLine.getOptionValue("messages_per_second"));
+      }
+      if (commandLine.hasOption("qos")) {
+        res.qos = ((Number) commandLine.getParsedOptionValue("qos")).intValue();
+      }
+      if (commandLine.hasOption("payload_bytes")) {
+        res.payloadBytes = ((Number) commandLine.getParsedOptionValue("payload_bytes")).intValue();
+      }
+      if (commandLine.hasOption("duration_seconds")) {
+        res.durationSeconds =
+            ((Number) commandLine.getParsedOptionValue("duration_seconds")).longValue();
+      }
+      if (commandLine.hasOption("threads")) {
+        res.threads = ((Number) commandLine.getParsedOptionValue("threads")).intValue();
+      }
       return res;
     } catch (ParseException e) {
       System.err.println(e.getMessage());
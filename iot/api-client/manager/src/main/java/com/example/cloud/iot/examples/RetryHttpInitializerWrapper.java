@@ -77,7 +77,12 @@ public class RetryHttpInitializerWrapper implements HttpRequestInitializer {
   public final void initialize(final HttpRequest request) {
     request.setReadTimeout(2 * ONE_MINUTE_MILLIS); // 2 minutes read timeout
     final HttpUnsuccessfulResponseHandler backoffHandler =
-        new HttpBackOffUnsuccessfulResponseHandler(new ExponentialBackOff()).setSleeper(sleeper);
+        new HttpBackOffUnsuccessfulResponseHandler(new ExponentialBackOff())
+            .setSleeper(sleeper)
+            // Also back off when the quota is exceeded, which is common with many concurrent
+            // requests.
+            .setBackOffRequired(
+                response -> response.getStatusCode() == 429 || response.getStatusCode() / 100 == 5);
     request.setInterceptor(wrappedCredential);
     request.setUnsuccessfulResponseHandler(
         new HttpUnsuccessfulResponseHandler() {
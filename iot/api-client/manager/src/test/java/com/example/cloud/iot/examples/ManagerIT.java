@@ -21,6 +21,10 @@ import com.google.pubsub.v1.Topic;
 
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 
 import org.junit.After;
 import org.junit.Assert;
@@ -243,6 +247,46 @@ public class ManagerIT {
     }
   }
 
+  @Test
+  public void testBulkOperations() throws Exception {
+    topic = DeviceRegistryExample.createIotTopic(
+        PROJECT_ID,
+        TOPIC_ID);
+    DeviceRegistryExample.createRegistry(CLOUD_REGION, PROJECT_ID, REGISTRY_ID, TOPIC_ID);
+    BulkDeviceManager manager = new BulkDeviceManager(
+        BulkDeviceManager.createService(), PROJECT_ID, CLOUD_REGION, REGISTRY_ID);
+
+    Path csv = Files.createTempFile("operations", ".csv");
+    Files.write(csv, Arrays.asList(
+        "create-rsa,bulk-device-0," + RSA_PATH,
+        "create-es,bulk-device-1," + ES_PATH,
+        "create-unauth,bulk-device-2",
+        "patch-rsa,bulk-device-2," + RSA_PATH,
+        "set-config,bulk-device-0,{\"mode\": \"eco\"}"), StandardCharsets.UTF_8);
+    manager.run(csv, 3, 10);
+    int found = 0;
+    for (com.google.api.services.cloudiot.v1.model.Device device : manager.devices()) {
+      found++;
+    }
+
+    // Assertions
+    String got = bout.toString();
+    Assert.assertTrue(got.contains("Completed 5 operations (0 failed)"));
+    Assert.assertEquals(3, found);
+
+    // Clean up
+    Files.write(csv, Arrays.asList(
+        "delete,bulk-device-0",
+        "delete,bulk-device-1",
+        "delete,bulk-device-2"), StandardCharsets.UTF_8);
+    manager.run(csv, 3, 10);
+    Files.delete(csv);
+    DeviceRegistryExample.deleteRegistry(CLOUD_REGION, PROJECT_ID, REGISTRY_ID);
+    try (TopicAdminClient topicAdminClient = TopicAdminClient.create()) {
+      topicAdminClient.deleteTopic(topic.getNameAsTopicName());
+    }
+  }
+
   @Test
   public void testCreateGetRegistry() throws Exception {
     topic = DeviceRegistryExample.createIotTopic(
@@ -523,4 +567,64 @@ public class ManagerIT {
       topicAdminClient.deleteTopic(topic.getNameAsTopicName());
     }
   }
+
+  @Test
+  public void testMqttSimulatedDevices() throws Exception {
+    final String devicePrefix = "rsa-device-mqtt-sim";
+    topic = DeviceRegistryExample.createIotTopic(
+        PROJECT_ID,
+        TOPIC_ID);
+    DeviceRegistryExample.createRegistry(CLOUD_REGION, PROJECT_ID, REGISTRY_ID, TOPIC_ID);
+    for (int i = 0; i < 3; i++) {
+      DeviceRegistryExample.createDeviceWithRs256(
+          devicePrefix + "-" + i, RSA_PATH, PROJECT_ID, CLOUD_REGION, REGISTRY_ID);
+    }
+
+    String[] testArgs = {
+        "-project_id=" + PROJECT_ID,
+        "-registry_id=" + REGISTRY_ID,
+        "-device_id=" + devicePrefix,
+        "-private_key_file=" + PKCS_PATH,
+        "-algorithm=RS256",
+        "-num_devices=3",
+        "-messages_per_second=2",
+        "-duration_seconds=15"
+    };
+    com.example.cloud.iot.examples.MqttExample.main(testArgs);
+
+    // Assertions
+    String got = bout.toString();
+    Assert.assertTrue(got.contains("3 connects (0 failed)"));
+    Assert.assertTrue(got.contains("latency p50"));
+
+    // Clean up
+    for (int i = 0; i < 3; i++) {
+      DeviceRegistryExample.deleteDevice(
+          devicePrefix + "-" + i, PROJECT_ID, CLOUD_REGION, REGISTRY_ID);
+    }
+    DeviceRegistryExample.deleteRegistry(CLOUD_REGION, PROJECT_ID, REGISTRY_ID);
+    try (TopicAdminClient topicAdminClient = TopicAdminClient.create()) {
+      topicAdminClient.deleteTopic(topic.getNameAsTopicName());
+    }
+  }
+
+  @Test
+  public void testHttpLocalBenchmark() throws Exception {
+    String[] testArgs = {
+        "-project_id=" + PROJECT_ID,
+        "-registry_id=" + REGISTRY_ID,
+        "-device_id=rsa-device-http-bench",
+        "-private_key_file=" + PKCS_PATH,
+        "-algorithm=RS256",
+        "-num_messages=500",
+        "-concurrency=8",
+        "-local_benchmark"
+    };
+    com.example.cloud.iot.examples.HttpExample.main(testArgs);
+
+    // Assertions
+    String got = bout.toString();
+    Assert.assertTrue(got.contains("Sent 500 messages (0 failed)"));
+    Assert.assertTrue(got.contains("latency p50"));
+  }
 }
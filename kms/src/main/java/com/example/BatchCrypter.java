@@ -0,0 +1,310 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+import com.google.common.io.BaseEncoding;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Encrypts or decrypts every file under a directory tree concurrently with one shared
+ * {@link EnvelopeEncryption}, and therefore one KMS client and data key.
+ *
+ * <p>A manifest records the size, modification time and SHA-256 of each source file that was
+ * processed. Files whose size and modification time are unchanged are skipped without being read.
+ * Every other file is read once: it is hashed while it is processed into a temporary file, which
+ * replaces the output only if the hash differs from the one in the manifest.
+ *
+ * <p>The source tree is walked lazily, so memory use does not grow with the number of files, and
+ * a destination directory inside the source directory is left out of the walk.
+ */
+public class BatchCrypter {
+
+  public static final String ENCRYPTED_SUFFIX = ".enc";
+
+  private final EnvelopeEncryption envelope;
+  private final int threads;
+
+  public BatchCrypter(EnvelopeEncryption envelope, int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("threads must be positive");
+    }
+    this.envelope = envelope;
+    this.threads = threads;
+  }
+
+  /**
+   * Encrypts each file under {@code sourceDir} into the same relative path under {@code destDir},
+   * with {@link #ENCRYPTED_SUFFIX} appended.
+   *
+   * @param manifest the manifest to read and update, or {@code null} to process every file.
+   */
+  public Stats encryptTree(Path sourceDir, Path destDir, Path manifest)
+      throws IOException, InterruptedException {
+    return run(sourceDir, destDir, manifest, true);
+  }
+
+  /**
+   * Decrypts each {@link #ENCRYPTED_SUFFIX} file under {@code sourceDir} into the same relative
+   * path under {@code destDir}, with the suffix removed.
+   *
+   * @param manifest the manifest to read and update, or {@code null} to process every file.
+   */
+  public Stats decryptTree(Path sourceDir, Path destDir, Path manifest)
+      throws IOException, InterruptedException {
+    return run(sourceDir, destDir, manifest, false);
+  }
+
+  private Stats run(Path sourceDir, Path destDir, Path manifestPath, boolean encrypt)
+      throws IOException, InterruptedException {
+    Stats stats = new Stats();
+    ConcurrentMap<String, String> manifest = new ConcurrentHashMap<>();
+    if (manifestPath != null && Files.exists(manifestPath)) {
+      manifest.putAll(readManifest(manifestPath));
+    }
+
+    Path destAbsolute = destDir.toAbsolutePath().normalize();
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    // Keep a bounded number of files queued so huge trees do not pile up tasks in memory.
+    Semaphore inFlight = new Semaphore(threads * 2);
+    try (Stream<Path> walk = Files.walk(sourceDir)) {
+      Iterator<Path> files = walk
+          .filter(p -> !p.toAbsolutePath().normalize().startsWith(destAbsolute))
+          .filter(Files::isRegularFile)
+          .filter(p -> encrypt || p.toString().endsWith(ENCRYPTED_SUFFIX))
+          .iterator();
+      while (files.hasNext()) {
+        Path source = files.next();
+        inFlight.acquire();
+        executor.execute(() -> {
+          try {
+            processFile(source, sourceDir, destDir, manifest, encrypt, stats);
+          } finally {
+            inFlight.release();
+          }
+        });
+      }
+    } finally {
+      executor.shutdown();
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      stats.stop();
+      if (manifestPath != null) {
+        writeManifest(manifestPath, manifest);
+      }
+    }
+    return stats;
+  }
+
+  private void processFile(Path source, Path sourceDir, Path destDir,
+      ConcurrentMap<String, String> manifest, boolean encrypt, Stats stats) {
+    String relative = sourceDir.relativize(source).toString();
+    String target = encrypt
+        ? relative + ENCRYPTED_SUFFIX
+        : relative.substring(0, relative.length() - ENCRYPTED_SUFFIX.length());
+    Path dest = destDir.resolve(target);
+    Path temp = dest.resolveSibling(dest.getFileName() + ".tmp");
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(source, BasicFileAttributes.class);
+      String stamp = attributes.size() + ":" + attributes.lastModifiedTime().toMillis();
+      String previous = manifest.get(relative);
+      boolean destExists = Files.exists(dest);
+      if (destExists && previous != null && previous.startsWith(stamp + ":")) {
+        stats.skipped.incrementAndGet();
+        return;
+      }
+
+      Files.createDirectories(dest.getParent());
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      try (DigestingChannel in = new DigestingChannel(
+              FileChannel.open(source, StandardOpenOption.READ), digest);
+          FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+              StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+        if (encrypt) {
+          envelope.encrypt(in, out);
+        } else {
+          envelope.decrypt(in, out);
+        }
+      }
+      String hash = BaseEncoding.base16().lowerCase().encode(digest.digest());
+      manifest.put(relative, stamp + ":" + hash);
+      if (destExists && previous != null && previous.endsWith(":" + hash)) {
+        // Touched but unchanged: keep the existing output rather than replacing it.
+        Files.delete(temp);
+        stats.skipped.incrementAndGet();
+        return;
+      }
+      Files.move(temp, dest,
+          StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      stats.processed.incrementAndGet();
+      stats.bytes.addAndGet(attributes.size());
+    } catch (IOException | GeneralSecurityException e) {
+      stats.failed.incrementAndGet();
+      System.err.println(String.format("Failed to process %s: %s", source, e));
+      try {
+        Files.deleteIfExists(temp);
+      } catch (IOException ignored) {
+        // The next run truncates it.
+      }
+    }
+  }
+
+  /**
+   * Updates a digest with every byte read through it, so a file can be hashed in the same pass
+   * that encrypts or decrypts it.
+   */
+  private static class DigestingChannel implements ReadableByteChannel {
+    private final ReadableByteChannel in;
+    private final MessageDigest digest;
+
+    DigestingChannel(ReadableByteChannel in, MessageDigest digest) {
+      this.in = in;
+      this.digest = digest;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+      int start = dst.position();
+      int read = in.read(dst);
+      if (read > 0) {
+        ByteBuffer readBytes = dst.duplicate();
+        readBytes.flip().position(start);
+        digest.update(readBytes);
+      }
+      return read;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return in.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+
+  private static Map<String, String> readManifest(Path path) throws IOException {
+    Properties properties = new Properties();
+    try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+      properties.load(reader);
+    }
+    Map<String, String> entries = new TreeMap<>();
+    for (String name : properties.stringPropertyNames()) {
+      entries.put(name, properties.getProperty(name));
+    }
+    return entries;
+  }
+
+  /**
+   * Writes the manifest next to its final location and then moves it into place, so an
+   * interrupted run never leaves a half written manifest behind.
+   */
+  private static void writeManifest(Path path, Map<String, String> entries) throws IOException {
+    Path absolute = path.toAbsolutePath();
+    Path temp = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+    try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+      for (Map.Entry<String, String> entry : new TreeMap<>(entries).entrySet()) {
+        writer.write(escape(entry.getKey()) + "=" + entry.getValue() + "\n");
+      }
+    }
+    Files.move(temp, absolute,
+        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  // Properties keys must escape separators and backslashes; paths on Windows contain the latter.
+  private static String escape(String key) {
+    StringBuilder escaped = new StringBuilder(key.length());
+    for (char c : key.toCharArray()) {
+      if (c == '\\' || c == '=' || c == ':' || c == ' ' || c == '#' || c == '!') {
+        escaped.append('\\');
+      }
+      escaped.append(c);
+    }
+    return escaped.toString();
+  }
+
+  /**
+   * Counters for a batch run.
+   */
+  public static class Stats {
+    final AtomicLong processed = new AtomicLong();
+    final AtomicLong skipped = new AtomicLong();
+    final AtomicLong failed = new AtomicLong();
+    final AtomicLong bytes = new AtomicLong();
+    private final long startNanos = System.nanoTime();
+    private volatile long stopNanos;
+
+    void stop() {
+      stopNanos = System.nanoTime();
+    }
+
+    public long getProcessed() {
+      return processed.get();
+    }
+
+    public long getSkipped() {
+      return skipped.get();
+    }
+
+    public long getFailed() {
+      return failed.get();
+    }
+
+    public long getBytes() {
+      return bytes.get();
+    }
+
+    public double getBytesPerSecond() {
+      long end = stopNanos == 0 ? System.nanoTime() : stopNanos;
+      double seconds = (end - startNanos) / 1e9;
+      return seconds > 0 ? bytes.get() / seconds : 0;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "Processed %d files (%d bytes, %.1f MB/s), skipped %d unchanged, %d failed",
+          getProcessed(), getBytes(), getBytesPerSecond() / (1024 * 1024), getSkipped(),
+          getFailed());
+    }
+  }
+}
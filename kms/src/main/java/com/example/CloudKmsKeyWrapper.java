@@ -0,0 +1,58 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+import com.google.api.services.cloudkms.v1.CloudKMS;
+import com.google.api.services.cloudkms.v1.model.DecryptRequest;
+import com.google.api.services.cloudkms.v1.model.EncryptRequest;
+import java.io.IOException;
+
+/**
+ * A {@link KeyWrapper} that wraps data keys with a Cloud KMS crypto key. The {@link CloudKMS}
+ * client is thread safe and is meant to be shared.
+ */
+public class CloudKmsKeyWrapper implements KeyWrapper {
+
+  private final CloudKMS kms;
+  private final String cryptoKeyName;
+
+  public CloudKmsKeyWrapper(CloudKMS kms, String projectId, String locationId, String keyRingId,
+      String cryptoKeyId) {
+    this.kms = kms;
+    this.cryptoKeyName = String.format(
+        "projects/%s/locations/%s/keyRings/%s/cryptoKeys/%s",
+        projectId, locationId, keyRingId, cryptoKeyId);
+  }
+
+  @Override
+  public byte[] wrap(byte[] dataKey) throws IOException {
+    EncryptRequest request = new EncryptRequest().encodePlaintext(dataKey);
+    return kms.projects().locations().keyRings().cryptoKeys()
+        .encrypt(cryptoKeyName, request)
+        .execute()
+        .decodeCiphertext();
+  }
+
+  @Override
+  public byte[] unwrap(byte[] wrappedKey) throws IOException {
+    DecryptRequest request = new DecryptRequest().encodeCiphertext(wrappedKey);
+    return kms.projects().locations().keyRings().cryptoKeys()
+        .decrypt(cryptoKeyName, request)
+        .execute()
+        .decodePlaintext();
+  }
+}
@@ -109,6 +109,20 @@ public class CryptFile {
   }
   // [END kms_decrypt]
 
+  // [START kms_envelope_encryption]
+
+  /**
+   * Returns an {@link EnvelopeEncryption} that wraps its data keys with the specified crypto key.
+   * Files of any size can be encrypted with it, and the KMS is only called to wrap or unwrap data
+   * keys rather than once per file. Reuse the returned instance, and the client, for many files.
+   */
+  public static EnvelopeEncryption envelopeEncryption(CloudKMS kms, String projectId,
+      String locationId, String keyRingId, String cryptoKeyId) {
+    return new EnvelopeEncryption(
+        new CloudKmsKeyWrapper(kms, projectId, locationId, keyRingId, cryptoKeyId));
+  }
+  // [END kms_envelope_encryption]
+
   public static void main(String[] args) throws IOException {
     CryptFileCommands commands = new CryptFileCommands();
     CmdLineParser parser = new CmdLineParser(commands);
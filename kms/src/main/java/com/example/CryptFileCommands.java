@@ -19,7 +19,9 @@ package com.example;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
 import org.kohsuke.args4j.Argument;
 import org.kohsuke.args4j.Option;
 import org.kohsuke.args4j.spi.SubCommand;
@@ -76,11 +78,77 @@ class CryptFileCommands {
     }
   }
 
+  public static class EnvelopeEncryptCommand extends Args implements Command {
+    public void run() throws IOException {
+      EnvelopeEncryption envelope = CryptFile.envelopeEncryption(
+          CryptFile.createAuthorizedClient(), projectId, locationId, keyRingId, cryptoKeyId);
+      try {
+        envelope.encrypt(Paths.get(inFile), Paths.get(outFile));
+      } catch (GeneralSecurityException e) {
+        throw new IOException("Encryption failed", e);
+      }
+    }
+  }
+
+  public static class EnvelopeDecryptCommand extends Args implements Command {
+    public void run() throws IOException {
+      EnvelopeEncryption envelope = CryptFile.envelopeEncryption(
+          CryptFile.createAuthorizedClient(), projectId, locationId, keyRingId, cryptoKeyId);
+      try {
+        envelope.decrypt(Paths.get(inFile), Paths.get(outFile));
+      } catch (GeneralSecurityException e) {
+        throw new IOException("Decryption failed", e);
+      }
+    }
+  }
+
+  public static class BatchCommand implements Command {
+    @Option(name = "--project-id", aliases = "-p", required = true, usage = "Your GCP project ID")
+    String projectId;
+    @Option(name = "--decrypt", usage = "Decrypt .enc files instead of encrypting")
+    boolean decrypt;
+    @Option(name = "--threads", usage = "The number of files processed concurrently")
+    int threads = Runtime.getRuntime().availableProcessors() * 2;
+    @Option(name = "--manifest", usage = "Manifest of content hashes used to skip unchanged files")
+    String manifest;
+    @Argument(metaVar = "locationId", required = true, index = 0, usage = "The key location")
+    String locationId;
+    @Argument(metaVar = "keyRingId", required = true, index = 1, usage = "The key ring id")
+    String keyRingId;
+    @Argument(metaVar = "cryptoKeyId", required = true, index = 2, usage = "The crypto key id")
+    String cryptoKeyId;
+    @Argument(metaVar = "inDir", required = true, index = 3, usage = "The source directory")
+    String inDir;
+    @Argument(metaVar = "outDir", required = true, index = 4, usage = "The destination directory")
+    String outDir;
+
+    public void run() throws IOException {
+      // One client and one data key are shared by every file in the batch.
+      EnvelopeEncryption envelope = CryptFile.envelopeEncryption(
+          CryptFile.createAuthorizedClient(), projectId, locationId, keyRingId, cryptoKeyId);
+      BatchCrypter crypter = new BatchCrypter(envelope, threads);
+      Path manifestPath = manifest == null ? null : Paths.get(manifest);
+      try {
+        BatchCrypter.Stats stats = decrypt
+            ? crypter.decryptTree(Paths.get(inDir), Paths.get(outDir), manifestPath)
+            : crypter.encryptTree(Paths.get(inDir), Paths.get(outDir), manifestPath);
+        System.out.println(stats);
+        System.out.println(String.format("Made %d KMS calls", envelope.getKmsCalls()));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted", e);
+      }
+    }
+  }
+
   @Argument(metaVar = "command", required = true, handler = SubCommandHandler.class,
       usage = "The subcommand to run")
   @SubCommands({
       @SubCommand(name = "encrypt", impl = EncryptCommand.class),
-      @SubCommand(name = "decrypt", impl = DecryptCommand.class)
+      @SubCommand(name = "decrypt", impl = DecryptCommand.class),
+      @SubCommand(name = "envelope-encrypt", impl = EnvelopeEncryptCommand.class),
+      @SubCommand(name = "envelope-decrypt", impl = EnvelopeDecryptCommand.class),
+      @SubCommand(name = "batch", impl = BatchCommand.class)
       })
   Command command;
 }
@@ -0,0 +1,305 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Encrypts files of any size with a locally generated AES-256 data key, and uses a
+ * {@link KeyWrapper} (normally Cloud KMS) only to wrap that data key.
+ *
+ * <p>The output starts with a header carrying the wrapped data key, followed by the input split
+ * into chunks that are each sealed with AES-GCM. Every chunk is authenticated together with its
+ * index and whether it is the last one, so chunks cannot be reordered, dropped or truncated
+ * without decryption failing. Files are streamed through NIO channels one chunk at a time, so
+ * memory use does not depend on the file size.
+ *
+ * <p>One data key is reused for many files, and unwrapped data keys are cached by their wrapped
+ * form, so encrypting or decrypting a whole directory costs a single KMS call per key. Instances
+ * are thread safe.
+ */
+public class EnvelopeEncryption {
+
+  public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+  // Upper bound accepted when reading a header, so a corrupt file cannot force a huge allocation.
+  private static final int MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+  private static final int MAX_WRAPPED_KEY_SIZE = 64 * 1024;
+  // Nonce prefixes are 64 random bits, so among n files under one key two share a prefix with
+  // probability about n^2 / 2^65. Rotating after 2^16 files keeps that near 2^-33.
+  private static final long MAX_FILES_PER_DATA_KEY = 1L << 16;
+  private static final int MAX_UNWRAPPED_KEYS = 1024;
+
+  private static final byte[] MAGIC = {'K', 'M', 'S', 'E'};
+  private static final byte VERSION = 1;
+  private static final int KEY_BITS = 256;
+  private static final int TAG_BYTES = 16;
+  private static final int NONCE_PREFIX_BYTES = 8;
+  private static final String CIPHER = "AES/GCM/NoPadding";
+
+  private final KeyWrapper wrapper;
+  private final int chunkSize;
+  private final SecureRandom random = new SecureRandom();
+  private final ConcurrentMap<ByteBuffer, SecretKey> unwrappedKeys = new ConcurrentHashMap<>();
+  private final AtomicLong kmsCalls = new AtomicLong();
+  private DataKey dataKey;
+
+  private static class DataKey {
+    final SecretKey key;
+    final byte[] wrapped;
+    long uses;
+
+    DataKey(SecretKey key, byte[] wrapped) {
+      this.key = key;
+      this.wrapped = wrapped;
+    }
+  }
+
+  public EnvelopeEncryption(KeyWrapper wrapper) {
+    this(wrapper, DEFAULT_CHUNK_SIZE);
+  }
+
+  public EnvelopeEncryption(KeyWrapper wrapper, int chunkSize) {
+    if (chunkSize < 1 || chunkSize > MAX_CHUNK_SIZE) {
+      throw new IllegalArgumentException("chunkSize out of range: " + chunkSize);
+    }
+    this.wrapper = wrapper;
+    this.chunkSize = chunkSize;
+  }
+
+  /**
+   * Returns the number of wrap and unwrap calls made to the key management service.
+   */
+  public long getKmsCalls() {
+    return kmsCalls.get();
+  }
+
+  // [START kms_envelope_encrypt_file]
+
+  /**
+   * Encrypts {@code inFile} into {@code outFile}, replacing it if it exists.
+   */
+  public void encrypt(Path inFile, Path outFile) throws IOException, GeneralSecurityException {
+    boolean done = false;
+    try (FileChannel in = FileChannel.open(inFile, StandardOpenOption.READ);
+        FileChannel out = FileChannel.open(outFile, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      encrypt(in, out);
+      done = true;
+    } finally {
+      if (!done) {
+        Files.deleteIfExists(outFile);
+      }
+    }
+  }
+  // [END kms_envelope_encrypt_file]
+
+  // [START kms_envelope_decrypt_file]
+
+  /**
+   * Decrypts {@code inFile}, written by {@link #encrypt(Path, Path)}, into {@code outFile}. The
+   * output is removed if any chunk fails to authenticate.
+   */
+  public void decrypt(Path inFile, Path outFile) throws IOException, GeneralSecurityException {
+    boolean done = false;
+    try (FileChannel in = FileChannel.open(inFile, StandardOpenOption.READ);
+        FileChannel out = FileChannel.open(outFile, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      decrypt(in, out);
+      done = true;
+    } finally {
+      if (!done) {
+        Files.deleteIfExists(outFile);
+      }
+    }
+  }
+  // [END kms_envelope_decrypt_file]
+
+  /**
+   * Encrypts everything readable from {@code in} into {@code out}.
+   */
+  public void encrypt(ReadableByteChannel in, WritableByteChannel out)
+      throws IOException, GeneralSecurityException {
+    DataKey key = acquireDataKey();
+    byte[] noncePrefix = new byte[NONCE_PREFIX_BYTES];
+    random.nextBytes(noncePrefix);
+
+    ByteBuffer header = ByteBuffer.allocate(
+        MAGIC.length + 1 + 4 + NONCE_PREFIX_BYTES + 4 + key.wrapped.length);
+    header.put(MAGIC).put(VERSION).putInt(chunkSize).put(noncePrefix)
+        .putInt(key.wrapped.length).put(key.wrapped);
+    header.flip();
+    writeFully(out, header);
+
+    Cipher cipher = Cipher.getInstance(CIPHER);
+    ByteBuffer plain = ByteBuffer.allocate(chunkSize);
+    ByteBuffer sealed = ByteBuffer.allocate(chunkSize + TAG_BYTES);
+    boolean last;
+    long index = 0;
+    do {
+      plain.clear();
+      // A short read means the input is exhausted. When the input is an exact multiple of the
+      // chunk size this produces an empty final chunk, which marks the end of the stream.
+      last = !readFully(in, plain);
+      plain.flip();
+      cipher.init(Cipher.ENCRYPT_MODE, key.key, nonce(noncePrefix, index));
+      cipher.updateAAD(associatedData(index, last));
+      sealed.clear();
+      cipher.doFinal(plain, sealed);
+      sealed.flip();
+      writeFully(out, sealed);
+      index++;
+    } while (!last);
+  }
+
+  /**
+   * Decrypts everything readable from {@code in} into {@code out}.
+   */
+  public void decrypt(ReadableByteChannel in, WritableByteChannel out)
+      throws IOException, GeneralSecurityException {
+    ByteBuffer fixed = ByteBuffer.allocate(MAGIC.length + 1 + 4 + NONCE_PREFIX_BYTES + 4);
+    if (!readFully(in, fixed)) {
+      throw new EOFException("Truncated header");
+    }
+    fixed.flip();
+    byte[] magic = new byte[MAGIC.length];
+    fixed.get(magic);
+    if (!Arrays.equals(magic, MAGIC) || fixed.get() != VERSION) {
+      throw new IOException("Not an envelope encrypted file");
+    }
+    int sealedChunkSize = fixed.getInt();
+    byte[] noncePrefix = new byte[NONCE_PREFIX_BYTES];
+    fixed.get(noncePrefix);
+    int wrappedLength = fixed.getInt();
+    if (sealedChunkSize < 1 || sealedChunkSize > MAX_CHUNK_SIZE
+        || wrappedLength < 1 || wrappedLength > MAX_WRAPPED_KEY_SIZE) {
+      throw new IOException("Corrupt header");
+    }
+    ByteBuffer wrapped = ByteBuffer.allocate(wrappedLength);
+    if (!readFully(in, wrapped)) {
+      throw new EOFException("Truncated header");
+    }
+    wrapped.flip();
+    SecretKey key = unwrapDataKey(wrapped);
+
+    Cipher cipher = Cipher.getInstance(CIPHER);
+    ByteBuffer sealed = ByteBuffer.allocate(sealedChunkSize + TAG_BYTES);
+    ByteBuffer plain = ByteBuffer.allocate(sealedChunkSize);
+    for (long index = 0; ; index++) {
+      sealed.clear();
+      boolean last = !readFully(in, sealed);
+      sealed.flip();
+      if (sealed.remaining() < TAG_BYTES) {
+        throw new EOFException("Truncated ciphertext");
+      }
+      cipher.init(Cipher.DECRYPT_MODE, key, nonce(noncePrefix, index));
+      cipher.updateAAD(associatedData(index, last));
+      plain.clear();
+      cipher.doFinal(sealed, plain);
+      plain.flip();
+      writeFully(out, plain);
+      if (last) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Returns the current data key, generating and wrapping a new one on first use and after it
+   * has sealed {@link #MAX_FILES_PER_DATA_KEY} files.
+   */
+  private synchronized DataKey acquireDataKey() throws IOException, GeneralSecurityException {
+    if (dataKey == null || dataKey.uses >= MAX_FILES_PER_DATA_KEY) {
+      KeyGenerator generator = KeyGenerator.getInstance("AES");
+      generator.init(KEY_BITS, random);
+      SecretKey key = generator.generateKey();
+      kmsCalls.incrementAndGet();
+      byte[] wrapped = wrapper.wrap(key.getEncoded());
+      dataKey = new DataKey(key, wrapped);
+      unwrappedKeys.put(ByteBuffer.wrap(wrapped.clone()), key);
+    }
+    dataKey.uses++;
+    return dataKey;
+  }
+
+  private SecretKey unwrapDataKey(ByteBuffer wrapped) throws IOException {
+    SecretKey key = unwrappedKeys.get(wrapped);
+    if (key != null) {
+      return key;
+    }
+    byte[] wrappedBytes = new byte[wrapped.remaining()];
+    wrapped.duplicate().get(wrappedBytes);
+    kmsCalls.incrementAndGet();
+    key = new SecretKeySpec(wrapper.unwrap(wrappedBytes), "AES");
+    if (unwrappedKeys.size() >= MAX_UNWRAPPED_KEYS) {
+      unwrappedKeys.clear();
+    }
+    unwrappedKeys.put(ByteBuffer.wrap(wrappedBytes), key);
+    return key;
+  }
+
+  private static GCMParameterSpec nonce(byte[] prefix, long index) throws IOException {
+    if (index > 0xFFFFFFFFL) {
+      throw new IOException("Input too large for a single envelope");
+    }
+    ByteBuffer nonce = ByteBuffer.allocate(NONCE_PREFIX_BYTES + 4);
+    nonce.put(prefix).putInt((int) index);
+    return new GCMParameterSpec(TAG_BYTES * 8, nonce.array());
+  }
+
+  private static byte[] associatedData(long index, boolean last) {
+    return ByteBuffer.allocate(9).putLong(index).put((byte) (last ? 1 : 0)).array();
+  }
+
+  /**
+   * Reads until {@code buffer} is full or the channel is exhausted.
+   *
+   * @return {@code true} if the buffer was filled.
+   */
+  private static boolean readFully(ReadableByteChannel in, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (in.read(buffer) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void writeFully(WritableByteChannel out, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      out.write(buffer);
+    }
+  }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+import java.io.IOException;
+
+/**
+ * Wraps (encrypts) and unwraps (decrypts) data encryption keys with a key encryption key that
+ * never leaves the key management service.
+ */
+public interface KeyWrapper {
+
+  /**
+   * Encrypts a data key.
+   */
+  byte[] wrap(byte[] dataKey) throws IOException;
+
+  /**
+   * Decrypts a data key previously returned by {@link #wrap}.
+   */
+  byte[] unwrap(byte[] wrappedKey) throws IOException;
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for {@link BatchCrypter}, run against a local {@link FakeKeyWrapper}.
+ */
+@RunWith(JUnit4.class)
+public class BatchCrypterTest {
+
+  private static final int FILES = 30;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final FakeKeyWrapper kms = new FakeKeyWrapper();
+  private Path plainDir;
+  private Path sealedDir;
+  private Path openedDir;
+  private Path manifest;
+
+  @Before
+  public void setUp() throws Exception {
+    plainDir = folder.newFolder("plain").toPath();
+    sealedDir = folder.newFolder("sealed").toPath();
+    openedDir = folder.newFolder("opened").toPath();
+    manifest = folder.getRoot().toPath().resolve("manifest.properties");
+    for (int i = 0; i < FILES; i++) {
+      Path file = plainDir.resolve("dir" + (i % 3)).resolve("file " + i + ".txt");
+      Files.createDirectories(file.getParent());
+      Files.write(file, ("contents of file " + i).getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  @Test
+  public void encryptThenDecryptTree_roundTripsEveryFile() throws Exception {
+    EnvelopeEncryption envelope = new EnvelopeEncryption(kms);
+    BatchCrypter crypter = new BatchCrypter(envelope, 4);
+
+    BatchCrypter.Stats encrypted = crypter.encryptTree(plainDir, sealedDir, null);
+    BatchCrypter.Stats decrypted = crypter.decryptTree(sealedDir, openedDir, null);
+
+    assertThat(encrypted.getProcessed()).isEqualTo(FILES);
+    assertThat(decrypted.getProcessed()).isEqualTo(FILES);
+    assertThat(encrypted.getFailed() + decrypted.getFailed()).isEqualTo(0);
+    for (int i = 0; i < FILES; i++) {
+      Path relative = plainDir.relativize(
+          plainDir.resolve("dir" + (i % 3)).resolve("file " + i + ".txt"));
+      assertThat(Files.readAllBytes(openedDir.resolve(relative)))
+          .isEqualTo(Files.readAllBytes(plainDir.resolve(relative)));
+    }
+    assertThat(envelope.getKmsCalls()).isEqualTo(1);
+  }
+
+  @Test
+  public void encryptTree_skipsUnchangedFiles() throws Exception {
+    BatchCrypter crypter = new BatchCrypter(new EnvelopeEncryption(kms), 4);
+    crypter.encryptTree(plainDir, sealedDir, manifest);
+
+    BatchCrypter.Stats unchanged = crypter.encryptTree(plainDir, sealedDir, manifest);
+    assertThat(unchanged.getProcessed()).isEqualTo(0);
+    assertThat(unchanged.getSkipped()).isEqualTo(FILES);
+
+    // Touching a file without changing it is detected by its hash; editing one is not skipped.
+    Path touched = plainDir.resolve("dir0").resolve("file 0.txt");
+    Files.setLastModifiedTime(touched, FileTime.fromMillis(System.currentTimeMillis() + 5000));
+    Files.write(plainDir.resolve("dir1").resolve("file 1.txt"),
+        "edited".getBytes(StandardCharsets.UTF_8));
+    BatchCrypter.Stats changed = crypter.encryptTree(plainDir, sealedDir, manifest);
+    assertThat(changed.getProcessed()).isEqualTo(1);
+    assertThat(changed.getSkipped()).isEqualTo(FILES - 1);
+  }
+
+  @Test
+  public void encryptTree_leavesOutDestinationInsideSource() throws Exception {
+    BatchCrypter crypter = new BatchCrypter(new EnvelopeEncryption(kms), 4);
+    Path nested = plainDir.resolve("sealed");
+
+    crypter.encryptTree(plainDir, nested, null);
+    BatchCrypter.Stats again = crypter.encryptTree(plainDir, nested, null);
+
+    assertThat(again.getProcessed()).isEqualTo(FILES);
+    assertThat(again.getFailed()).isEqualTo(0);
+    assertThat(Files.exists(nested.resolve("sealed"))).isFalse();
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for {@link EnvelopeEncryption}, run against a local {@link FakeKeyWrapper}.
+ */
+@RunWith(JUnit4.class)
+public class EnvelopeEncryptionTest {
+
+  private static final int CHUNK_SIZE = 1024;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final FakeKeyWrapper kms = new FakeKeyWrapper();
+  private final EnvelopeEncryption envelope = new EnvelopeEncryption(kms, CHUNK_SIZE);
+
+  private Path writeRandomFile(String name, int size) throws IOException {
+    byte[] data = new byte[size];
+    new Random(size).nextBytes(data);
+    return Files.write(folder.getRoot().toPath().resolve(name), data);
+  }
+
+  private void assertRoundTrip(int size) throws Exception {
+    Path plain = writeRandomFile("plain-" + size, size);
+    Path sealed = folder.getRoot().toPath().resolve("sealed-" + size);
+    Path opened = folder.getRoot().toPath().resolve("opened-" + size);
+
+    envelope.encrypt(plain, sealed);
+    envelope.decrypt(sealed, opened);
+
+    assertThat(Files.readAllBytes(opened)).isEqualTo(Files.readAllBytes(plain));
+  }
+
+  @Test
+  public void roundTrip_variousSizes() throws Exception {
+    // Empty, partial chunk, exact chunk multiple and multiple chunks with a remainder.
+    for (int size : new int[] {0, 1, CHUNK_SIZE - 1, CHUNK_SIZE, 3 * CHUNK_SIZE, 5000}) {
+      assertRoundTrip(size);
+    }
+  }
+
+  @Test
+  public void manyFiles_singleKmsCallPerDirection() throws Exception {
+    for (int i = 0; i < 20; i++) {
+      assertRoundTrip(100 + i);
+    }
+    assertThat(kms.wrapCalls.get()).isEqualTo(1);
+    // The data key was wrapped by this instance, so decrypting needs no KMS call at all.
+    assertThat(kms.unwrapCalls.get()).isEqualTo(0);
+
+    Path plain = writeRandomFile("plain", 10);
+    Path sealed = folder.getRoot().toPath().resolve("sealed");
+    envelope.encrypt(plain, sealed);
+    EnvelopeEncryption other = new EnvelopeEncryption(kms, CHUNK_SIZE);
+    for (int i = 0; i < 5; i++) {
+      other.decrypt(sealed, folder.getRoot().toPath().resolve("opened" + i));
+    }
+    assertThat(kms.unwrapCalls.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void decrypt_rejectsTamperedChunk() throws Exception {
+    Path plain = writeRandomFile("plain", 3 * CHUNK_SIZE);
+    Path sealed = folder.getRoot().toPath().resolve("sealed");
+    Path opened = folder.getRoot().toPath().resolve("opened");
+    envelope.encrypt(plain, sealed);
+    byte[] bytes = Files.readAllBytes(sealed);
+    bytes[bytes.length - CHUNK_SIZE] ^= 1;
+    Files.write(sealed, bytes);
+
+    try {
+      envelope.decrypt(sealed, opened);
+      fail("Expected tampered ciphertext to be rejected");
+    } catch (GeneralSecurityException expected) {
+      assertThat(Files.exists(opened)).isFalse();
+    }
+  }
+
+  @Test
+  public void decrypt_rejectsTruncatedFile() throws Exception {
+    Path plain = writeRandomFile("plain", 2 * CHUNK_SIZE);
+    Path sealed = folder.getRoot().toPath().resolve("sealed");
+    envelope.encrypt(plain, sealed);
+    byte[] bytes = Files.readAllBytes(sealed);
+    // Drop the empty final chunk, leaving only whole chunks behind.
+    Files.write(sealed, Arrays.copyOf(bytes, bytes.length - 16));
+
+    try {
+      envelope.decrypt(sealed, folder.getRoot().toPath().resolve("opened"));
+      fail("Expected truncated ciphertext to be rejected");
+    } catch (IOException expected) {
+      assertThat(expected).hasMessageThat().contains("Truncated");
+    }
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * A local stand-in for a Cloud KMS crypto key: wraps data keys with an in-memory AES key and
+ * counts the calls made to it.
+ */
+class FakeKeyWrapper implements KeyWrapper {
+
+  private final SecretKeySpec masterKey;
+  private final SecureRandom random = new SecureRandom();
+  final AtomicInteger wrapCalls = new AtomicInteger();
+  final AtomicInteger unwrapCalls = new AtomicInteger();
+
+  FakeKeyWrapper() {
+    byte[] key = new byte[32];
+    random.nextBytes(key);
+    masterKey = new SecretKeySpec(key, "AES");
+  }
+
+  @Override
+  public byte[] wrap(byte[] dataKey) throws IOException {
+    wrapCalls.incrementAndGet();
+    try {
+      byte[] iv = new byte[12];
+      random.nextBytes(iv);
+      Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+      cipher.init(Cipher.ENCRYPT_MODE, masterKey, new GCMParameterSpec(128, iv));
+      byte[] sealed = cipher.doFinal(dataKey);
+      return ByteBuffer.allocate(iv.length + sealed.length).put(iv).put(sealed).array();
+    } catch (GeneralSecurityException e) {
+      throw new IOException(e);
+    }
+  }
+
+  @Override
+  public byte[] unwrap(byte[] wrappedKey) throws IOException {
+    unwrapCalls.incrementAndGet();
+    try {
+      Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+      cipher.init(Cipher.DECRYPT_MODE, masterKey, new GCMParameterSpec(128, wrappedKey, 0, 12));
+      return cipher.doFinal(wrappedKey, 12, wrappedKey.length - 12);
+    } catch (GeneralSecurityException e) {
+      throw new IOException(e);
+    }
+  }
+}
@@ -21,14 +21,29 @@ import com.google.cloud.logging.LogEntry;
 import com.google.cloud.logging.Logging;
 import com.google.cloud.logging.Logging.EntryListOption;
 import com.google.cloud.logging.LoggingOptions;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 
 /**
  * List logs programmatically using the StackDriver Logging API.
  */
 public class ListLogs {
 
-  /** Expects an existing Stackdriver log name as an argument. */
+  private static final int EXPORT_WINDOWS = 8;
+  private static final long MAX_FILE_BYTES = 64L * 1024 * 1024;
+
+  /**
+   * Expects an existing Stackdriver log name as an argument, optionally preceded by
+   * {@code export} with the hours to export and an output directory after it, or by {@code tail}
+   * with an output directory, a checkpoint file and the seconds to tail for after it.
+   */
   public static void main(String... args) throws Exception {
+    if (args[0].equals("export") || args[0].equals("tail")) {
+      exportLogs(args);
+      return;
+    }
     // [START listlogs]
     // Instantiates a client
     LoggingOptions options = LoggingOptions.getDefaultInstance();
@@ -39,17 +54,34 @@ public class ListLogs {
 
       String logFilter = "logName=projects/" + options.getProjectId() + "/logs/" + logName;
 
-      // List all log entries
+      // List all log entries; iterateAll() fetches the following pages as it reaches them
       Page<LogEntry> entries = logging.listLogEntries(
           EntryListOption.filter(logFilter));
-      do {
-        for (LogEntry logEntry : entries.iterateAll()) {
-          System.out.println(logEntry);
-        }
-        entries = entries.getNextPage();
-      } while (entries != null);
+      for (LogEntry logEntry : entries.iterateAll()) {
+        System.out.println(logEntry);
+      }
 
     }
     // [END listlogs]
   }
+
+  private static void exportLogs(String... args) throws Exception {
+    LoggingOptions options = LoggingOptions.getDefaultInstance();
+    String logFilter = "logName=projects/" + options.getProjectId() + "/logs/" + args[1];
+    try (Logging logging = options.getService()) {
+      if (args[0].equals("export")) {
+        Instant end = Instant.now();
+        Instant start = end.minus(Long.parseLong(args[2]), ChronoUnit.HOURS);
+        LogExporter exporter = new LogExporter(logging, Paths.get(args[3]), MAX_FILE_BYTES);
+        exporter.export(logFilter, start, end, EXPORT_WINDOWS);
+        System.out.println(String.format("Exported %d entries", exporter.getEntries()));
+      } else {
+        Path checkpoint = Paths.get(args[3]);
+        long seconds = args.length > 4 ? Long.parseLong(args[4]) : Long.MAX_VALUE;
+        LogExporter exporter = new LogExporter(logging, Paths.get(args[2]), MAX_FILE_BYTES);
+        exporter.tail(logFilter, checkpoint, 10, seconds);
+        System.out.println(String.format("Tailed %d entries", exporter.getEntries()));
+      }
+    }
+  }
 }
@@ -0,0 +1,413 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.logging;
+
+import com.google.api.gax.paging.Page;
+import com.google.cloud.audit.AuditLog;
+import com.google.cloud.logging.LogEntry;
+import com.google.cloud.logging.Logging;
+import com.google.cloud.logging.Logging.EntryListOption;
+import com.google.cloud.logging.Logging.SortingField;
+import com.google.cloud.logging.Logging.SortingOrder;
+import com.google.cloud.logging.Payload;
+import com.google.cloud.logging.Payload.JsonPayload;
+import com.google.cloud.logging.Payload.ProtoPayload;
+import com.google.cloud.logging.Payload.StringPayload;
+import com.google.protobuf.Any;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.util.JsonFormat;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Exports log entries to local gzip-compressed files of newline-delimited JSON.
+ *
+ * <p>An export splits its time range into windows that are read concurrently, each in large
+ * pages and in timestamp order, and each writing its own sequence of files. Entries are written
+ * as they arrive, so memory use does not grow with the size of the export. Only the fields most
+ * often needed downstream are written: timestamp, severity, log name, insert ID, resource, labels
+ * and payload. A file is rotated once it holds {@code maxFileBytes} of uncompressed JSON, and is
+ * only given its final name once complete, so readers never see a partial file. A window that
+ * fails leaves no files behind, rather than some that look complete.
+ *
+ * <p>Tail mode polls for new entries, completes a file for each poll that found any, and then
+ * records how far it got in a checkpoint file, so a restarted tail resumes where the last one
+ * stopped without losing or duplicating entries. The files of a poll that fails are removed, as
+ * the checkpoint does not cover them.
+ */
+public class LogExporter {
+
+  private static final int PAGE_SIZE = 1000;
+  // Entries can become readable a little after their timestamp; tail mode stays this far behind.
+  private static final long INGESTION_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+  // Prints the proto payloads whose types are known here, such as audit logs, on a single line.
+  private static final JsonFormat.Printer PROTO_PRINTER = JsonFormat.printer()
+      .usingTypeRegistry(JsonFormat.TypeRegistry.newBuilder().add(AuditLog.getDescriptor()).build())
+      .omittingInsignificantWhitespace();
+
+  private final Logging logging;
+  private final Path outputDir;
+  private final long maxFileBytes;
+  private final LongAdder entries = new LongAdder();
+
+  public LogExporter(Logging logging, Path outputDir, long maxFileBytes) {
+    this.logging = logging;
+    this.outputDir = outputDir;
+    this.maxFileBytes = maxFileBytes;
+  }
+
+  // [START logging_export_entries]
+  /**
+   * Exports the entries matching {@code filter} with timestamps in [{@code start}, {@code end}),
+   * reading {@code windows} equal parts of the range concurrently.
+   */
+  public void export(String filter, Instant start, Instant end, int windows) throws Exception {
+    Files.createDirectories(outputDir);
+    ExecutorService executor = Executors.newFixedThreadPool(windows);
+    try {
+      List<Future<?>> results = new ArrayList<>(windows);
+      long windowMillis = (end.toEpochMilli() - start.toEpochMilli() + windows - 1) / windows;
+      for (int i = 0; i < windows; i++) {
+        Instant windowStart = start.plusMillis(i * windowMillis);
+        Instant windowEnd = Instant.ofEpochMilli(
+            Math.min(end.toEpochMilli(), windowStart.toEpochMilli() + windowMillis));
+        String prefix = String.format("entries-%03d", i);
+        results.add(executor.submit(() -> {
+          try (RotatingWriter writer = new RotatingWriter(prefix)) {
+            for (LogEntry entry : list(windowFilter(filter, windowStart, windowEnd))) {
+              writer.write(entry);
+            }
+            writer.complete();
+            writer.commit();
+          }
+          return null;
+        }));
+      }
+      for (Future<?> result : results) {
+        result.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+  // [END logging_export_entries]
+
+  /** Lists every entry matching {@code filter} in timestamp order, one page in memory at a time. */
+  private Iterable<LogEntry> list(String filter) {
+    Page<LogEntry> first = logging.listLogEntries(
+        EntryListOption.filter(filter),
+        EntryListOption.pageSize(PAGE_SIZE),
+        EntryListOption.sortOrder(SortingField.TIMESTAMP, SortingOrder.ASCENDING));
+    return first.iterateAll();
+  }
+
+  private static String windowFilter(String filter, Instant start, Instant end) {
+    return String.format("(%s) AND timestamp >= \"%s\" AND timestamp < \"%s\"", filter, start, end);
+  }
+
+  // [START logging_tail_entries]
+  /**
+   * Polls every {@code pollSeconds} for entries matching {@code filter} that are newer than the
+   * position recorded in {@code checkpoint}, for {@code durationSeconds}. Without a checkpoint,
+   * starts from the current time.
+   */
+  public void tail(String filter, Path checkpoint, long pollSeconds, long durationSeconds)
+      throws IOException, InterruptedException {
+    Files.createDirectories(outputDir);
+    Properties position = new Properties();
+    if (Files.exists(checkpoint)) {
+      try (Reader reader = Files.newBufferedReader(checkpoint, StandardCharsets.UTF_8)) {
+        position.load(reader);
+      }
+    }
+    long lastMillis = Long.parseLong(position.getProperty(
+        "timestamp", Long.toString(System.currentTimeMillis() - INGESTION_DELAY_MILLIS)));
+    // Entries at the checkpoint's timestamp that were already written.
+    Set<String> lastInsertIds = new HashSet<>();
+    for (String id : position.getProperty("insertIds", "").split(",")) {
+      if (!id.isEmpty()) {
+        lastInsertIds.add(id);
+      }
+    }
+
+    long startNanos = System.nanoTime();
+    try (RotatingWriter writer = new RotatingWriter("tail-" + System.currentTimeMillis())) {
+      while (true) {
+        Instant until = Instant.now().minusMillis(INGESTION_DELAY_MILLIS);
+        if (until.toEpochMilli() > lastMillis) {
+          String pollFilter = windowFilter(filter, Instant.ofEpochMilli(lastMillis), until);
+          for (LogEntry entry : list(pollFilter)) {
+            long millis = entry.getTimestamp();
+            if (millis == lastMillis && lastInsertIds.contains(entry.getInsertId())) {
+              continue;
+            }
+            if (millis != lastMillis) {
+              lastMillis = millis;
+              lastInsertIds.clear();
+            }
+            lastInsertIds.add(entry.getInsertId());
+            writer.write(entry);
+          }
+          // Completes the file before the checkpoint moves past its entries. If the poll fails,
+          // closing the writer removes the files it wrote, so a restart reads them again.
+          writer.complete();
+          saveCheckpoint(checkpoint, lastMillis, lastInsertIds);
+          writer.commit();
+        }
+        if (System.nanoTime() - startNanos >= TimeUnit.SECONDS.toNanos(durationSeconds)) {
+          break;
+        }
+        TimeUnit.SECONDS.sleep(pollSeconds);
+      }
+    }
+  }
+  // [END logging_tail_entries]
+
+  private static void saveCheckpoint(Path checkpoint, long millis, Set<String> insertIds)
+      throws IOException {
+    Properties position = new Properties();
+    position.setProperty("timestamp", Long.toString(millis));
+    position.setProperty("insertIds", String.join(",", insertIds));
+    Path temp = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+    try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+      position.store(writer, null);
+    }
+    Files.move(temp, checkpoint, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  public long getEntries() {
+    return entries.sum();
+  }
+
+  /**
+   * Writes entries to {@code <prefix>-<n>.ndjson.gz} files, starting a new one when full. Files
+   * written since the last {@link #commit()} are deleted on {@link #close()}, so only committed
+   * output survives a failure.
+   */
+  private class RotatingWriter implements AutoCloseable {
+    private final String prefix;
+    private final StringBuilder line = new StringBuilder(1024);
+    private final List<Path> uncommitted = new ArrayList<>();
+    private int part;
+    private Path partial;
+    private Writer writer;
+    private long bytes;
+
+    RotatingWriter(String prefix) {
+      this.prefix = prefix;
+    }
+
+    void write(LogEntry entry) throws IOException {
+      if (writer == null || bytes >= maxFileBytes) {
+        rotate();
+      }
+      line.setLength(0);
+      toJson(entry, line);
+      line.append('\n');
+      writer.append(line);
+      bytes += line.length();
+      entries.increment();
+    }
+
+    private void rotate() throws IOException {
+      complete();
+      partial = outputDir.resolve(String.format("%s-%05d.ndjson.gz.partial", prefix, part++));
+      writer = new BufferedWriter(new OutputStreamWriter(
+          new GZIPOutputStream(Files.newOutputStream(partial), 64 * 1024),
+          StandardCharsets.UTF_8));
+      bytes = 0;
+    }
+
+    /** Finishes the current file, if any, and gives it its final name. */
+    void complete() throws IOException {
+      if (writer == null) {
+        return;
+      }
+      writer.close();
+      writer = null;
+      String name = partial.getFileName().toString();
+      Path complete = partial.resolveSibling(name.substring(0, name.length() - 8));
+      Files.move(partial, complete, StandardCopyOption.ATOMIC_MOVE);
+      uncommitted.add(complete);
+    }
+
+    /** Keeps every file completed so far, even if a later write fails. */
+    void commit() {
+      uncommitted.clear();
+    }
+
+    /** Deletes the current partial file and every file completed since the last commit. */
+    @Override
+    public void close() throws IOException {
+      if (writer != null) {
+        try {
+          writer.close();
+        } catch (IOException e) {
+          // The file is deleted anyway.
+        }
+        writer = null;
+        Files.deleteIfExists(partial);
+      }
+      for (Path file : uncommitted) {
+        Files.deleteIfExists(file);
+      }
+      uncommitted.clear();
+    }
+  }
+
+  /** Appends the exported fields of {@code entry} to {@code json} as one JSON object. */
+  static void toJson(LogEntry entry, StringBuilder json) {
+    json.append("{\"timestamp\":");
+    appendString(Instant.ofEpochMilli(entry.getTimestamp()).toString(), json);
+    json.append(",\"severity\":");
+    appendString(entry.getSeverity().name(), json);
+    json.append(",\"logName\":");
+    appendString(entry.getLogName(), json);
+    json.append(",\"insertId\":");
+    appendString(entry.getInsertId(), json);
+    if (entry.getResource() != null) {
+      json.append(",\"resource\":{\"type\":");
+      appendString(entry.getResource().getType(), json);
+      json.append(",\"labels\":");
+      appendValue(entry.getResource().getLabels(), json);
+      json.append('}');
+    }
+    if (!entry.getLabels().isEmpty()) {
+      json.append(",\"labels\":");
+      appendValue(entry.getLabels(), json);
+    }
+    Payload<?> payload = entry.getPayload();
+    if (payload instanceof StringPayload) {
+      json.append(",\"textPayload\":");
+      appendString(((StringPayload) payload).getData(), json);
+    } else if (payload instanceof JsonPayload) {
+      json.append(",\"jsonPayload\":");
+      appendValue(((JsonPayload) payload).getDataAsMap(), json);
+    } else if (payload instanceof ProtoPayload) {
+      json.append(",\"protoPayload\":");
+      appendProto(((ProtoPayload) payload).getData(), json);
+    }
+    json.append('}');
+  }
+
+  /**
+   * Appends {@code data} as proto3 JSON if its type is known, or else as its type URL and the
+   * base64 encoding of its serialized value.
+   */
+  private static void appendProto(Any data, StringBuilder json) {
+    try {
+      json.append(PROTO_PRINTER.print(data));
+    } catch (InvalidProtocolBufferException e) {
+      json.append("{\"@type\":");
+      appendString(data.getTypeUrl(), json);
+      json.append(",\"value\":");
+      appendString(Base64.getEncoder().encodeToString(data.getValue().toByteArray()), json);
+      json.append('}');
+    }
+  }
+
+  private static void appendValue(Object value, StringBuilder json) {
+    if (value == null) {
+      json.append("null");
+    } else if (value instanceof Map) {
+      json.append('{');
+      boolean first = true;
+      for (Map.Entry<?, ?> field : ((Map<?, ?>) value).entrySet()) {
+        if (!first) {
+          json.append(',');
+        }
+        first = false;
+        appendString(String.valueOf(field.getKey()), json);
+        json.append(':');
+        appendValue(field.getValue(), json);
+      }
+      json.append('}');
+    } else if (value instanceof List) {
+      json.append('[');
+      boolean first = true;
+      for (Object element : (List<?>) value) {
+        if (!first) {
+          json.append(',');
+        }
+        first = false;
+        appendValue(element, json);
+      }
+      json.append(']');
+    } else if (value instanceof Number || value instanceof Boolean) {
+      json.append(value);
+    } else {
+      appendString(value.toString(), json);
+    }
+  }
+
+  private static void appendString(String value, StringBuilder json) {
+    if (value == null) {
+      json.append("null");
+      return;
+    }
+    json.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"':
+          json.append("\\\"");
+          break;
+        case '\\':
+          json.append("\\\\");
+          break;
+        case '\n':
+          json.append("\\n");
+          break;
+        case '\r':
+          json.append("\\r");
+          break;
+        case '\t':
+          json.append("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            json.append(String.format("\\u%04x", (int) c));
+          } else {
+            json.append(c);
+          }
+      }
+    }
+    json.append('"');
+  }
+}
@@ -19,13 +19,20 @@ package com.example.logging;
 import static com.google.common.truth.Truth.assertThat;
 
 import com.google.cloud.MonitoredResource;
+import com.google.cloud.audit.AuditLog;
 import com.google.cloud.logging.LogEntry;
 import com.google.cloud.logging.Logging;
 import com.google.cloud.logging.LoggingOptions;
+import com.google.cloud.logging.Payload.ProtoPayload;
 import com.google.cloud.logging.Payload.StringPayload;
+import com.google.protobuf.Any;
+import com.google.protobuf.ByteString;
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Collections;
+import java.util.stream.Stream;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -91,4 +98,53 @@ public class LoggingIT {
     }
     assertThat(bout.toString().contains("Hello world again")).isTrue();
   }
+
+  @Test(timeout = 120000)
+  public void testExportLogs() throws Exception {
+    LogEntry entry = LogEntry.newBuilder(StringPayload.of("Hello world exported"))
+        .setLogName(TEST_WRITE_LOG)
+        .setResource(MonitoredResource.newBuilder("global").build())
+        .build();
+    logging.write(Collections.singleton(entry));
+    logging.flush();
+    Path outputDir = Files.createTempDirectory("log-export");
+    while (bout.toString().isEmpty() || bout.toString().contains("Exported 0 entries")) {
+      bout.reset();
+      ListLogs.main("export", TEST_WRITE_LOG, "1", outputDir.toString());
+      Thread.sleep(5000);
+    }
+    try (Stream<Path> files = Files.list(outputDir)) {
+      assertThat(files.anyMatch(file -> file.toString().endsWith(".ndjson.gz"))).isTrue();
+    }
+  }
+
+  @Test
+  public void testExportProtoPayload() throws Exception {
+    AuditLog auditLog = AuditLog.newBuilder()
+        .setServiceName("storage.googleapis.com")
+        .setMethodName("storage.objects.get")
+        .build();
+    StringBuilder json = new StringBuilder();
+    LogExporter.toJson(protoEntry(Any.pack(auditLog)), json);
+    assertThat(json.toString()).contains("\"protoPayload\":{\"@type\":"
+        + "\"type.googleapis.com/google.cloud.audit.AuditLog\","
+        + "\"serviceName\":\"storage.googleapis.com\","
+        + "\"methodName\":\"storage.objects.get\"}");
+
+    Any unknown = Any.newBuilder()
+        .setTypeUrl("type.googleapis.com/example.Unknown")
+        .setValue(ByteString.copyFromUtf8("hello"))
+        .build();
+    json.setLength(0);
+    LogExporter.toJson(protoEntry(unknown), json);
+    assertThat(json.toString()).contains("\"protoPayload\":{\"@type\":"
+        + "\"type.googleapis.com/example.Unknown\",\"value\":\"aGVsbG8=\"}");
+  }
+
+  private static LogEntry protoEntry(Any data) {
+    return LogEntry.newBuilder(ProtoPayload.of(data))
+        .setLogName(TEST_WRITE_LOG)
+        .setTimestamp(0)
+        .build();
+  }
 }
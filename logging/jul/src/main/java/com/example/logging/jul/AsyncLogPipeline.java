@@ -0,0 +1,167 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.logging.jul;
+
+import com.google.cloud.logging.LogEntry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands log events from the threads that log them to one background thread that converts them to
+ * log entries and writes them in batches.
+ *
+ * <p>Logging threads only add the event to a {@link RingBuffer}. Once the buffer is 80% full,
+ * events that {@link #isDiscardable} says are low priority are dropped, and when it is full the
+ * {@link OverflowPolicy} decides between dropping the event and waiting for space. Waiting keeps
+ * every event but passes a slow backend's delays on to the logging threads.
+ */
+abstract class AsyncLogPipeline<E> {
+
+  /** What a logging thread does when the buffer is full. */
+  enum OverflowPolicy {
+    DROP, BLOCK
+  }
+
+  private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+  private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+  private final RingBuffer<E> buffer;
+  private final int discardThreshold;
+  private final int batchSize;
+  private final OverflowPolicy policy;
+  private final LongAdder dropped = new LongAdder();
+  private final LongAdder written = new LongAdder();
+  private final LongAdder batches = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  // Logging threads inside offer(); stop() waits for them before telling the writer to finish.
+  private final AtomicInteger offering = new AtomicInteger();
+  // Set first, so that no new event is accepted.
+  private volatile boolean stopped;
+  // Set once every accepted event is in the buffer, so that the writer can finish.
+  private volatile boolean closing;
+  private Thread writer;
+
+  AsyncLogPipeline(int capacity, int batchSize, OverflowPolicy policy) {
+    this.buffer = new RingBuffer<>(capacity);
+    this.discardThreshold = buffer.capacity() - buffer.capacity() / 5;
+    this.batchSize = batchSize;
+    this.policy = policy;
+  }
+
+  /** Converts an event to a log entry on the background thread. */
+  abstract LogEntry toLogEntry(E event);
+
+  /** Whether an event may be dropped to keep room for more important ones. */
+  abstract boolean isDiscardable(E event);
+
+  /** Writes one batch of entries. */
+  abstract void write(List<LogEntry> batch);
+
+  abstract void reportError(String message, Exception e);
+
+  void start(String threadName) {
+    writer = new Thread(this::drain, threadName);
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /** Queues {@code event}, returning false if it was dropped. */
+  boolean offer(E event) {
+    // The backend can log while writing; queueing that would wait on itself or loop forever.
+    if (Thread.currentThread() == writer) {
+      dropped.increment();
+      return false;
+    }
+    offering.incrementAndGet();
+    try {
+      if (stopped || (buffer.size() >= discardThreshold && isDiscardable(event))) {
+        dropped.increment();
+        return false;
+      }
+      while (!buffer.offer(event)) {
+        if (policy == OverflowPolicy.DROP || stopped) {
+          dropped.increment();
+          return false;
+        }
+        LockSupport.parkNanos(BLOCK_PARK_NANOS);
+      }
+      return true;
+    } finally {
+      offering.decrementAndGet();
+    }
+  }
+
+  private void drain() {
+    List<LogEntry> batch = new ArrayList<>(batchSize);
+    while (true) {
+      // Read before draining, so that every event accepted before stop() is written.
+      boolean stopping = closing;
+      E event;
+      while (batch.size() < batchSize && (event = buffer.poll()) != null) {
+        try {
+          batch.add(toLogEntry(event));
+        } catch (RuntimeException e) {
+          failed.increment();
+          reportError("Failed to convert a log event", e);
+        }
+      }
+      if (!batch.isEmpty()) {
+        try {
+          write(batch);
+          written.add(batch.size());
+          batches.increment();
+        } catch (RuntimeException e) {
+          failed.add(batch.size());
+          reportError("Failed to write " + batch.size() + " log entries", e);
+        }
+        batch.clear();
+      } else if (stopping) {
+        return;
+      } else {
+        LockSupport.parkNanos(IDLE_PARK_NANOS);
+      }
+    }
+  }
+
+  /** Stops accepting new events, then writes every event already accepted. */
+  void stop() throws InterruptedException {
+    stopped = true;
+    // A logging thread that passed the check before it saw stopped may not have queued its event
+    // yet; the writer must not finish until it has, or the event would be lost uncounted.
+    while (offering.get() > 0) {
+      LockSupport.parkNanos(BLOCK_PARK_NANOS);
+    }
+    closing = true;
+    if (writer != null) {
+      writer.join();
+    }
+  }
+
+  long getDropped() {
+    return dropped.sum();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("Wrote %d entries in %d batches; %d dropped, %d failed",
+        written.sum(), batches.sum(), dropped.sum(), failed.sum());
+  }
+}
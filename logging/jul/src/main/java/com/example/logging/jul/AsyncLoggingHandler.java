@@ -0,0 +1,203 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.logging.jul;
+
+import com.google.cloud.logging.LogEntry;
+import com.google.cloud.logging.Logging;
+import com.google.cloud.logging.Logging.WriteOption;
+import com.google.cloud.logging.LoggingEnhancer;
+import com.google.cloud.logging.LoggingOptions;
+import com.google.cloud.logging.MonitoredResourceUtil;
+import com.google.cloud.logging.Payload.StringPayload;
+import com.google.cloud.logging.Severity;
+import com.google.cloud.logging.Synchronicity;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.logging.ErrorManager;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.LogRecord;
+import java.util.logging.SimpleFormatter;
+
+// [START logging_jul_async_handler]
+/**
+ * Sends logs to Stackdriver Logging without making the logging thread wait for the write.
+ *
+ * <p>Records are queued in a lock-free ring buffer, then formatted and written by a background
+ * thread in batches of up to {@code batchSize} entries per request, so parameters of a record must
+ * not be changed after it is logged. When the queue is 80% full, records below INFO are dropped
+ * first; when it is full, {@code overflowPolicy} chooses between dropping the record
+ * ({@code DROP}, the default) and waiting for space ({@code BLOCK}).
+ *
+ * <p>Enhancers are run once when the handler is created, and the labels they set are sent once per
+ * request rather than added to every entry, so they must not depend on the record being logged.
+ *
+ * <p>Configured through the {@link LogManager} with these properties, each prefixed with
+ * {@code com.example.logging.jul.AsyncLoggingHandler.}: {@code level}, {@code log},
+ * {@code resourceType}, {@code formatter}, {@code enhancers}, {@code queueSize}, {@code batchSize}
+ * and {@code overflowPolicy}.
+ */
+public class AsyncLoggingHandler extends Handler {
+
+  private final Logging logging;
+  private final AsyncLogPipeline<LogRecord> pipeline;
+
+  public AsyncLoggingHandler() {
+    this(null);
+  }
+
+  /** Creates a handler that sends each batch to {@code writer}, or to Stackdriver if null. */
+  AsyncLoggingHandler(Consumer<List<LogEntry>> writer) {
+    setLevel(Level.parse(property("level", "INFO")));
+    Formatter formatter = newInstance(property("formatter", null), Formatter.class);
+    setFormatter(formatter != null ? formatter : new SimpleFormatter());
+    if (writer == null) {
+      LoggingOptions options = LoggingOptions.getDefaultInstance();
+      Logging client = options.getService();
+      // The background thread waits for each write, so a slow backend fills the queue instead
+      // of piling up pending requests.
+      client.setWriteSynchronicity(Synchronicity.SYNC);
+      WriteOption[] writeOptions = {
+          WriteOption.logName(property("log", "java.log")),
+          WriteOption.resource(MonitoredResourceUtil.getResource(
+              options.getProjectId(), property("resourceType", null))),
+          WriteOption.labels(staticLabels(property("enhancers", "")))
+      };
+      writer = batch -> client.write(batch, writeOptions);
+      logging = client;
+    } else {
+      logging = null;
+    }
+    Consumer<List<LogEntry>> batchWriter = writer;
+    pipeline = new AsyncLogPipeline<LogRecord>(
+        Integer.parseInt(property("queueSize", "8192")),
+        Integer.parseInt(property("batchSize", "500")),
+        AsyncLogPipeline.OverflowPolicy.valueOf(property("overflowPolicy", "DROP").toUpperCase())) {
+      @Override
+      LogEntry toLogEntry(LogRecord record) {
+        return AsyncLoggingHandler.this.toLogEntry(record);
+      }
+
+      @Override
+      boolean isDiscardable(LogRecord record) {
+        return record.getLevel().intValue() < Level.INFO.intValue();
+      }
+
+      @Override
+      void write(List<LogEntry> batch) {
+        batchWriter.accept(batch);
+      }
+
+      @Override
+      void reportError(String message, Exception e) {
+        AsyncLoggingHandler.this.reportError(message, e, ErrorManager.WRITE_FAILURE);
+      }
+    };
+    pipeline.start("async-logging-handler");
+  }
+
+  private static String property(String name, String defaultValue) {
+    String value = LogManager.getLogManager()
+        .getProperty(AsyncLoggingHandler.class.getName() + "." + name);
+    return value != null ? value.trim() : defaultValue;
+  }
+
+  private <T> T newInstance(String className, Class<T> type) {
+    if (className == null) {
+      return null;
+    }
+    try {
+      return Class.forName(className).asSubclass(type).newInstance();
+    } catch (ReflectiveOperationException e) {
+      reportError("Failed to create " + className, e, ErrorManager.GENERIC_FAILURE);
+      return null;
+    }
+  }
+
+  /** Runs every enhancer once and returns the labels they set. */
+  private Map<String, String> staticLabels(String enhancerClassNames) {
+    LogEntry.Builder template = LogEntry.newBuilder(StringPayload.of(""));
+    for (String className : enhancerClassNames.split(",")) {
+      if (!className.trim().isEmpty()) {
+        LoggingEnhancer enhancer = newInstance(className.trim(), LoggingEnhancer.class);
+        if (enhancer != null) {
+          enhancer.enhanceLogEntry(template);
+        }
+      }
+    }
+    return template.build().getLabels();
+  }
+
+  @Override
+  public void publish(LogRecord record) {
+    if (isLoggable(record)) {
+      pipeline.offer(record);
+    }
+  }
+
+  private LogEntry toLogEntry(LogRecord record) {
+    Level level = record.getLevel();
+    return LogEntry.newBuilder(StringPayload.of(getFormatter().format(record)))
+        .setTimestamp(record.getMillis())
+        .setSeverity(severity(level))
+        .addLabel("levelName", level.getName())
+        .addLabel("levelValue", String.valueOf(level.intValue()))
+        .build();
+  }
+
+  private static Severity severity(Level level) {
+    int value = level.intValue();
+    if (value >= Level.SEVERE.intValue()) {
+      return Severity.ERROR;
+    } else if (value >= Level.WARNING.intValue()) {
+      return Severity.WARNING;
+    } else if (value >= Level.INFO.intValue()) {
+      return Severity.INFO;
+    }
+    return Severity.DEBUG;
+  }
+
+  /** Does nothing: the background thread writes each batch as soon as it is queued. */
+  @Override
+  public void flush() {
+  }
+
+  /** Writes every record already queued and closes the client. */
+  @Override
+  public void close() {
+    try {
+      pipeline.stop();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (logging != null) {
+      try {
+        logging.close();
+      } catch (Exception e) {
+        reportError("Failed to close the logging client", e, ErrorManager.CLOSE_FAILURE);
+      }
+    }
+  }
+
+  AsyncLogPipeline<LogRecord> getPipeline() {
+    return pipeline;
+  }
+}
+// [END logging_jul_async_handler]
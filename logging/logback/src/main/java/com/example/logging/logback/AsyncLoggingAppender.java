@@ -0,0 +1,215 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.logging.logback;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.ThrowableProxyUtil;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import com.google.cloud.logging.LogEntry;
+import com.google.cloud.logging.Logging;
+import com.google.cloud.logging.Logging.WriteOption;
+import com.google.cloud.logging.LoggingEnhancer;
+import com.google.cloud.logging.LoggingOptions;
+import com.google.cloud.logging.MonitoredResourceUtil;
+import com.google.cloud.logging.Payload.StringPayload;
+import com.google.cloud.logging.Severity;
+import com.google.cloud.logging.Synchronicity;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+// [START logging_logback_async_appender]
+/**
+ * Sends logs to Stackdriver Logging without making the logging thread wait for the write.
+ *
+ * <p>Events are queued in a lock-free ring buffer and written by a background thread in batches
+ * of up to {@code batchSize} entries per request. When the queue is 80% full, DEBUG and TRACE
+ * events are dropped first; when it is full, {@code overflowPolicy} chooses between dropping the
+ * event ({@code DROP}, the default) and waiting for space ({@code BLOCK}).
+ *
+ * <p>Enhancers are run once when the appender starts, and the labels they set are sent once per
+ * request rather than added to every entry, so they must not depend on the event being logged.
+ * Per-event labels can be set through the MDC instead.
+ */
+public class AsyncLoggingAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
+
+  private String log = "java.log";
+  private String resourceType;
+  private int queueSize = 8192;
+  private int batchSize = 500;
+  private AsyncLogPipeline.OverflowPolicy overflowPolicy = AsyncLogPipeline.OverflowPolicy.DROP;
+  private final List<String> enhancerClassNames = new ArrayList<>();
+
+  private Logging logging;
+  private Consumer<List<LogEntry>> writer;
+  private AsyncLogPipeline<ILoggingEvent> pipeline;
+
+  public void setLog(String log) {
+    this.log = log;
+  }
+
+  public void setResourceType(String resourceType) {
+    this.resourceType = resourceType;
+  }
+
+  public void setQueueSize(int queueSize) {
+    this.queueSize = queueSize;
+  }
+
+  public void setBatchSize(int batchSize) {
+    this.batchSize = batchSize;
+  }
+
+  /** Either {@code DROP} or {@code BLOCK}. */
+  public void setOverflowPolicy(String overflowPolicy) {
+    this.overflowPolicy = AsyncLogPipeline.OverflowPolicy.valueOf(overflowPolicy.toUpperCase());
+  }
+
+  public void addEnhancer(String enhancerClassName) {
+    enhancerClassNames.add(enhancerClassName);
+  }
+
+  /** Replaces the Stackdriver Logging client as the destination of each batch. */
+  void setWriter(Consumer<List<LogEntry>> writer) {
+    this.writer = writer;
+  }
+
+  @Override
+  public void start() {
+    if (isStarted()) {
+      return;
+    }
+    if (writer == null) {
+      LoggingOptions options = LoggingOptions.getDefaultInstance();
+      logging = options.getService();
+      // The background thread waits for each write, so a slow backend fills the queue instead
+      // of piling up pending requests.
+      logging.setWriteSynchronicity(Synchronicity.SYNC);
+      WriteOption[] writeOptions = {
+          WriteOption.logName(log),
+          WriteOption.resource(
+              MonitoredResourceUtil.getResource(options.getProjectId(), resourceType)),
+          WriteOption.labels(staticLabels())
+      };
+      writer = batch -> logging.write(batch, writeOptions);
+    }
+    pipeline = new AsyncLogPipeline<ILoggingEvent>(queueSize, batchSize, overflowPolicy) {
+      @Override
+      LogEntry toLogEntry(ILoggingEvent event) {
+        return AsyncLoggingAppender.toLogEntry(event);
+      }
+
+      @Override
+      boolean isDiscardable(ILoggingEvent event) {
+        return !event.getLevel().isGreaterOrEqual(Level.INFO);
+      }
+
+      @Override
+      void write(List<LogEntry> batch) {
+        writer.accept(batch);
+      }
+
+      @Override
+      void reportError(String message, Exception e) {
+        addError(message, e);
+      }
+    };
+    pipeline.start("async-logging-" + getName());
+    super.start();
+  }
+
+  /** Runs every enhancer once and returns the labels they set. */
+  private Map<String, String> staticLabels() {
+    LogEntry.Builder template = LogEntry.newBuilder(StringPayload.of(""));
+    for (String className : enhancerClassNames) {
+      try {
+        Class.forName(className).asSubclass(LoggingEnhancer.class).newInstance()
+            .enhanceLogEntry(template);
+      } catch (ReflectiveOperationException e) {
+        addError("Failed to create enhancer " + className, e);
+      }
+    }
+    return template.build().getLabels();
+  }
+
+  @Override
+  protected void append(ILoggingEvent event) {
+    // Copies the MDC and formats the message while they still belong to this thread.
+    event.prepareForDeferredProcessing();
+    pipeline.offer(event);
+  }
+
+  private static LogEntry toLogEntry(ILoggingEvent event) {
+    StringBuilder message = new StringBuilder(event.getFormattedMessage());
+    IThrowableProxy throwable = event.getThrowableProxy();
+    if (throwable != null) {
+      message.append('\n').append(ThrowableProxyUtil.asString(throwable));
+    }
+    Level level = event.getLevel();
+    LogEntry.Builder entry = LogEntry.newBuilder(StringPayload.of(message.toString()))
+        .setTimestamp(event.getTimeStamp())
+        .setSeverity(severity(level))
+        .addLabel("levelName", level.toString())
+        .addLabel("levelValue", String.valueOf(level.toInt()));
+    for (Map.Entry<String, String> label : event.getMDCPropertyMap().entrySet()) {
+      entry.addLabel(label.getKey(), label.getValue());
+    }
+    return entry.build();
+  }
+
+  private static Severity severity(Level level) {
+    switch (level.toInt()) {
+      case Level.ERROR_INT:
+        return Severity.ERROR;
+      case Level.WARN_INT:
+        return Severity.WARNING;
+      case Level.INFO_INT:
+        return Severity.INFO;
+      default:
+        return Severity.DEBUG;
+    }
+  }
+
+  @Override
+  public void stop() {
+    if (!isStarted()) {
+      return;
+    }
+    super.stop();
+    try {
+      pipeline.stop();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    addInfo(pipeline.toString());
+    if (logging != null) {
+      try {
+        logging.close();
+      } catch (Exception e) {
+        addError("Failed to close the logging client", e);
+      }
+    }
+  }
+
+  AsyncLogPipeline<ILoggingEvent> getPipeline() {
+    return pipeline;
+  }
+}
+// [END logging_logback_async_appender]
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.logging.logback;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import com.google.cloud.logging.LogEntry;
+import com.google.cloud.logging.Payload.StringPayload;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures how many log calls per second application threads make, and the distribution of the
+ * time of one call (including its 99th percentile), when every write to the backend takes a few
+ * milliseconds.
+ *
+ * <p>Compares an appender that writes each event as it is logged with {@link AsyncLoggingAppender}.
+ * Both write to an in-process stand-in for Stackdriver Logging, so no project is needed. One call
+ * in four logs at DEBUG, to show those being dropped first when the queue fills.
+ */
+@State(Scope.Benchmark)
+@Threads(8)
+@Fork(1)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class AsyncLoggingBenchmark {
+
+  private static final long WRITE_MILLIS = 2;
+
+  @Param({"synchronous", "asynchronous"})
+  public String appenderType;
+
+  private Appender<ILoggingEvent> appender;
+  private Logger logger;
+
+  /** Counts each thread's calls, so one in four of them logs at DEBUG. */
+  @State(Scope.Thread)
+  public static class Calls {
+    int count;
+  }
+
+  public static void main(String... args) throws Exception {
+    new Runner(new OptionsBuilder().include(AsyncLoggingBenchmark.class.getName()).build()).run();
+  }
+
+  @Setup
+  public void setUp() {
+    Consumer<List<LogEntry>> slowBackend = batch -> {
+      try {
+        TimeUnit.MILLISECONDS.sleep(WRITE_MILLIS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    };
+    if (appenderType.equals("asynchronous")) {
+      AsyncLoggingAppender async = new AsyncLoggingAppender();
+      async.setWriter(slowBackend);
+      appender = async;
+    } else {
+      appender = new UnsynchronizedAppenderBase<ILoggingEvent>() {
+        @Override
+        protected void append(ILoggingEvent event) {
+          slowBackend.accept(Collections.singletonList(
+              LogEntry.of(StringPayload.of(event.getFormattedMessage()))));
+        }
+      };
+    }
+    LoggerContext context = new LoggerContext();
+    appender.setContext(context);
+    appender.setName(appenderType);
+    appender.start();
+    logger = context.getLogger(appenderType);
+    logger.setAdditive(false);
+    logger.setLevel(Level.DEBUG);
+    logger.addAppender(appender);
+  }
+
+  @TearDown
+  public void tearDown() {
+    appender.stop();
+    if (appender instanceof AsyncLoggingAppender) {
+      System.out.println(((AsyncLoggingAppender) appender).getPipeline());
+    }
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  public void callsPerSecond(Calls calls) {
+    log(calls);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SampleTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public void callLatency(Calls calls) {
+    log(calls);
+  }
+
+  private void log(Calls calls) {
+    int i = calls.count++;
+    if (i % 4 == 0) {
+      logger.debug("Request {} details", i);
+    } else {
+      logger.info("Handled request {}", i);
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.logging.logback;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded queue for many producer threads and one consumer thread that never takes a lock.
+ *
+ * <p>Each slot carries a sequence number saying whether it is free for the producer claiming a
+ * position or holds an element for the consumer, so producers only contend on one compare-and-set
+ * of the tail and a full queue is detected without blocking.
+ */
+final class RingBuffer<E> {
+
+  private final AtomicReferenceArray<E> slots;
+  private final AtomicLongArray sequences;
+  private final int mask;
+  private final AtomicLong tail = new AtomicLong();
+  // Only written by the consumer; volatile so that size() is accurate from any thread.
+  private volatile long head;
+
+  /** Creates a buffer holding {@code capacity} elements, rounded up to a power of two. */
+  RingBuffer(int capacity) {
+    int size = 2;
+    while (size < capacity) {
+      size <<= 1;
+    }
+    slots = new AtomicReferenceArray<>(size);
+    sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+    mask = size - 1;
+  }
+
+  int capacity() {
+    return mask + 1;
+  }
+
+  int size() {
+    return (int) (tail.get() - head);
+  }
+
+  /** Adds {@code element} and returns true, or returns false at once if the buffer is full. */
+  boolean offer(E element) {
+    while (true) {
+      long position = tail.get();
+      int index = (int) position & mask;
+      long free = sequences.get(index) - position;
+      if (free == 0) {
+        if (tail.compareAndSet(position, position + 1)) {
+          slots.lazySet(index, element);
+          sequences.lazySet(index, position + 1);
+          return true;
+        }
+      } else if (free < 0) {
+        return false;
+      }
+    }
+  }
+
+  /** Removes and returns the oldest element, or null if there is none. Consumer thread only. */
+  E poll() {
+    long position = head;
+    int index = (int) position & mask;
+    if (sequences.get(index) != position + 1) {
+      return null;
+    }
+    E element = slots.get(index);
+    slots.lazySet(index, null);
+    sequences.lazySet(index, position + mask + 1);
+    head = position + 1;
+    return element;
+  }
+}
@@ -19,6 +19,7 @@ package com.example.redis;
 
 import java.io.IOException;
 import java.util.Properties;
+import javax.servlet.ServletContext;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 import javax.servlet.annotation.WebListener;
@@ -42,13 +43,52 @@ public class AppServletContextListener implements ServletContextListener {
 
     JedisPoolConfig poolConfig = new JedisPoolConfig();
     // Default : 8, consider how many concurrent connections into Redis you will need under load
-    poolConfig.setMaxTotal(128);
+    poolConfig.setMaxTotal(Integer.parseInt(config.getProperty("redis.pool.maxTotal", "128")));
+    // Default : 8, connections kept open beyond this are closed when returned to the pool
+    poolConfig.setMaxIdle(Integer.parseInt(config.getProperty("redis.pool.maxIdle", "8")));
+    // Default : 0, keeps connections open through quiet periods so bursts do not wait to connect
+    poolConfig.setMinIdle(Integer.parseInt(config.getProperty("redis.pool.minIdle", "0")));
+    // Default : -1 (no limit), how long a request waits when every connection is in use
+    poolConfig.setMaxWaitMillis(
+        Long.parseLong(config.getProperty("redis.pool.maxWaitMillis", "-1")));
 
-    return new JedisPool(poolConfig, host, port);
+    return new JedisPool(poolConfig, host, port,
+        Integer.parseInt(config.getProperty("redis.timeoutMillis", "2000")));
+  }
+
+  /**
+   * Returns the pool's connection counts and borrow wait times, and the flush counts of the
+   * write-behind counters if they are enabled.
+   */
+  static String describeMetrics(ServletContext context) {
+    StringBuilder metrics = new StringBuilder();
+    JedisPool jedisPool = (JedisPool) context.getAttribute("jedisPool");
+    if (jedisPool != null) {
+      metrics.append(String.format(
+          "Pool: %d active, %d idle, %d waiting; borrow wait mean %d ms, max %d ms\n",
+          jedisPool.getNumActive(), jedisPool.getNumIdle(), jedisPool.getNumWaiters(),
+          jedisPool.getMeanBorrowWaitTimeMillis(), jedisPool.getMaxBorrowWaitTimeMillis()));
+    }
+    Object counters = context.getAttribute("visitCounters");
+    if (counters != null) {
+      metrics.append(counters).append('\n');
+    }
+    return metrics.toString();
   }
 
   @Override
   public void contextDestroyed(ServletContextEvent event) {
+    BufferedCounters counters =
+        (BufferedCounters) event.getServletContext().getAttribute("visitCounters");
+    if (counters != null) {
+      try {
+        // Sends the last increments while the pool is still open
+        counters.close();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      event.getServletContext().setAttribute("visitCounters", null);
+    }
     JedisPool jedisPool = (JedisPool) event.getServletContext().getAttribute("jedisPool");
     if (jedisPool != null) {
       jedisPool.destroy();
@@ -64,6 +104,12 @@ public class AppServletContextListener implements ServletContextListener {
       try {
         jedisPool = createJedisPool();
         event.getServletContext().setAttribute("jedisPool", jedisPool);
+        if (Boolean.parseBoolean(config.getProperty("counter.writeBehind", "false"))) {
+          long flushIntervalMillis =
+              Long.parseLong(config.getProperty("counter.flushIntervalMillis", "1000"));
+          event.getServletContext().setAttribute(
+              "visitCounters", new BufferedCounters(jedisPool, flushIntervalMillis));
+        }
       } catch (IOException e) {
         // handle exception
       }
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2018 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// [START memorystore_buffered_counters]
+
+package com.example.redis;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+/**
+ * Counts in memory and writes the counts to Redis periodically, instead of making a round trip to
+ * Redis for every increment.
+ *
+ * <p>Increments add to a {@link LongAdder} per key, which spreads concurrent updates over several
+ * cells. Every flush sends what each key gained since the last flush as one {@code INCRBY}, and
+ * reads the current value of keys that did not change, all in one pipelined round trip. Reads
+ * return the value seen at the last flush plus this instance's increments since, so increments
+ * from other instances appear after at most one flush interval. If a flush fails, its increments
+ * are sent with the next one, so a connection lost partway through a flush can count some twice.
+ * Increments not yet flushed are lost if the process dies.
+ */
+public class BufferedCounters implements AutoCloseable {
+
+  private final JedisPool jedisPool;
+  private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor();
+
+  private final LongAdder flushes = new LongAdder();
+  private final LongAdder failedFlushes = new LongAdder();
+  private final LongAdder failedKeys = new LongAdder();
+  private final LongAdder flushedIncrements = new LongAdder();
+  private final LongAdder flushNanos = new LongAdder();
+  private final LongAccumulator maxFlushNanos = new LongAccumulator(Math::max, 0);
+
+  private static class Counter {
+    final LongAdder increments = new LongAdder();
+    // Replaced as a whole by the flusher, so readers never see one field updated without the other.
+    volatile Snapshot snapshot = new Snapshot(0, 0);
+  }
+
+  private static class Snapshot {
+    // How many of the local increments Redis already includes.
+    final long flushed;
+    // The value in Redis after the last flush.
+    final long remote;
+
+    Snapshot(long flushed, long remote) {
+      this.flushed = flushed;
+      this.remote = remote;
+    }
+  }
+
+  public BufferedCounters(JedisPool jedisPool, long flushIntervalMillis) {
+    this.jedisPool = jedisPool;
+    flusher.scheduleWithFixedDelay(
+        this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  private Counter counter(String key) {
+    return counters.computeIfAbsent(key, k -> new Counter());
+  }
+
+  /** Adds one to {@code key} and returns its new value as seen by this instance. */
+  public long incr(String key) {
+    Counter counter = counter(key);
+    counter.increments.increment();
+    return get(counter);
+  }
+
+  /** Returns the value of {@code key} as seen by this instance. */
+  public long get(String key) {
+    return get(counter(key));
+  }
+
+  private static long get(Counter counter) {
+    Snapshot snapshot = counter.snapshot;
+    return snapshot.remote + counter.increments.sum() - snapshot.flushed;
+  }
+
+  /** Sends the increments made since the last flush and refreshes every value. */
+  void flush() {
+    // An exception would stop the scheduled flushes, so every failure is counted instead.
+    try {
+      flushOnce();
+    } catch (RuntimeException e) {
+      failedFlushes.increment();
+    }
+  }
+
+  private void flushOnce() {
+    long start = System.nanoTime();
+    Map<String, Long> totals = new HashMap<>();
+    Map<String, Response<Long>> increments = new HashMap<>();
+    Map<String, Response<String>> reads = new HashMap<>();
+    try (Jedis jedis = jedisPool.getResource()) {
+      Pipeline pipeline = jedis.pipelined();
+      for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+        Counter counter = entry.getValue();
+        // Never reset, so that increments made while flushing are kept for the next flush.
+        long total = counter.increments.sum();
+        long delta = total - counter.snapshot.flushed;
+        totals.put(entry.getKey(), total);
+        if (delta > 0) {
+          increments.put(entry.getKey(), pipeline.incrBy(entry.getKey(), delta));
+        } else {
+          reads.put(entry.getKey(), pipeline.get(entry.getKey()));
+        }
+      }
+      pipeline.sync();
+    }
+    // A command that Redis rejected, such as INCRBY on a key that does not hold a number, leaves
+    // that counter as it was without affecting the others.
+    for (Map.Entry<String, Response<Long>> increment : increments.entrySet()) {
+      Counter counter = counters.get(increment.getKey());
+      long total = totals.get(increment.getKey());
+      try {
+        long remote = increment.getValue().get();
+        flushedIncrements.add(total - counter.snapshot.flushed);
+        counter.snapshot = new Snapshot(total, remote);
+      } catch (JedisDataException e) {
+        failedKeys.increment();
+      }
+    }
+    for (Map.Entry<String, Response<String>> read : reads.entrySet()) {
+      Counter counter = counters.get(read.getKey());
+      try {
+        String value = read.getValue().get();
+        counter.snapshot = new Snapshot(
+            counter.snapshot.flushed, value != null ? Long.parseLong(value) : 0);
+      } catch (JedisDataException | NumberFormatException e) {
+        failedKeys.increment();
+      }
+    }
+    long nanos = System.nanoTime() - start;
+    flushes.increment();
+    flushNanos.add(nanos);
+    maxFlushNanos.accumulate(nanos);
+  }
+
+  /** Stops flushing periodically and flushes once more. */
+  @Override
+  public void close() throws InterruptedException {
+    flusher.shutdown();
+    flusher.awaitTermination(1, TimeUnit.MINUTES);
+    flush();
+  }
+
+  @Override
+  public String toString() {
+    long count = flushes.sum();
+    return String.format(
+        "Flushes: %d (%d failed, %d keys rejected), %d increments in %d keys, "
+            + "mean %.2f ms, max %.2f ms",
+        count, failedFlushes.sum(), failedKeys.sum(), flushedIncrements.sum(), counters.size(),
+        count == 0 ? 0 : flushNanos.sum() / 1e6 / count, maxFlushNanos.get() / 1e6);
+  }
+}
+// [END memorystore_buffered_counters]
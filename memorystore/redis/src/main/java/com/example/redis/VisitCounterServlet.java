@@ -39,8 +39,15 @@ public class VisitCounterServlet extends HttpServlet {
       }
       Long visits;
 
-      try (Jedis jedis = jedisPool.getResource()) {
-        visits = jedis.incr("visits");
+      BufferedCounters counters =
+          (BufferedCounters) req.getServletContext().getAttribute("visitCounters");
+      if (counters != null) {
+        // Write-behind mode: counted in memory and sent to Redis in the background
+        visits = counters.incr("visits");
+      } else {
+        try (Jedis jedis = jedisPool.getResource()) {
+          visits = jedis.incr("visits");
+        }
       }
 
       resp.setStatus(HttpServletResponse.SC_OK);
@@ -0,0 +1,400 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.monitoring;
+
+import com.google.api.Distribution;
+import com.google.api.Metric;
+import com.google.api.MonitoredResource;
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.monitoring.v3.MetricServiceClient;
+import com.google.monitoring.v3.CreateTimeSeriesRequest;
+import com.google.monitoring.v3.Point;
+import com.google.monitoring.v3.ProjectName;
+import com.google.monitoring.v3.TimeInterval;
+import com.google.monitoring.v3.TimeSeries;
+import com.google.monitoring.v3.TypedValue;
+import com.google.protobuf.Empty;
+import com.google.protobuf.Timestamp;
+import com.google.protobuf.util.Timestamps;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Buffers custom metric points in memory and writes them to Stackdriver Monitoring in batches.
+ *
+ * <p>Recording a point only updates an in-memory accumulator for its time series, without
+ * locking: a gauge keeps its last value, a counter its running total and a distribution its bucket
+ * counts. On a fixed interval every series that changed is written as one point, up to
+ * {@link #MAX_SERIES_PER_REQUEST} series per {@code createTimeSeries} request, so thousands of
+ * points a second cost a handful of requests. Counters and distributions are written as
+ * cumulative values, so a failed write loses nothing that the next one does not cover.
+ *
+ * <p>Monitoring accepts at most one point per series every {@link #MIN_WRITE_INTERVAL_MILLIS}, so
+ * a series written more recently than that is held back until the next flush.
+ */
+public class MetricWriter implements AutoCloseable {
+
+  /** The most time series one {@code createTimeSeries} request may contain. */
+  public static final int MAX_SERIES_PER_REQUEST = 200;
+  /** The least time allowed between two points of the same series. */
+  public static final long MIN_WRITE_INTERVAL_MILLIS = 5000;
+
+  private final MetricServiceClient client;
+  private final String projectName;
+  private final MonitoredResource resource;
+  private final ConcurrentMap<String, Series> series = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor();
+  private final LongAdder flushed = new LongAdder();
+  private final LongAdder dropped = new LongAdder();
+  private final LongAdder deferred = new LongAdder();
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder failedFlushes = new LongAdder();
+  private volatile long lastFlushMillis;
+
+  /**
+   * Creates a writer that flushes every {@code flushIntervalSeconds}.
+   *
+   * @param resource the monitored resource every series is written for.
+   */
+  public MetricWriter(MetricServiceClient client, String projectId, MonitoredResource resource,
+      long flushIntervalSeconds) {
+    this.client = client;
+    this.projectName = ProjectName.of(projectId).toString();
+    this.resource = resource;
+    flusher.scheduleAtFixedRate(
+        this::flushQuietly, flushIntervalSeconds, flushIntervalSeconds, TimeUnit.SECONDS);
+  }
+
+  /** The accumulated state of one time series. */
+  abstract static class Series {
+    final Metric metric;
+    volatile long lastWriteMillis;
+
+    Series(Metric metric) {
+      this.metric = metric;
+    }
+
+    /** Returns a point with the value to write, or null if nothing changed since the last. */
+    abstract Point take(Timestamp now);
+
+    /** Called when the point last taken could not be written. */
+    void failed() {
+    }
+  }
+
+  /** The last value set for a metric. */
+  public static final class Gauge extends Series {
+    private final AtomicLong valueBits = new AtomicLong();
+    private final AtomicBoolean changed = new AtomicBoolean();
+
+    private Gauge(Metric metric) {
+      super(metric);
+    }
+
+    public void set(double value) {
+      valueBits.set(Double.doubleToRawLongBits(value));
+      changed.set(true);
+    }
+
+    @Override
+    Point take(Timestamp now) {
+      if (!changed.getAndSet(false)) {
+        return null;
+      }
+      return Point.newBuilder()
+          .setInterval(TimeInterval.newBuilder().setEndTime(now))
+          .setValue(TypedValue.newBuilder()
+              .setDoubleValue(Double.longBitsToDouble(valueBits.get())))
+          .build();
+    }
+
+    @Override
+    void failed() {
+      changed.set(true);
+    }
+  }
+
+  /** A running total, written as a cumulative metric. */
+  public static final class Counter extends Series {
+    private final Timestamp startTime = Timestamps.fromMillis(System.currentTimeMillis());
+    private final LongAdder total = new LongAdder();
+    private long lastWritten = -1;
+
+    private Counter(Metric metric) {
+      super(metric);
+    }
+
+    public void add(long delta) {
+      total.add(delta);
+    }
+
+    @Override
+    Point take(Timestamp now) {
+      long value = total.sum();
+      if (value == lastWritten) {
+        return null;
+      }
+      lastWritten = value;
+      return Point.newBuilder()
+          .setInterval(TimeInterval.newBuilder().setStartTime(startTime).setEndTime(now))
+          .setValue(TypedValue.newBuilder().setInt64Value(value))
+          .build();
+    }
+
+    @Override
+    void failed() {
+      lastWritten = -1;
+    }
+  }
+
+  /** A histogram of recorded values, written as a cumulative distribution. */
+  public static final class Histogram extends Series {
+    private final Timestamp startTime = Timestamps.fromMillis(System.currentTimeMillis());
+    private final double[] bounds;
+    private final AtomicLongArray bucketCounts;
+    private final DoubleAdder sum = new DoubleAdder();
+    private final DoubleAdder sumOfSquares = new DoubleAdder();
+    private long lastWrittenCount;
+
+    private Histogram(Metric metric, double[] bounds) {
+      super(metric);
+      this.bounds = bounds;
+      // One underflow bucket, one bucket between each pair of bounds and one overflow bucket.
+      this.bucketCounts = new AtomicLongArray(bounds.length + 1);
+    }
+
+    public void record(double value) {
+      int bucket = Arrays.binarySearch(bounds, value);
+      // A value equal to a bound belongs to the bucket that bound starts.
+      bucket = bucket >= 0 ? bucket + 1 : -bucket - 1;
+      bucketCounts.incrementAndGet(bucket);
+      sum.add(value);
+      sumOfSquares.add(value * value);
+    }
+
+    @Override
+    Point take(Timestamp now) {
+      // The count is taken from the bucket counts read, which the API requires to add up to it.
+      // The sums are read separately while others record, so the mean may be off slightly for
+      // the points recorded during the read; the next flush brings it back in line.
+      long[] counts = new long[bucketCounts.length()];
+      long n = 0;
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] = bucketCounts.get(i);
+        n += counts[i];
+      }
+      if (n == lastWrittenCount) {
+        return null;
+      }
+      lastWrittenCount = n;
+      double total = sum.sum();
+      double mean = total / n;
+      Distribution.Builder distribution = Distribution.newBuilder()
+          .setCount(n)
+          .setMean(mean)
+          .setSumOfSquaredDeviation(Math.max(0, sumOfSquares.sum() - total * mean))
+          .setBucketOptions(Distribution.BucketOptions.newBuilder()
+              .setExplicitBuckets(Distribution.BucketOptions.Explicit.newBuilder()
+                  .addAllBounds(boundsList())));
+      for (long bucketCount : counts) {
+        distribution.addBucketCounts(bucketCount);
+      }
+      return Point.newBuilder()
+          .setInterval(TimeInterval.newBuilder().setStartTime(startTime).setEndTime(now))
+          .setValue(TypedValue.newBuilder().setDistributionValue(distribution))
+          .build();
+    }
+
+    private List<Double> boundsList() {
+      List<Double> list = new ArrayList<>(bounds.length);
+      for (double bound : bounds) {
+        list.add(bound);
+      }
+      return list;
+    }
+
+    @Override
+    void failed() {
+      lastWrittenCount = 0;
+    }
+  }
+
+  /** Returns the gauge for {@code metricType} with {@code labels}, creating it on first use. */
+  public Gauge gauge(String metricType, Map<String, String> labels) {
+    return (Gauge) series.computeIfAbsent(
+        key(metricType, labels), k -> new Gauge(metric(metricType, labels)));
+  }
+
+  /** Returns the counter for {@code metricType} with {@code labels}, creating it on first use. */
+  public Counter counter(String metricType, Map<String, String> labels) {
+    return (Counter) series.computeIfAbsent(
+        key(metricType, labels), k -> new Counter(metric(metricType, labels)));
+  }
+
+  /**
+   * Returns the distribution for {@code metricType} with {@code labels}, creating it on first use
+   * with buckets split at {@code bounds}, which must be in increasing order.
+   */
+  public Histogram distribution(
+      String metricType, Map<String, String> labels, double... bounds) {
+    return (Histogram) series.computeIfAbsent(
+        key(metricType, labels),
+        k -> new Histogram(metric(metricType, labels), bounds.clone()));
+  }
+
+  private static String key(String metricType, Map<String, String> labels) {
+    return metricType + new TreeMap<>(labels);
+  }
+
+  private static Metric metric(String metricType, Map<String, String> labels) {
+    return Metric.newBuilder().setType(metricType).putAllLabels(labels).build();
+  }
+
+  // [START monitoring_write_timeseries_batched]
+  /** Writes a point for every series that changed, in as few requests as allowed. */
+  public synchronized void flush() throws InterruptedException {
+    long nowMillis = System.currentTimeMillis();
+    lastFlushMillis = nowMillis;
+    Timestamp now = Timestamps.fromMillis(nowMillis);
+    List<Series> batch = new ArrayList<>(MAX_SERIES_PER_REQUEST);
+    List<Point> points = new ArrayList<>(MAX_SERIES_PER_REQUEST);
+    List<List<Series>> batches = new ArrayList<>();
+    List<ApiFuture<Empty>> writes = new ArrayList<>();
+    for (Series s : series.values()) {
+      if (nowMillis - s.lastWriteMillis < MIN_WRITE_INTERVAL_MILLIS) {
+        deferred.increment();
+        continue;
+      }
+      Point point = s.take(now);
+      if (point == null) {
+        continue;
+      }
+      s.lastWriteMillis = nowMillis;
+      batch.add(s);
+      points.add(point);
+      if (batch.size() == MAX_SERIES_PER_REQUEST) {
+        writes.add(write(batch, points));
+        batches.add(batch);
+        batch = new ArrayList<>(MAX_SERIES_PER_REQUEST);
+        points = new ArrayList<>(MAX_SERIES_PER_REQUEST);
+      }
+    }
+    if (!batch.isEmpty()) {
+      writes.add(write(batch, points));
+      batches.add(batch);
+    }
+
+    // The requests run concurrently; wait for all of them before the next flush.
+    for (int i = 0; i < writes.size(); i++) {
+      List<Series> written = batches.get(i);
+      try {
+        writes.get(i).get();
+        flushed.add(written.size());
+      } catch (ExecutionException e) {
+        dropped.add(written.size());
+        for (Series s : written) {
+          s.failed();
+        }
+      }
+    }
+  }
+
+  private ApiFuture<Empty> write(List<Series> batch, List<Point> points) {
+    CreateTimeSeriesRequest.Builder request =
+        CreateTimeSeriesRequest.newBuilder().setName(projectName);
+    for (int i = 0; i < batch.size(); i++) {
+      request.addTimeSeries(TimeSeries.newBuilder()
+          .setMetric(batch.get(i).metric)
+          .setResource(resource)
+          .addPoints(points.get(i)));
+    }
+    requests.increment();
+    try {
+      return client.createTimeSeriesCallable().futureCall(request.build());
+    } catch (RuntimeException e) {
+      // Counted as dropped like any other failed write, without abandoning the other batches.
+      return ApiFutures.immediateFailedFuture(e);
+    }
+  }
+  // [END monitoring_write_timeseries_batched]
+
+  private void flushQuietly() {
+    // An exception would stop the scheduled flushes, so every failure is counted instead.
+    try {
+      flush();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (RuntimeException e) {
+      failedFlushes.increment();
+    }
+  }
+
+  /**
+   * Stops the periodic flush and writes what is left, waiting for the rate limit if the last
+   * flush was too recent.
+   */
+  @Override
+  public void close() throws InterruptedException {
+    flusher.shutdown();
+    flusher.awaitTermination(1, TimeUnit.MINUTES);
+    long waitMillis = lastFlushMillis + MIN_WRITE_INTERVAL_MILLIS - System.currentTimeMillis();
+    if (waitMillis > 0) {
+      Thread.sleep(waitMillis);
+    }
+    flush();
+  }
+
+  public long getFlushed() {
+    return flushed.sum();
+  }
+
+  /**
+   * Returns the number of points whose write failed. The next flush writes the latest value of
+   * their series again.
+   */
+  public long getDropped() {
+    return dropped.sum();
+  }
+
+  /** Returns the number of scheduled flushes that failed before writing everything they took. */
+  public long getFailedFlushes() {
+    return failedFlushes.sum();
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "Flushed %d points in %d requests; %d dropped, %d deferred by the rate limit, "
+            + "%d failed flushes",
+        flushed.sum(), requests.sum(), dropped.sum(), deferred.sum(), failedFlushes.sum());
+  }
+}
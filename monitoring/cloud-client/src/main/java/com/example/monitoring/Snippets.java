@@ -40,10 +40,13 @@ import com.google.monitoring.v3.TypedValue;
 import com.google.protobuf.Duration;
 import com.google.protobuf.util.Timestamps;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
 // Imports the Google Cloud client library
 
@@ -198,6 +201,42 @@ public class Snippets {
   }
   //CHECKSTYLE ON: VariableDeclarationUsageDistance
 
+  /**
+   * Demonstrates recording many points through a {@link MetricWriter}, which writes them in
+   * batches instead of one request per point.
+   */
+  void writeTimeSeriesBatched() throws Exception {
+    // [START monitoring_write_timeseries_buffered]
+    String projectId = System.getProperty("projectId");
+    MetricServiceClient metricServiceClient = MetricServiceClient.create();
+    MonitoredResource resource = MonitoredResource.newBuilder()
+        .setType("global")
+        .putLabels("project_id", projectId)
+        .build();
+
+    MetricWriter writer = new MetricWriter(metricServiceClient, projectId, resource, 10);
+    Map<String, String> labels = new HashMap<>();
+    labels.put("store_id", "Pittsburgh");
+    MetricWriter.Counter requests =
+        writer.counter(CUSTOM_METRIC_DOMAIN + "/my_requests", labels);
+    MetricWriter.Histogram latencies = writer.distribution(
+        CUSTOM_METRIC_DOMAIN + "/my_latencies", labels, 1, 2, 5, 10, 20, 50, 100, 200, 500);
+    MetricWriter.Gauge queueDepth = writer.gauge(CUSTOM_METRIC_DOMAIN + "/my_queue", labels);
+
+    // Recording only updates memory; the writer sends every changed series every 10 seconds.
+    Random random = new Random();
+    for (int i = 0; i < 100000; i++) {
+      requests.add(1);
+      latencies.record(random.nextDouble() * 300);
+      queueDepth.set(random.nextInt(100));
+    }
+
+    // Writes what is left and prints how many points were written.
+    writer.close();
+    System.out.println(writer);
+    // [END monitoring_write_timeseries_buffered]
+  }
+
   /**
    * Demonstrates listing time series headers.
    */
@@ -340,6 +379,34 @@ public class Snippets {
     // [END monitoring_read_timeseries_reduce]
   }
 
+  /**
+   * Demonstrates reading a long interval of time series concurrently and exporting hourly rollups.
+   *
+   * @param hours How far back to read
+   * @param output The CSV file to write the rollups to
+   * @param filter The time series filter
+   */
+  void exportTimeSeries(int hours, String output, String filter) throws Exception {
+    // [START monitoring_export_timeseries]
+    MetricServiceClient metricServiceClient = MetricServiceClient.create();
+    String projectId = System.getProperty("projectId");
+
+    long endMillis = System.currentTimeMillis();
+    long startMillis = endMillis - TimeUnit.HOURS.toMillis(hours);
+    long startNanos = System.nanoTime();
+
+    // Fetches one shard of the interval per day, up to 16 at once.
+    TimeSeriesExporter exporter = new TimeSeriesExporter(metricServiceClient, projectId);
+    exporter.fetch(filter, startMillis, endMillis, Math.max(1, Math.min(16, hours / 24)), null);
+    System.out.format("Fetched %d points of %d time series in %.1fs\n",
+        exporter.getPointCount(), exporter.getSeriesCount(),
+        (System.nanoTime() - startNanos) / 1e9);
+
+    exporter.writeRollupCsv(Paths.get(output), TimeUnit.HOURS.toMillis(1));
+    System.out.println("Wrote hourly rollups to " + output);
+    // [END monitoring_export_timeseries]
+  }
+
   /**
    * Returns the first page of all metric descriptors.
    */
@@ -417,7 +484,7 @@ public class Snippets {
    *
    * @param commandLine A line of input provided by the user
    */
-  void handleCommandLine(String commandLine) throws IOException {
+  void handleCommandLine(String commandLine) throws Exception {
     String[] args = commandLine.split("\\s+");
 
     if (args.length < 1) {
@@ -471,6 +538,13 @@ public class Snippets {
         }
         writeTimeSeries();
         break;
+      case "write-time-series-batched":
+        args = commandLine.split("\\s+", 2);
+        if (args.length != 1) {
+          throw new IllegalArgumentException("usage: no arguments");
+        }
+        writeTimeSeriesBatched();
+        break;
       case "list-time-series-header":
         args = commandLine.split("\\s+", 2);
         if (args.length != 1) {
@@ -499,6 +573,13 @@ public class Snippets {
         }
         listTimeSeriesReduce();
         break;
+      case "export-time-series":
+        args = commandLine.split("\\s+", 4);
+        if (args.length != 4) {
+          throw new IllegalArgumentException("usage: <hours> <output.csv> <filter>");
+        }
+        exportTimeSeries(Integer.parseInt(args[1]), args[2], args[3]);
+        break;
       default:
         throw new IllegalArgumentException("unrecognized command: " + command);
     }
@@ -513,6 +594,8 @@ public class Snippets {
     System.out.println("  get-resource Describes a monitored resource");
     System.out.println("  delete-metric-descriptors  Deletes a metric descriptor");
     System.out.println("  write-time-series  Writes a time series value to a metric");
+    System.out.println("  write-time-series-batched  Writes many values through a buffered "
+        + "writer");
     System.out.println("  list-headers <filter> List time series header of "
         + " 'compute.googleapis.com/instance/cpu/utilization'");
     System.out.println("  list-time-series-header <filter> List time series data that matches a "
@@ -521,6 +604,8 @@ public class Snippets {
         + "'compute.googleapis.com/instance/cpu/utilization");
     System.out.println("  list-reduce `Reduces time series data that matches"
         + " 'compute.googleapis.com/instance/cpu/utilization");
+    System.out.println("  export-time-series <hours> <output.csv> <filter> Writes hourly rollups "
+        + "of time series data that matches a given filter");
     System.out.println();
   }
 
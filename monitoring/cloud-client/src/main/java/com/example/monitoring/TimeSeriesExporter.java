@@ -0,0 +1,297 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.monitoring;
+
+import com.google.cloud.monitoring.v3.MetricServiceClient;
+import com.google.cloud.monitoring.v3.MetricServiceClient.ListTimeSeriesPage;
+import com.google.monitoring.v3.Aggregation;
+import com.google.monitoring.v3.ListTimeSeriesRequest;
+import com.google.monitoring.v3.Point;
+import com.google.monitoring.v3.ProjectName;
+import com.google.monitoring.v3.TimeInterval;
+import com.google.monitoring.v3.TimeSeries;
+import com.google.monitoring.v3.TypedValue;
+import com.google.protobuf.util.Timestamps;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads long ranges of time series data quickly and keeps it compactly in memory for local
+ * analysis and export.
+ *
+ * <p>The requested interval is split into time shards that are listed concurrently, each paging
+ * through its own results. Every page is added to the store as it arrives, rather than kept as
+ * protos, so memory holds one {@code long} timestamp and one {@code double} value per point. Once
+ * all shards finish, the points of every series are in time order, ready for rollups and CSV
+ * export.
+ */
+public class TimeSeriesExporter {
+
+  private final MetricServiceClient client;
+  private final String projectName;
+  private final Map<String, Column> columns = new TreeMap<>();
+  private long points;
+
+  public TimeSeriesExporter(MetricServiceClient client, String projectId) {
+    this.client = client;
+    this.projectName = ProjectName.of(projectId).toString();
+  }
+
+  /** The points of one time series, held in parallel primitive arrays. */
+  static class Column {
+    long[] times = new long[64];
+    double[] values = new double[64];
+    int size;
+
+    void add(long time, double value) {
+      if (size == times.length) {
+        times = Arrays.copyOf(times, size * 2);
+        values = Arrays.copyOf(values, size * 2);
+      }
+      times[size] = time;
+      values[size] = value;
+      size++;
+    }
+
+    void addAll(Column other) {
+      for (int i = 0; i < other.size; i++) {
+        add(other.times[i], other.values[i]);
+      }
+    }
+
+    /** Puts the points in time order, which is usually just reversing newest-first pages. */
+    void sort() {
+      boolean descending = true;
+      boolean ascending = true;
+      for (int i = 1; i < size; i++) {
+        descending &= times[i - 1] >= times[i];
+        ascending &= times[i - 1] <= times[i];
+      }
+      if (ascending) {
+        return;
+      }
+      if (descending) {
+        for (int i = 0, j = size - 1; i < j; i++, j--) {
+          long time = times[i];
+          times[i] = times[j];
+          times[j] = time;
+          double value = values[i];
+          values[i] = values[j];
+          values[j] = value;
+        }
+        return;
+      }
+      Integer[] order = new Integer[size];
+      for (int i = 0; i < size; i++) {
+        order[i] = i;
+      }
+      Arrays.sort(order, Comparator.comparingLong(i -> times[i]));
+      long[] sortedTimes = new long[size];
+      double[] sortedValues = new double[size];
+      for (int i = 0; i < size; i++) {
+        sortedTimes[i] = times[order[i]];
+        sortedValues[i] = values[order[i]];
+      }
+      times = sortedTimes;
+      values = sortedValues;
+    }
+  }
+
+  // [START monitoring_read_timeseries_sharded]
+  /**
+   * Lists every point matching {@code filter} between {@code startMillis} and {@code endMillis}
+   * into the store, using {@code shards} concurrent requests that each cover an equal part of the
+   * interval.
+   *
+   * @param aggregation applied by the API before the points are returned, or null for raw points.
+   */
+  public void fetch(String filter, long startMillis, long endMillis, int shards,
+      Aggregation aggregation) throws InterruptedException, ExecutionException {
+    // Every shard must cover at least a millisecond, or it would be empty or run backwards.
+    shards = (int) Math.max(1, Math.min(shards, endMillis - startMillis));
+    ExecutorService executor = Executors.newFixedThreadPool(shards);
+    try {
+      List<Future<Map<String, Column>>> results = new ArrayList<>(shards);
+      long shardMillis = Math.max(1, (endMillis - startMillis + shards - 1) / shards);
+      for (int i = 0; i < shards; i++) {
+        // The API includes the end of an interval but not its start, so shards do not overlap.
+        long shardStart = startMillis + i * shardMillis;
+        if (i > 0 && shardStart >= endMillis) {
+          // Rounding the shard length up can use up the interval before the last shards.
+          break;
+        }
+        long shardEnd = Math.min(endMillis, shardStart + shardMillis);
+        ListTimeSeriesRequest.Builder request = ListTimeSeriesRequest.newBuilder()
+            .setName(projectName)
+            .setFilter(filter)
+            .setInterval(TimeInterval.newBuilder()
+                .setStartTime(Timestamps.fromMillis(shardStart))
+                .setEndTime(Timestamps.fromMillis(shardEnd)));
+        if (aggregation != null) {
+          request.setAggregation(aggregation);
+        }
+        results.add(executor.submit(() -> fetchShard(request.build())));
+      }
+      // Shards are added in time order, so each series needs at most a reversal per shard.
+      for (Future<Map<String, Column>> result : results) {
+        for (Map.Entry<String, Column> shard : result.get().entrySet()) {
+          Column shardColumn = shard.getValue();
+          shardColumn.sort();
+          columns.computeIfAbsent(shard.getKey(), k -> new Column()).addAll(shardColumn);
+          points += shardColumn.size;
+        }
+      }
+      for (Column column : columns.values()) {
+        column.sort();
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private Map<String, Column> fetchShard(ListTimeSeriesRequest request) {
+    Map<String, Column> shard = new LinkedHashMap<>();
+    for (ListTimeSeriesPage page : client.listTimeSeries(request).iteratePages()) {
+      for (TimeSeries series : page.getValues()) {
+        Column column = shard.computeIfAbsent(seriesKey(series), k -> new Column());
+        for (Point point : series.getPointsList()) {
+          column.add(Timestamps.toMillis(point.getInterval().getEndTime()),
+              toDouble(point.getValue()));
+        }
+      }
+    }
+    return shard;
+  }
+  // [END monitoring_read_timeseries_sharded]
+
+  /** Identifies a series by its metric and resource, with labels in a stable order. */
+  private static String seriesKey(TimeSeries series) {
+    return series.getMetric().getType() + new TreeMap<>(series.getMetric().getLabelsMap())
+        + " " + series.getResource().getType()
+        + new TreeMap<>(series.getResource().getLabelsMap());
+  }
+
+  private static double toDouble(TypedValue value) {
+    switch (value.getValueCase()) {
+      case DOUBLE_VALUE:
+        return value.getDoubleValue();
+      case INT64_VALUE:
+        return value.getInt64Value();
+      case BOOL_VALUE:
+        return value.getBoolValue() ? 1 : 0;
+      case DISTRIBUTION_VALUE:
+        return value.getDistributionValue().getMean();
+      default:
+        return Double.NaN;
+    }
+  }
+
+  public int getSeriesCount() {
+    return columns.size();
+  }
+
+  public long getPointCount() {
+    return points;
+  }
+
+  /** Writes every point as {@code series,timestamp,value}, one line per point. */
+  public void writeCsv(Path output) throws IOException {
+    try (BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+      writer.write("series,timestamp,value\n");
+      for (Map.Entry<String, Column> entry : columns.entrySet()) {
+        String series = csvField(entry.getKey());
+        Column column = entry.getValue();
+        for (int i = 0; i < column.size; i++) {
+          writer.write(series);
+          writer.write(',');
+          writer.write(Timestamps.toString(Timestamps.fromMillis(column.times[i])));
+          writer.write(',');
+          writer.write(Double.toString(column.values[i]));
+          writer.write('\n');
+        }
+      }
+    }
+  }
+
+  // [START monitoring_rollup_timeseries]
+  /**
+   * Writes one line per series and {@code bucketMillis} bucket with the count, minimum, maximum,
+   * mean and 50th, 95th and 99th percentiles of the points in that bucket.
+   */
+  public void writeRollupCsv(Path output, long bucketMillis) throws IOException {
+    try (BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+      writer.write("series,bucket_start,count,min,max,mean,p50,p95,p99\n");
+      double[] bucket = new double[0];
+      for (Map.Entry<String, Column> entry : columns.entrySet()) {
+        String series = csvField(entry.getKey());
+        Column column = entry.getValue();
+        // Points are in time order, so every bucket is one contiguous run.
+        int start = 0;
+        while (start < column.size) {
+          long bucketStart = Math.floorDiv(column.times[start], bucketMillis) * bucketMillis;
+          int end = start;
+          while (end < column.size && column.times[end] < bucketStart + bucketMillis) {
+            end++;
+          }
+          int count = end - start;
+          if (bucket.length < count) {
+            bucket = new double[count];
+          }
+          System.arraycopy(column.values, start, bucket, 0, count);
+          Arrays.sort(bucket, 0, count);
+          double sum = 0;
+          for (int i = 0; i < count; i++) {
+            sum += bucket[i];
+          }
+          writer.write(String.format("%s,%s,%d,%s,%s,%s,%s,%s,%s\n",
+              series, Timestamps.toString(Timestamps.fromMillis(bucketStart)), count,
+              bucket[0], bucket[count - 1], sum / count, percentile(bucket, count, 50),
+              percentile(bucket, count, 95), percentile(bucket, count, 99)));
+          start = end;
+        }
+      }
+    }
+  }
+
+  /** Returns the nearest-rank percentile of the first {@code count} sorted values. */
+  private static double percentile(double[] sorted, int count, double percent) {
+    int rank = (int) Math.ceil(percent / 100 * count);
+    return sorted[Math.max(0, rank - 1)];
+  }
+  // [END monitoring_rollup_timeseries]
+
+  private static String csvField(String value) {
+    if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+      return value;
+    }
+    return '"' + value.replace("\"", "\"\"") + '"';
+  }
+}
@@ -19,7 +19,10 @@ package com.example.monitoring;
 import static com.google.common.truth.Truth.assertThat;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -122,6 +125,37 @@ public class SnippetsIT {
     assertThat(got).contains("Got timeseries:");
   }
 
+  @Test
+  public void testWriteTimeSeriesBatched() throws Exception {
+    // Act
+    System.setProperty("projectId", SnippetsIT.getProjectId());
+    Snippets snippets = new Snippets();
+
+    snippets.writeTimeSeriesBatched();
+
+    // Assert
+    String got = bout.toString();
+    assertThat(got).contains("Flushed 3 points in 1 requests; 0 dropped");
+  }
+
+  @Test
+  public void testExportTimeSeries() throws Exception {
+    // Act
+    System.setProperty("projectId", SnippetsIT.getProjectId());
+    Snippets snippets = new Snippets();
+    File output = File.createTempFile("rollups", ".csv");
+    output.deleteOnExit();
+
+    snippets.exportTimeSeries(48, output.getPath(),
+        "metric.type=\"compute.googleapis.com/instance/cpu/utilization\"");
+
+    // Assert
+    String got = bout.toString();
+    assertThat(got).contains("Fetched ");
+    assertThat(new String(Files.readAllBytes(output.toPath()), StandardCharsets.UTF_8))
+        .startsWith("series,bucket_start,count,min,max,mean,p50,p95,p99");
+  }
+
   @Test
   public void testGetResource() throws Exception {
     // Act
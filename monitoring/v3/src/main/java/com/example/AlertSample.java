@@ -16,6 +16,7 @@
 
 package com.example;
 
+import com.google.api.core.ApiFuture;
 import com.google.cloud.monitoring.v3.AlertPolicyServiceClient;
 import com.google.cloud.monitoring.v3.AlertPolicyServiceClient.ListAlertPoliciesPagedResponse;
 import com.google.cloud.monitoring.v3.NotificationChannelServiceClient;
@@ -23,7 +24,6 @@ import com.google.cloud.monitoring.v3.NotificationChannelServiceClient.ListNotif
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
@@ -31,10 +31,14 @@ import com.google.gson.JsonPrimitive;
 import com.google.gson.JsonSyntaxException;
 import com.google.monitoring.v3.AlertPolicy;
 import com.google.monitoring.v3.AlertPolicyName;
+import com.google.monitoring.v3.CreateAlertPolicyRequest;
+import com.google.monitoring.v3.CreateNotificationChannelRequest;
 import com.google.monitoring.v3.ListAlertPoliciesRequest;
 import com.google.monitoring.v3.NotificationChannel;
 import com.google.monitoring.v3.NotificationChannelName;
 import com.google.monitoring.v3.ProjectName;
+import com.google.monitoring.v3.UpdateAlertPolicyRequest;
+import com.google.monitoring.v3.UpdateNotificationChannelRequest;
 import com.google.protobuf.BoolValue;
 import com.google.protobuf.FieldMask;
 
@@ -45,6 +49,7 @@ import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -71,7 +76,8 @@ public class AlertSample {
   private static final Option ALERT_ID_OPTION = Option.builder("a")
       .required()
       .longOpt("alert-id")
-      .desc("The id of the alert policy whose channels will be replaced.")
+      .desc("The id of the alert policy whose channels will be replaced.  Repeat this option to "
+          + "replace the channels of multiple policies.")
       .hasArg()
       .argName("ALERT_ID")
       .build();
@@ -87,19 +93,37 @@ public class AlertSample {
       .hasArg()
       .argName("FILTER")
       .build();
+  private static final Option CONCURRENCY_OPTION = Option.builder("n")
+      .longOpt("concurrency")
+      .desc("The most requests in flight at once.  Defaults to 8.")
+      .hasArg()
+      .argName("CONCURRENCY")
+      .build();
+  private static final Option RATE_OPTION = Option.builder("r")
+      .longOpt("rate")
+      .desc("The most requests started per second.  Defaults to 10.")
+      .hasArg()
+      .argName("RATE")
+      .build();
 
   private static final Options BASE_OPTIONS = new Options()
       .addOption(PROJECT_ID_OPTION);
   private static final Options BACKUP_OPTIONS = new Options()
       .addOption(PROJECT_ID_OPTION)
-      .addOption(FILE_PATH_OPTION);
+      .addOption(FILE_PATH_OPTION)
+      .addOption(CONCURRENCY_OPTION)
+      .addOption(RATE_OPTION);
   private static final Options REPLACE_CHANNELS_OPTIONS = new Options()
       .addOption(PROJECT_ID_OPTION)
       .addOption(ALERT_ID_OPTION)
-      .addOption(CHANNEL_ID_OPTION);
+      .addOption(CHANNEL_ID_OPTION)
+      .addOption(CONCURRENCY_OPTION)
+      .addOption(RATE_OPTION);
   private static final Options ENABLE_OPTIONS = new Options()
       .addOption(PROJECT_ID_OPTION)
-      .addOption(FILTER_OPTION);
+      .addOption(FILTER_OPTION)
+      .addOption(CONCURRENCY_OPTION)
+      .addOption(RATE_OPTION);
 
   private static Map<String, Options> COMMAND_OPTIONS = ImmutableMap.of(
       "backup", BACKUP_OPTIONS,
@@ -147,30 +171,38 @@ public class AlertSample {
       return;
     }
 
-    switch (command) {
-      case "list":
-        listAlertPolicies(projectId);
-        break;
-      case "backup":
-        backupPolicies(projectId, cl.getOptionValue(FILE_PATH_OPTION.getOpt()));
-        break;
-      case "restore":
-        restorePolicies(projectId, cl.getOptionValue(FILE_PATH_OPTION.getOpt()));
-        break;
-      case "replace-channels":
-        replaceChannels(
-            projectId,
-            cl.getOptionValue(ALERT_ID_OPTION.getOpt()),
-            cl.getOptionValues(CHANNEL_ID_OPTION.getOpt()));
-        break;
-      case "enable":
-        enablePolicies(projectId, cl.getOptionValue(FILTER_OPTION.getOpt()), true);
-        break;
-      case "disable":
-        enablePolicies(projectId, cl.getOptionValue(FILTER_OPTION.getOpt()), false);
-        break;
-      default:
-        usage(null);
+    int concurrency = Integer.parseInt(cl.getOptionValue(CONCURRENCY_OPTION.getOpt(), "8"));
+    double rate = Double.parseDouble(cl.getOptionValue(RATE_OPTION.getOpt(), "10"));
+    try (BulkOperationExecutor executor = new BulkOperationExecutor(concurrency, rate)) {
+      switch (command) {
+        case "list":
+          listAlertPolicies(projectId);
+          break;
+        case "backup":
+          backupPolicies(projectId, cl.getOptionValue(FILE_PATH_OPTION.getOpt()));
+          break;
+        case "restore":
+          restorePolicies(projectId, cl.getOptionValue(FILE_PATH_OPTION.getOpt()), executor);
+          break;
+        case "replace-channels":
+          replaceChannels(
+              projectId,
+              cl.getOptionValues(ALERT_ID_OPTION.getOpt()),
+              cl.getOptionValues(CHANNEL_ID_OPTION.getOpt()),
+              executor);
+          break;
+        case "enable":
+          enablePolicies(projectId, cl.getOptionValue(FILTER_OPTION.getOpt()), true, executor);
+          break;
+        case "disable":
+          enablePolicies(projectId, cl.getOptionValue(FILTER_OPTION.getOpt()), false, executor);
+          break;
+        default:
+          usage(null);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      System.out.println("Interrupted before every operation completed.");
     }
   }
 
@@ -270,7 +302,9 @@ public class AlertSample {
   // [END monitoring_alert_backup_policies]
 
   // [START monitoring_alert_restore_policies]
-  private static void restorePolicies(String projectId, String filePath) throws IOException {
+  private static void restorePolicies(
+      String projectId, String filePath, BulkOperationExecutor executor)
+      throws IOException, InterruptedException {
     FileReader reader = new FileReader(filePath);
     BufferedReader bufferedReader = new BufferedReader(reader);
 
@@ -282,11 +316,12 @@ public class AlertSample {
     List<NotificationChannel> notificationChannels = readNotificationChannelsJson(backupContent);
     Map<String, String> restoredChannelIds = restoreNotificationChannels(projectId,
         notificationChannels,
-        isSameProject);
+        isSameProject,
+        executor);
     List<AlertPolicy> policiesToRestore =
         reviseRestoredPolicies(policies, isSameProject, restoredChannelIds);
 
-    restoreRevisedPolicies(projectId, isSameProject, policiesToRestore);
+    restoreRevisedPolicies(projectId, isSameProject, policiesToRestore, executor);
   }
 
   private static List<AlertPolicy> reviseRestoredPolicies(
@@ -323,24 +358,38 @@ public class AlertSample {
   private static void restoreRevisedPolicies(
       String projectId,
       boolean isSameProject,
-      List<AlertPolicy> policies) throws IOException {
+      List<AlertPolicy> policies,
+      BulkOperationExecutor executor) throws IOException, InterruptedException {
     try (AlertPolicyServiceClient client = AlertPolicyServiceClient.create()) {
       for (AlertPolicy policy : policies) {
-        if (!isSameProject) {
-          policy = client.createAlertPolicy(ProjectName.of(projectId), policy);
-        } else {
-          try {
-            client.updateAlertPolicy(null, policy);
-          } catch (Exception e) {
-            policy = client.createAlertPolicy(
-                ProjectName.of(projectId),
-                policy.toBuilder().clearName().build());
-          }
-        }
-        System.out.println(String.format("Restored %s", policy.getName()));
+        // Policies are restored concurrently, within the executor's limits.
+        executor.submit(
+            policy.getDisplayName(),
+            () -> {
+              if (!isSameProject) {
+                return createAlertPolicy(client, projectId, policy);
+              }
+              // Update the policy if it still exists, or create it again if not.
+              return executor.orElse(
+                  client.updateAlertPolicyCallable().futureCall(
+                      UpdateAlertPolicyRequest.newBuilder().setAlertPolicy(policy).build()),
+                  () -> createAlertPolicy(
+                      client, projectId, policy.toBuilder().clearName().build()));
+            },
+            restored -> String.format("Restored %s", restored.getName()));
       }
+      executor.awaitAll();
     }
   }
+
+  private static ApiFuture<AlertPolicy> createAlertPolicy(
+      AlertPolicyServiceClient client, String projectId, AlertPolicy policy) {
+    return client.createAlertPolicyCallable().futureCall(
+        CreateAlertPolicyRequest.newBuilder()
+            .setName(ProjectName.of(projectId).toString())
+            .setAlertPolicy(policy)
+            .build());
+  }
   // [END monitoring_alert_create_policy]
 
   private static List<NotificationChannel> readNotificationChannelsJson(JsonObject backupContent) {
@@ -357,36 +406,49 @@ public class AlertSample {
   private static Map<String, String> restoreNotificationChannels(
       String projectId,
       List<NotificationChannel> channels,
-      boolean isSameProject) throws IOException {
-    Map<String, String> newChannelNames = Maps.newHashMap();
+      boolean isSameProject,
+      BulkOperationExecutor executor) throws IOException, InterruptedException {
+    // Filled in concurrently as channels are restored, and read once they all are.
+    Map<String, String> newChannelNames = new ConcurrentHashMap<>();
     try (NotificationChannelServiceClient client = NotificationChannelServiceClient.create()) {
       for (NotificationChannel channel : channels) {
-        // Update channel name if project ID is different.
-        boolean channelUpdated = false;
-        if (isSameProject) {
-          try {
-            NotificationChannel updatedChannel =
-                client.updateNotificationChannel(NOTIFICATION_CHANNEL_UPDATE_MASK, channel);
-            newChannelNames.put(channel.getName(), updatedChannel.getName());
-            channelUpdated = true;
-          } catch (Exception e) {
-            channelUpdated = false;
-          }
-        }
-        if (!channelUpdated) {
-          NotificationChannel newChannel = client.createNotificationChannel(
-              ProjectName.of(projectId),
-              channel
-                  .toBuilder()
-                  .clearName()
-                  .clearVerificationStatus()
-                  .build());
-          newChannelNames.put(channel.getName(), newChannel.getName());
-        }
+        executor.submit(
+            channel.getDisplayName(),
+            () -> {
+              // Update the channel if it is in this project and still exists, otherwise create it.
+              if (!isSameProject) {
+                return createNotificationChannel(client, projectId, channel);
+              }
+              return executor.orElse(
+                  client.updateNotificationChannelCallable().futureCall(
+                      UpdateNotificationChannelRequest.newBuilder()
+                          .setUpdateMask(NOTIFICATION_CHANNEL_UPDATE_MASK)
+                          .setNotificationChannel(channel)
+                          .build()),
+                  () -> createNotificationChannel(client, projectId, channel));
+            },
+            restored -> {
+              newChannelNames.put(channel.getName(), restored.getName());
+              return String.format("Restored channel %s", restored.getName());
+            });
       }
+      executor.awaitAll();
     }
     return newChannelNames;
   }
+
+  private static ApiFuture<NotificationChannel> createNotificationChannel(
+      NotificationChannelServiceClient client, String projectId, NotificationChannel channel) {
+    return client.createNotificationChannelCallable().futureCall(
+        CreateNotificationChannelRequest.newBuilder()
+            .setName(ProjectName.of(projectId).toString())
+            .setNotificationChannel(channel
+                .toBuilder()
+                .clearName()
+                .clearVerificationStatus()
+                .build())
+            .build());
+  }
   // [END monitoring_alert_create_channel]
   // [END monitoring_alert_update_channel]
 
@@ -400,27 +462,40 @@ public class AlertSample {
   // [END monitoring_alert_restore_policies]
 
   // [START monitoring_alert_replace_channels]
-  private static void replaceChannels(String projectId, String alertPolicyId, String[] channelIds)
-      throws IOException {
-    AlertPolicy.Builder policyBuilder = AlertPolicy
-        .newBuilder()
-        .setName(AlertPolicyName.of(projectId, alertPolicyId).toString());
+  private static void replaceChannels(
+      String projectId, String[] alertPolicyIds, String[] channelIds,
+      BulkOperationExecutor executor) throws IOException, InterruptedException {
+    List<String> channelNames = Lists.newArrayList();
     for (String channelId : channelIds) {
-      policyBuilder.addNotificationChannels(
-          NotificationChannelName.of(projectId, channelId).toString());
+      channelNames.add(NotificationChannelName.of(projectId, channelId).toString());
     }
     try (AlertPolicyServiceClient client = AlertPolicyServiceClient.create()) {
-      AlertPolicy result = client.updateAlertPolicy(
-          FieldMask.newBuilder().addPaths("notification_channels").build(), policyBuilder.build());
-      System.out.println(String.format("Updated %s", result.getName()));
+      for (String alertPolicyId : alertPolicyIds) {
+        AlertPolicy policy = AlertPolicy
+            .newBuilder()
+            .setName(AlertPolicyName.of(projectId, alertPolicyId).toString())
+            .addAllNotificationChannels(channelNames)
+            .build();
+        executor.submit(
+            policy.getName(),
+            () -> client.updateAlertPolicyCallable().futureCall(
+                UpdateAlertPolicyRequest.newBuilder()
+                    .setUpdateMask(
+                        FieldMask.newBuilder().addPaths("notification_channels").build())
+                    .setAlertPolicy(policy)
+                    .build()),
+            result -> String.format("Updated %s", result.getName()));
+      }
+      executor.awaitAll();
     }
   }
   // [END monitoring_alert_replace_channels]
 
   // [START monitoring_alert_enable_policies]
   // [START monitoring_alert_disable_policies]
-  private static void enablePolicies(String projectId, String filter, boolean enable)
-      throws IOException {
+  private static void enablePolicies(
+      String projectId, String filter, boolean enable, BulkOperationExecutor executor)
+      throws IOException, InterruptedException {
     try (AlertPolicyServiceClient client = AlertPolicyServiceClient.create()) {
       ListAlertPoliciesPagedResponse response = client
           .listAlertPolicies(ListAlertPoliciesRequest.newBuilder()
@@ -431,7 +506,7 @@ public class AlertSample {
       for (AlertPolicy policy : response.iterateAll()) {
         if (policy.getEnabled().getValue() == enable) {
           System.out.println(String.format(
-              "Policy %s is already %b.", policy.getName(), enable ? "enabled" : "disabled"));
+              "Policy %s is already %s.", policy.getName(), enable ? "enabled" : "disabled"));
           continue;
         }
         AlertPolicy updatedPolicy = AlertPolicy
@@ -439,13 +514,19 @@ public class AlertSample {
             .setName(policy.getName())
             .setEnabled(BoolValue.newBuilder().setValue(enable))
             .build();
-        AlertPolicy result = client.updateAlertPolicy(
-            FieldMask.newBuilder().addPaths("enabled").build(), updatedPolicy);
-        System.out.println(String.format(
-            "%s %s",
-            result.getDisplayName(),
-            result.getEnabled().getValue() ? "enabled" : "disabled"));
+        executor.submit(
+            policy.getDisplayName(),
+            () -> client.updateAlertPolicyCallable().futureCall(
+                UpdateAlertPolicyRequest.newBuilder()
+                    .setUpdateMask(FieldMask.newBuilder().addPaths("enabled").build())
+                    .setAlertPolicy(updatedPolicy)
+                    .build()),
+            result -> String.format(
+                "%s %s",
+                result.getDisplayName(),
+                result.getEnabled().getValue() ? "enabled" : "disabled"));
       }
+      executor.awaitAll();
     }
   }
   // [END monitoring_alert_enable_policies]
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.api.core.SettableApiFuture;
+import com.google.api.gax.rpc.NotFoundException;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.RateLimiter;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs many asynchronous API calls with a bound on how many are in flight and how fast they
+ * start, and reports the result of each.
+ *
+ * <p>Calls are started from the caller's thread, which blocks while the limit of calls in flight
+ * is reached or the rate limit requires a pause. Each call prints one line when it completes, and
+ * a failed call does not stop the others.
+ */
+public class BulkOperationExecutor implements AutoCloseable {
+
+  private final int maxInFlight;
+  private final Semaphore inFlight;
+  private final RateLimiter rateLimiter;
+  // Fallback calls wait for the rate limiter, which must not block the RPC threads.
+  private final ExecutorService fallbacks = Executors.newCachedThreadPool();
+  private final LongAdder succeeded = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+
+  /**
+   * @param maxInFlight the most calls running at once.
+   * @param callsPerSecond the most calls started each second.
+   */
+  public BulkOperationExecutor(int maxInFlight, double callsPerSecond) {
+    this.maxInFlight = maxInFlight;
+    this.inFlight = new Semaphore(maxInFlight);
+    this.rateLimiter = RateLimiter.create(callsPerSecond);
+  }
+
+  /**
+   * Starts {@code call} once the limits allow. When it completes, prints the line returned by
+   * {@code describe} for its result, or {@code label} and the error if it failed.
+   */
+  public <T> ApiFuture<T> submit(
+      String label, Supplier<ApiFuture<T>> call, Function<T, String> describe)
+      throws InterruptedException {
+    inFlight.acquire();
+    rateLimiter.acquire();
+    ApiFuture<T> result;
+    try {
+      result = call.get();
+    } catch (RuntimeException e) {
+      inFlight.release();
+      throw e;
+    }
+    ApiFutures.addCallback(result, new ApiFutureCallback<T>() {
+      @Override
+      public void onSuccess(T value) {
+        succeeded.increment();
+        System.out.println(describe.apply(value));
+        // Released last, so that awaitAll() returns only after every result is reported.
+        inFlight.release();
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        failed.increment();
+        System.out.println(String.format("Failed %s: %s", label, t.getMessage()));
+        inFlight.release();
+      }
+    }, MoreExecutors.directExecutor());
+    return result;
+  }
+
+  /**
+   * Returns a future for {@code primary} that, if it fails because its resource does not exist,
+   * starts {@code fallback} at the rate limit instead. Any other failure is reported as is.
+   */
+  public <T> ApiFuture<T> orElse(ApiFuture<T> primary, Supplier<ApiFuture<T>> fallback) {
+    SettableApiFuture<T> result = SettableApiFuture.create();
+    ApiFutures.addCallback(primary, new ApiFutureCallback<T>() {
+      @Override
+      public void onSuccess(T value) {
+        result.set(value);
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        if (!(t instanceof NotFoundException)) {
+          result.setException(t);
+          return;
+        }
+        try {
+          rateLimiter.acquire();
+          ApiFutures.addCallback(fallback.get(), new ApiFutureCallback<T>() {
+            @Override
+            public void onSuccess(T value) {
+              result.set(value);
+            }
+
+            @Override
+            public void onFailure(Throwable fallbackFailure) {
+              result.setException(fallbackFailure);
+            }
+          }, MoreExecutors.directExecutor());
+        } catch (RuntimeException e) {
+          result.setException(e);
+        }
+      }
+    }, fallbacks);
+    return result;
+  }
+
+  /**
+   * Waits for every call started so far and prints how many succeeded since the last time this
+   * was called.
+   */
+  public void awaitAll() throws InterruptedException {
+    inFlight.acquire(maxInFlight);
+    inFlight.release(maxInFlight);
+    System.out.println(String.format(
+        "%d succeeded, %d failed", succeeded.sumThenReset(), failed.sumThenReset()));
+  }
+
+  @Override
+  public void close() {
+    fallbacks.shutdown();
+  }
+}
@@ -104,6 +104,7 @@ public class AlertIT {
     assertTrue(bout.toString().contains("disabled"));
     AlertSample.main(new String[]{"enable", "-d", "display_name='test-policy'"});
     assertTrue(bout.toString().contains("enabled"));
+    assertTrue(bout.toString().contains("0 failed"));
 
   }
 }
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.speech;
+
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.api.gax.longrunning.OperationFuture;
+import com.google.api.gax.longrunning.OperationTimedPollAlgorithm;
+import com.google.api.gax.retrying.RetrySettings;
+import com.google.cloud.speech.v1p1beta1.LongRunningRecognizeMetadata;
+import com.google.cloud.speech.v1p1beta1.LongRunningRecognizeResponse;
+import com.google.cloud.speech.v1p1beta1.RecognitionAudio;
+import com.google.cloud.speech.v1p1beta1.RecognitionConfig;
+import com.google.cloud.speech.v1p1beta1.SpeechClient;
+import com.google.cloud.speech.v1p1beta1.SpeechRecognitionAlternative;
+import com.google.cloud.speech.v1p1beta1.SpeechRecognitionResult;
+import com.google.cloud.speech.v1p1beta1.SpeechSettings;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.Duration;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Transcribes many audio files in Cloud Storage with concurrent long running operations that
+ * share one {@link SpeechClient}.
+ *
+ * <p>Completion is handled by callbacks on each operation's future rather than by a thread that
+ * sleeps and checks, so a thread is never held per file and each result is reported as soon as the
+ * client sees it. The client from {@link #createClient()} polls operations starting at half a
+ * second and backing off to five seconds, so short files finish quickly while long files are not
+ * polled needlessly often.
+ */
+public class BatchTranscriber {
+
+  /**
+   * The outcome of transcribing one file.
+   */
+  public static class Result {
+    public final String uri;
+    public final String transcript;
+    public final Throwable error;
+    public final long latencyMillis;
+    public final double audioSeconds;
+
+    Result(String uri, String transcript, Throwable error, long latencyMillis,
+        double audioSeconds) {
+      this.uri = uri;
+      this.transcript = transcript;
+      this.error = error;
+      this.latencyMillis = latencyMillis;
+      this.audioSeconds = audioSeconds;
+    }
+  }
+
+  /**
+   * Receives each file's result as soon as it completes. Called on the client's threads.
+   */
+  public interface ResultListener {
+    void onResult(Result result);
+  }
+
+  private final SpeechClient speech;
+  private final RecognitionConfig config;
+  private final int maxConcurrent;
+
+  /**
+   * @param speech the client shared by every operation; the caller remains responsible for it.
+   * @param config the recognition config used for every file. Word time offsets are enabled so
+   *     the length of the transcribed audio can be reported.
+   * @param maxConcurrent the most operations running at once.
+   */
+  public BatchTranscriber(SpeechClient speech, RecognitionConfig config, int maxConcurrent) {
+    this.speech = speech;
+    this.config = config.toBuilder().setEnableWordTimeOffsets(true).build();
+    this.maxConcurrent = maxConcurrent;
+  }
+
+  // [START speech_batch_client]
+  /**
+   * Creates a client whose long running operations are polled with exponential backoff.
+   */
+  public static SpeechClient createClient() throws IOException {
+    SpeechSettings.Builder settings = SpeechSettings.newBuilder();
+    settings.longRunningRecognizeOperationSettings().setPollingAlgorithm(
+        OperationTimedPollAlgorithm.create(
+            RetrySettings.newBuilder()
+                .setInitialRetryDelay(org.threeten.bp.Duration.ofMillis(500))
+                .setRetryDelayMultiplier(1.5)
+                .setMaxRetryDelay(org.threeten.bp.Duration.ofSeconds(5))
+                .setInitialRpcTimeout(org.threeten.bp.Duration.ZERO)
+                .setRpcTimeoutMultiplier(1.0)
+                .setMaxRpcTimeout(org.threeten.bp.Duration.ZERO)
+                .setTotalTimeout(org.threeten.bp.Duration.ofHours(6))
+                .build()));
+    return SpeechClient.create(settings.build());
+  }
+  // [END speech_batch_client]
+
+  // [START speech_batch_transcribe]
+  /**
+   * Transcribes every file, handing each result to {@code listener} as it completes, and returns
+   * once all files are done.
+   *
+   * @param uris Cloud Storage URIs (gs://...) of the audio files.
+   */
+  public Stats transcribe(List<String> uris, ResultListener listener)
+      throws InterruptedException {
+    Stats stats = new Stats();
+    Semaphore inFlight = new Semaphore(maxConcurrent);
+    CountDownLatch done = new CountDownLatch(uris.size());
+    for (String uri : uris) {
+      inFlight.acquire();
+      long startNanos = System.nanoTime();
+      OperationFuture<LongRunningRecognizeResponse, LongRunningRecognizeMetadata> operation;
+      try {
+        operation = speech.longRunningRecognizeAsync(
+            config, RecognitionAudio.newBuilder().setUri(uri).build());
+      } catch (RuntimeException e) {
+        // The request was never sent, so no callback will release this file's permit.
+        complete(new Result(uri, null, e, elapsedMillis(startNanos), 0),
+            stats, listener, inFlight, done);
+        continue;
+      }
+      ApiFutures.addCallback(operation, new ApiFutureCallback<LongRunningRecognizeResponse>() {
+        @Override
+        public void onSuccess(LongRunningRecognizeResponse response) {
+          complete(toResult(uri, response, elapsedMillis(startNanos)),
+              stats, listener, inFlight, done);
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+          complete(new Result(uri, null, t, elapsedMillis(startNanos), 0),
+              stats, listener, inFlight, done);
+        }
+      }, MoreExecutors.directExecutor());
+    }
+    done.await();
+    stats.stop();
+    return stats;
+  }
+  // [END speech_batch_transcribe]
+
+  private static void complete(Result result, Stats stats, ResultListener listener,
+      Semaphore inFlight, CountDownLatch done) {
+    try {
+      stats.record(result);
+      listener.onResult(result);
+    } finally {
+      inFlight.release();
+      done.countDown();
+    }
+  }
+
+  private static Result toResult(String uri, LongRunningRecognizeResponse response,
+      long latencyMillis) {
+    StringBuilder transcript = new StringBuilder();
+    double audioSeconds = 0;
+    for (SpeechRecognitionResult result : response.getResultsList()) {
+      if (result.getAlternativesCount() == 0) {
+        continue;
+      }
+      // There can be several alternative transcripts for a given chunk of speech. Just use the
+      // first (most likely) one here.
+      SpeechRecognitionAlternative alternative = result.getAlternatives(0);
+      transcript.append(alternative.getTranscript());
+      if (alternative.getWordsCount() > 0) {
+        Duration end = alternative.getWords(alternative.getWordsCount() - 1).getEndTime();
+        audioSeconds = Math.max(audioSeconds, end.getSeconds() + end.getNanos() / 1e9);
+      }
+    }
+    return new Result(uri, transcript.toString(), null, latencyMillis, audioSeconds);
+  }
+
+  private static long elapsedMillis(long startNanos) {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+  }
+
+  /**
+   * Latency and throughput of a batch.
+   */
+  public static class Stats {
+    private final List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong audioMillis = new AtomicLong();
+    private final long startNanos = System.nanoTime();
+    private volatile long stopNanos;
+
+    void record(Result result) {
+      latencies.add(result.latencyMillis);
+      if (result.error != null) {
+        failures.incrementAndGet();
+      }
+      audioMillis.addAndGet((long) (result.audioSeconds * 1000));
+    }
+
+    void stop() {
+      stopNanos = System.nanoTime();
+    }
+
+    public long getFiles() {
+      return latencies.size();
+    }
+
+    public long getFailures() {
+      return failures.get();
+    }
+
+    /**
+     * Returns the latency below which {@code percent} percent of files completed.
+     */
+    public long getLatencyPercentileMillis(double percent) {
+      List<Long> sorted;
+      synchronized (latencies) {
+        sorted = new ArrayList<>(latencies);
+      }
+      if (sorted.isEmpty()) {
+        return 0;
+      }
+      Collections.sort(sorted);
+      int index = (int) Math.ceil(percent / 100 * sorted.size()) - 1;
+      return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1)));
+    }
+
+    public double getSeconds() {
+      long end = stopNanos == 0 ? System.nanoTime() : stopNanos;
+      return (end - startNanos) / 1e9;
+    }
+
+    @Override
+    public String toString() {
+      double seconds = getSeconds();
+      return String.format(
+          "Transcribed %d files (%d failed) in %.1fs: %.1f files/min, %.1fx real time; "
+              + "latency p50 %.1fs, p90 %.1fs, max %.1fs",
+          getFiles(), getFailures(), seconds, getFiles() / seconds * 60,
+          audioMillis.get() / 1000.0 / seconds,
+          getLatencyPercentileMillis(50) / 1000.0, getLatencyPercentileMillis(90) / 1000.0,
+          getLatencyPercentileMillis(100) / 1000.0);
+    }
+  }
+}
@@ -41,10 +41,15 @@ import com.google.common.util.concurrent.SettableFuture;
 import com.google.protobuf.ByteString;
 
 import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class Recognize {
@@ -58,7 +63,10 @@ public class Recognize {
               + "Commands:\n"
               + "\tsyncrecognize | asyncrecognize | streamrecognize | wordoffsets\n"
               + "\t| model-selection | auto-punctuation | stream-punctuation | enhanced-model\n"
-              + "\t| metadata | diarization | multi-channel | multi-language | word-level-conf"
+              + "\t| metadata | diarization | multi-channel | multi-language | word-level-conf\n"
+              + "\t| stream-realtime (path may be - for stdin, followed by an optional speed)\n"
+              + "\t| batch-transcribe (path is a file listing gs:// URIs, or comma separated URIs,"
+              + " followed by an optional concurrency)\n"
               + "Path:\n\tA file path (ex: ./resources/audio.raw) or a URI "
               + "for a Cloud Storage resource (gs://...)\n",
           Recognize.class.getCanonicalName());
@@ -88,6 +96,12 @@ public class Recognize {
       }
     } else if (command.equals("streamrecognize")) {
       streamingRecognizeFile(path);
+    } else if (command.equals("batch-transcribe")) {
+      int maxConcurrent = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+      batchTranscribeGcs(path, maxConcurrent);
+    } else if (command.equals("stream-realtime")) {
+      double speed = args.length > 2 ? Double.parseDouble(args[2]) : 1.0;
+      streamingRecognizeRealTime(path, speed);
     } else if (command.equals("model-selection")) {
       if (path.startsWith("gs://")) {
         transcribeModelSelectionGcs(path);
@@ -266,10 +280,8 @@ public class Recognize {
       OperationFuture<LongRunningRecognizeResponse, LongRunningRecognizeMetadata> response =
           speech.longRunningRecognizeAsync(config, audio);
 
-      while (!response.isDone()) {
-        System.out.println("Waiting for response...");
-        Thread.sleep(10000);
-      }
+      // get() blocks until the operation is done.
+      System.out.println("Waiting for response...");
 
       List<SpeechRecognitionResult> results = response.get().getResultsList();
 
@@ -305,10 +317,8 @@ public class Recognize {
       // Use non-blocking call for getting file transcription
       OperationFuture<LongRunningRecognizeResponse, LongRunningRecognizeMetadata> response =
           speech.longRunningRecognizeAsync(config, audio);
-      while (!response.isDone()) {
-        System.out.println("Waiting for response...");
-        Thread.sleep(10000);
-      }
+      // get() blocks until the operation is done.
+      System.out.println("Waiting for response...");
 
       List<SpeechRecognitionResult> results = response.get().getResultsList();
 
@@ -351,10 +361,8 @@ public class Recognize {
       // Use non-blocking call for getting file transcription
       OperationFuture<LongRunningRecognizeResponse, LongRunningRecognizeMetadata> response =
           speech.longRunningRecognizeAsync(config, audio);
-      while (!response.isDone()) {
-        System.out.println("Waiting for response...");
-        Thread.sleep(10000);
-      }
+      // get() blocks until the operation is done.
+      System.out.println("Waiting for response...");
 
       List<SpeechRecognitionResult> results = response.get().getResultsList();
 
@@ -367,6 +375,40 @@ public class Recognize {
     }
   }
 
+  /**
+   * Transcribes many remote audio files with concurrent long running operations on one client,
+   * printing each transcript as soon as its operation completes.
+   *
+   * @param uris a local file listing one gs:// URI per line, or comma separated gs:// URIs. The
+   *     files must be FLAC or WAV, whose headers describe their encoding.
+   * @param maxConcurrent the most operations running at once.
+   */
+  public static void batchTranscribeGcs(String uris, int maxConcurrent) throws Exception {
+    List<String> uriList = new ArrayList<>();
+    for (String uri : uris.startsWith("gs://")
+        ? Arrays.asList(uris.split(",")) : Files.readAllLines(Paths.get(uris))) {
+      if (!uri.trim().isEmpty()) {
+        uriList.add(uri.trim());
+      }
+    }
+
+    try (SpeechClient speech = BatchTranscriber.createClient()) {
+      // Leave the encoding unset so it is read from each file's header.
+      RecognitionConfig config = RecognitionConfig.newBuilder().setLanguageCode("en-US").build();
+      BatchTranscriber transcriber = new BatchTranscriber(speech, config, maxConcurrent);
+      BatchTranscriber.Stats stats = transcriber.transcribe(uriList, result -> {
+        if (result.error != null) {
+          System.out.printf("%s failed after %.1fs: %s\n",
+              result.uri, result.latencyMillis / 1000.0, result.error);
+        } else {
+          System.out.printf("%s (%.1fs): %s\n",
+              result.uri, result.latencyMillis / 1000.0, result.transcript);
+        }
+      });
+      System.out.println(stats);
+    }
+  }
+
   /**
    * Performs streaming speech recognition on raw PCM audio data.
    *
@@ -452,6 +494,40 @@ public class Recognize {
     }
   }
 
+  /**
+   * Performs streaming speech recognition on raw 16 kHz PCM audio from a file or standard input,
+   * printing interim and final transcripts as they arrive.
+   *
+   * @param fileName the path to a PCM audio file to transcribe, or "-" for standard input.
+   * @param speed how many times faster than real time to send a file; standard input is always
+   *     sent as it arrives.
+   */
+  public static void streamingRecognizeRealTime(String fileName, double speed) throws Exception {
+    boolean stdin = fileName.equals("-");
+    try (SpeechClient speech = SpeechClient.create();
+        ReadableByteChannel audio = stdin
+            ? Channels.newChannel(System.in)
+            : FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+      RecognitionConfig recConfig =
+          RecognitionConfig.newBuilder()
+              .setEncoding(AudioEncoding.LINEAR16)
+              .setLanguageCode("en-US")
+              .setSampleRateHertz(16000)
+              .build();
+
+      StreamingRecognizer recognizer = new StreamingRecognizer(speech, recConfig, true,
+          (transcript, isFinal) ->
+              System.out.printf("%s : %s\n", isFinal ? "Transcript" : "Interim", transcript));
+      long start = System.nanoTime();
+      recognizer.recognize(audio, stdin ? 0 : speed);
+      double seconds = (System.nanoTime() - start) / 1e9;
+      System.out.printf(
+          "Streamed %d bytes over %d stream(s) in %.1fs: %d final and %d interim results\n",
+          recognizer.getBytesSent(), recognizer.getStreams(), seconds,
+          recognizer.getFinalResults(), recognizer.getInterimResults());
+    }
+  }
+
   // [START speech_transcribe_model_selection]
   /**
    * Performs transcription of the given audio file synchronously with the selected model.
@@ -516,10 +592,8 @@ public class Recognize {
       OperationFuture<LongRunningRecognizeResponse, LongRunningRecognizeMetadata> response =
           speech.longRunningRecognizeAsync(config, audio);
 
-      while (!response.isDone()) {
-        System.out.println("Waiting for response...");
-        Thread.sleep(10000);
-      }
+      // get() blocks until the operation is done.
+      System.out.println("Waiting for response...");
 
       List<SpeechRecognitionResult> results = response.get().getResultsList();
 
@@ -597,10 +671,8 @@ public class Recognize {
       OperationFuture<LongRunningRecognizeResponse, LongRunningRecognizeMetadata> response =
           speechClient.longRunningRecognizeAsync(config, audio);
 
-      while (!response.isDone()) {
-        System.out.println("Waiting for response...");
-        Thread.sleep(10000);
-      }
+      // get() blocks until the operation is done.
+      System.out.println("Waiting for response...");
 
       // Just print the first result here.
       SpeechRecognitionResult result = response.get().getResultsList().get(0);
@@ -867,10 +939,8 @@ public class Recognize {
       OperationFuture<LongRunningRecognizeResponse, LongRunningRecognizeMetadata> response =
           speechClient.longRunningRecognizeAsync(config, audio);
 
-      while (!response.isDone()) {
-        System.out.println("Waiting for response...");
-        Thread.sleep(10000);
-      }
+      // get() blocks until the operation is done.
+      System.out.println("Waiting for response...");
 
       for (SpeechRecognitionResult result : response.get().getResultsList()) {
         // There can be several alternative transcripts for a given chunk of speech. Just
@@ -956,10 +1026,8 @@ public class Recognize {
       OperationFuture<LongRunningRecognizeResponse, LongRunningRecognizeMetadata> response =
           speechClient.longRunningRecognizeAsync(config, audio);
 
-      while (!response.isDone()) {
-        System.out.println("Waiting for response...");
-        Thread.sleep(10000);
-      }
+      // get() blocks until the operation is done.
+      System.out.println("Waiting for response...");
       // Just print the first result here.
       for (SpeechRecognitionResult result : response.get().getResultsList()) {
 
@@ -1047,10 +1115,8 @@ public class Recognize {
       OperationFuture<LongRunningRecognizeResponse, LongRunningRecognizeMetadata> response =
           speechClient.longRunningRecognizeAsync(config, audio);
 
-      while (!response.isDone()) {
-        System.out.println("Waiting for response...");
-        Thread.sleep(10000);
-      }
+      // get() blocks until the operation is done.
+      System.out.println("Waiting for response...");
 
       for (SpeechRecognitionResult result : response.get().getResultsList()) {
 
@@ -1130,10 +1196,8 @@ public class Recognize {
       OperationFuture<LongRunningRecognizeResponse, LongRunningRecognizeMetadata> response =
           speechClient.longRunningRecognizeAsync(config, audio);
 
-      while (!response.isDone()) {
-        System.out.println("Waiting for response...");
-        Thread.sleep(10000);
-      }
+      // get() blocks until the operation is done.
+      System.out.println("Waiting for response...");
       // Just print the first result here.
       SpeechRecognitionResult result = response.get().getResultsList().get(0);
 
@@ -0,0 +1,307 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.speech;
+
+import com.google.api.gax.rpc.ApiStreamObserver;
+import com.google.cloud.speech.v1p1beta1.RecognitionConfig;
+import com.google.cloud.speech.v1p1beta1.RecognitionConfig.AudioEncoding;
+import com.google.cloud.speech.v1p1beta1.SpeechClient;
+import com.google.cloud.speech.v1p1beta1.StreamingRecognitionConfig;
+import com.google.cloud.speech.v1p1beta1.StreamingRecognitionResult;
+import com.google.cloud.speech.v1p1beta1.StreamingRecognizeRequest;
+import com.google.cloud.speech.v1p1beta1.StreamingRecognizeResponse;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Duration;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streams LINEAR16 audio from a channel, such as a file or standard input, to the Speech API and
+ * hands transcripts to a listener as soon as they arrive.
+ *
+ * <p>Audio is read and sent in fixed-size frames, paced at real time or at a multiple of it, so
+ * memory use does not depend on the length of the audio. A single stream may only carry about
+ * five minutes of audio, so the recognizer closes its stream shortly before that limit, waits for
+ * the last final results, and continues on a new stream. Audio is only dropped once the end time of
+ * the last word of a final result shows it has been transcribed; anything after that is sent again
+ * on the next stream, so no speech is lost when a stream ends or fails partway through an
+ * utterance. Word time offsets are turned on for this, whatever {@code config} asks for.
+ */
+public class StreamingRecognizer {
+
+  /**
+   * Receives interim and final transcripts. Called on the client's threads.
+   */
+  public interface TranscriptListener {
+    void onTranscript(String transcript, boolean isFinal);
+  }
+
+  /** Audio per stream, kept under the API's limit of about five minutes. */
+  public static final long DEFAULT_STREAM_LIMIT_MILLIS = TimeUnit.SECONDS.toMillis(290);
+  private static final int FRAME_MILLIS = 100;
+
+  private final SpeechClient speech;
+  private final StreamingRecognitionConfig config;
+  private final TranscriptListener listener;
+  private final int bytesPerSecond;
+  private final long streamLimitMillis;
+  // Frames not yet known to be covered by a final result, oldest first.
+  private final Deque<Frame> unfinalized = new ArrayDeque<>();
+  private final AtomicLong streams = new AtomicLong();
+  private final AtomicLong bytesSent = new AtomicLong();
+  private final AtomicLong finalResults = new AtomicLong();
+  private final AtomicLong interimResults = new AtomicLong();
+
+  private static class Frame {
+    final ByteString audio;
+    final long startMillis;
+    final long endMillis;
+
+    Frame(ByteString audio, long startMillis, long endMillis) {
+      this.audio = audio;
+      this.startMillis = startMillis;
+      this.endMillis = endMillis;
+    }
+  }
+
+  /**
+   * @param speech the client used for every stream; the caller remains responsible for it.
+   * @param config a LINEAR16 recognition config.
+   * @param interim whether to also report interim transcripts.
+   */
+  public StreamingRecognizer(SpeechClient speech, RecognitionConfig config, boolean interim,
+      TranscriptListener listener) {
+    this(speech, config, interim, listener, DEFAULT_STREAM_LIMIT_MILLIS);
+  }
+
+  StreamingRecognizer(SpeechClient speech, RecognitionConfig config, boolean interim,
+      TranscriptListener listener, long streamLimitMillis) {
+    if (config.getEncoding() != AudioEncoding.LINEAR16) {
+      throw new IllegalArgumentException("Only LINEAR16 audio can be paced by its length");
+    }
+    this.speech = speech;
+    this.config = StreamingRecognitionConfig.newBuilder()
+        .setConfig(config.toBuilder().setEnableWordTimeOffsets(true))
+        .setInterimResults(interim)
+        .build();
+    this.listener = listener;
+    this.bytesPerSecond =
+        config.getSampleRateHertz() * 2 * Math.max(1, config.getAudioChannelCount());
+    this.streamLimitMillis = streamLimitMillis;
+  }
+
+  // [START speech_streaming_recognize_channel]
+  /**
+   * Streams all audio readable from {@code audio} and returns once every final transcript has been
+   * delivered.
+   *
+   * @param speed how many times faster than real time to send audio; 1 matches a live source and
+   *     0 or less sends as fast as possible.
+   */
+  public void recognize(ReadableByteChannel audio, double speed)
+      throws IOException, InterruptedException, ExecutionException {
+    // Frames hold whole samples, so they must contain an even number of bytes.
+    int frameBytes = (bytesPerSecond * FRAME_MILLIS / 1000) & ~1;
+    ByteBuffer buffer = ByteBuffer.allocate(frameBytes);
+    long startNanos = System.nanoTime();
+    long audioMillis = 0;
+    Stream stream = new Stream(0);
+    boolean more = true;
+    while (more) {
+      buffer.clear();
+      more = readFully(audio, buffer);
+      buffer.flip();
+      if (!buffer.hasRemaining()) {
+        break;
+      }
+      long frameMillis = buffer.remaining() * 1000L / bytesPerSecond;
+      Frame frame = new Frame(ByteString.copyFrom(buffer), audioMillis, audioMillis + frameMillis);
+      if (stream.done.isDone() || stream.isFull(frameMillis)) {
+        stream = restart(stream, audioMillis);
+      }
+      synchronized (unfinalized) {
+        unfinalized.add(frame);
+      }
+      stream.send(frame);
+      audioMillis = frame.endMillis;
+
+      if (speed > 0) {
+        long dueNanos = startNanos + (long) (TimeUnit.MILLISECONDS.toNanos(audioMillis) / speed);
+        long waitNanos = dueNanos - System.nanoTime();
+        if (waitNanos > 0) {
+          TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+      }
+    }
+    stream.requests.onCompleted();
+    stream.done.get();
+  }
+  // [END speech_streaming_recognize_channel]
+
+  /**
+   * Ends {@code old} and opens a new stream, resending any audio {@code old} did not finalize.
+   */
+  private Stream restart(Stream old, long audioMillis)
+      throws InterruptedException, ExecutionException {
+    if (!old.done.isDone()) {
+      old.requests.onCompleted();
+    }
+    try {
+      old.done.get();
+    } catch (ExecutionException e) {
+      if (!old.responded) {
+        // The stream never worked, so a new one will not either.
+        throw e;
+      }
+      System.err.println("Stream ended with an error, resending unfinalized audio: "
+          + e.getCause());
+    }
+    List<Frame> replay;
+    synchronized (unfinalized) {
+      // Give up on audio that no final result has covered for a long time, such as a long
+      // silence, so the replay always leaves the new stream room for fresh audio.
+      long oldestMillis = audioMillis - streamLimitMillis / 2;
+      while (!unfinalized.isEmpty() && unfinalized.peek().startMillis < oldestMillis) {
+        unfinalized.poll();
+      }
+      replay = new ArrayList<>(unfinalized);
+    }
+    Stream next = new Stream(replay.isEmpty() ? audioMillis : replay.get(0).startMillis);
+    for (Frame frame : replay) {
+      next.send(frame);
+    }
+    return next;
+  }
+
+  /**
+   * One bidirectional streaming call.
+   */
+  private class Stream implements ApiStreamObserver<StreamingRecognizeResponse> {
+    final SettableFuture<Void> done = SettableFuture.create();
+    final ApiStreamObserver<StreamingRecognizeRequest> requests;
+    final long openedNanos = System.nanoTime();
+    final long startMillis;
+    volatile long endMillis;
+    volatile boolean responded;
+
+    Stream(long startMillis) {
+      this.startMillis = startMillis;
+      this.endMillis = startMillis;
+      streams.incrementAndGet();
+      requests = speech.streamingRecognizeCallable().bidiStreamingCall(this);
+      // The first request must **only** contain the audio configuration.
+      requests.onNext(StreamingRecognizeRequest.newBuilder().setStreamingConfig(config).build());
+    }
+
+    boolean isFull(long frameMillis) {
+      long openMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - openedNanos);
+      return endMillis - startMillis + frameMillis > streamLimitMillis
+          || openMillis + FRAME_MILLIS > streamLimitMillis;
+    }
+
+    void send(Frame frame) {
+      requests.onNext(
+          StreamingRecognizeRequest.newBuilder().setAudioContent(frame.audio).build());
+      bytesSent.addAndGet(frame.audio.size());
+      endMillis = frame.endMillis;
+    }
+
+    @Override
+    public void onNext(StreamingRecognizeResponse response) {
+      responded = true;
+      for (StreamingRecognitionResult result : response.getResultsList()) {
+        if (result.getAlternativesCount() == 0) {
+          continue;
+        }
+        // There can be several alternative transcripts for a given chunk of speech. Just use the
+        // first (most likely) one here.
+        String transcript = result.getAlternatives(0).getTranscript();
+        if (result.getIsFinal()) {
+          finalResults.incrementAndGet();
+          // Word times count from the first audio of this stream, which started at startMillis of
+          // the whole input; audio beyond the last word may still be part of an unfinished
+          // utterance. A result without words finalizes nothing.
+          int words = result.getAlternatives(0).getWordsCount();
+          if (words > 0) {
+            Duration end = result.getAlternatives(0).getWords(words - 1).getEndTime();
+            long finalizedMillis =
+                startMillis + end.getSeconds() * 1000 + end.getNanos() / 1000000;
+            synchronized (unfinalized) {
+              while (!unfinalized.isEmpty() && unfinalized.peek().endMillis <= finalizedMillis) {
+                unfinalized.poll();
+              }
+            }
+          }
+        } else {
+          interimResults.incrementAndGet();
+        }
+        listener.onTranscript(transcript, result.getIsFinal());
+      }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      done.setException(t);
+    }
+
+    @Override
+    public void onCompleted() {
+      // Audio after the last final result, such as trailing silence, is sent again on the next
+      // stream rather than assumed to be transcribed.
+      done.set(null);
+    }
+  }
+
+  /**
+   * Reads until {@code buffer} is full or the channel is exhausted.
+   *
+   * @return {@code true} if the buffer was filled.
+   */
+  private static boolean readFully(ReadableByteChannel in, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (in.read(buffer) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public long getStreams() {
+    return streams.get();
+  }
+
+  public long getBytesSent() {
+    return bytesSent.get();
+  }
+
+  public long getFinalResults() {
+    return finalResults.get();
+  }
+
+  public long getInterimResults() {
+    return interimResults.get();
+  }
+}
@@ -18,8 +18,14 @@ package com.example.speech;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import com.google.cloud.speech.v1p1beta1.RecognitionConfig;
+import com.google.cloud.speech.v1p1beta1.RecognitionConfig.AudioEncoding;
+import com.google.cloud.speech.v1p1beta1.SpeechClient;
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -111,6 +117,64 @@ public class RecognizeIT {
     assertThat(got).contains("how old is the Brooklyn Bridge");
   }
 
+  @Test
+  public void testBatchTranscribe() throws Exception {
+    Recognize.batchTranscribeGcs(gcsAudioPath + "," + gcsDiarizationAudioPath, 2);
+    String got = bout.toString();
+    assertThat(got).contains("how old is the Brooklyn Bridge");
+    assertThat(got).contains("Transcribed 2 files (0 failed)");
+  }
+
+  @Test
+  public void testStreamRecognizeRealTime() throws Exception {
+    Recognize.streamingRecognizeRealTime(audioFileName, 4.0);
+    String got = bout.toString();
+    assertThat(got).contains("Transcript : how old is the Brooklyn Bridge");
+    assertThat(got).contains("over 1 stream(s)");
+  }
+
+  @Test
+  public void testStreamRecognizeRestartsStreams() throws Exception {
+    RecognitionConfig config =
+        RecognitionConfig.newBuilder()
+            .setEncoding(AudioEncoding.LINEAR16)
+            .setLanguageCode("en-US")
+            .setSampleRateHertz(16000)
+            .build();
+    StringBuffer transcripts = new StringBuffer();
+    try (SpeechClient speech = SpeechClient.create();
+        FileChannel audio = FileChannel.open(Paths.get(audioFileName), StandardOpenOption.READ)) {
+      // A one second limit forces several streams over the few seconds of audio.
+      StreamingRecognizer recognizer = new StreamingRecognizer(speech, config, false,
+          (transcript, isFinal) -> transcripts.append(transcript), 1000);
+      recognizer.recognize(audio, 0);
+      assertThat(recognizer.getStreams()).isGreaterThan(1L);
+    }
+    assertThat(transcripts.toString()).contains("Brooklyn");
+  }
+
+  @Test
+  public void testStreamRecognizeRestartMidUtteranceKeepsWholeTranscript() throws Exception {
+    RecognitionConfig config =
+        RecognitionConfig.newBuilder()
+            .setEncoding(AudioEncoding.LINEAR16)
+            .setLanguageCode("en-US")
+            .setSampleRateHertz(16000)
+            .build();
+    StringBuffer transcripts = new StringBuffer();
+    try (SpeechClient speech = SpeechClient.create();
+        FileChannel audio = FileChannel.open(Paths.get(audioFileName), StandardOpenOption.READ)) {
+      // The file holds under two seconds of speech, so a 900 ms limit restarts mid-sentence.
+      StreamingRecognizer recognizer = new StreamingRecognizer(speech, config, false,
+          (transcript, isFinal) -> transcripts.append(transcript).append(' '), 900);
+      recognizer.recognize(audio, 0);
+      assertThat(recognizer.getStreams()).isGreaterThan(1L);
+    }
+    String got = transcripts.toString().toLowerCase();
+    assertThat(got).contains("how old is");
+    assertThat(got).contains("brooklyn bridge");
+  }
+
   @Test
   public void testModelSelection() throws Exception {
     Recognize.transcribeModelSelection(videoFileName);
@@ -25,12 +25,14 @@ import com.google.api.services.storage.model.StorageObject;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.GeneralSecurityException;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
  * Main class for the Cloud Storage JSON API sample.
@@ -45,30 +47,64 @@ public class StorageSample {
 
   // [START list_bucket]
   /**
-   * Fetch a list of the objects within the given bucket.
+   * Lists the objects within the given bucket.
+   *
+   * <p>Pages of results are fetched lazily as the returned iterable is traversed, so only one
+   * page is held in memory at a time. Each call to {@code iterator()} starts a new listing.
    *
    * @param bucketName the name of the bucket to list.
-   * @return a list of the contents of the specified bucket.
+   * @return the contents of the specified bucket.
    */
-  public static List<StorageObject> listBucket(String bucketName)
+  public static Iterable<StorageObject> listBucket(String bucketName)
       throws IOException, GeneralSecurityException {
     Storage client = StorageFactory.getService();
-    Storage.Objects.List listRequest = client.objects().list(bucketName);
-
-    List<StorageObject> results = new ArrayList<StorageObject>();
+    return () -> new ObjectPageIterator(client, bucketName);
+  }
 
-    Objects objects;
-    // Iterate through each page of results, and add them to our results list.
-    do {
-      objects = listRequest.execute();
-      // Add the items in this page of results to the list we'll return.
-      results.addAll(objects.getItems());
+  /**
+   * Iterates over the objects in a bucket, requesting the next page only once the current page
+   * has been consumed.
+   */
+  private static class ObjectPageIterator implements Iterator<StorageObject> {
+    private final Storage.Objects.List listRequest;
+    private Iterator<StorageObject> page = Collections.emptyIterator();
+    private String nextPageToken;
+    private boolean firstPage = true;
+
+    ObjectPageIterator(Storage client, String bucketName) {
+      try {
+        this.listRequest = client.objects().list(bucketName);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
 
-      // Get the next page, in the next iteration of this loop.
-      listRequest.setPageToken(objects.getNextPageToken());
-    } while (null != objects.getNextPageToken());
+    @Override
+    public boolean hasNext() {
+      // Pages may be empty, so keep fetching until an item turns up or the listing ends.
+      while (!page.hasNext() && (firstPage || nextPageToken != null)) {
+        Objects objects;
+        try {
+          objects = listRequest.setPageToken(nextPageToken).execute();
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+        firstPage = false;
+        nextPageToken = objects.getNextPageToken();
+        if (objects.getItems() != null) {
+          page = objects.getItems().iterator();
+        }
+      }
+      return page.hasNext();
+    }
 
-    return results;
+    @Override
+    public StorageObject next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return page.next();
+    }
   }
   // [END list_bucket]
 
@@ -158,14 +194,15 @@ public class StorageSample {
 
 
       // List the contents of the bucket.
-      List<StorageObject> bucketContents = listBucket(bucketName);
-      if (null == bucketContents) {
+      boolean empty = true;
+      for (StorageObject object : listBucket(bucketName)) {
+        System.out.println(object.getName() + " (" + object.getSize() + " bytes)");
+        empty = false;
+      }
+      if (empty) {
         System.out.println(
             "There were no objects in the given bucket; try adding some and re-running.");
       }
-      for (StorageObject object : bucketContents) {
-        System.out.println(object.getName() + " (" + object.getSize() + " bytes)");
-      }
 
       // Create a temp file to upload
       Path tempPath = Files.createTempFile("StorageSample", "txt");
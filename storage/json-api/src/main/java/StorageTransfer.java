@@ -0,0 +1,409 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.api.client.googleapis.media.MediaHttpUploader;
+import com.google.api.client.http.HttpBackOffIOExceptionHandler;
+import com.google.api.client.http.HttpBackOffUnsuccessfulResponseHandler;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpUnsuccessfulResponseHandler;
+import com.google.api.client.http.InputStreamContent;
+import com.google.api.client.util.ExponentialBackOff;
+import com.google.api.services.storage.Storage;
+import com.google.api.services.storage.model.ComposeRequest;
+import com.google.api.services.storage.model.Objects;
+import com.google.api.services.storage.model.StorageObject;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import com.google.common.primitives.Ints;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Moves large files to and from Cloud Storage using several connections at once.
+ *
+ * <p>Uploads larger than one part are split into parts that are uploaded in parallel, each in its
+ * own resumable upload session, and then composed into the destination object. Requests are
+ * retried with exponential backoff, and a failed chunk of a part resumes its session from the
+ * last byte the server committed. Downloads fetch byte ranges of a single object generation in
+ * parallel, write them straight into their place in a preallocated file, and then check the file
+ * against the object's CRC32C.
+ */
+public class StorageTransfer implements AutoCloseable {
+
+  public static final long DEFAULT_PART_SIZE = 32L * 1024 * 1024;
+  // The compose API accepts at most 32 source objects per call.
+  private static final int MAX_COMPOSE_SOURCES = 32;
+  private static final int BUFFER_SIZE = 256 * 1024;
+
+  private final Storage client;
+  private final long partSize;
+  private final ExecutorService executor;
+
+  /**
+   * @param client the Storage client to copy; transfers share one copy that retries requests.
+   * @param parallelism the number of parts transferred concurrently.
+   * @param partSize the size of each uploaded part and each downloaded range.
+   */
+  public StorageTransfer(Storage client, int parallelism, long partSize) {
+    if (parallelism < 1 || partSize < 1) {
+      throw new IllegalArgumentException("parallelism and partSize must be positive");
+    }
+    this.client = withRetries(client);
+    this.partSize = partSize;
+    this.executor = Executors.newFixedThreadPool(parallelism);
+  }
+
+  /**
+   * Returns a client like {@code client} whose requests retry I/O errors and server errors with
+   * exponential backoff. The resumable uploader installs its own handler on top of these, which
+   * asks the server how much of the session it has committed before a chunk is retried, so a
+   * failed part continues where it stopped rather than starting a new session.
+   */
+  private static Storage withRetries(Storage client) {
+    HttpRequestInitializer initializer = client.getRequestFactory().getInitializer();
+    return new Storage.Builder(client.getRequestFactory().getTransport(),
+        client.getJsonFactory(), request -> {
+          if (initializer != null) {
+            initializer.initialize(request);
+          }
+          // Keep the credential's handler, which refreshes the access token on a 401.
+          HttpUnsuccessfulResponseHandler auth = request.getUnsuccessfulResponseHandler();
+          HttpUnsuccessfulResponseHandler backOff =
+              new HttpBackOffUnsuccessfulResponseHandler(new ExponentialBackOff());
+          request.setUnsuccessfulResponseHandler((retried, response, supportsRetry) ->
+              (auth != null && auth.handleResponse(retried, response, supportsRetry))
+                  || backOff.handleResponse(retried, response, supportsRetry));
+          request.setIOExceptionHandler(
+              new HttpBackOffIOExceptionHandler(new ExponentialBackOff()));
+        })
+        .setRootUrl(client.getRootUrl())
+        .setServicePath(client.getServicePath())
+        .setApplicationName(client.getApplicationName())
+        .build();
+  }
+
+  // [START parallel_composite_upload]
+  /**
+   * Uploads a file, splitting it into parts uploaded in parallel when it is larger than one part.
+   *
+   * @return the metadata of the created object.
+   */
+  public StorageObject upload(Path file, String bucketName, String objectName, String contentType)
+      throws IOException, InterruptedException {
+    long size = file.toFile().length();
+    if (size <= partSize) {
+      return uploadRange(file, 0, size, bucketName, objectName, contentType);
+    }
+
+    // Part names are unique per upload, so concurrent uploads to the same object don't collide.
+    String prefix = objectName + ".part-" + UUID.randomUUID() + "-";
+    AtomicBoolean aborted = new AtomicBoolean();
+    List<Future<StorageObject>> uploads = new ArrayList<>();
+    for (long offset = 0, index = 0; offset < size; offset += partSize, index++) {
+      final long start = offset;
+      final long length = Math.min(partSize, size - offset);
+      final String partName = prefix + index;
+      uploads.add(executor.submit(() -> {
+        if (aborted.get()) {
+          throw new IOException("Upload aborted");
+        }
+        return uploadRange(file, start, length, bucketName, partName, contentType);
+      }));
+    }
+
+    List<StorageObject> parts = new ArrayList<>(uploads.size());
+    try {
+      for (Future<StorageObject> upload : uploads) {
+        parts.add(await(upload));
+      }
+      // Compose in rounds when there are more parts than a single compose call accepts.
+      int round = 0;
+      while (parts.size() > MAX_COMPOSE_SOURCES) {
+        List<StorageObject> composed = new ArrayList<>();
+        for (int i = 0; i < parts.size(); i += MAX_COMPOSE_SOURCES) {
+          List<StorageObject> group =
+              parts.subList(i, Math.min(i + MAX_COMPOSE_SOURCES, parts.size()));
+          composed.add(compose(bucketName, prefix + "r" + round + "-" + i, contentType, group));
+        }
+        parts = composed;
+        round++;
+      }
+      return compose(bucketName, objectName, contentType, parts);
+    } finally {
+      // Let parts already on the wire finish instead of interrupting them, since an interrupted
+      // part can still be created afterwards; parts not yet started are skipped. Then every
+      // object under the prefix is a leftover, including those of a failed upload.
+      aborted.set(true);
+      for (Future<StorageObject> upload : uploads) {
+        try {
+          upload.get();
+        } catch (ExecutionException e) {
+          // Reported by the first failed part above.
+        }
+      }
+      deleteAll(bucketName, prefix);
+    }
+  }
+  // [END parallel_composite_upload]
+
+  // [START parallel_ranged_download]
+  /**
+   * Downloads an object into {@code destination}, fetching byte ranges in parallel. The file is
+   * removed if any range fails or the result does not match the object's checksum.
+   *
+   * @return the number of bytes downloaded.
+   */
+  public long download(String bucketName, String objectName, Path destination)
+      throws IOException, InterruptedException {
+    // Pin the generation so every range comes from the same version of the object, even if it
+    // is overwritten while the download is running.
+    StorageObject metadata = client.objects().get(bucketName, objectName).execute();
+    long size = metadata.getSize().longValue();
+    boolean done = false;
+    try {
+      downloadRanges(bucketName, objectName, metadata.getGeneration(), size, destination);
+      verify(metadata, destination);
+      done = true;
+    } finally {
+      if (!done) {
+        Files.deleteIfExists(destination);
+      }
+    }
+    return size;
+  }
+  // [END parallel_ranged_download]
+
+  private void downloadRanges(String bucketName, String objectName, long generation, long size,
+      Path destination) throws IOException, InterruptedException {
+    // Preallocate the file so each range can be written at its final position independently.
+    try (RandomAccessFile raf = new RandomAccessFile(destination.toFile(), "rw")) {
+      raf.setLength(size);
+    }
+    try (FileChannel channel = FileChannel.open(destination, StandardOpenOption.WRITE)) {
+      List<Future<Void>> ranges = new ArrayList<>();
+      for (long offset = 0; offset < size; offset += partSize) {
+        final long start = offset;
+        final long end = Math.min(offset + partSize, size) - 1;
+        ranges.add(executor.submit(() -> {
+          downloadRange(bucketName, objectName, generation, start, end, channel);
+          return null;
+        }));
+      }
+      try {
+        for (Future<Void> range : ranges) {
+          await(range);
+        }
+      } finally {
+        for (Future<Void> range : ranges) {
+          range.cancel(true);
+        }
+      }
+    }
+  }
+
+  /**
+   * Checks a downloaded file against the CRC32C of the object, or its MD5 hash when the object
+   * has no CRC32C.
+   */
+  @SuppressWarnings("deprecation") // Hashing.md5(), but MD5 is what Cloud Storage reports.
+  private static void verify(StorageObject metadata, Path file) throws IOException {
+    String expected;
+    String actual;
+    if (metadata.getCrc32c() != null) {
+      expected = metadata.getCrc32c();
+      actual = BaseEncoding.base64().encode(
+          Ints.toByteArray(hash(file, Hashing.crc32c()).asInt()));
+    } else if (metadata.getMd5Hash() != null) {
+      expected = metadata.getMd5Hash();
+      actual = BaseEncoding.base64().encode(hash(file, Hashing.md5()).asBytes());
+    } else {
+      return;
+    }
+    if (!expected.equals(actual)) {
+      throw new IOException(String.format(
+          "Checksum mismatch downloading %s: expected %s, got %s",
+          metadata.getName(), expected, actual));
+    }
+  }
+
+  private static HashCode hash(Path file, HashFunction function) throws IOException {
+    Hasher hasher = function.newHasher();
+    byte[] buffer = new byte[BUFFER_SIZE];
+    try (InputStream in = Files.newInputStream(file)) {
+      for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+        hasher.putBytes(buffer, 0, read);
+      }
+    }
+    return hasher.hash();
+  }
+
+  private StorageObject uploadRange(Path file, long offset, long length, String bucketName,
+      String objectName, String contentType) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      channel.position(offset);
+      InputStream in = ByteStreams.limit(Channels.newInputStream(channel), length);
+      InputStreamContent content = new InputStreamContent(contentType, in);
+      content.setLength(length);
+      Storage.Objects.Insert insert = client.objects().insert(
+          bucketName, new StorageObject().setName(objectName), content);
+      // Resumable sessions retry failed chunks instead of restarting the whole part.
+      MediaHttpUploader uploader = insert.getMediaHttpUploader();
+      uploader.setDirectUploadEnabled(false);
+      uploader.setChunkSize(MediaHttpUploader.MINIMUM_CHUNK_SIZE * 32);
+      return insert.execute();
+    }
+  }
+
+  private void downloadRange(String bucketName, String objectName, long generation, long start,
+      long end, FileChannel channel) throws IOException {
+    Storage.Objects.Get get = client.objects().get(bucketName, objectName);
+    get.setGeneration(generation);
+    get.getRequestHeaders().setRange("bytes=" + start + "-" + end);
+    ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    long position = start;
+    try (ReadableByteChannel in = Channels.newChannel(get.executeMediaAsInputStream())) {
+      while (position <= end) {
+        buffer.clear();
+        buffer.limit((int) Math.min(buffer.capacity(), end - position + 1));
+        if (in.read(buffer) < 0) {
+          throw new EOFException(String.format(
+              "Range %d-%d of %s ended early at %d", start, end, objectName, position));
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+          // Positional writes don't move the channel's position, so ranges can write concurrently.
+          position += channel.write(buffer, position);
+        }
+      }
+    }
+  }
+
+  private StorageObject compose(String bucketName, String objectName, String contentType,
+      List<StorageObject> sources) throws IOException {
+    List<ComposeRequest.SourceObjects> sourceObjects = new ArrayList<>(sources.size());
+    for (StorageObject source : sources) {
+      sourceObjects.add(new ComposeRequest.SourceObjects()
+          .setName(source.getName())
+          .setGeneration(source.getGeneration()));
+    }
+    ComposeRequest request = new ComposeRequest()
+        .setSourceObjects(sourceObjects)
+        .setDestination(new StorageObject().setContentType(contentType));
+    return client.objects().compose(bucketName, objectName, request).execute();
+  }
+
+  /**
+   * Deletes every object whose name starts with {@code prefix}.
+   */
+  private void deleteAll(String bucketName, String prefix) throws InterruptedException {
+    List<Future<Void>> deletes = new ArrayList<>();
+    try {
+      Storage.Objects.List list = client.objects().list(bucketName).setPrefix(prefix);
+      Objects objects;
+      do {
+        objects = list.execute();
+        if (objects.getItems() != null) {
+          for (StorageObject object : objects.getItems()) {
+            deletes.add(executor.submit(() -> {
+              client.objects().delete(bucketName, object.getName()).execute();
+              return null;
+            }));
+          }
+        }
+        list.setPageToken(objects.getNextPageToken());
+      } while (objects.getNextPageToken() != null);
+    } catch (IOException e) {
+      System.err.println("Failed to list temporary objects: " + e.getMessage());
+    }
+    for (Future<Void> delete : deletes) {
+      try {
+        delete.get();
+      } catch (ExecutionException e) {
+        System.err.println("Failed to delete temporary object: " + e.getCause().getMessage());
+      }
+    }
+  }
+
+  private static <T> T await(Future<T> future) throws IOException, InterruptedException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Uploads or downloads a single file.
+   *
+   * @param args {@code upload <bucket> <file> <object>} or
+   *     {@code download <bucket> <object> <file>}.
+   */
+  public static void main(String[] args)
+      throws IOException, GeneralSecurityException, InterruptedException {
+    if (args.length != 4
+        || !(args[0].equals("upload") || args[0].equals("download"))) {
+      System.out.println("Usage: StorageTransfer upload <bucket> <file> <object>");
+      System.out.println("       StorageTransfer download <bucket> <object> <file>");
+      System.exit(1);
+    }
+    long start = System.nanoTime();
+    long bytes;
+    try (StorageTransfer transfer =
+        new StorageTransfer(StorageFactory.getService(), 8, DEFAULT_PART_SIZE)) {
+      if (args[0].equals("upload")) {
+        Path file = Paths.get(args[2]);
+        bytes = transfer.upload(file, args[1], args[3], "application/octet-stream")
+            .getSize().longValue();
+      } else {
+        bytes = transfer.download(args[1], args[2], Paths.get(args[3]));
+      }
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.println(String.format("Transferred %d bytes in %.1fs (%.1f MB/s)",
+        bytes, seconds, bytes / seconds / (1024 * 1024)));
+  }
+}
@@ -23,8 +23,8 @@ import com.google.api.services.storage.model.StorageObject;
 import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
 import org.junit.Test;
 
 public class StorageSampleTest {
@@ -32,9 +32,17 @@ public class StorageSampleTest {
   private static final String BUCKET = PROJECT_ID;
   private static final String TEST_OBJECT = "storage-sample-test-upload.txt";
 
+  private static List<String> listNames(String bucket) throws Exception {
+    List<String> names = new ArrayList<>();
+    for (StorageObject object : StorageSample.listBucket(bucket)) {
+      names.add(object.getName());
+    }
+    return names;
+  }
+
   @Test
   public void testListBucket() throws Exception {
-    List<StorageObject> listing = StorageSample.listBucket(BUCKET);
+    Iterable<StorageObject> listing = StorageSample.listBucket(BUCKET);
     assertThat(listing).isNotEmpty();
   }
 
@@ -58,15 +66,13 @@ public class StorageSampleTest {
 
     try {
       // Verify that the object was created
-      List<StorageObject> listing = StorageSample.listBucket(BUCKET);
-      List<String> names = listing.stream().map(so -> so.getName()).collect(Collectors.toList());
+      List<String> names = listNames(BUCKET);
       assertThat(names).named("objects found after upload").contains(TEST_OBJECT);
     } finally {
       StorageSample.deleteObject(TEST_OBJECT, BUCKET);
 
       // Verify that the object no longer exists
-      List<StorageObject> listing = StorageSample.listBucket(BUCKET);
-      List<String> names = listing.stream().map(so -> so.getName()).collect(Collectors.toList());
+      List<String> names = listNames(BUCKET);
       assertThat(names).named("objects found after delete").doesNotContain(TEST_OBJECT);
     }
   }
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.api.services.storage.model.StorageObject;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import org.junit.Test;
+
+public class StorageTransferTest {
+  private static final String PROJECT_ID = System.getenv("GOOGLE_CLOUD_PROJECT");
+  private static final String BUCKET = PROJECT_ID;
+  private static final String TEST_OBJECT = "storage-transfer-test-upload.bin";
+  private static final long PART_SIZE = 256 * 1024;
+
+  @Test
+  public void testCompositeUploadAndRangedDownload() throws Exception {
+    // Several parts, the last one partial, so both compose and uneven ranges are exercised.
+    byte[] data = new byte[(int) (PART_SIZE * 5 + 1234)];
+    new Random(42).nextBytes(data);
+    Path source = Files.createTempFile("StorageTransferTest", ".bin");
+    Path destination = Files.createTempFile("StorageTransferTest", ".out");
+    source.toFile().deleteOnExit();
+    destination.toFile().deleteOnExit();
+    Files.write(source, data);
+
+    try (StorageTransfer transfer =
+        new StorageTransfer(StorageFactory.getService(), 4, PART_SIZE)) {
+      StorageObject uploaded =
+          transfer.upload(source, BUCKET, TEST_OBJECT, "application/octet-stream");
+      try {
+        assertThat(uploaded.getSize().longValue()).isEqualTo(data.length);
+
+        long downloaded = transfer.download(BUCKET, TEST_OBJECT, destination);
+
+        assertThat(downloaded).isEqualTo(data.length);
+        assertThat(Files.readAllBytes(destination)).isEqualTo(data);
+        for (StorageObject object : StorageSample.listBucket(BUCKET)) {
+          assertThat(object.getName()).named("temporary part")
+              .doesNotMatch(TEST_OBJECT + "\\.part-.*");
+        }
+      } finally {
+        StorageSample.deleteObject(TEST_OBJECT, BUCKET);
+      }
+    }
+  }
+}
@@ -0,0 +1,418 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.texttospeech;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.texttospeech.v1.AudioConfig;
+import com.google.cloud.texttospeech.v1.AudioEncoding;
+import com.google.cloud.texttospeech.v1.SynthesisInput;
+import com.google.cloud.texttospeech.v1.SynthesizeSpeechRequest;
+import com.google.cloud.texttospeech.v1.SynthesizeSpeechResponse;
+import com.google.cloud.texttospeech.v1.TextToSpeechClient;
+import com.google.cloud.texttospeech.v1.VoiceSelectionParams;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.ByteString;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.BreakIterator;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Synthesizes documents longer than a single request allows.
+ *
+ * <p>The text or SSML is split at sentence boundaries into chunks that fit in one request. Up to
+ * {@code window} chunks are synthesized concurrently, and their audio is written to the output in
+ * document order as soon as each chunk and all chunks before it are done. When a cache directory
+ * is given, each chunk's audio is stored under a hash of the chunk, voice and audio config, so
+ * rendering an edited document again only synthesizes the chunks that changed.
+ */
+public class LongFormSynthesizer {
+
+  /** The API accepts at most 5000 bytes of input per request. */
+  public static final int MAX_CHUNK_BYTES = 5000;
+  private static final String SPEAK_OPEN = "<speak>";
+  private static final Pattern SPEAK_OPEN_TAG = Pattern.compile("<speak\\b[^>]*>");
+  private static final String SPEAK_CLOSE = "</speak>";
+  private static final int WAV_HEADER_BYTES = 44;
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final TextToSpeechClient client;
+  private final VoiceSelectionParams voice;
+  private final AudioConfig audioConfig;
+  private final int window;
+  private final Path cacheDir;
+  private final AtomicLong chunksWritten = new AtomicLong();
+  private final AtomicLong cacheHits = new AtomicLong();
+  private final AtomicLong audioBytes = new AtomicLong();
+
+  /**
+   * @param client the client used for every chunk; the caller remains responsible for it.
+   * @param window the most chunks being synthesized at once.
+   * @param cacheDir the directory caching each chunk's audio, or {@code null}.
+   */
+  public LongFormSynthesizer(TextToSpeechClient client, VoiceSelectionParams voice,
+      AudioConfig audioConfig, int window, Path cacheDir) throws IOException {
+    this.client = client;
+    this.voice = voice;
+    this.audioConfig = audioConfig;
+    this.window = window;
+    this.cacheDir = cacheDir == null ? null : Files.createDirectories(cacheDir);
+  }
+
+  /**
+   * Splits plain text into chunks of at most {@code maxBytes} UTF-8 bytes, at sentence boundaries
+   * where possible and otherwise at word boundaries.
+   */
+  public static List<String> splitText(String text, int maxBytes) {
+    List<String> pieces = new ArrayList<>();
+    BreakIterator sentences = BreakIterator.getSentenceInstance(Locale.US);
+    sentences.setText(text);
+    for (int start = sentences.first(), end = sentences.next(); end != BreakIterator.DONE;
+        start = end, end = sentences.next()) {
+      String sentence = text.substring(start, end);
+      if (utf8Length(sentence) <= maxBytes) {
+        pieces.add(sentence);
+      } else {
+        pieces.addAll(splitWords(sentence, maxBytes));
+      }
+    }
+    return pack(pieces, maxBytes);
+  }
+
+  /**
+   * Splits an SSML document into complete SSML documents of at most {@code maxBytes} UTF-8 bytes.
+   *
+   * <p>Splits happen only between top level elements and after sentence-ending punctuation in top
+   * level text, so no element is ever cut in half. Every chunk keeps the attributes of the
+   * document's {@code <speak>} tag, such as {@code xml:lang}.
+   *
+   * @throws IllegalArgumentException if a single top level element, such as one huge paragraph,
+   *     does not fit in a chunk on its own.
+   */
+  public static List<String> splitSsml(String ssml, int maxBytes) {
+    String body = ssml.trim();
+    String speakOpen = SPEAK_OPEN;
+    Matcher open = SPEAK_OPEN_TAG.matcher(body);
+    int close = body.lastIndexOf(SPEAK_CLOSE);
+    if (open.find() && close >= open.end()) {
+      speakOpen = open.group();
+      body = body.substring(open.end(), close);
+    }
+    int bodyMax = maxBytes - utf8Length(speakOpen) - SPEAK_CLOSE.length();
+
+    List<String> pieces = new ArrayList<>();
+    int depth = 0;
+    int pieceStart = 0;
+    for (int i = 0; i < body.length(); i++) {
+      char c = body.charAt(i);
+      if (c == '<') {
+        int end = body.indexOf('>', i);
+        if (end < 0) {
+          break;
+        }
+        String tag = body.substring(i, end + 1);
+        if (tag.startsWith("</")) {
+          depth--;
+        } else if (!tag.endsWith("/>") && !tag.startsWith("<!--") && !tag.startsWith("<?")) {
+          depth++;
+        }
+        i = end;
+        if (depth == 0) {
+          pieces.add(body.substring(pieceStart, i + 1));
+          pieceStart = i + 1;
+        }
+      } else if (depth == 0 && (c == '.' || c == '!' || c == '?')
+          && (i + 1 == body.length() || Character.isWhitespace(body.charAt(i + 1)))) {
+        pieces.add(body.substring(pieceStart, i + 1));
+        pieceStart = i + 1;
+      }
+    }
+    if (pieceStart < body.length()) {
+      pieces.add(body.substring(pieceStart));
+    }
+    for (String piece : pieces) {
+      if (utf8Length(piece) > bodyMax) {
+        String start = piece.trim();
+        throw new IllegalArgumentException(String.format(
+            "SSML element of %d bytes exceeds the %d byte limit; split it into smaller "
+                + "elements: %s...", utf8Length(piece), bodyMax,
+            start.substring(0, Math.min(start.length(), 60))));
+      }
+    }
+
+    List<String> chunks = new ArrayList<>();
+    for (String chunk : pack(pieces, bodyMax)) {
+      chunks.add(speakOpen + chunk + SPEAK_CLOSE);
+    }
+    return chunks;
+  }
+
+  private static List<String> splitWords(String sentence, int maxBytes) {
+    List<String> pieces = new ArrayList<>();
+    BreakIterator words = BreakIterator.getWordInstance(Locale.US);
+    words.setText(sentence);
+    for (int start = words.first(), end = words.next(); end != BreakIterator.DONE;
+        start = end, end = words.next()) {
+      String word = sentence.substring(start, end);
+      // A single "word" larger than a request, such as a run of symbols, is cut by characters.
+      // No code point takes more than four bytes, and cutting by code points keeps surrogate
+      // pairs together.
+      while (utf8Length(word) > maxBytes) {
+        int cut = word.offsetByCodePoints(0, Math.max(1, maxBytes / 4));
+        pieces.add(word.substring(0, cut));
+        word = word.substring(cut);
+      }
+      pieces.add(word);
+    }
+    return pieces;
+  }
+
+  /**
+   * Greedily joins consecutive pieces into chunks of at most {@code maxBytes} bytes.
+   */
+  private static List<String> pack(List<String> pieces, int maxBytes) {
+    List<String> chunks = new ArrayList<>();
+    StringBuilder chunk = new StringBuilder();
+    int chunkBytes = 0;
+    for (String piece : pieces) {
+      int pieceBytes = utf8Length(piece);
+      if (chunkBytes > 0 && chunkBytes + pieceBytes > maxBytes) {
+        addIfSpoken(chunks, chunk.toString());
+        chunk.setLength(0);
+        chunkBytes = 0;
+      }
+      chunk.append(piece);
+      chunkBytes += pieceBytes;
+    }
+    addIfSpoken(chunks, chunk.toString());
+    return chunks;
+  }
+
+  private static void addIfSpoken(List<String> chunks, String chunk) {
+    if (!chunk.trim().isEmpty()) {
+      chunks.add(chunk);
+    }
+  }
+
+  private static int utf8Length(String s) {
+    return s.getBytes(StandardCharsets.UTF_8).length;
+  }
+
+  // [START tts_synthesize_long_form]
+  /**
+   * Synthesizes every chunk and writes the audio to {@code out} in order.
+   *
+   * @param ssml whether the chunks are SSML documents rather than plain text.
+   */
+  public void synthesize(List<String> chunks, boolean ssml, WritableByteChannel out)
+      throws IOException, InterruptedException {
+    boolean wav = audioConfig.getAudioEncoding() == AudioEncoding.LINEAR16;
+    long dataBytes = 0;
+    byte[] format = null;
+    long headerPosition = -1;
+    if (wav && out instanceof SeekableByteChannel) {
+      // Reserve space for the header; its sizes are filled in once all audio is written.
+      headerPosition = ((SeekableByteChannel) out).position();
+      write(out, ByteBuffer.allocate(WAV_HEADER_BYTES));
+    }
+
+    Deque<ApiFuture<ByteString>> inFlight = new ArrayDeque<>();
+    int next = 0;
+    try {
+      while (next < chunks.size() || !inFlight.isEmpty()) {
+        // Keep the window full, then write the oldest chunk as soon as it is ready.
+        while (next < chunks.size() && inFlight.size() < window) {
+          inFlight.add(synthesizeChunk(chunks.get(next++), ssml));
+        }
+        ByteString audio = await(inFlight.poll());
+        chunksWritten.incrementAndGet();
+        ByteBuffer buffer = audio.asReadOnlyByteBuffer();
+        if (wav) {
+          // Every chunk is a complete WAV file; keep only the samples.
+          byte[] chunkFormat = wavFormat(buffer);
+          if (format == null) {
+            format = chunkFormat;
+            if (headerPosition < 0) {
+              // The output cannot be rewound, so declare the largest size a WAV file can have.
+              write(out, wavHeader(format, 0xFFFFFFFFL - 36));
+            }
+          }
+        }
+        dataBytes += buffer.remaining();
+        audioBytes.addAndGet(buffer.remaining());
+        write(out, buffer);
+      }
+    } finally {
+      // After a failure, stop paying for chunks whose audio will never be written.
+      for (ApiFuture<ByteString> pending : inFlight) {
+        pending.cancel(true);
+      }
+    }
+
+    if (headerPosition >= 0 && format != null) {
+      SeekableByteChannel seekable = (SeekableByteChannel) out;
+      long end = seekable.position();
+      seekable.position(headerPosition);
+      write(out, wavHeader(format, dataBytes));
+      seekable.position(end);
+    }
+  }
+  // [END tts_synthesize_long_form]
+
+  private ApiFuture<ByteString> synthesizeChunk(String chunk, boolean ssml) throws IOException {
+    SynthesisInput input = ssml
+        ? SynthesisInput.newBuilder().setSsml(chunk).build()
+        : SynthesisInput.newBuilder().setText(chunk).build();
+    Path cached = cacheDir == null ? null : cacheDir.resolve(cacheKey(input) + ".audio");
+    if (cached != null && Files.exists(cached)) {
+      cacheHits.incrementAndGet();
+      return ApiFutures.immediateFuture(ByteString.copyFrom(Files.readAllBytes(cached)));
+    }
+    SynthesizeSpeechRequest request = SynthesizeSpeechRequest.newBuilder()
+        .setInput(input)
+        .setVoice(voice)
+        .setAudioConfig(audioConfig)
+        .build();
+    ApiFuture<SynthesizeSpeechResponse> response =
+        client.synthesizeSpeechCallable().futureCall(request);
+    return ApiFutures.transform(response, r -> {
+      if (cached != null) {
+        store(cached, r.getAudioContent());
+      }
+      return r.getAudioContent();
+    }, MoreExecutors.directExecutor());
+  }
+
+  private String cacheKey(SynthesisInput input) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(input.toByteArray());
+      digest.update(voice.toByteArray());
+      byte[] hash = digest.digest(audioConfig.toByteArray());
+      StringBuilder key = new StringBuilder(hash.length * 2);
+      for (byte b : hash) {
+        key.append(HEX[(b >> 4) & 0xf]).append(HEX[b & 0xf]);
+      }
+      return key.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static void store(Path file, ByteString audio) {
+    try {
+      // Write to a temporary file first so a crash never leaves a truncated entry behind.
+      Path temp = Files.createTempFile(file.getParent(), "chunk", ".tmp");
+      Files.write(temp, audio.toByteArray());
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      System.err.println("Failed to cache synthesized chunk: " + e);
+    }
+  }
+
+  /**
+   * Positions {@code wav} at the start of its samples and returns its 16 byte format chunk.
+   */
+  static byte[] wavFormat(ByteBuffer wav) throws IOException {
+    ByteBuffer le = wav.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    if (le.remaining() < 12 || le.getInt(0) != 0x46464952 || le.getInt(8) != 0x45564157) {
+      throw new IOException("Expected WAV audio");
+    }
+    byte[] format = null;
+    int position = 12;
+    while (position + 8 <= le.limit()) {
+      int id = le.getInt(position);
+      int size = le.getInt(position + 4);
+      if (id == 0x20746d66) { // "fmt "
+        format = new byte[16];
+        ByteBuffer formatBytes = wav.duplicate();
+        formatBytes.position(position + 8);
+        formatBytes.get(format);
+      } else if (id == 0x61746164) { // "data"
+        if (format == null) {
+          break;
+        }
+        wav.position(position + 8);
+        wav.limit(Math.min(wav.limit(), position + 8 + size));
+        return format;
+      }
+      position += 8 + size + (size & 1);
+    }
+    throw new IOException("WAV audio without format or data");
+  }
+
+  static ByteBuffer wavHeader(byte[] format, long dataBytes) {
+    ByteBuffer header = ByteBuffer.allocate(WAV_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    header.put("RIFF".getBytes(StandardCharsets.US_ASCII)).putInt((int) (36 + dataBytes))
+        .put("WAVE".getBytes(StandardCharsets.US_ASCII))
+        .put("fmt ".getBytes(StandardCharsets.US_ASCII)).putInt(16).put(format)
+        .put("data".getBytes(StandardCharsets.US_ASCII)).putInt((int) dataBytes);
+    header.flip();
+    return header;
+  }
+
+  private static ByteString await(ApiFuture<ByteString> future)
+      throws IOException, InterruptedException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      throw new IOException("Failed to synthesize chunk", e.getCause());
+    }
+  }
+
+  private static void write(WritableByteChannel out, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      out.write(buffer);
+    }
+  }
+
+  public long getChunksWritten() {
+    return chunksWritten.get();
+  }
+
+  public long getCacheHits() {
+    return cacheHits.get();
+  }
+
+  public long getAudioBytes() {
+    return audioBytes.get();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("Wrote %d chunks (%d from cache), %d bytes of audio",
+        chunksWritten.get(), cacheHits.get(), audioBytes.get());
+  }
+}
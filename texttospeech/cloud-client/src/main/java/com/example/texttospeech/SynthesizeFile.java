@@ -28,9 +28,16 @@ import com.google.protobuf.ByteString;
 
 import java.io.FileOutputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
 import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
 import net.sourceforge.argparse4j.inf.ArgumentParserException;
 import net.sourceforge.argparse4j.inf.MutuallyExclusiveGroup;
@@ -133,6 +140,58 @@ public class SynthesizeFile {
   }
   // [END tts_synthesize_ssml_file]
 
+  // [START tts_synthesize_long_form_file]
+  /**
+   * Demonstrates synthesizing a document longer than a single request allows. The document is
+   * split at sentence boundaries, the pieces are synthesized concurrently, and their audio is
+   * joined in order into one file.
+   * @param file the text or ssml document to be synthesized.
+   * @param ssml whether the document is ssml.
+   * @param output the audio file to write; a .wav or .ogg extension selects that encoding,
+   *     anything else produces MP3. It is only created once every piece has been synthesized.
+   * @param cacheDir a directory in which synthesized pieces are kept for later runs, or null.
+   * @throws Exception on TextToSpeechClient Errors.
+   */
+  public static void synthesizeLongFormFile(String file, boolean ssml, String output,
+      String cacheDir) throws Exception {
+    String contents = new String(Files.readAllBytes(Paths.get(file)), StandardCharsets.UTF_8);
+    List<String> chunks = ssml
+        ? LongFormSynthesizer.splitSsml(contents, LongFormSynthesizer.MAX_CHUNK_BYTES)
+        : LongFormSynthesizer.splitText(contents, LongFormSynthesizer.MAX_CHUNK_BYTES);
+
+    VoiceSelectionParams voice = VoiceSelectionParams.newBuilder()
+        .setLanguageCode("en-US")
+        .setSsmlGender(SsmlVoiceGender.FEMALE)
+        .build();
+    AudioEncoding encoding = output.endsWith(".wav") ? AudioEncoding.LINEAR16
+        : output.endsWith(".ogg") ? AudioEncoding.OGG_OPUS
+        : AudioEncoding.MP3;
+    AudioConfig audioConfig = AudioConfig.newBuilder().setAudioEncoding(encoding).build();
+    Path cache = cacheDir == null ? null : Paths.get(cacheDir);
+
+    // Write next to the output and move it into place at the end, so a failed piece never
+    // leaves a truncated audio file behind.
+    Path target = Paths.get(output);
+    Path partial = target.resolveSibling(target.getFileName() + ".partial");
+    boolean done = false;
+    try (TextToSpeechClient textToSpeechClient = TextToSpeechClient.create();
+        FileChannel out = FileChannel.open(partial, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      LongFormSynthesizer synthesizer =
+          new LongFormSynthesizer(textToSpeechClient, voice, audioConfig, 8, cache);
+      synthesizer.synthesize(chunks, ssml, out);
+      System.out.println(synthesizer);
+      done = true;
+    } finally {
+      if (!done) {
+        Files.deleteIfExists(partial);
+      }
+    }
+    Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING);
+    System.out.printf("Audio content written to file \"%s\"\n", output);
+  }
+  // [END tts_synthesize_long_form_file]
+
   public static void main(String... args) throws Exception {
     ArgumentParser parser = ArgumentParsers.newFor("SynthesizeFile").build()
         .defaultHelp(true)
@@ -140,11 +199,21 @@ public class SynthesizeFile {
     MutuallyExclusiveGroup group = parser.addMutuallyExclusiveGroup().required(true);
     group.addArgument("--text").help("The text file from which to synthesize speech.");
     group.addArgument("--ssml").help("The ssml file from which to synthesize speech.");
+    parser.addArgument("--long-form").action(Arguments.storeTrue())
+        .help("Split the file into sentences and synthesize them concurrently.");
+    parser.addArgument("--output").setDefault("output.mp3")
+        .help("The audio file to write in long form mode (.mp3, .wav or .ogg).");
+    parser.addArgument("--cache")
+        .help("A directory caching synthesized sentences in long form mode.");
 
     try {
       Namespace namespace = parser.parseArgs(args);
 
-      if (namespace.get("text") != null) {
+      if (namespace.getBoolean("long_form")) {
+        boolean ssml = namespace.get("ssml") != null;
+        synthesizeLongFormFile(namespace.getString(ssml ? "ssml" : "text"), ssml,
+            namespace.getString("output"), namespace.getString("cache"));
+      } else if (namespace.get("text") != null) {
         synthesizeTextFile(namespace.getString("text"));
       } else {
         synthesizeSsmlFile(namespace.getString("ssml"));
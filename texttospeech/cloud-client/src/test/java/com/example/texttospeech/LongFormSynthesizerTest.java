@@ -0,0 +1,80 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.texttospeech;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for how {@link LongFormSynthesizer} splits documents; no API calls are made.
+ */
+@RunWith(JUnit4.class)
+public class LongFormSynthesizerTest {
+
+  @Test
+  public void splitSsml_keepsElementsWhole() {
+    String ssml = "<speak><p>First sentence. Second sentence.</p> Third one. Fourth.</speak>";
+
+    List<String> chunks = LongFormSynthesizer.splitSsml(ssml, 60);
+
+    assertThat(chunks).containsExactly(
+        "<speak><p>First sentence. Second sentence.</p></speak>",
+        "<speak> Third one. Fourth.</speak>").inOrder();
+  }
+
+  @Test
+  public void splitSsml_keepsSpeakAttributes() {
+    String ssml = "<speak version=\"1.0\" xml:lang=\"en-GB\">First one. Second one.</speak>";
+
+    List<String> chunks = LongFormSynthesizer.splitSsml(ssml, 60);
+
+    assertThat(chunks).containsExactly(
+        "<speak version=\"1.0\" xml:lang=\"en-GB\">First one.</speak>",
+        "<speak version=\"1.0\" xml:lang=\"en-GB\"> Second one.</speak>").inOrder();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void splitSsml_elementLargerThanLimit_fails() {
+    LongFormSynthesizer.splitSsml(
+        "<speak><p>A paragraph that is far too long for the limit.</p></speak>", 40);
+  }
+
+  @Test
+  public void splitText_longWordOfSurrogatePairs_keepsPairsTogether() {
+    // Each emoji is a surrogate pair of two chars and four UTF-8 bytes.
+    StringBuilder word = new StringBuilder();
+    for (int i = 0; i < 50; i++) {
+      word.append("\uD83D\uDE00");
+    }
+
+    List<String> chunks = LongFormSynthesizer.splitText(word.toString(), 30);
+
+    StringBuilder joined = new StringBuilder();
+    for (String chunk : chunks) {
+      assertThat(chunk.getBytes(StandardCharsets.UTF_8).length).isAtMost(30);
+      assertThat(Character.isLowSurrogate(chunk.charAt(0))).isFalse();
+      assertThat(Character.isHighSurrogate(chunk.charAt(chunk.length() - 1))).isFalse();
+      joined.append(chunk);
+    }
+    assertThat(joined.toString()).isEqualTo(word.toString());
+  }
+}
@@ -78,4 +78,17 @@ public class SynthesizeFileIT {
     String got = bout.toString();
     assertThat(got).contains("Audio content written to file \"output.mp3\"");
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testSynthesizeLongForm() throws Exception {
+    // Act
+    SynthesizeFile.synthesizeLongFormFile(TEXT_FILE, false, "output.wav", null);
+
+    // Assert
+    outputFile = new File("output.wav");
+    assertThat(outputFile.isFile()).isTrue();
+    String got = bout.toString();
+    assertThat(got).contains("Wrote 1 chunks");
+    assertThat(got).contains("Audio content written to file \"output.wav\"");
+  }
+}
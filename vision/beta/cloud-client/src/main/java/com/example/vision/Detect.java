@@ -65,9 +65,12 @@ import com.google.cloud.vision.v1p3beta1.Word;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.util.JsonFormat;
 
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -100,15 +103,19 @@ public class Detect {
           "\tmvn exec:java -DDetect -Dexec.args=\"<command> <path-to-image>\"\n"
               + "\tmvn exec:java -DDetect -Dexec.args=\"ocr <path-to-file> <path-to-destination>\""
               + "\n"
+              + "\tmvn exec:java -DDetect -Dexec.args=\"batch <dir-or-gcs-prefix> <output.jsonl>"
+              + " [features]\"\n"
               + "Commands:\n"
               + "\tfaces | labels | landmarks | logos | text | safe-search | properties"
               + "| web | web-entities | web-entities-include-geo | crop | ocr\n"
-              + "| object-localization| handwritten-ocr\n"
+              + "| object-localization| handwritten-ocr | batch\n"
               + "Path:\n\tA file path (ex: ./resources/wakeupcat.jpg) or a URI for a Cloud Storage "
               + "resource (gs://...)\n"
               + "Path to File:\n\tA path to the remote file on Cloud Storage (gs://...)\n"
               + "Path to Destination\n\tA path to the remote destination on Cloud Storage for the"
-              + " file to be saved. (gs://BUCKET_NAME/PREFIX/)\n");
+              + " file to be saved. (gs://BUCKET_NAME/PREFIX/)\n"
+              + "Features:\n\tA comma separated list of the commands above to run on every image"
+              + " in a batch (default: faces,labels,text)\n");
       return;
     }
     String command = args[0];
@@ -203,6 +210,36 @@ public class Detect {
       } else {
         detectHandwrittenOcr(path, out);
       }
+    } else if (command.equals("batch")) {
+      String outputPath = args.length > 2 ? args[2] : "annotations.jsonl";
+      String features = args.length > 3 ? args[3] : "faces,labels,text";
+      batchAnnotate(path, outputPath, features, out);
+    }
+  }
+
+  /**
+   * Annotates every image in a local directory or under a Cloud Storage prefix with several
+   * features, packing many images into each request and reusing one client for all of them.
+   *
+   * @param location A local directory or a Cloud Storage prefix (gs://BUCKET_NAME/PREFIX).
+   * @param outputPath The local file to write one JSON annotation result per line to.
+   * @param featureNames A comma separated list of features, such as "faces,labels,text".
+   * @param out A {@link PrintStream} to write a summary to.
+   * @throws Exception on errors while closing the client.
+   */
+  public static void batchAnnotate(String location, String outputPath, String featureNames,
+      PrintStream out) throws Exception {
+    List<String> sources = BatchAnnotator.listImages(location);
+    long start = System.nanoTime();
+    try (ImageAnnotatorClient client = ImageAnnotatorClient.create();
+        Writer writer = Files.newBufferedWriter(Paths.get(outputPath), StandardCharsets.UTF_8)) {
+      BatchAnnotator annotator =
+          new BatchAnnotator(client, BatchAnnotator.parseFeatures(featureNames), 8);
+      annotator.annotate(sources, writer);
+      double seconds = (System.nanoTime() - start) / 1e9;
+      out.printf("Annotated %d images in %d requests (%d errors) in %.1fs: %.1f images/s\n",
+          annotator.getImages(), annotator.getRequests(), annotator.getFailures(), seconds,
+          annotator.getImages() / seconds);
     }
   }
 
@@ -217,7 +254,7 @@ public class Detect {
   public static void detectFaces(String filePath, PrintStream out) throws Exception, IOException {
     List<AnnotateImageRequest> requests = new ArrayList<>();
 
-    ByteString imgBytes = ByteString.readFrom(new FileInputStream(filePath));
+    ByteString imgBytes = ByteString.copyFrom(Files.readAllBytes(Paths.get(filePath)));
 
     Image img = Image.newBuilder().setContent(imgBytes).build();
     Feature feat = Feature.newBuilder().setType(Type.FACE_DETECTION).build();
@@ -303,7 +340,7 @@ public class Detect {
   public static void detectLabels(String filePath, PrintStream out) throws Exception, IOException {
     List<AnnotateImageRequest> requests = new ArrayList<>();
 
-    ByteString imgBytes = ByteString.readFrom(new FileInputStream(filePath));
+    ByteString imgBytes = ByteString.copyFrom(Files.readAllBytes(Paths.get(filePath)));
 
     Image img = Image.newBuilder().setContent(imgBytes).build();
     Feature feat = Feature.newBuilder().setType(Type.LABEL_DETECTION).build();
@@ -379,7 +416,7 @@ public class Detect {
   public static void detectLandmarks(String filePath, PrintStream out) throws Exception,
       IOException {
     List<AnnotateImageRequest> requests = new ArrayList<>();
-    ByteString imgBytes = ByteString.readFrom(new FileInputStream(filePath));
+    ByteString imgBytes = ByteString.copyFrom(Files.readAllBytes(Paths.get(filePath)));
 
     Image img = Image.newBuilder().setContent(imgBytes).build();
     Feature feat = Feature.newBuilder().setType(Type.LANDMARK_DETECTION).build();
@@ -494,7 +531,7 @@ public class Detect {
   public static void detectLogos(String filePath, PrintStream out) throws Exception, IOException {
     List<AnnotateImageRequest> requests = new ArrayList<>();
 
-    ByteString imgBytes = ByteString.readFrom(new FileInputStream(filePath));
+    ByteString imgBytes = ByteString.copyFrom(Files.readAllBytes(Paths.get(filePath)));
 
     Image img = Image.newBuilder().setContent(imgBytes).build();
     Feature feat = Feature.newBuilder().setType(Type.LOGO_DETECTION).build();
@@ -569,7 +606,7 @@ public class Detect {
   public static void detectText(String filePath, PrintStream out) throws Exception, IOException {
     List<AnnotateImageRequest> requests = new ArrayList<>();
 
-    ByteString imgBytes = ByteString.readFrom(new FileInputStream(filePath));
+    ByteString imgBytes = ByteString.copyFrom(Files.readAllBytes(Paths.get(filePath)));
 
     Image img = Image.newBuilder().setContent(imgBytes).build();
     Feature feat = Feature.newBuilder().setType(Type.TEXT_DETECTION).build();
@@ -645,7 +682,7 @@ public class Detect {
       IOException {
     List<AnnotateImageRequest> requests = new ArrayList<>();
 
-    ByteString imgBytes = ByteString.readFrom(new FileInputStream(filePath));
+    ByteString imgBytes = ByteString.copyFrom(Files.readAllBytes(Paths.get(filePath)));
 
     Image img = Image.newBuilder().setContent(imgBytes).build();
     Feature feat = Feature.newBuilder().setType(Type.IMAGE_PROPERTIES).build();
@@ -734,7 +771,7 @@ public class Detect {
       IOException {
     List<AnnotateImageRequest> requests = new ArrayList<>();
 
-    ByteString imgBytes = ByteString.readFrom(new FileInputStream(filePath));
+    ByteString imgBytes = ByteString.copyFrom(Files.readAllBytes(Paths.get(filePath)));
 
     Image img = Image.newBuilder().setContent(imgBytes).build();
     Feature feat = Feature.newBuilder().setType(Type.SAFE_SEARCH_DETECTION).build();
@@ -824,7 +861,7 @@ public class Detect {
       IOException {
     List<AnnotateImageRequest> requests = new ArrayList<>();
 
-    ByteString imgBytes = ByteString.readFrom(new FileInputStream(filePath));
+    ByteString imgBytes = ByteString.copyFrom(Files.readAllBytes(Paths.get(filePath)));
 
     Image img = Image.newBuilder().setContent(imgBytes).build();
     Feature feat = Feature.newBuilder().setType(Type.WEB_DETECTION).build();
@@ -953,7 +990,7 @@ public class Detect {
     // Instantiates a client
     try (ImageAnnotatorClient client = ImageAnnotatorClient.create()) {
       // Read in the local image
-      ByteString contents = ByteString.readFrom(new FileInputStream(filePath));
+      ByteString contents = ByteString.copyFrom(Files.readAllBytes(Paths.get(filePath)));
 
       // Build the image
       Image image = Image.newBuilder().setContent(contents).build();
@@ -1027,7 +1064,7 @@ public class Detect {
     // Instantiates a client
     try (ImageAnnotatorClient client = ImageAnnotatorClient.create()) {
       // Read in the local image
-      ByteString contents = ByteString.readFrom(new FileInputStream(filePath));
+      ByteString contents = ByteString.copyFrom(Files.readAllBytes(Paths.get(filePath)));
 
       // Build the image
       Image image = Image.newBuilder().setContent(contents).build();
@@ -1126,7 +1163,7 @@ public class Detect {
       IOException {
     List<AnnotateImageRequest> requests = new ArrayList<>();
 
-    ByteString imgBytes = ByteString.readFrom(new FileInputStream(filePath));
+    ByteString imgBytes = ByteString.copyFrom(Files.readAllBytes(Paths.get(filePath)));
 
     Image img = Image.newBuilder().setContent(imgBytes).build();
     Feature feat = Feature.newBuilder().setType(Type.CROP_HINTS).build();
@@ -1204,7 +1241,7 @@ public class Detect {
       IOException {
     List<AnnotateImageRequest> requests = new ArrayList<>();
 
-    ByteString imgBytes = ByteString.readFrom(new FileInputStream(filePath));
+    ByteString imgBytes = ByteString.copyFrom(Files.readAllBytes(Paths.get(filePath)));
 
     Image img = Image.newBuilder().setContent(imgBytes).build();
     Feature feat = Feature.newBuilder().setType(Type.DOCUMENT_TEXT_DETECTION).build();
@@ -1451,7 +1488,7 @@ public class Detect {
       throws Exception, IOException {
     List<AnnotateImageRequest> requests = new ArrayList<>();
 
-    ByteString imgBytes = ByteString.readFrom(new FileInputStream(filePath));
+    ByteString imgBytes = ByteString.copyFrom(Files.readAllBytes(Paths.get(filePath)));
 
     Image img = Image.newBuilder().setContent(imgBytes).build();
     AnnotateImageRequest request =
@@ -1539,7 +1576,7 @@ public class Detect {
   public static void detectHandwrittenOcr(String filePath, PrintStream out) throws Exception {
     List<AnnotateImageRequest> requests = new ArrayList<>();
 
-    ByteString imgBytes = ByteString.readFrom(new FileInputStream(filePath));
+    ByteString imgBytes = ByteString.copyFrom(Files.readAllBytes(Paths.get(filePath)));
 
     Image img = Image.newBuilder().setContent(imgBytes).build();
     Feature feat = Feature.newBuilder().setType(Type.DOCUMENT_TEXT_DETECTION).build();
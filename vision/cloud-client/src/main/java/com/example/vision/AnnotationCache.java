@@ -0,0 +1,184 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.vision;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A local on-disk cache of annotation responses, keyed by a hash of the image content and the
+ * requested feature, so annotating an image that was seen before costs no API call.
+ *
+ * <p>Each entry is one file in the cache directory. The least recently used entries are evicted
+ * once the cache grows beyond its size limit; recency survives restarts because every hit updates
+ * the entry's modification time.
+ */
+public class AnnotationCache {
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final Path directory;
+  private final long maxBytes;
+  // Entry sizes in least recently used first order.
+  private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long totalBytes;
+  private long hits;
+  private long misses;
+  private long bytesSaved;
+
+  /**
+   * Opens the cache in {@code directory}, creating it if needed.
+   *
+   * @param maxBytes the total size of cached responses to keep.
+   */
+  public AnnotationCache(Path directory, long maxBytes) throws IOException {
+    this.directory = Files.createDirectories(directory);
+    this.maxBytes = maxBytes;
+    List<Path> files = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.json")) {
+      for (Path file : stream) {
+        files.add(file);
+      }
+    }
+    files.sort(Comparator.comparing(AnnotationCache::lastModified));
+    for (Path file : files) {
+      long size = Files.size(file);
+      entries.put(file.getFileName().toString(), size);
+      totalBytes += size;
+    }
+  }
+
+  /**
+   * Returns the cache key for {@code feature} requested on an image with content {@code image}.
+   */
+  public static String key(String feature, byte[] image) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(feature.getBytes(StandardCharsets.UTF_8));
+      digest.update((byte) 0);
+      byte[] hash = digest.digest(image);
+      StringBuilder key = new StringBuilder(hash.length * 2);
+      for (byte b : hash) {
+        key.append(HEX[(b >> 4) & 0xf]).append(HEX[b & 0xf]);
+      }
+      return key.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Returns the cached response for {@code key}, or {@code null} if there is none.
+   *
+   * @param imageBytes the size of the original image, counted as saved on a hit.
+   */
+  public synchronized byte[] get(String key, long imageBytes) throws IOException {
+    String name = key + ".json";
+    if (entries.get(name) == null) {
+      misses++;
+      return null;
+    }
+    Path file = directory.resolve(name);
+    byte[] value;
+    try {
+      value = Files.readAllBytes(file);
+      Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+    } catch (IOException e) {
+      // Removed behind our back; treat it as a miss.
+      totalBytes -= entries.remove(name);
+      misses++;
+      return null;
+    }
+    hits++;
+    bytesSaved += imageBytes;
+    return value;
+  }
+
+  /**
+   * Stores {@code value} under {@code key}, evicting least recently used entries as needed.
+   */
+  public synchronized void put(String key, byte[] value) throws IOException {
+    String name = key + ".json";
+    Path temp = Files.createTempFile(directory, key, ".tmp");
+    Files.write(temp, value);
+    Files.move(temp, directory.resolve(name),
+        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    Long previous = entries.put(name, (long) value.length);
+    totalBytes += value.length - (previous == null ? 0 : previous);
+
+    Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+    while (totalBytes > maxBytes && eldest.hasNext()) {
+      Map.Entry<String, Long> entry = eldest.next();
+      if (entry.getKey().equals(name)) {
+        continue;
+      }
+      Files.deleteIfExists(directory.resolve(entry.getKey()));
+      totalBytes -= entry.getValue();
+      eldest.remove();
+    }
+  }
+
+  /**
+   * Records that an image of {@code originalBytes} was sent to the API as {@code sentBytes}.
+   */
+  public synchronized void recordUpload(long originalBytes, long sentBytes) {
+    bytesSaved += originalBytes - sentBytes;
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  public synchronized long getBytesSaved() {
+    return bytesSaved;
+  }
+
+  public synchronized long getTotalBytes() {
+    return totalBytes;
+  }
+
+  private static FileTime lastModified(Path file) {
+    try {
+      return Files.getLastModifiedTime(file);
+    } catch (IOException e) {
+      return FileTime.fromMillis(0);
+    }
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("Saved %d API calls and %d bytes of upload (%d cache misses)",
+        hits, bytesSaved, misses);
+  }
+}
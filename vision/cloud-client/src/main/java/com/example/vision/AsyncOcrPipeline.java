@@ -0,0 +1,325 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.vision;
+
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.Storage.BlobListOption;
+import com.google.cloud.vision.v1.AnnotateFileResponse;
+import com.google.cloud.vision.v1.AnnotateImageResponse;
+import com.google.cloud.vision.v1.AsyncAnnotateFileRequest;
+import com.google.cloud.vision.v1.AsyncBatchAnnotateFilesRequest;
+import com.google.cloud.vision.v1.Feature;
+import com.google.cloud.vision.v1.GcsDestination;
+import com.google.cloud.vision.v1.GcsSource;
+import com.google.cloud.vision.v1.ImageAnnotatorClient;
+import com.google.cloud.vision.v1.InputConfig;
+import com.google.cloud.vision.v1.OutputConfig;
+import com.google.longrunning.Operation;
+import com.google.protobuf.util.JsonFormat;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs document text OCR over many PDF and TIFF files in Cloud Storage.
+ *
+ * <p>Up to {@code maxOperations} asynchronous file annotation operations run at once. Instead of
+ * each operation polling on its own, a single loop polls every pending operation on one shared
+ * exponential backoff schedule, which resets whenever an operation makes progress. Output shards
+ * are picked up as soon as they appear in Cloud Storage and parsed in parallel; each shard is read
+ * as a stream and its pages are handed to a {@link PageHandler} one at a time, so memory use is
+ * bounded by the shard size rather than the document size.
+ */
+public class AsyncOcrPipeline {
+
+  /**
+   * Receives the text of each page as soon as it has been parsed. Called concurrently.
+   */
+  public interface PageHandler {
+    void onPage(String source, int pageNumber, String text);
+  }
+
+  private static final Pattern GCS_PATH = Pattern.compile("gs://([^/]+)/?(.*)");
+  private static final long INITIAL_POLL_MILLIS = 1000;
+  private static final long MAX_POLL_MILLIS = 30000;
+  private static final double POLL_MULTIPLIER = 1.5;
+  // Smaller shards mean earlier and more evenly spread results, at the cost of more objects.
+  private static final int PAGES_PER_SHARD = 20;
+
+  private final ImageAnnotatorClient client;
+  private final Storage storage;
+  private final int maxOperations;
+  private final int parserThreads;
+  private final AtomicLong operationsFailed = new AtomicLong();
+  private final AtomicLong shardsParsed = new AtomicLong();
+  private final AtomicLong shardsFailed = new AtomicLong();
+  private final AtomicLong pagesEmitted = new AtomicLong();
+
+  /**
+   * One source document and the operation annotating it.
+   */
+  private static class Job {
+    final String source;
+    final String outputPrefix;
+    final Set<String> seenShards = new HashSet<>();
+    String operationName;
+
+    Job(String source, String outputPrefix) {
+      this.source = source;
+      this.outputPrefix = outputPrefix;
+    }
+  }
+
+  /**
+   * @param client the client used to start and poll every operation.
+   * @param storage the client used to list and read output shards.
+   * @param maxOperations the most annotation operations running at once.
+   * @param parserThreads the number of output shards parsed concurrently.
+   */
+  public AsyncOcrPipeline(ImageAnnotatorClient client, Storage storage, int maxOperations,
+      int parserThreads) {
+    this.client = client;
+    this.storage = storage;
+    this.maxOperations = maxOperations;
+    this.parserThreads = parserThreads;
+  }
+
+  /**
+   * Lists the PDF and TIFF files under a Cloud Storage prefix.
+   */
+  public static List<String> listDocuments(Storage storage, String gcsPrefix) {
+    Location location = Location.parse(gcsPrefix);
+    List<String> uris = new ArrayList<>();
+    for (Blob blob : storage.list(location.bucket, BlobListOption.prefix(location.prefix))
+        .iterateAll()) {
+      if (mimeType(blob.getName()) != null) {
+        uris.add("gs://" + blob.getBucket() + "/" + blob.getName());
+      }
+    }
+    return uris;
+  }
+
+  // [START vision_async_ocr_pipeline]
+  /**
+   * OCRs every source document, writing each document's output shards below
+   * {@code gcsDestinationPrefix}, and passes every page's text to {@code handler}.
+   *
+   * <p>A shard that cannot be read, or whose pages the handler fails on, does not stop the others;
+   * once every shard has been handled, the first such failure is thrown. A handler reports an
+   * {@link IOException} by wrapping it in an {@link UncheckedIOException}.
+   */
+  public void run(List<String> sources, String gcsDestinationPrefix, PageHandler handler)
+      throws InterruptedException, IOException {
+    String destination = gcsDestinationPrefix.endsWith("/")
+        ? gcsDestinationPrefix : gcsDestinationPrefix + "/";
+    Deque<Job> pending = new ArrayDeque<>();
+    for (int i = 0; i < sources.size(); i++) {
+      String source = sources.get(i);
+      String name = source.substring(source.lastIndexOf('/') + 1);
+      pending.add(new Job(source, destination + i + "-" + name + "/"));
+    }
+
+    ExecutorService parsers = Executors.newFixedThreadPool(parserThreads);
+    List<Job> running = new ArrayList<>();
+    List<Future<?>> parses = new ArrayList<>();
+    long pollMillis = INITIAL_POLL_MILLIS;
+    try {
+      while (!pending.isEmpty() || !running.isEmpty()) {
+        while (running.size() < maxOperations && !pending.isEmpty()) {
+          Job job = pending.poll();
+          try {
+            job.operationName = start(job);
+            running.add(job);
+          } catch (ExecutionException e) {
+            operationsFailed.incrementAndGet();
+            System.err.printf("Failed to start OCR of %s: %s\n", job.source, e.getCause());
+          }
+        }
+        if (running.isEmpty()) {
+          continue;
+        }
+
+        Thread.sleep(pollMillis);
+        boolean progress = false;
+        for (Iterator<Job> it = running.iterator(); it.hasNext(); ) {
+          Job job = it.next();
+          Operation operation = client.getOperationsClient().getOperation(job.operationName);
+          progress |= parseNewShards(job, handler, parsers, parses);
+          if (operation.getDone()) {
+            if (operation.hasError()) {
+              operationsFailed.incrementAndGet();
+              System.err.printf("OCR of %s failed: %s\n",
+                  job.source, operation.getError().getMessage());
+            }
+            // Shards written between the listing above and completion are picked up here.
+            parseNewShards(job, handler, parsers, parses);
+            it.remove();
+            progress = true;
+          }
+        }
+        // One backoff schedule is shared by every running operation.
+        pollMillis = progress
+            ? INITIAL_POLL_MILLIS
+            : Math.min(MAX_POLL_MILLIS, (long) (pollMillis * POLL_MULTIPLIER));
+      }
+      IOException firstFailure = null;
+      for (Future<?> parse : parses) {
+        try {
+          parse.get();
+        } catch (ExecutionException e) {
+          shardsFailed.incrementAndGet();
+          System.err.printf("Failed to parse output shard: %s\n", e.getCause());
+          if (firstFailure == null) {
+            firstFailure = asIoException(e.getCause());
+          }
+        }
+      }
+      if (firstFailure != null) {
+        throw firstFailure;
+      }
+    } finally {
+      parsers.shutdownNow();
+    }
+  }
+  // [END vision_async_ocr_pipeline]
+
+  private String start(Job job) throws ExecutionException, InterruptedException {
+    String mimeType = mimeType(job.source);
+    AsyncAnnotateFileRequest request = AsyncAnnotateFileRequest.newBuilder()
+        .addFeatures(Feature.newBuilder().setType(Feature.Type.DOCUMENT_TEXT_DETECTION))
+        .setInputConfig(InputConfig.newBuilder()
+            .setMimeType(mimeType)
+            .setGcsSource(GcsSource.newBuilder().setUri(job.source)))
+        .setOutputConfig(OutputConfig.newBuilder()
+            .setBatchSize(PAGES_PER_SHARD)
+            .setGcsDestination(GcsDestination.newBuilder().setUri(job.outputPrefix)))
+        .build();
+    // Start the operation without the client's own per-operation polling; the run loop polls
+    // every operation on one schedule.
+    Operation operation = client.asyncBatchAnnotateFilesCallable()
+        .futureCall(AsyncBatchAnnotateFilesRequest.newBuilder().addRequests(request).build())
+        .get();
+    return operation.getName();
+  }
+
+  /**
+   * Submits every output shard of {@code job} not seen before for parsing.
+   *
+   * @return whether any new shard was found.
+   */
+  private boolean parseNewShards(Job job, PageHandler handler, ExecutorService parsers,
+      List<Future<?>> parses) {
+    Location location = Location.parse(job.outputPrefix);
+    boolean found = false;
+    for (Blob blob : storage.list(location.bucket, BlobListOption.prefix(location.prefix))
+        .iterateAll()) {
+      if (blob.getName().endsWith(".json") && job.seenShards.add(blob.getName())) {
+        found = true;
+        parses.add(parsers.submit(() -> {
+          parseShard(job.source, blob, handler);
+          return null;
+        }));
+      }
+    }
+    return found;
+  }
+
+  private void parseShard(String source, Blob shard, PageHandler handler) throws IOException {
+    AnnotateFileResponse.Builder builder = AnnotateFileResponse.newBuilder();
+    try (Reader reader = Channels.newReader(shard.reader(), "UTF-8")) {
+      JsonFormat.parser().ignoringUnknownFields().merge(reader, builder);
+    }
+    shardsParsed.incrementAndGet();
+    for (AnnotateImageResponse page : builder.getResponsesList()) {
+      handler.onPage(source, page.getContext().getPageNumber(),
+          page.getFullTextAnnotation().getText());
+      pagesEmitted.incrementAndGet();
+    }
+  }
+
+  private static IOException asIoException(Throwable t) {
+    if (t instanceof IOException) {
+      return (IOException) t;
+    }
+    if (t instanceof UncheckedIOException) {
+      return ((UncheckedIOException) t).getCause();
+    }
+    return new IOException(t);
+  }
+
+  private static String mimeType(String name) {
+    String lower = name.toLowerCase(Locale.ROOT);
+    if (lower.endsWith(".pdf")) {
+      return "application/pdf";
+    }
+    if (lower.endsWith(".tif") || lower.endsWith(".tiff")) {
+      return "image/tiff";
+    }
+    return null;
+  }
+
+  public long getOperationsFailed() {
+    return operationsFailed.get();
+  }
+
+  public long getShardsParsed() {
+    return shardsParsed.get();
+  }
+
+  public long getShardsFailed() {
+    return shardsFailed.get();
+  }
+
+  public long getPagesEmitted() {
+    return pagesEmitted.get();
+  }
+
+  private static class Location {
+    final String bucket;
+    final String prefix;
+
+    private Location(String bucket, String prefix) {
+      this.bucket = bucket;
+      this.prefix = prefix;
+    }
+
+    static Location parse(String gcsPath) {
+      Matcher matcher = GCS_PATH.matcher(gcsPath);
+      if (!matcher.matches()) {
+        throw new IllegalArgumentException("Not a Cloud Storage path: " + gcsPath);
+      }
+      return new Location(matcher.group(1), matcher.group(2));
+    }
+  }
+}
@@ -0,0 +1,418 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.vision;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.Storage.BlobListOption;
+import com.google.cloud.storage.StorageOptions;
+import com.google.cloud.vision.v1.AnnotateImageRequest;
+import com.google.cloud.vision.v1.AnnotateImageResponse;
+import com.google.cloud.vision.v1.BatchAnnotateImagesRequest;
+import com.google.cloud.vision.v1.BatchAnnotateImagesResponse;
+import com.google.cloud.vision.v1.Feature;
+import com.google.cloud.vision.v1.Feature.Type;
+import com.google.cloud.vision.v1.Image;
+import com.google.cloud.vision.v1.ImageAnnotatorClient;
+import com.google.cloud.vision.v1.ImageSource;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.util.JsonFormat;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Annotates many images with several features at once, sharing one {@link ImageAnnotatorClient}.
+ *
+ * <p>Images are packed into {@code batchAnnotateImages} requests of up to
+ * {@link #MAX_IMAGES_PER_REQUEST} images, each asking for every requested feature, so annotating
+ * faces, labels and text costs one round trip per batch instead of one per image and feature.
+ * A bounded number of requests is kept in flight, and each response is written as a line of JSON
+ * as soon as it arrives.
+ *
+ * <p>Local images are downscaled to the largest resolution any requested feature makes use of
+ * before upload; their results then carry a {@code scale} field, the factor from original to
+ * uploaded pixel coordinates. When an {@link AnnotationCache} is given, results for local images
+ * are also cached by image content, so repeated images are written without an API call.
+ */
+public class BatchAnnotator {
+
+  /** The most images the API accepts in a single batchAnnotateImages call. */
+  public static final int MAX_IMAGES_PER_REQUEST = 16;
+  // Stay below the API's request size limit when inlining local image bytes.
+  private static final long MAX_REQUEST_BYTES = 8L * 1024 * 1024;
+  private static final Pattern GCS_PATH = Pattern.compile("gs://([^/]+)/?(.*)");
+  private static final String[] IMAGE_EXTENSIONS =
+      {".jpg", ".jpeg", ".png", ".gif", ".bmp", ".webp", ".ico", ".tif", ".tiff"};
+
+  private final ImageAnnotatorClient client;
+  private final List<Feature> features;
+  private final String featureKey;
+  private final int maxDimension;
+  private final AnnotationCache cache;
+  private final Semaphore inFlight;
+  private final int maxInFlight;
+  private final JsonFormat.Printer printer = JsonFormat.printer().omittingInsignificantWhitespace();
+  private final AtomicLong images = new AtomicLong();
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+  private final AtomicReference<IOException> writeFailure = new AtomicReference<>();
+
+  /**
+   * @param client the client used for every request; the caller remains responsible for it.
+   * @param features the features requested for every image.
+   * @param maxInFlight the most batch requests awaiting a response at any time.
+   */
+  public BatchAnnotator(ImageAnnotatorClient client, List<Feature> features, int maxInFlight) {
+    this(client, features, maxInFlight, null);
+  }
+
+  /**
+   * @param client the client used for every request; the caller remains responsible for it.
+   * @param features the features requested for every image.
+   * @param maxInFlight the most batch requests awaiting a response at any time.
+   * @param cache the cache of results for local images, or {@code null}.
+   */
+  public BatchAnnotator(ImageAnnotatorClient client, List<Feature> features, int maxInFlight,
+      AnnotationCache cache) {
+    this.client = client;
+    this.features = features;
+    this.maxInFlight = maxInFlight;
+    this.inFlight = new Semaphore(maxInFlight);
+    this.cache = cache;
+    StringBuilder key = new StringBuilder();
+    int dimension = 0;
+    for (Feature feature : features) {
+      key.append(feature.getType()).append(':').append(feature.getMaxResults()).append(',');
+      dimension = Math.max(dimension, usefulDimension(feature.getType()));
+    }
+    this.featureKey = key.toString();
+    this.maxDimension = dimension;
+  }
+
+  /**
+   * Returns the longest image side beyond which {@code type} gains little accuracy.
+   */
+  private static int usefulDimension(Type type) {
+    switch (type) {
+      case FACE_DETECTION:
+      case CROP_HINTS:
+        return 1600;
+      case TEXT_DETECTION:
+      case DOCUMENT_TEXT_DETECTION:
+        return 1024;
+      default:
+        return 640;
+    }
+  }
+
+  /**
+   * Returns the features named by the commands accepted by {@link Detect}, for example
+   * {@code faces,labels,text}.
+   */
+  public static List<Feature> parseFeatures(String names) {
+    List<Feature> features = new ArrayList<>();
+    for (String name : names.split(",")) {
+      features.add(Feature.newBuilder().setType(featureType(name.trim())).build());
+    }
+    return features;
+  }
+
+  private static Type featureType(String name) {
+    switch (name) {
+      case "faces":
+        return Type.FACE_DETECTION;
+      case "labels":
+        return Type.LABEL_DETECTION;
+      case "landmarks":
+        return Type.LANDMARK_DETECTION;
+      case "logos":
+        return Type.LOGO_DETECTION;
+      case "text":
+        return Type.TEXT_DETECTION;
+      case "fulltext":
+        return Type.DOCUMENT_TEXT_DETECTION;
+      case "safe-search":
+        return Type.SAFE_SEARCH_DETECTION;
+      case "properties":
+        return Type.IMAGE_PROPERTIES;
+      case "web":
+        return Type.WEB_DETECTION;
+      case "crop":
+        return Type.CROP_HINTS;
+      default:
+        throw new IllegalArgumentException("Unknown feature: " + name);
+    }
+  }
+
+  /**
+   * Lists the images under a local directory, or under a Cloud Storage prefix
+   * ({@code gs://bucket/prefix}).
+   */
+  public static List<String> listImages(String location) throws IOException {
+    Matcher matcher = GCS_PATH.matcher(location);
+    if (matcher.matches()) {
+      Storage storage = StorageOptions.getDefaultInstance().getService();
+      List<String> uris = new ArrayList<>();
+      for (Blob blob : storage.list(matcher.group(1), BlobListOption.prefix(matcher.group(2)))
+          .iterateAll()) {
+        if (isImage(blob.getName())) {
+          uris.add("gs://" + blob.getBucket() + "/" + blob.getName());
+        }
+      }
+      return uris;
+    }
+    try (Stream<Path> paths = Files.walk(Paths.get(location))) {
+      return paths
+          .filter(Files::isRegularFile)
+          .map(Path::toString)
+          .filter(BatchAnnotator::isImage)
+          .sorted()
+          .collect(Collectors.toList());
+    }
+  }
+
+  private static boolean isImage(String name) {
+    String lower = name.toLowerCase(Locale.ROOT);
+    for (String extension : IMAGE_EXTENSIONS) {
+      if (lower.endsWith(extension)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // [START vision_batch_annotate]
+  /**
+   * Annotates every image and writes one JSON object per line to {@code out}, holding the image
+   * path and either its {@code response} or an {@code error}.
+   *
+   * @param sources local file paths or {@code gs://} URIs.
+   */
+  public void annotate(List<String> sources, Writer out)
+      throws IOException, InterruptedException {
+    List<Pending> batchSources = new ArrayList<>();
+    BatchAnnotateImagesRequest.Builder batch = BatchAnnotateImagesRequest.newBuilder();
+    long batchBytes = 0;
+    try {
+      for (String source : sources) {
+        Pending pending = new Pending(source);
+        Image image;
+        try {
+          image = prepare(pending, out);
+        } catch (IOException e) {
+          writeError(out, source, e.toString());
+          continue;
+        }
+        if (image == null) {
+          continue;
+        }
+        long imageBytes = image.getSerializedSize();
+        boolean full = batchSources.size() == MAX_IMAGES_PER_REQUEST
+            || (!batchSources.isEmpty() && batchBytes + imageBytes > MAX_REQUEST_BYTES);
+        if (full) {
+          send(batch.build(), batchSources, out);
+          batchSources = new ArrayList<>();
+          batch = BatchAnnotateImagesRequest.newBuilder();
+          batchBytes = 0;
+        }
+        batch.addRequests(
+            AnnotateImageRequest.newBuilder().setImage(image).addAllFeatures(features));
+        batchSources.add(pending);
+        batchBytes += imageBytes;
+      }
+      if (!batchSources.isEmpty()) {
+        send(batch.build(), batchSources, out);
+      }
+    } finally {
+      // Wait for every outstanding response to be written, even if preparing a batch failed.
+      inFlight.acquire(maxInFlight);
+      inFlight.release(maxInFlight);
+    }
+    IOException failure = writeFailure.getAndSet(null);
+    if (failure != null) {
+      throw failure;
+    }
+    out.flush();
+  }
+
+  private void send(BatchAnnotateImagesRequest request, List<Pending> sources, Writer out)
+      throws InterruptedException {
+    inFlight.acquire();
+    requests.incrementAndGet();
+    ApiFuture<BatchAnnotateImagesResponse> future;
+    try {
+      future = client.batchAnnotateImagesCallable().futureCall(request);
+    } catch (RuntimeException e) {
+      inFlight.release();
+      throw e;
+    }
+    ApiFutures.addCallback(future, new ApiFutureCallback<BatchAnnotateImagesResponse>() {
+      @Override
+      public void onSuccess(BatchAnnotateImagesResponse response) {
+        try {
+          for (int i = 0; i < sources.size(); i++) {
+            writeResult(out, sources.get(i), response.getResponses(i));
+          }
+        } finally {
+          inFlight.release();
+        }
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        try {
+          for (Pending source : sources) {
+            writeError(out, source.source, t.toString());
+          }
+        } finally {
+          inFlight.release();
+        }
+      }
+    }, MoreExecutors.directExecutor());
+  }
+  // [END vision_batch_annotate]
+
+  /**
+   * An image waiting for its response, with what is needed to cache that response.
+   */
+  private static class Pending {
+    final String source;
+    String cacheKey;
+    double scale = 1.0;
+
+    Pending(String source) {
+      this.source = source;
+    }
+  }
+
+  /**
+   * Returns the image to send for {@code pending}, or {@code null} if its result was written from
+   * the cache.
+   */
+  private Image prepare(Pending pending, Writer out) throws IOException {
+    if (pending.source.startsWith("gs://")) {
+      // Let the API read images from Cloud Storage rather than downloading them here.
+      return Image.newBuilder()
+          .setSource(ImageSource.newBuilder().setGcsImageUri(pending.source))
+          .build();
+    }
+    byte[] original = Files.readAllBytes(Paths.get(pending.source));
+    if (cache != null) {
+      pending.cacheKey = AnnotationCache.key(featureKey, original);
+      byte[] cached = cache.get(pending.cacheKey, original.length);
+      if (cached != null) {
+        images.incrementAndGet();
+        writeLine(out, "{\"source\":" + quote(pending.source) + ","
+            + new String(cached, StandardCharsets.UTF_8) + "}");
+        return null;
+      }
+    }
+    ImageDownscaler.Result scaled = ImageDownscaler.downscale(original, maxDimension);
+    pending.scale = scaled.scale;
+    if (cache != null) {
+      cache.recordUpload(original.length, scaled.bytes.length);
+    }
+    return Image.newBuilder().setContent(ByteString.copyFrom(scaled.bytes)).build();
+  }
+
+  private void writeResult(Writer out, Pending pending, AnnotateImageResponse response) {
+    images.incrementAndGet();
+    if (response.hasError()) {
+      failures.incrementAndGet();
+    }
+    String result;
+    try {
+      result = (pending.scale == 1.0 ? "" : "\"scale\":" + pending.scale + ",")
+          + "\"response\":" + printer.print(response);
+    } catch (InvalidProtocolBufferException e) {
+      writeError(out, pending.source, e.toString());
+      return;
+    }
+    writeLine(out, "{\"source\":" + quote(pending.source) + "," + result + "}");
+    if (cache != null && pending.cacheKey != null && !response.hasError()) {
+      try {
+        cache.put(pending.cacheKey, result.getBytes(StandardCharsets.UTF_8));
+      } catch (IOException e) {
+        System.err.println("Failed to cache result for " + pending.source + ": " + e);
+      }
+    }
+  }
+
+  private void writeError(Writer out, String source, String message) {
+    images.incrementAndGet();
+    failures.incrementAndGet();
+    writeLine(out, "{\"source\":" + quote(source) + ",\"error\":" + quote(message) + "}");
+  }
+
+  private void writeLine(Writer out, String line) {
+    // Callbacks run on the client's threads, so lines from different batches must not interleave.
+    synchronized (out) {
+      try {
+        out.write(line);
+        out.write('\n');
+      } catch (IOException e) {
+        // Throwing here would be lost on the client's thread; annotate() rethrows it instead.
+        writeFailure.compareAndSet(null, e);
+      }
+    }
+  }
+
+  static String quote(String value) {
+    StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+    for (char c : value.toCharArray()) {
+      if (c == '"' || c == '\\') {
+        quoted.append('\\').append(c);
+      } else if (c < 0x20) {
+        quoted.append(String.format("\\u%04x", (int) c));
+      } else {
+        quoted.append(c);
+      }
+    }
+    return quoted.append('"').toString();
+  }
+
+  public long getImages() {
+    return images.get();
+  }
+
+  public long getRequests() {
+    return requests.get();
+  }
+
+  public long getFailures() {
+    return failures.get();
+  }
+}
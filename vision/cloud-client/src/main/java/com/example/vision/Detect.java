@@ -65,9 +65,13 @@ import com.google.cloud.vision.v1.Word;
 import com.google.protobuf.ByteString;
 
 import com.google.protobuf.util.JsonFormat;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -100,14 +104,23 @@ public class Detect {
           "\tmvn exec:java -DDetect -Dexec.args=\"<command> <path-to-image>\"\n"
               + "\tmvn exec:java -DDetect -Dexec.args=\"ocr <path-to-file> <path-to-destination>\""
               + "\n"
+              + "\tmvn exec:java -DDetect -Dexec.args=\"batch <dir-or-gcs-prefix> <output.jsonl>"
+              + " [features] [cache-dir]\"\n"
+              + "\tmvn exec:java -DDetect -Dexec.args=\"ocr-batch <gcs-prefix>"
+              + " <path-to-destination> <output.jsonl>\"\n"
               + "Commands:\n"
               + "\tfaces | labels | landmarks | logos | text | safe-search | properties"
-              + "| web | web-entities | web-entities-include-geo | crop | ocr \n"
+              + "| web | web-entities | web-entities-include-geo | crop | ocr | batch"
+              + " | ocr-batch \n"
               + "Path:\n\tA file path (ex: ./resources/wakeupcat.jpg) or a URI for a Cloud Storage "
               + "resource (gs://...)\n"
               + "Path to File:\n\tA path to the remote file on Cloud Storage (gs://...)\n"
               + "Path to Destination\n\tA path to the remote destination on Cloud Storage for the"
-              + " file to be saved. (gs://BUCKET_NAME/PREFIX/)\n");
+              + " file to be saved. (gs://BUCKET_NAME/PREFIX/)\n"
+              + "Features:\n\tA comma separated list of the commands above to run on every image"
+              + " in a batch (default: faces,labels,text)\n"
+              + "Cache Dir:\n\tA local directory caching batch results by image content"
+              + " (default: a directory under java.io.tmpdir)\n");
       return;
     }
     String command = args[0];
@@ -190,6 +203,83 @@ public class Detect {
     } else if (command.equals("ocr")) {
       String destPath = args.length > 2 ? args[2] : "";
       detectDocumentsGcs(path, destPath);
+    } else if (command.equals("batch")) {
+      String outputPath = args.length > 2 ? args[2] : "annotations.jsonl";
+      String features = args.length > 3 ? args[3] : "faces,labels,text";
+      String cacheDir = args.length > 4
+          ? args[4] : Paths.get(System.getProperty("java.io.tmpdir"), "vision-cache").toString();
+      batchAnnotate(path, outputPath, features, cacheDir, out);
+    } else if (command.equals("ocr-batch")) {
+      String destPath = args.length > 2 ? args[2] : "";
+      String outputPath = args.length > 3 ? args[3] : "pages.jsonl";
+      detectDocumentsGcsBatch(path, destPath, outputPath, out);
+    }
+  }
+
+  /**
+   * OCRs every PDF and TIFF file under a Cloud Storage prefix with many asynchronous operations
+   * running at once, writing the text of each page as soon as its output shard is available.
+   *
+   * @param gcsSourcePrefix The Cloud Storage prefix holding the documents (gs://BUCKET/PREFIX).
+   * @param gcsDestinationPath The Cloud Storage prefix the output shards are written below.
+   * @param outputPath The local file to write one JSON object per page to.
+   * @param out A {@link PrintStream} to write a summary to.
+   * @throws Exception on errors while closing the client.
+   */
+  public static void detectDocumentsGcsBatch(String gcsSourcePrefix, String gcsDestinationPath,
+      String outputPath, PrintStream out) throws Exception {
+    Storage storage = StorageOptions.getDefaultInstance().getService();
+    List<String> sources = AsyncOcrPipeline.listDocuments(storage, gcsSourcePrefix);
+    long start = System.nanoTime();
+    try (ImageAnnotatorClient client = ImageAnnotatorClient.create();
+        Writer writer = Files.newBufferedWriter(Paths.get(outputPath), StandardCharsets.UTF_8)) {
+      AsyncOcrPipeline pipeline = new AsyncOcrPipeline(client, storage, 16, 8);
+      pipeline.run(sources, gcsDestinationPath, (source, pageNumber, text) -> {
+        String line = String.format("{\"source\":%s,\"page\":%d,\"text\":%s}\n",
+            BatchAnnotator.quote(source), pageNumber, BatchAnnotator.quote(text));
+        // Pages arrive concurrently from several parser threads.
+        synchronized (writer) {
+          try {
+            writer.write(line);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        }
+      });
+      double seconds = (System.nanoTime() - start) / 1e9;
+      out.printf(
+          "OCRed %d documents (%d failed): %d pages from %d shards (%d failed) in %.1fs\n",
+          sources.size(), pipeline.getOperationsFailed(), pipeline.getPagesEmitted(),
+          pipeline.getShardsParsed(), pipeline.getShardsFailed(), seconds);
+    }
+  }
+
+  /**
+   * Annotates every image in a local directory or under a Cloud Storage prefix with several
+   * features, packing many images into each request and reusing one client for all of them.
+   *
+   * @param location A local directory or a Cloud Storage prefix (gs://BUCKET_NAME/PREFIX).
+   * @param outputPath The local file to write one JSON annotation result per line to.
+   * @param featureNames A comma separated list of features, such as "faces,labels,text".
+   * @param cacheDir A local directory caching results by image content.
+   * @param out A {@link PrintStream} to write a summary to.
+   * @throws Exception on errors while closing the client.
+   */
+  public static void batchAnnotate(String location, String outputPath, String featureNames,
+      String cacheDir, PrintStream out) throws Exception {
+    List<String> sources = BatchAnnotator.listImages(location);
+    long start = System.nanoTime();
+    try (ImageAnnotatorClient client = ImageAnnotatorClient.create();
+        Writer writer = Files.newBufferedWriter(Paths.get(outputPath), StandardCharsets.UTF_8)) {
+      AnnotationCache cache = new AnnotationCache(Paths.get(cacheDir), 256L * 1024 * 1024);
+      BatchAnnotator annotator =
+          new BatchAnnotator(client, BatchAnnotator.parseFeatures(featureNames), 8, cache);
+      annotator.annotate(sources, writer);
+      double seconds = (System.nanoTime() - start) / 1e9;
+      out.printf("Annotated %d images in %d requests (%d errors) in %.1fs: %.1f images/s\n",
+          annotator.getImages(), annotator.getRequests(), annotator.getFailures(), seconds,
+          annotator.getImages() / seconds);
+      out.println(cache);
     }
   }
 
@@ -204,7 +294,7 @@ public class Detect {
   public static void detectFaces(String filePath, PrintStream out) throws Exception, IOException {
     List<AnnotateImageRequest> requests = new ArrayList<>();
 
-    ByteString imgBytes = ByteString.readFrom(new FileInputStream(filePath));
+    ByteString imgBytes = ByteString.copyFrom(Files.readAllBytes(Paths.get(filePath)));
 
     Image img = Image.newBuilder().setContent(imgBytes).build();
     Feature feat = Feature.newBuilder().setType(Type.FACE_DETECTION).build();
@@ -290,7 +380,7 @@ public class Detect {
   public static void detectLabels(String filePath, PrintStream out) throws Exception, IOException {
     List<AnnotateImageRequest> requests = new ArrayList<>();
 
-    ByteString imgBytes = ByteString.readFrom(new FileInputStream(filePath));
+    ByteString imgBytes = ByteString.copyFrom(Files.readAllBytes(Paths.get(filePath)));
 
     Image img = Image.newBuilder().setContent(imgBytes).build();
     Feature feat = Feature.newBuilder().setType(Type.LABEL_DETECTION).build();
@@ -366,7 +456,7 @@ public class Detect {
   public static void detectLandmarks(String filePath, PrintStream out) throws Exception,
       IOException {
     List<AnnotateImageRequest> requests = new ArrayList<>();
-    ByteString imgBytes = ByteString.readFrom(new FileInputStream(filePath));
+    ByteString imgBytes = ByteString.copyFrom(Files.readAllBytes(Paths.get(filePath)));
 
     Image img = Image.newBuilder().setContent(imgBytes).build();
     Feature feat = Feature.newBuilder().setType(Type.LANDMARK_DETECTION).build();
@@ -481,7 +571,7 @@ public class Detect {
   public static void detectLogos(String filePath, PrintStream out) throws Exception, IOException {
     List<AnnotateImageRequest> requests = new ArrayList<>();
 
-    ByteString imgBytes = ByteString.readFrom(new FileInputStream(filePath));
+    ByteString imgBytes = ByteString.copyFrom(Files.readAllBytes(Paths.get(filePath)));
 
     Image img = Image.newBuilder().setContent(imgBytes).build();
     Feature feat = Feature.newBuilder().setType(Type.LOGO_DETECTION).build();
@@ -556,7 +646,7 @@ public class Detect {
   public static void detectText(String filePath, PrintStream out) throws Exception, IOException {
     List<AnnotateImageRequest> requests = new ArrayList<>();
 
-    ByteString imgBytes = ByteString.readFrom(new FileInputStream(filePath));
+    ByteString imgBytes = ByteString.copyFrom(Files.readAllBytes(Paths.get(filePath)));
 
     Image img = Image.newBuilder().setContent(imgBytes).build();
     Feature feat = Feature.newBuilder().setType(Type.TEXT_DETECTION).build();
@@ -632,7 +722,7 @@ public class Detect {
       IOException {
     List<AnnotateImageRequest> requests = new ArrayList<>();
 
-    ByteString imgBytes = ByteString.readFrom(new FileInputStream(filePath));
+    ByteString imgBytes = ByteString.copyFrom(Files.readAllBytes(Paths.get(filePath)));
 
     Image img = Image.newBuilder().setContent(imgBytes).build();
     Feature feat = Feature.newBuilder().setType(Type.IMAGE_PROPERTIES).build();
@@ -721,7 +811,7 @@ public class Detect {
       IOException {
     List<AnnotateImageRequest> requests = new ArrayList<>();
 
-    ByteString imgBytes = ByteString.readFrom(new FileInputStream(filePath));
+    ByteString imgBytes = ByteString.copyFrom(Files.readAllBytes(Paths.get(filePath)));
 
     Image img = Image.newBuilder().setContent(imgBytes).build();
     Feature feat = Feature.newBuilder().setType(Type.SAFE_SEARCH_DETECTION).build();
@@ -811,7 +901,7 @@ public class Detect {
       IOException {
     List<AnnotateImageRequest> requests = new ArrayList<>();
 
-    ByteString imgBytes = ByteString.readFrom(new FileInputStream(filePath));
+    ByteString imgBytes = ByteString.copyFrom(Files.readAllBytes(Paths.get(filePath)));
 
     Image img = Image.newBuilder().setContent(imgBytes).build();
     Feature feat = Feature.newBuilder().setType(Type.WEB_DETECTION).build();
@@ -940,7 +1030,7 @@ public class Detect {
     // Instantiates a client
     try (ImageAnnotatorClient client = ImageAnnotatorClient.create()) {
       // Read in the local image
-      ByteString contents = ByteString.readFrom(new FileInputStream(filePath));
+      ByteString contents = ByteString.copyFrom(Files.readAllBytes(Paths.get(filePath)));
 
       // Build the image
       Image image = Image.newBuilder().setContent(contents).build();
@@ -1014,7 +1104,7 @@ public class Detect {
     // Instantiates a client
     try (ImageAnnotatorClient client = ImageAnnotatorClient.create()) {
       // Read in the local image
-      ByteString contents = ByteString.readFrom(new FileInputStream(filePath));
+      ByteString contents = ByteString.copyFrom(Files.readAllBytes(Paths.get(filePath)));
 
       // Build the image
       Image image = Image.newBuilder().setContent(contents).build();
@@ -1113,7 +1203,7 @@ public class Detect {
       IOException {
     List<AnnotateImageRequest> requests = new ArrayList<>();
 
-    ByteString imgBytes = ByteString.readFrom(new FileInputStream(filePath));
+    ByteString imgBytes = ByteString.copyFrom(Files.readAllBytes(Paths.get(filePath)));
 
     Image img = Image.newBuilder().setContent(imgBytes).build();
     Feature feat = Feature.newBuilder().setType(Type.CROP_HINTS).build();
@@ -1191,7 +1281,7 @@ public class Detect {
       IOException {
     List<AnnotateImageRequest> requests = new ArrayList<>();
 
-    ByteString imgBytes = ByteString.readFrom(new FileInputStream(filePath));
+    ByteString imgBytes = ByteString.copyFrom(Files.readAllBytes(Paths.get(filePath)));
 
     Image img = Image.newBuilder().setContent(imgBytes).build();
     Feature feat = Feature.newBuilder().setType(Type.DOCUMENT_TEXT_DETECTION).build();
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.vision;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Shrinks images to the resolution a feature actually uses before they are uploaded.
+ *
+ * <p>The Vision API gains little from pixels beyond its recommended sizes, for example 640x480
+ * for labels, but large photos still cost upload time and request size.
+ */
+public class ImageDownscaler {
+
+  private static final float JPEG_QUALITY = 0.85f;
+  private static final byte[] EXIF_HEADER = {'E', 'x', 'i', 'f', 0, 0};
+
+  /**
+   * The bytes to send and the factor by which the image was scaled.
+   */
+  public static class Result {
+    public final byte[] bytes;
+    public final double scale;
+
+    Result(byte[] bytes, double scale) {
+      this.bytes = bytes;
+      this.scale = scale;
+    }
+  }
+
+  private ImageDownscaler() {}
+
+  /**
+   * Scales {@code image} so its longest side is at most {@code maxDimension} and re-encodes it as
+   * JPEG, keeping the EXIF segment of a JPEG original so its orientation still applies. The
+   * original is returned unchanged when it is already small enough, when it cannot be decoded
+   * (for example a CMYK JPEG), or when re-encoding would not make it smaller.
+   */
+  public static Result downscale(byte[] image, int maxDimension) throws IOException {
+    Result unchanged = new Result(image, 1.0);
+    BufferedImage original;
+    try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(image))) {
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+      if (!readers.hasNext()) {
+        return unchanged;
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(in, true, true);
+        // The header alone tells whether scaling is needed, so small images are never decoded.
+        if (Math.max(reader.getWidth(0), reader.getHeight(0)) <= maxDimension) {
+          return unchanged;
+        }
+        original = reader.read(0);
+      } finally {
+        reader.dispose();
+      }
+    } catch (IOException e) {
+      return unchanged;
+    }
+    double scale = (double) maxDimension / Math.max(original.getWidth(), original.getHeight());
+    int width = Math.max(1, (int) Math.round(original.getWidth() * scale));
+    int height = Math.max(1, (int) Math.round(original.getHeight() * scale));
+
+    BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    Graphics2D gfx = scaled.createGraphics();
+    try {
+      gfx.setRenderingHint(
+          RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      // JPEG has no alpha channel, so composite transparent images onto white.
+      gfx.setColor(Color.WHITE);
+      gfx.fillRect(0, 0, width, height);
+      gfx.drawImage(original, 0, 0, width, height, null);
+    } finally {
+      gfx.dispose();
+    }
+
+    byte[] encoded = withExif(encodeJpeg(scaled), exifSegment(image));
+    if (encoded.length >= image.length) {
+      return unchanged;
+    }
+    return new Result(encoded, (double) width / original.getWidth());
+  }
+
+  private static byte[] encodeJpeg(BufferedImage image) throws IOException {
+    Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+    ImageWriter writer = writers.next();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ImageOutputStream out = ImageIO.createImageOutputStream(bytes)) {
+      writer.setOutput(out);
+      ImageWriteParam param = writer.getDefaultWriteParam();
+      param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+      param.setCompressionQuality(JPEG_QUALITY);
+      writer.write(null, new IIOImage(image, null, null), param);
+    } finally {
+      writer.dispose();
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Returns the EXIF (APP1) segment of a JPEG, marker included, or {@code null} if it has none.
+   */
+  static byte[] exifSegment(byte[] jpeg) {
+    if (jpeg.length < 4 || (jpeg[0] & 0xFF) != 0xFF || (jpeg[1] & 0xFF) != 0xD8) {
+      return null;
+    }
+    int offset = 2;
+    // Metadata segments all come before the start of scan (SOS) marker.
+    while (offset + 4 <= jpeg.length && (jpeg[offset] & 0xFF) == 0xFF) {
+      int marker = jpeg[offset + 1] & 0xFF;
+      if (marker == 0xDA) {
+        return null;
+      }
+      int end = offset + 2 + (((jpeg[offset + 2] & 0xFF) << 8) | (jpeg[offset + 3] & 0xFF));
+      if (end > jpeg.length) {
+        return null;
+      }
+      if (marker == 0xE1 && end - offset - 4 >= EXIF_HEADER.length
+          && Arrays.equals(
+              Arrays.copyOfRange(jpeg, offset + 4, offset + 4 + EXIF_HEADER.length),
+              EXIF_HEADER)) {
+        return Arrays.copyOfRange(jpeg, offset, end);
+      }
+      offset = end;
+    }
+    return null;
+  }
+
+  /**
+   * Inserts {@code exif} into a JPEG written by {@link ImageIO}, after its JFIF (APP0) segment if
+   * it has one.
+   */
+  private static byte[] withExif(byte[] jpeg, byte[] exif) {
+    if (exif == null) {
+      return jpeg;
+    }
+    int insertAt = 2;
+    if ((jpeg[2] & 0xFF) == 0xFF && (jpeg[3] & 0xFF) == 0xE0) {
+      insertAt += 2 + (((jpeg[4] & 0xFF) << 8) | (jpeg[5] & 0xFF));
+    }
+    byte[] result = new byte[jpeg.length + exif.length];
+    System.arraycopy(jpeg, 0, result, 0, insertAt);
+    System.arraycopy(exif, 0, result, insertAt, exif.length);
+    System.arraycopy(jpeg, insertAt, result, insertAt + exif.length, jpeg.length - insertAt);
+    return result;
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.vision;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for {@link AnnotationCache}.
+ */
+@RunWith(JUnit4.class)
+public class AnnotationCacheTest {
+  private Path directory;
+
+  @Before
+  public void setUp() throws Exception {
+    directory = Files.createTempDirectory("AnnotationCacheTest");
+  }
+
+  @Test
+  public void key_dependsOnFeatureAndContent() {
+    byte[] image = {1, 2, 3};
+    assertThat(AnnotationCache.key("LABEL_DETECTION", image))
+        .isEqualTo(AnnotationCache.key("LABEL_DETECTION", new byte[] {1, 2, 3}));
+    assertThat(AnnotationCache.key("LABEL_DETECTION", image))
+        .isNotEqualTo(AnnotationCache.key("FACE_DETECTION", image));
+    assertThat(AnnotationCache.key("LABEL_DETECTION", image))
+        .isNotEqualTo(AnnotationCache.key("LABEL_DETECTION", new byte[] {1, 2, 4}));
+  }
+
+  @Test
+  public void get_afterPut_returnsValueAndCountsSavings() throws Exception {
+    AnnotationCache cache = new AnnotationCache(directory, 1024);
+
+    assertThat(cache.get("a", 100)).isNull();
+    cache.put("a", "response".getBytes("UTF-8"));
+
+    assertThat(new String(cache.get("a", 100), "UTF-8")).isEqualTo("response");
+    assertThat(cache.getHits()).isEqualTo(1);
+    assertThat(cache.getMisses()).isEqualTo(1);
+    assertThat(cache.getBytesSaved()).isEqualTo(100);
+  }
+
+  @Test
+  public void put_overLimit_evictsLeastRecentlyUsed() throws Exception {
+    AnnotationCache cache = new AnnotationCache(directory, 20);
+    cache.put("a", new byte[8]);
+    cache.put("b", new byte[8]);
+    // Touch "a" so "b" becomes the least recently used entry.
+    cache.get("a", 0);
+    cache.put("c", new byte[8]);
+
+    assertThat(cache.get("a", 0)).isNotNull();
+    assertThat(cache.get("b", 0)).isNull();
+    assertThat(cache.get("c", 0)).isNotNull();
+    assertThat(cache.getTotalBytes()).isEqualTo(16);
+  }
+
+  @Test
+  public void reopen_keepsEntries() throws Exception {
+    new AnnotationCache(directory, 1024).put("a", new byte[8]);
+
+    AnnotationCache reopened = new AnnotationCache(directory, 1024);
+
+    assertThat(reopened.getTotalBytes()).isEqualTo(8);
+    assertThat(reopened.get("a", 0)).hasLength(8);
+  }
+}
@@ -26,6 +26,9 @@ import com.google.cloud.storage.StorageOptions;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
 
 import org.junit.After;
 import org.junit.Before;
@@ -373,4 +376,41 @@ public class DetectIT {
       blob.delete();
     }
   }
+
+  @Test
+  public void testBatch() throws Exception {
+    // Act
+    Path output = Files.createTempFile("DetectIT", ".jsonl");
+    output.toFile().deleteOnExit();
+    String[] args = {"batch", "./resources", output.toString(), "faces,labels,text"};
+    Detect.argsHelper(args, out);
+
+    // Assert
+    List<String> lines = Files.readAllLines(output);
+    assertThat(lines).hasSize(BatchAnnotator.listImages("./resources").size());
+    assertThat(lines.get(0)).contains("\"response\"");
+    assertThat(bout.toString()).contains("(0 errors)");
+  }
+
+  @Test
+  public void testOcrBatch() throws Exception {
+    // Act
+    Path output = Files.createTempFile("DetectIT", ".jsonl");
+    output.toFile().deleteOnExit();
+    String[] args = {"ocr-batch", "gs://" + BUCKET + "/vision/HodgeConj.pdf",
+        "gs://" + BUCKET + "/" + OUTPUT_PREFIX + "_BATCH/", output.toString()};
+    Detect.argsHelper(args, out);
+
+    // Assert
+    List<String> lines = Files.readAllLines(output);
+    assertThat(lines).isNotEmpty();
+    assertThat(String.join("\n", lines)).contains("Hodge");
+    assertThat(bout.toString()).contains("(0 failed)");
+
+    Storage storage = StorageOptions.getDefaultInstance().getService();
+    for (Blob blob : storage.list(BUCKET, BlobListOption.prefix(OUTPUT_PREFIX + "_BATCH/"))
+        .iterateAll()) {
+      blob.delete();
+    }
+  }
 }
@@ -28,9 +28,12 @@ import com.google.api.services.vision.v1.model.AnnotateImageRequest;
 import com.google.api.services.vision.v1.model.AnnotateImageResponse;
 import com.google.api.services.vision.v1.model.BatchAnnotateImagesRequest;
 import com.google.api.services.vision.v1.model.BatchAnnotateImagesResponse;
+import com.google.api.services.vision.v1.model.BoundingPoly;
 import com.google.api.services.vision.v1.model.FaceAnnotation;
 import com.google.api.services.vision.v1.model.Feature;
 import com.google.api.services.vision.v1.model.Image;
+import com.google.api.services.vision.v1.model.Landmark;
+import com.google.api.services.vision.v1.model.Position;
 import com.google.api.services.vision.v1.model.Vertex;
 import com.google.common.collect.ImmutableList;
 import java.awt.BasicStroke;
@@ -38,6 +41,7 @@ import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.Polygon;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -60,15 +64,20 @@ public class FaceDetectApp {
 
   private static final int MAX_RESULTS = 4;
 
+  // Faces are found reliably at up to about 1600x1200 pixels; larger images only cost upload time.
+  private static final int MAX_DIMENSION = 1600;
+
+  private static final long MAX_CACHE_BYTES = 64L * 1024 * 1024;
+
   // [START main]
   /**
    * Annotates an image using the Vision API.
    */
   public static void main(String[] args) throws IOException, GeneralSecurityException {
-    if (args.length != 2) {
+    if (args.length < 2 || args.length > 3) {
       System.err.println("Usage:");
       System.err.printf(
-          "\tjava %s inputImagePath outputImagePath\n",
+          "\tjava %s inputImagePath outputImagePath [cacheDirectory]\n",
           FaceDetectApp.class.getCanonicalName());
       System.exit(1);
     }
@@ -79,11 +88,16 @@ public class FaceDetectApp {
       System.exit(1);
     }
 
-    FaceDetectApp app = new FaceDetectApp(getVisionService());
+    AnnotationCache cache = args.length > 2
+        ? new AnnotationCache(Paths.get(args[2]), MAX_CACHE_BYTES) : null;
+    FaceDetectApp app = new FaceDetectApp(getVisionService(), cache);
     List<FaceAnnotation> faces = app.detectFaces(inputPath, MAX_RESULTS);
     System.out.printf("Found %d face%s\n", faces.size(), faces.size() == 1 ? "" : "s");
     System.out.printf("Writing to file %s\n", outputPath);
     app.writeWithFaces(inputPath, outputPath, faces);
+    if (cache != null) {
+      System.out.println(cache);
+    }
   }
   // [END main]
 
@@ -102,12 +116,22 @@ public class FaceDetectApp {
   // [END get_vision_service]
 
   private final Vision vision;
+  private final AnnotationCache cache;
 
   /**
    * Constructs a {@link FaceDetectApp} which connects to the Vision API.
    */
   public FaceDetectApp(Vision vision) {
+    this(vision, null);
+  }
+
+  /**
+   * Constructs a {@link FaceDetectApp} which connects to the Vision API and reuses responses from
+   * {@code cache}, which may be {@code null}.
+   */
+  public FaceDetectApp(Vision vision, AnnotationCache cache) {
     this.vision = vision;
+    this.cache = cache;
   }
 
   // [START detect_face]
@@ -115,7 +139,20 @@ public class FaceDetectApp {
    * Gets up to {@code maxResults} faces for an image stored at {@code path}.
    */
   public List<FaceAnnotation> detectFaces(Path path, int maxResults) throws IOException {
-    byte[] data = Files.readAllBytes(path);
+    byte[] original = Files.readAllBytes(path);
+    String cacheKey = AnnotationCache.key("FACE_DETECTION:" + maxResults, original);
+    if (cache != null) {
+      byte[] cached = cache.get(cacheKey, original.length);
+      if (cached != null) {
+        return facesOf(vision.getJsonFactory().fromInputStream(
+            new ByteArrayInputStream(cached), AnnotateImageResponse.class));
+      }
+    }
+    ImageDownscaler.Result scaled = ImageDownscaler.downscale(original, MAX_DIMENSION);
+    byte[] data = scaled.bytes;
+    if (cache != null) {
+      cache.recordUpload(original.length, data.length);
+    }
 
     AnnotateImageRequest request =
         new AnnotateImageRequest()
@@ -133,6 +170,18 @@ public class FaceDetectApp {
     BatchAnnotateImagesResponse batchResponse = annotate.execute();
     assert batchResponse.getResponses().size() == 1;
     AnnotateImageResponse response = batchResponse.getResponses().get(0);
+    List<FaceAnnotation> faces = facesOf(response);
+    // Map positions back onto the original image before they are used or cached.
+    rescale(faces, 1 / scaled.scale);
+    if (cache != null) {
+      cache.put(cacheKey, vision.getJsonFactory().toByteArray(response));
+    }
+    return faces;
+  }
+  // [END detect_face]
+
+  private static List<FaceAnnotation> facesOf(AnnotateImageResponse response)
+      throws IOException {
     if (response.getFaceAnnotations() == null) {
       throw new IOException(
           response.getError() != null
@@ -141,7 +190,44 @@ public class FaceDetectApp {
     }
     return response.getFaceAnnotations();
   }
-  // [END detect_face]
+
+  /**
+   * Multiplies every position in {@code faces} by {@code factor}, for faces detected on a resized
+   * copy of an image.
+   */
+  static void rescale(List<FaceAnnotation> faces, double factor) {
+    if (factor == 1.0) {
+      return;
+    }
+    for (FaceAnnotation face : faces) {
+      rescale(face.getBoundingPoly(), factor);
+      rescale(face.getFdBoundingPoly(), factor);
+      if (face.getLandmarks() != null) {
+        for (Landmark landmark : face.getLandmarks()) {
+          Position position = landmark.getPosition();
+          if (position != null) {
+            position.setX(position.getX() == null ? null : (float) (position.getX() * factor));
+            position.setY(position.getY() == null ? null : (float) (position.getY() * factor));
+          }
+        }
+      }
+    }
+  }
+
+  private static void rescale(BoundingPoly poly, double factor) {
+    if (poly == null || poly.getVertices() == null) {
+      return;
+    }
+    for (Vertex vertex : poly.getVertices()) {
+      // Coordinates of zero are omitted from responses.
+      if (vertex.getX() != null) {
+        vertex.setX((int) Math.round(vertex.getX() * factor));
+      }
+      if (vertex.getY() != null) {
+        vertex.setY((int) Math.round(vertex.getY() * factor));
+      }
+    }
+  }
 
   // [START highlight_faces]
   /**
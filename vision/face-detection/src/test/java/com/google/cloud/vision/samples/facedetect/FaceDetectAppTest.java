@@ -20,6 +20,8 @@ import static com.google.common.truth.Truth.assertThat;
 
 import com.google.api.services.vision.v1.model.BoundingPoly;
 import com.google.api.services.vision.v1.model.FaceAnnotation;
+import com.google.api.services.vision.v1.model.Landmark;
+import com.google.api.services.vision.v1.model.Position;
 import com.google.api.services.vision.v1.model.Vertex;
 import com.google.common.collect.ImmutableList;
 import java.awt.image.BufferedImage;
@@ -77,4 +79,31 @@ public class FaceDetectAppTest {
         .named("img face #2 vertex (50, 60) green channel")
         .isEqualTo(0x00ff00);
   }
+
+  @Test public void rescale_halfSizeImage_doublesPositions() throws Exception {
+    // Arrange
+    ImmutableList<FaceAnnotation> faces =
+        ImmutableList.of(
+            new FaceAnnotation()
+                .setFdBoundingPoly(
+                    new BoundingPoly().setVertices(ImmutableList.of(
+                        new Vertex().setX(10).setY(5),
+                        new Vertex().setY(25))))
+                .setLandmarks(ImmutableList.of(
+                    new Landmark().setPosition(new Position().setX(3.5f).setY(4f)))));
+
+    // Act
+    FaceDetectApp.rescale(faces, 2.0);
+
+    // Assert
+    Vertex first = faces.get(0).getFdBoundingPoly().getVertices().get(0);
+    Vertex second = faces.get(0).getFdBoundingPoly().getVertices().get(1);
+    Position position = faces.get(0).getLandmarks().get(0).getPosition();
+    assertThat(first.getX()).isEqualTo(20);
+    assertThat(first.getY()).isEqualTo(10);
+    assertThat(second.getX()).isNull();
+    assertThat(second.getY()).isEqualTo(50);
+    assertThat(position.getX()).isEqualTo(7f);
+    assertThat(position.getY()).isEqualTo(8f);
+  }
 }
@@ -32,6 +32,7 @@ import com.google.api.services.vision.v1.model.EntityAnnotation;
 import com.google.api.services.vision.v1.model.Feature;
 import com.google.api.services.vision.v1.model.Image;
 import com.google.common.collect.ImmutableList;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.nio.file.Files;
@@ -54,21 +55,32 @@ public class LabelApp {
 
   private static final int MAX_LABELS = 3;
 
+  // Labels gain nothing from more than about 640x480 pixels.
+  private static final int MAX_DIMENSION = 640;
+
+  private static final long MAX_CACHE_BYTES = 64L * 1024 * 1024;
+
   // [START run_application]
   /**
    * Annotates an image using the Vision API.
    */
   public static void main(String[] args) throws IOException, GeneralSecurityException {
-    if (args.length != 1) {
+    if (args.length < 1 || args.length > 2) {
       System.err.println("Missing imagePath argument.");
       System.err.println("Usage:");
-      System.err.printf("\tjava %s imagePath\n", LabelApp.class.getCanonicalName());
+      System.err.printf("\tjava %s imagePath [cacheDirectory]\n",
+          LabelApp.class.getCanonicalName());
       System.exit(1);
     }
     Path imagePath = Paths.get(args[0]);
 
-    LabelApp app = new LabelApp(getVisionService());
+    AnnotationCache cache = args.length > 1
+        ? new AnnotationCache(Paths.get(args[1]), MAX_CACHE_BYTES) : null;
+    LabelApp app = new LabelApp(getVisionService(), cache);
     printLabels(System.out, imagePath, app.labelImage(imagePath, MAX_LABELS));
+    if (cache != null) {
+      System.out.println(cache);
+    }
   }
 
   /**
@@ -103,12 +115,22 @@ public class LabelApp {
   // [END authenticate]
 
   private final Vision vision;
+  private final AnnotationCache cache;
 
   /**
    * Constructs a {@link LabelApp} which connects to the Vision API.
    */
   public LabelApp(Vision vision) {
+    this(vision, null);
+  }
+
+  /**
+   * Constructs a {@link LabelApp} which connects to the Vision API and reuses responses from
+   * {@code cache}, which may be {@code null}.
+   */
+  public LabelApp(Vision vision, AnnotationCache cache) {
     this.vision = vision;
+    this.cache = cache;
   }
 
   /**
@@ -116,7 +138,20 @@ public class LabelApp {
    */
   public List<EntityAnnotation> labelImage(Path path, int maxResults) throws IOException {
     // [START construct_request]
-    byte[] data = Files.readAllBytes(path);
+    byte[] original = Files.readAllBytes(path);
+    String cacheKey = AnnotationCache.key("LABEL_DETECTION:" + maxResults, original);
+    if (cache != null) {
+      byte[] cached = cache.get(cacheKey, original.length);
+      if (cached != null) {
+        // Only responses with labels are cached.
+        return vision.getJsonFactory().fromInputStream(
+            new ByteArrayInputStream(cached), AnnotateImageResponse.class).getLabelAnnotations();
+      }
+    }
+    byte[] data = ImageDownscaler.downscale(original, MAX_DIMENSION).bytes;
+    if (cache != null) {
+      cache.recordUpload(original.length, data.length);
+    }
 
     AnnotateImageRequest request =
         new AnnotateImageRequest()
@@ -142,6 +177,9 @@ public class LabelApp {
               ? response.getError().getMessage()
               : "Unknown error getting image annotations");
     }
+    if (cache != null) {
+      cache.put(cacheKey, vision.getJsonFactory().toByteArray(response));
+    }
     return response.getLabelAnnotations();
     // [END parse_response]
   }
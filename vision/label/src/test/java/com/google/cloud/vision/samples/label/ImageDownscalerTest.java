@@ -0,0 +1,122 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.vision.samples.label;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+import javax.imageio.ImageIO;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for {@link ImageDownscaler}.
+ */
+@RunWith(JUnit4.class)
+public class ImageDownscalerTest {
+
+  @Test public void downscale_largeImage_shrinksLongestSide() throws Exception {
+    // Arrange
+    BufferedImage large = new BufferedImage(2000, 1000, BufferedImage.TYPE_INT_RGB);
+    ByteArrayOutputStream png = new ByteArrayOutputStream();
+    ImageIO.write(large, "png", png);
+
+    // Act
+    ImageDownscaler.Result result = ImageDownscaler.downscale(png.toByteArray(), 640);
+
+    // Assert
+    BufferedImage scaled = ImageIO.read(new ByteArrayInputStream(result.bytes));
+    assertThat(scaled.getWidth()).isEqualTo(640);
+    assertThat(scaled.getHeight()).isEqualTo(320);
+    assertThat(result.scale).isWithin(1e-9).of(0.32);
+  }
+
+  @Test public void downscale_notAnImage_returnsOriginal() throws Exception {
+    // Arrange
+    byte[] text = Files.readAllBytes(Paths.get("data/bad.txt"));
+
+    // Act
+    ImageDownscaler.Result result = ImageDownscaler.downscale(text, 640);
+
+    // Assert
+    assertThat(result.bytes).isEqualTo(text);
+    assertThat(result.scale).isEqualTo(1.0);
+  }
+
+  @Test public void downscale_smallImage_returnsOriginal() throws Exception {
+    // Arrange
+    BufferedImage small = new BufferedImage(320, 200, BufferedImage.TYPE_INT_RGB);
+    ByteArrayOutputStream png = new ByteArrayOutputStream();
+    ImageIO.write(small, "png", png);
+
+    // Act
+    ImageDownscaler.Result result = ImageDownscaler.downscale(png.toByteArray(), 640);
+
+    // Assert
+    assertThat(result.bytes).isEqualTo(png.toByteArray());
+    assertThat(result.scale).isEqualTo(1.0);
+  }
+
+  @Test public void downscale_undecodableImage_returnsOriginal() throws Exception {
+    // Arrange: a PNG signature followed by garbage, so a reader is found but cannot decode it.
+    byte[] corrupt = new byte[64];
+    System.arraycopy(new byte[] {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'}, 0,
+        corrupt, 0, 8);
+
+    // Act
+    ImageDownscaler.Result result = ImageDownscaler.downscale(corrupt, 640);
+
+    // Assert
+    assertThat(result.bytes).isEqualTo(corrupt);
+    assertThat(result.scale).isEqualTo(1.0);
+  }
+
+  @Test public void downscale_jpegWithExif_keepsExifSegment() throws Exception {
+    // Arrange: a noisy JPEG, so the downscaled copy is smaller, with an orientation tag added.
+    BufferedImage large = new BufferedImage(2000, 1000, BufferedImage.TYPE_INT_RGB);
+    Random random = new Random(42);
+    for (int y = 0; y < large.getHeight(); y++) {
+      for (int x = 0; x < large.getWidth(); x++) {
+        large.setRGB(x, y, random.nextInt());
+      }
+    }
+    ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+    ImageIO.write(large, "jpeg", jpeg);
+    byte[] exif = {(byte) 0xFF, (byte) 0xE1, 0, 34, 'E', 'x', 'i', 'f', 0, 0,
+        'M', 'M', 0, 42, 0, 0, 0, 8, 0, 1, 1, 18, 0, 3, 0, 0, 0, 1, 0, 6, 0, 0, 0, 0, 0, 0};
+    byte[] plain = jpeg.toByteArray();
+    byte[] original = new byte[plain.length + exif.length];
+    System.arraycopy(plain, 0, original, 0, 2);
+    System.arraycopy(exif, 0, original, 2, exif.length);
+    System.arraycopy(plain, 2, original, 2 + exif.length, plain.length - 2);
+
+    // Act
+    ImageDownscaler.Result result = ImageDownscaler.downscale(original, 640);
+
+    // Assert
+    assertThat(result.scale).isWithin(1e-9).of(0.32);
+    assertThat(ImageDownscaler.exifSegment(result.bytes)).isEqualTo(exif);
+    BufferedImage scaled = ImageIO.read(new ByteArrayInputStream(result.bytes));
+    assertThat(scaled.getWidth()).isEqualTo(640);
+  }
+}
@@ -28,19 +28,25 @@ import com.google.api.services.vision.v1.model.AnnotateImageRequest;
 import com.google.api.services.vision.v1.model.AnnotateImageResponse;
 import com.google.api.services.vision.v1.model.BatchAnnotateImagesRequest;
 import com.google.api.services.vision.v1.model.BatchAnnotateImagesResponse;
+import com.google.api.services.vision.v1.model.BoundingPoly;
 import com.google.api.services.vision.v1.model.EntityAnnotation;
 import com.google.api.services.vision.v1.model.Feature;
 import com.google.api.services.vision.v1.model.Image;
 import com.google.api.services.vision.v1.model.ImageSource;
+import com.google.api.services.vision.v1.model.Vertex;
 import com.google.common.collect.ImmutableList;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.security.GeneralSecurityException;
 import java.util.List;
 // [END import_libraries]
 
 /**
  * A sample application that uses the Vision API to detect landmarks in an image that is hosted on
- * Google Cloud Storage.
+ * Google Cloud Storage or stored locally.
  */
 @SuppressWarnings("serial")
 public class DetectLandmark {
@@ -52,27 +58,38 @@ public class DetectLandmark {
 
   private static final int MAX_RESULTS = 4;
 
+  // Landmarks gain nothing from more than about 640x480 pixels.
+  private static final int MAX_DIMENSION = 640;
+
+  private static final long MAX_CACHE_BYTES = 64L * 1024 * 1024;
+
   // [START run_application]
   /**
    * Annotates an image using the Vision API.
    */
   public static void main(String[] args) throws IOException, GeneralSecurityException {
-    if (args.length != 1) {
+    if (args.length < 1 || args.length > 2) {
       System.err.println("Usage:");
       System.err.printf("\tjava %s gs://<bucket_name>/<object_name>\n",
           DetectLandmark.class.getCanonicalName());
-      System.exit(1);
-    } else if (!args[0].toLowerCase().startsWith("gs://")) {
-      System.err.println("Google Cloud Storage url must start with 'gs://'.");
+      System.err.printf("\tjava %s <local_image_path> [cacheDirectory]\n",
+          DetectLandmark.class.getCanonicalName());
       System.exit(1);
     }
 
-    DetectLandmark app = new DetectLandmark(getVisionService());
-    List<EntityAnnotation> landmarks = app.identifyLandmark(args[0], MAX_RESULTS);
+    AnnotationCache cache = args.length > 1
+        ? new AnnotationCache(Paths.get(args[1]), MAX_CACHE_BYTES) : null;
+    DetectLandmark app = new DetectLandmark(getVisionService(), cache);
+    List<EntityAnnotation> landmarks = args[0].toLowerCase().startsWith("gs://")
+        ? app.identifyLandmark(args[0], MAX_RESULTS)
+        : app.identifyLandmark(Paths.get(args[0]), MAX_RESULTS);
     System.out.printf("Found %d landmark%s\n", landmarks.size(), landmarks.size() == 1 ? "" : "s");
     for (EntityAnnotation annotation : landmarks) {
       System.out.printf("\t%s\n", annotation.getDescription());
     }
+    if (cache != null) {
+      System.out.println(cache);
+    }
   }
   // [END run_application]
 
@@ -92,12 +109,22 @@ public class DetectLandmark {
 
   // [START detect_gcs_object]
   private final Vision vision;
+  private final AnnotationCache cache;
 
   /**
    * Constructs a {@link DetectLandmark} which connects to the Vision API.
    */
   public DetectLandmark(Vision vision) {
+    this(vision, null);
+  }
+
+  /**
+   * Constructs a {@link DetectLandmark} which connects to the Vision API and reuses responses for
+   * local images from {@code cache}, which may be {@code null}.
+   */
+  public DetectLandmark(Vision vision, AnnotationCache cache) {
     this.vision = vision;
+    this.cache = cache;
   }
 
   /**
@@ -112,6 +139,47 @@ public class DetectLandmark {
                 new Feature()
                     .setType("LANDMARK_DETECTION")
                     .setMaxResults(maxResults)));
+    return landmarksOf(annotate(request));
+  }
+  // [END detect_gcs_object]
+
+  /**
+   * Gets up to {@code maxResults} landmarks for a local image stored at {@code path}. The image is
+   * downscaled before it is uploaded, and responses are cached by image content.
+   */
+  public List<EntityAnnotation> identifyLandmark(Path path, int maxResults) throws IOException {
+    byte[] original = Files.readAllBytes(path);
+    String cacheKey = AnnotationCache.key("LANDMARK_DETECTION:" + maxResults, original);
+    if (cache != null) {
+      byte[] cached = cache.get(cacheKey, original.length);
+      if (cached != null) {
+        return landmarksOf(vision.getJsonFactory().fromInputStream(
+            new ByteArrayInputStream(cached), AnnotateImageResponse.class));
+      }
+    }
+    ImageDownscaler.Result scaled = ImageDownscaler.downscale(original, MAX_DIMENSION);
+    if (cache != null) {
+      cache.recordUpload(original.length, scaled.bytes.length);
+    }
+
+    AnnotateImageRequest request =
+        new AnnotateImageRequest()
+            .setImage(new Image().encodeContent(scaled.bytes))
+            .setFeatures(ImmutableList.of(
+                new Feature()
+                    .setType("LANDMARK_DETECTION")
+                    .setMaxResults(maxResults)));
+    AnnotateImageResponse response = annotate(request);
+    List<EntityAnnotation> landmarks = landmarksOf(response);
+    // Map bounding boxes back onto the original image before they are used or cached.
+    rescale(landmarks, 1 / scaled.scale);
+    if (cache != null) {
+      cache.put(cacheKey, vision.getJsonFactory().toByteArray(response));
+    }
+    return landmarks;
+  }
+
+  private AnnotateImageResponse annotate(AnnotateImageRequest request) throws IOException {
     Vision.Images.Annotate annotate =
         vision.images()
             .annotate(new BatchAnnotateImagesRequest().setRequests(ImmutableList.of(request)));
@@ -120,7 +188,11 @@ public class DetectLandmark {
 
     BatchAnnotateImagesResponse batchResponse = annotate.execute();
     assert batchResponse.getResponses().size() == 1;
-    AnnotateImageResponse response = batchResponse.getResponses().get(0);
+    return batchResponse.getResponses().get(0);
+  }
+
+  private static List<EntityAnnotation> landmarksOf(AnnotateImageResponse response)
+      throws IOException {
     if (response.getLandmarkAnnotations() == null) {
       throw new IOException(
           response.getError() != null
@@ -129,5 +201,25 @@ public class DetectLandmark {
     }
     return response.getLandmarkAnnotations();
   }
-  // [END detect_gcs_object]
+
+  private static void rescale(List<EntityAnnotation> landmarks, double factor) {
+    if (factor == 1.0) {
+      return;
+    }
+    for (EntityAnnotation landmark : landmarks) {
+      BoundingPoly poly = landmark.getBoundingPoly();
+      if (poly == null || poly.getVertices() == null) {
+        continue;
+      }
+      for (Vertex vertex : poly.getVertices()) {
+        // Coordinates of zero are omitted from responses.
+        if (vertex.getX() != null) {
+          vertex.setX((int) Math.round(vertex.getX() * factor));
+        }
+        if (vertex.getY() != null) {
+          vertex.setY((int) Math.round(vertex.getY() * factor));
+        }
+      }
+    }
+  }
 }